@@ -0,0 +1,375 @@
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Measures loading of Graph and shortestPathDijkstra(...) and writes the
+ *results to a JSON file, so the results of different commits can be
+ *compared:
+ *	java Benchmark [-maps directory] [-sizes n,n,...] [-warmup n]
+ *		[-iterations n] [-label text] [-out file]
+ *The maps are map7.bmp and map11.bmp of the given directory(the current
+ *one by default) and generated square maps of the given sizes(1024,2048 by
+ *default). Every map is loaded from BMP, HM and MAP files(the HM and MAP
+ *files are written to a temporary directory first), and then three fixed
+ *query sets are searched on it: short(the destination at most 32 pixels
+ *from the start in both directions), long(at least a quarter of the width
+ *plus the height apart) and unreachable(the destination in another
+ *component than the start). The queries depend only on the map and a fixed
+ *seed, so they are the same in every run.
+ * Every benchmark runs warmup iterations first, which are not measured,
+ *and then the measured iterations; an iteration of a loading benchmark
+ *loads the map once, an iteration of a query benchmark searches the whole
+ *query set. The JSON file has the mean, minimum, maximum and standard
+ *deviation of the time of one operation(a loading or a query) in
+ *milliseconds.
+ * @author dqdo
+ * @version 1.0
+ */
+public class Benchmark {
+
+	private static final long SEED = 20160627L;
+	private static final int SHORT_RANGE = 32;
+	private static final int SHORT_QUERIES = 32;
+	private static final int LONG_QUERIES = 8;
+	private static final int UNREACHABLE_QUERIES = 4;
+	// The number of random pairs tried for a query set before it is given up.
+	private static final int ATTEMPTS = 100000;
+
+	// The results of the searches are summed here, so the JIT can not
+	//remove them as unused.
+	private static volatile long sink;
+
+	private final int warmup;
+	private final int iterations;
+	private final List<String> results = new ArrayList<String>();
+
+	private Benchmark(int warmup, int iterations) {
+		this.warmup = warmup;
+		this.iterations = iterations;
+	}
+
+	public static void main(String[] args) {
+		File mapsDirectory = new File(".");
+		int[] sizes = {1024, 2048};
+		int warmup = 3, iterations = 5;
+		String label = "";
+		File out = new File("benchmark.json");
+
+		try {
+			for(int i = 0;i < args.length;i++) {
+				if(args[i].equals("-maps")) {
+					mapsDirectory = new File(args[++i]);
+				}else if(args[i].equals("-sizes")) {
+					String[] parts = args[++i].split(",");
+					sizes = new int[parts.length];
+					for(int j = 0;j < parts.length;j++) {
+						sizes[j] = Integer.parseInt(parts[j].trim());
+					}
+				}else if(args[i].equals("-warmup")) {
+					warmup = Integer.parseInt(args[++i]);
+				}else if(args[i].equals("-iterations")) {
+					iterations = Integer.parseInt(args[++i]);
+				}else if(args[i].equals("-label")) {
+					label = args[++i];
+				}else if(args[i].equals("-out")) {
+					out = new File(args[++i]);
+				}else {
+					throw new IllegalArgumentException("Unknown argument " + args[i]);
+				}
+			}
+			if((warmup < 0) || (iterations < 1)) {
+				throw new IllegalArgumentException("There must be at least one iteration!");
+			}
+		}catch(ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+			System.err.println("Usage: java Benchmark [-maps directory] [-sizes n,n,...] "
+					+ "[-warmup n] [-iterations n] [-label text] [-out file]");
+			return;
+		}
+
+		try {
+			File work = new File(System.getProperty("java.io.tmpdir"), "maptracing-benchmark");
+			if(!work.isDirectory() && !work.mkdirs()) {
+				throw new IOException("Problem with creating directory " + work.getAbsolutePath());
+			}
+
+			List<File> images = new ArrayList<File>();
+			for(String name : new String[] {"map7.bmp", "map11.bmp"}) {
+				File image = new File(mapsDirectory, name);
+				if(image.isFile()) {
+					images.add(image);
+				}else {
+					System.err.println("Skipped " + image.getPath() + ", there is no such file.");
+				}
+			}
+			for(int size : sizes) {
+				File image = new File(work, "generated" + size + ".bmp");
+				if(!image.isFile()) {
+					ImageIO.write(generate(size, size), "bmp", image);
+				}
+				images.add(image);
+			}
+
+			Benchmark benchmark = new Benchmark(warmup, iterations);
+			for(File image : images) {
+				benchmark.run(image, work);
+			}
+			benchmark.write(out, label);
+			System.out.println("The results are in " + out.getPath());
+		}catch(IOException e) {
+			System.err.println("Benchmark failed: " + e.getMessage());
+		}
+	}
+
+	// Runs all the benchmarks of one map.
+	private void run(File image, File work) throws IOException {
+		String name = image.getName();
+		name = name.substring(0, name.lastIndexOf('.'));
+
+		File hmap = Map.createHMap(image, new File(work, name + ".hmap"), 0, 0, 0);
+		File map = Map.createMap(image, new File(work, name + ".map"), 0, 0, 0);
+		measureLoading(name, "bmp", image);
+		measureLoading(name, "hm", hmap);
+		measureLoading(name, "map", map);
+
+		Graph graph = new Graph(image, 0, 0, 0);
+		int[] components = components(graph);
+		Random random = new Random(SEED);
+		measureQueries(name, "short", graph, shortQueries(graph, components, random));
+		measureQueries(name, "long", graph, longQueries(graph, components, random));
+		measureQueries(name, "unreachable", graph, unreachableQueries(graph, components, random));
+	}
+
+	private void measureLoading(String map, String format, File file) {
+		double[] times = new double[iterations];
+		for(int i = -warmup;i < iterations;i++) {
+			long start = System.nanoTime();
+			Graph graph = new Graph(file, 0, 0, 0);
+			long time = System.nanoTime() - start;
+			sink += graph.getSize();
+			if(i >= 0) times[i] = time/1e6;
+		}
+		addResult("load", map, "format", format, 1, times);
+	}
+
+	private void measureQueries(String map, String set, Graph graph, Point[][] queries) {
+		if(queries.length == 0) {
+			System.out.println(map + " " + set + ": skipped, no such queries");
+			return;
+		}
+		double[] times = new double[iterations];
+		for(int i = -warmup;i < iterations;i++) {
+			long start = System.nanoTime();
+			for(Point[] query : queries) {
+				Point[] path = graph.shortestPathDijkstra(query[0], query[1]);
+				sink += (path == null)? -1 : path.length;
+			}
+			long time = System.nanoTime() - start;
+			if(i >= 0) times[i] = time/1e6/queries.length;
+		}
+		addResult("dijkstra", map, "queries", set, queries.length, times);
+	}
+
+	// Adds the JSON object of one benchmark to the results and prints it.
+	private void addResult(String benchmark, String map, String key, String value,
+			int operations, double[] times) {
+		double sum = 0, min = Double.POSITIVE_INFINITY, max = 0;
+		for(double time : times) {
+			sum += time;
+			min = Math.min(min, time);
+			max = Math.max(max, time);
+		}
+		double mean = sum/times.length;
+		double squares = 0;
+		for(double time : times) {
+			squares += (time - mean)*(time - mean);
+		}
+		double stdev = (times.length > 1)? Math.sqrt(squares/(times.length - 1)) : 0;
+
+		results.add(String.format(Locale.ROOT, "{\"benchmark\": %s, \"map\": %s, %s: %s, "
+				+ "\"operations\": %d, \"iterations\": %d, \"unit\": \"ms/op\", "
+				+ "\"mean\": %.6f, \"min\": %.6f, \"max\": %.6f, \"stdev\": %.6f}",
+				quote(benchmark), quote(map), quote(key), quote(value),
+				operations, times.length, mean, min, max, stdev));
+		System.out.println(String.format(Locale.ROOT, "%s %s %s: %.3f ms/op (min %.3f, max %.3f)",
+				benchmark, map, value, mean, min, max));
+	}
+
+	private void write(File out, String label) throws IOException {
+		StringBuilder json = new StringBuilder();
+		json.append("{\n");
+		json.append("  \"label\": ").append(quote(label)).append(",\n");
+		json.append("  \"timestamp\": ").append(System.currentTimeMillis()).append(",\n");
+		json.append("  \"java\": ").append(quote(System.getProperty("java.version"))).append(",\n");
+		json.append("  \"processors\": ").append(Runtime.getRuntime().availableProcessors()).append(",\n");
+		json.append("  \"warmup\": ").append(warmup).append(",\n");
+		json.append("  \"results\": [\n");
+		for(int i = 0;i < results.size();i++) {
+			json.append("    ").append(results.get(i));
+			json.append((i < results.size() - 1)? ",\n" : "\n");
+		}
+		json.append("  ]\n}\n");
+
+		Writer writer = new OutputStreamWriter(new FileOutputStream(out), Charset.forName("UTF-8"));
+		try {
+			writer.write(json.toString());
+		}finally {
+			writer.close();
+		}
+	}
+
+	private static String quote(String text) {
+		StringBuilder quoted = new StringBuilder("\"");
+		for(int i = 0;i < text.length();i++) {
+			char ch = text.charAt(i);
+			if((ch == '"') || (ch == '\\')) {
+				quoted.append('\\').append(ch);
+			}else if(ch < ' ') {
+				quoted.append(String.format("\\u%04x", (int)ch));
+			}else {
+				quoted.append(ch);
+			}
+		}
+		return quoted.append('"').toString();
+	}
+
+	// Labels every vertex with the index of its component plus one, 0 for
+	//null vertices; a breadth first search from every vertex not labelled
+	//yet. The heirs of the graph are symmetric, so it is enough.
+	private static int[] components(Graph graph) {
+		int[] components = new int[graph.getSize()];
+		int[] queue = new int[graph.getSize()];
+		int[] heirsOut = new int[8]; float[] weightsOut = new float[8];
+		int label = 0;
+		for(int v = 0;v < components.length;v++) {
+			if((components[v] != 0) || !graph.hasVertex(v)) continue;
+			label++;
+			int head = 0, tail = 0;
+			queue[tail++] = v;
+			components[v] = label;
+			while(head < tail) {
+				int count = graph.expand(queue[head++], heirsOut, weightsOut);
+				for(int e = 0;e < count;e++) {
+					if(components[heirsOut[e]] == 0) {
+						components[heirsOut[e]] = label;
+						queue[tail++] = heirsOut[e];
+					}
+				}
+			}
+		}
+		return components;
+	}
+
+	private static Point[][] shortQueries(Graph graph, int[] components, Random random) {
+		List<Point[]> queries = new ArrayList<Point[]>();
+		int width = graph.getWidth(), height = graph.getHeight();
+		for(int a = 0;(a < ATTEMPTS) && (queries.size() < SHORT_QUERIES);a++) {
+			int from = random.nextInt(graph.getSize());
+			int x = from%width + random.nextInt(2*SHORT_RANGE + 1) - SHORT_RANGE;
+			int y = from/width + random.nextInt(2*SHORT_RANGE + 1) - SHORT_RANGE;
+			if((x < 0) || (y < 0) || (x >= width) || (y >= height)) continue;
+			int to = y*width + x;
+			if((components[from] != 0) && (components[from] == components[to])) {
+				queries.add(query(graph, from, to));
+			}
+		}
+		return queries.toArray(new Point[queries.size()][]);
+	}
+
+	private static Point[][] longQueries(Graph graph, int[] components, Random random) {
+		List<Point[]> queries = new ArrayList<Point[]>();
+		int width = graph.getWidth();
+		int distance = (graph.getWidth() + graph.getHeight())/4;
+		for(int a = 0;(a < ATTEMPTS) && (queries.size() < LONG_QUERIES);a++) {
+			int from = random.nextInt(graph.getSize());
+			int to = random.nextInt(graph.getSize());
+			if((components[from] == 0) || (components[from] != components[to])) continue;
+			if(Math.abs(from%width - to%width) + Math.abs(from/width - to/width) >= distance) {
+				queries.add(query(graph, from, to));
+			}
+		}
+		return queries.toArray(new Point[queries.size()][]);
+	}
+
+	// The start is in the greater of the two components, so the search
+	//settles as much as it can before it gives up.
+	private static Point[][] unreachableQueries(Graph graph, int[] components, Random random) {
+		List<Point[]> queries = new ArrayList<Point[]>();
+		int labels = 0;
+		for(int label : components) labels = Math.max(labels, label);
+		int[] sizes = new int[labels + 1];
+		for(int label : components) sizes[label]++;
+		for(int a = 0;(a < ATTEMPTS) && (queries.size() < UNREACHABLE_QUERIES);a++) {
+			int from = random.nextInt(graph.getSize());
+			int to = random.nextInt(graph.getSize());
+			if((components[from] != 0) && (components[to] != 0)
+					&& (components[from] != components[to])) {
+				if(sizes[components[from]] < sizes[components[to]]) {
+					queries.add(query(graph, to, from));
+				}else {
+					queries.add(query(graph, from, to));
+				}
+			}
+		}
+		return queries.toArray(new Point[queries.size()][]);
+	}
+
+	private static Point[] query(Graph graph, int from, int to) {
+		int width = graph.getWidth();
+		return new Point[] {new Point(from%width, from/width), new Point(to%width, to/width)};
+	}
+
+	/**
+	 * Generates a map of the given size: squares of 16x16 pixels of random
+	 *colours, black walls every 128 pixels with a gap in every square of
+	 *128x128 pixels, and a black ring in the middle which nothing outside
+	 *can reach. The same size gives the same map.
+	 * @param width
+	 * @param height
+	 * @return the map.
+	 */
+	static BufferedImage generate(int width, int height) {
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+		Random random = new Random(SEED + width*31L + height);
+		int[] row = new int[width];
+		int[] colours = new int[(width/16 + 1)*(height/16 + 1)];
+		for(int i = 0;i < colours.length;i++) {
+			// Never black, which is forbidden.
+			colours[i] = (random.nextInt(255) + 1) << 16 | random.nextInt(256) << 8
+					| random.nextInt(256);
+		}
+		int[] gaps = new int[(width/128 + 1)*(height/128 + 1)];
+		for(int i = 0;i < gaps.length;i++) {
+			gaps[i] = 8 + random.nextInt(112);
+		}
+		int ring = Math.min(width, height)/8;
+		int cx = width/2, cy = height/2;
+		for(int y = 0;y < height;y++) {
+			Arrays.fill(row, 0);
+			for(int x = 0;x < width;x++) {
+				int cell = (y/128)*(width/128 + 1) + x/128;
+				boolean wall = ((x%128 == 127) && (Math.abs(y%128 - gaps[cell]) > 4))
+						|| ((y%128 == 127) && (Math.abs(x%128 - gaps[cell]) > 4));
+				int dx = Math.abs(x - cx), dy = Math.abs(y - cy);
+				boolean onRing = (Math.max(dx, dy) >= ring) && (Math.max(dx, dy) < ring + 3);
+				if(!wall && !onRing) {
+					row[x] = colours[(y/16)*(width/16 + 1) + x/16];
+				}
+			}
+			image.setRGB(0, y, width, 1, row, 0, width);
+		}
+		return image;
+	}
+}
@@ -0,0 +1,151 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Decodes a binary map file(see Map.createMap(...)) into compressed sparse
+ *row(CSR) arrays(see CsrBuilder). The file is mapped into memory with
+ *FileChannel.map(...) and read in place as big endian integers, so there is
+ *no buffer to copy the file into and nothing is boxed:
+ *|MAP|width| |height|, then for every vertex
+ *|vertIndex+1|heir1+1|weight1|...|heirN+1|weightN|0|.
+ * The file is read twice: the first pass finds where the record of every
+ *vertex is and how many heirs it has, so the arrays are allocated once with
+ *their final sizes; the second pass copies the heirs and the weights on
+ *their places. If a vertex has more records, the last one counts, the same
+ *way CsrBuilder does.
+ * Implementation notes: the time complexity cost is O(V + E); besides the
+ *CSR arrays, it takes 4 bytes per vertex for the time of decoding. The
+ *mapping is released when it is garbage collected, not when the method
+ *returns.
+ * @author dqdo
+ * @version 1.0
+ */
+class BinaryMapDecoder {
+
+	// |MAP|width| |height|
+	static final int HEADER_LENGTH = 12;
+
+	// The number of vertices no matter null or not.
+	private final int size;
+
+	private int[] offsets;
+	private int[] heirs;
+	private float[] weights;
+	private int verticesNumber;
+
+	/**
+	 * @param size - the number of vertices no matter null or not, i.e.
+	 *width*height of the header.
+	 */
+	BinaryMapDecoder(int size) {
+		this.size = size;
+	}
+
+	/**
+	 * Decodes the given file.
+	 * @param binaryMapFile
+	 * @throws IOException if the file can not be read.
+	 * @throws IllegalArgumentException if the file is truncated or has a
+	 *vertex or a heir out of the map; the message tells its byte position.
+	 */
+	void decode(File binaryMapFile) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(binaryMapFile, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			long length = channel.size() - HEADER_LENGTH;
+			if((length < 0) || (length % 4 != 0) || (length > Integer.MAX_VALUE)) {
+				throw new IllegalArgumentException(
+						"The length of the map " + channel.size() + " is not valid!");
+			}
+			MappedByteBuffer mapped =
+					channel.map(FileChannel.MapMode.READ_ONLY, HEADER_LENGTH, length);
+			decode(mapped.asIntBuffer());
+		}finally {
+			file.close();
+		}
+	}
+
+	int[] getOffsets() {
+		return offsets;
+	}
+
+	int[] getHeirs() {
+		return heirs;
+	}
+
+	float[] getWeights() {
+		return weights;
+	}
+
+	int getVerticesNumber() {
+		return verticesNumber;
+	}
+
+	// Decodes the records; data begins right after the header.
+	private void decode(IntBuffer data) {
+		int n = data.limit();
+
+		// recordAt[v] is the position of the first heir of the last record
+		//of v, or -1; offsets[v+1] is the number of its heirs.
+		int[] recordAt = new int[size];
+		Arrays.fill(recordAt, -1);
+		offsets = new int[size + 1];
+
+		int i = 0;
+		while(i < n) {
+			int vertIndex = data.get(i) - 1;
+			if((vertIndex < 0) || (vertIndex >= size)) {
+				throw new IllegalArgumentException(
+						"The vertex " + vertIndex + " at the byte " + bytePosition(i)
+						+ " is out of the map!");
+			}
+			i++;
+			int first = i, count = 0;
+			int heir;
+			while(true) {
+				if(i >= n) {
+					throw new IllegalArgumentException(
+							"The map is truncated at the byte " + bytePosition(i) + "!");
+				}
+				if((heir = data.get(i)) == 0) break;
+				if((heir - 1 < 0) || (heir - 1 >= size) || (i + 1 >= n)) {
+					throw new IllegalArgumentException(
+							"The heir " + (heir - 1) + " at the byte " + bytePosition(i)
+							+ " is out of the map or has no weight!");
+				}
+				i += 2;
+				count++;
+			}
+			i++;// The zero at the end of the record.
+			recordAt[vertIndex] = first;
+			offsets[vertIndex+1] = count;
+		}
+
+		int number = 0;
+		for(int v = 0;v < size;v++) {
+			if(offsets[v+1] != 0) number++;
+			offsets[v+1] += offsets[v];
+		}
+		verticesNumber = number;
+
+		heirs = new int[offsets[size]];
+		weights = new float[offsets[size]];
+		for(int v = 0;v < size;v++) {
+			int j = recordAt[v];
+			for(int e = offsets[v];e < offsets[v+1];e++, j += 2) {
+				heirs[e] = data.get(j) - 1;
+				weights[e] = Float.intBitsToFloat(data.get(j+1));
+			}
+		}
+	}
+
+	// The position in the file of the integer i of the data.
+	private static long bytePosition(int i) {
+		return HEADER_LENGTH + 4L*i;
+	}
+}
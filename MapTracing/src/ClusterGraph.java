@@ -0,0 +1,509 @@
+import java.awt.Point;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Implements hierarchical path finding (HPA*, A. Botea, M. Muller,
+ *J. Schaeffer, Near optimal hierarchical path-finding, 2004) over a Graph.
+ * The map is split into square clusters of clusterSize x clusterSize
+ *pixels. Some of the vertices with an edge into another cluster are chosen
+ *as entrance nodes; they form an abstract graph together with the chosen
+ *edges between the clusters and with an edge between every two entrance
+ *nodes of a cluster, weighted with the distance between them inside the
+ *cluster. A query connects the start and the destination with the
+ *entrance nodes of their clusters, searches the small abstract graph, and
+ *then refines every abstract edge into pixels with a search inside its
+ *cluster. So the result is a Point[] path the same way as from
+ *Graph.shortestPathDijkstra(...).
+ * The entrance nodes are chosen in one of the ways:
+ *	optimal - every vertex with an edge into another cluster is an entrance
+ *node, so the returned path costs the same as the path of Dijkstra, but
+ *the abstract graph is big (about 16*clusterSize edges per node);
+ *	near-optimal - the edges into a neighbour cluster make entrances, i.e.
+ *runs of adjacent edges, and only the middle edge of an entrance (and
+ *its ends if it is longer than LONG_ENTRANCE) is chosen. The returned path
+ *may be a bit longer than the shortest one, but the abstract graph is
+ *much smaller.
+ * Implementation notes: the entrance nodes of a cluster are kept sorted by
+ *their vertex index, so a vertex is found by binary search and there is no
+ *array over all the pixels. The searches inside a cluster use arrays of
+ *the cluster size only.
+ * @author dqdo
+ * @version 1.0
+ */
+public class ClusterGraph {
+
+	/**
+	 * The cluster size used when none is given.
+	 */
+	public static final int DEFAULT_CLUSTER_SIZE = 32;
+
+	// An entrance longer than this gets entrance nodes at its ends too.
+	private static final int LONG_ENTRANCE = 6;
+
+	private final Graph graph;
+	private final int width;
+	private final int height;
+	private final int clusterSize;
+	private final int clustersX;
+	private final boolean isOptimal;
+
+	// The entrance nodes of the cluster k are nodeVertex[clusterOffsets[k]],
+	//...,nodeVertex[clusterOffsets[k+1]-1], sorted by the vertex index.
+	private final int[] clusterOffsets;
+	private final int[] nodeVertex;
+
+	// The edges of the abstract graph as CSR arrays; an edge to a node of the
+	//same cluster is a path inside the cluster, an edge to a node of another
+	//cluster is an edge of the graph.
+	private final int[] edgeOffsets;
+	private final int[] edgeHeads;
+	private final double[] edgeWeights;
+
+	/**
+	 * Builds the abstract graph of the given graph.
+	 * @param graph
+	 * @param clusterSize - the width and the height of a cluster in pixels.
+	 * @param isOptimal - if true, the returned paths are the shortest ones,
+	 *otherwise they are near-optimal but the abstract graph is smaller.
+	 * @throws IllegalArgumentException if clusterSize is less than 2.
+	 */
+	public ClusterGraph(Graph graph, int clusterSize, boolean isOptimal) {
+		if(clusterSize < 2) {
+			throw new IllegalArgumentException("The cluster size must be at least 2!");
+		}
+		this.graph = graph;
+		this.width = graph.getWidth();
+		this.height = graph.getHeight();
+		this.clusterSize = clusterSize;
+		this.clustersX = (width + clusterSize - 1) / clusterSize;
+		int clustersY = (height + clusterSize - 1) / clusterSize;
+		this.isOptimal = isOptimal;
+
+		IntArray crossings = chooseCrossings(clustersX*clustersY);
+
+		// The entrance nodes: the ends of the chosen edges, per cluster.
+		int crossingCount = crossings.size / 2;
+		long[] keys = new long[2*crossingCount];
+		for(int i = 0;i < crossings.size;i++) {
+			int v = crossings.data[i];
+			keys[i] = (long)clusterOf(v)*width*height + v;
+		}
+		Arrays.sort(keys);
+		int nodes = 0;
+		for(int i = 0;i < keys.length;i++) {
+			if((i == 0) || (keys[i] != keys[i-1])) keys[nodes++] = keys[i];
+		}
+		nodeVertex = new int[nodes];
+		clusterOffsets = new int[clustersX*clustersY + 1];
+		for(int n = 0;n < nodes;n++) {
+			nodeVertex[n] = (int)(keys[n] % ((long)width*height));
+			clusterOffsets[clusterOf(nodeVertex[n]) + 1]++;
+		}
+		for(int k = 0;k < clustersX*clustersY;k++) {
+			clusterOffsets[k+1] += clusterOffsets[k];
+		}
+
+		// The chosen edges sorted by their tails, so the edges of a node are
+		//found by binary search.
+		long[] byTail = new long[crossingCount];
+		for(int i = 0;i < crossingCount;i++) {
+			byTail[i] = ((long)crossings.data[2*i] << 31) | i;
+		}
+		Arrays.sort(byTail);
+
+		// The abstract edges, node by node.
+		ClusterSearch search = new ClusterSearch();
+		edgeOffsets = new int[nodes + 1];
+		IntArray heads = new IntArray(nodes*4);
+		double[] weights = new double[Math.max(nodes*4, 16)];
+		int[] heirsOut = new int[graph.getMaxHeirs()];
+		float[] weightsOut = new float[graph.getMaxHeirs()];
+		for(int k = 0;k < clustersX*clustersY;k++) {
+			for(int n = clusterOffsets[k];n < clusterOffsets[k+1];n++) {
+				int v = nodeVertex[n];
+				search.run(v, k, false);
+				for(int m = clusterOffsets[k];m < clusterOffsets[k+1];m++) {
+					double distance = search.valueOf(nodeVertex[m]);
+					if((m == n) || (distance == Double.POSITIVE_INFINITY)) continue;
+					if(heads.size == weights.length) {
+						weights = Arrays.copyOf(weights, weights.length*2);
+					}
+					weights[heads.size] = distance;
+					heads.add(m);
+				}
+
+				int count = graph.expand(v, heirsOut, weightsOut);
+				int i = lowerBound(byTail, (long)v << 31);
+				for(;(i < crossingCount) && ((int)(byTail[i] >>> 31) == v);i++) {
+					int head = crossings.data[2*(int)(byTail[i] & Integer.MAX_VALUE) + 1];
+					float weight = 0;
+					for(int e = 0;e < count;e++) {
+						if(heirsOut[e] == head) weight = weightsOut[e];
+					}
+					if(heads.size == weights.length) {
+						weights = Arrays.copyOf(weights, weights.length*2);
+					}
+					weights[heads.size] = weight;
+					heads.add(nodeOf(head));
+				}
+				edgeOffsets[n+1] = heads.size;
+			}
+		}
+		edgeHeads = Arrays.copyOf(heads.data, heads.size);
+		edgeWeights = Arrays.copyOf(weights, heads.size);
+	}
+
+	/**
+	 * Chooses the edges between the clusters which ends become the entrance
+	 *nodes.
+	 * @return tail,head pairs of the chosen edges.
+	 */
+	private IntArray chooseCrossings(int clusters) {
+		IntArray chosen = new IntArray(clusters*16);
+		IntArray cluster = new IntArray(clusterSize*16);
+		int[] heirsOut = new int[graph.getMaxHeirs()];
+		float[] weightsOut = new float[graph.getMaxHeirs()];
+
+		for(int k = 0;k < clusters;k++) {
+			// All the edges from the cluster into other clusters, as
+			//target cluster,tail,head triples.
+			cluster.size = 0;
+			int x0 = (k % clustersX)*clusterSize, y0 = (k / clustersX)*clusterSize;
+			int x1 = Math.min(x0 + clusterSize, width), y1 = Math.min(y0 + clusterSize, height);
+			for(int y = y0;y < y1;y++) {
+				for(int x = x0;x < x1;x++) {
+					// Only the pixels at the border may have edges out of the
+					//cluster, unless the map is human written.
+					int v = x + y*width;
+					int count = graph.expand(v, heirsOut, weightsOut);
+					for(int e = 0;e < count;e++) {
+						int target = clusterOf(heirsOut[e]);
+						if(target == k) continue;
+						cluster.add(target); cluster.add(v); cluster.add(heirsOut[e]);
+					}
+				}
+			}
+			if(isOptimal) {
+				for(int i = 0;i < cluster.size;i += 3) {
+					chosen.add(cluster.data[i+1]); chosen.add(cluster.data[i+2]);
+				}
+				continue;
+			}
+
+			// The entrances: runs of edges into the same cluster with
+			//adjacent tails. The middle edge of every entrance is chosen.
+			final int[] data = cluster.data;
+			Integer[] order = new Integer[cluster.size / 3];
+			for(int i = 0;i < order.length;i++) order[i] = 3*i;
+			Arrays.sort(order, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer a, Integer b) {
+					if(data[a] != data[b]) return (data[a] < data[b])? -1 : 1;
+					if(data[a+1] != data[b+1]) return (data[a+1] < data[b+1])? -1 : 1;
+					return (data[a+2] < data[b+2])? -1 : ((data[a+2] == data[b+2])? 0 : 1);
+				}
+			});
+			int begin = 0;
+			for(int i = 1;i <= order.length;i++) {
+				if((i < order.length) && (data[order[i]] == data[order[i-1]])
+						&& isAdjacent(data[order[i]+1], data[order[i-1]+1])) {
+					continue;
+				}
+				// The run begin,...,i-1 is an entrance.
+				int middle = order[(begin + i - 1) / 2];
+				chosen.add(data[middle+1]); chosen.add(data[middle+2]);
+				if(i - begin > LONG_ENTRANCE) {
+					chosen.add(data[order[begin]+1]); chosen.add(data[order[begin]+2]);
+					chosen.add(data[order[i-1]+1]); chosen.add(data[order[i-1]+2]);
+				}
+				begin = i;
+			}
+		}
+		return chosen;
+	}
+
+	// True if the vertices are the same or neighbour pixels.
+	private boolean isAdjacent(int v, int u) {
+		return (Math.abs(v % width - u % width) <= 1)
+				&& (Math.abs(v / width - u / width) <= 1);
+	}
+
+	private int clusterOf(int vertIndex) {
+		return (vertIndex % width) / clusterSize
+				+ ((vertIndex / width) / clusterSize)*clustersX;
+	}
+
+	// The index of the entrance node of the vertex, or -1.
+	private int nodeOf(int vertIndex) {
+		int k = clusterOf(vertIndex);
+		int i = Arrays.binarySearch(nodeVertex, clusterOffsets[k], clusterOffsets[k+1], vertIndex);
+		return (i < 0)? -1 : i;
+	}
+
+	// The index of the first key which is not less than the given key.
+	private static int lowerBound(long[] keys, long key) {
+		int low = 0, high = keys.length;
+		while(low < high) {
+			int mid = (low + high) >>> 1;
+			if(keys[mid] < key) {
+				low = mid + 1;
+			}else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * @return true if the returned paths are the shortest ones.
+	 */
+	public boolean isOptimal() {
+		return isOptimal;
+	}
+
+	public int getClusterSize() {
+		return clusterSize;
+	}
+
+	/**
+	 * @return the number of entrance nodes of the abstract graph.
+	 */
+	public int getNodesNumber() {
+		return nodeVertex.length;
+	}
+
+	/**
+	 * @return the number of edges of the abstract graph.
+	 */
+	public int getEdgesNumber() {
+		return edgeHeads.length;
+	}
+
+	/**
+	 * Finds a path between the given points: the shortest one if the graph
+	 *is optimal, otherwise a near-optimal one.
+	 * @param fromPoint represents the start x,y coordinates on the map.
+	 * @param toPoint represents the destination x,y coordinates on the map.
+	 * @return an array containing the desired path. Zero element is the start
+	 *point. Null if there is no path.
+	 * @throws IllegalArgumentException when a point exceed the borders of the map.
+	 */
+	public Point[] shortestPath(Point fromPoint, Point toPoint) {
+		int from = graph.vertexAt(fromPoint);
+		int to = graph.vertexAt(toPoint);
+
+		if(!graph.hasVertex(from) || !graph.hasVertex(to)) return null;
+		if(from == to) return new Point[] {new Point(fromPoint)};
+
+		SearchListener listener = graph.getSearchListener();
+		long begin = (listener == null)? 0 : System.nanoTime();
+		int nodes = nodeVertex.length;
+		// The destination is the node with index nodes.
+		int target = nodes;
+		double[] value = new double[nodes + 1];
+		int[] prev = new int[nodes + 1];
+		IndexedHeap pq = new IndexedHeap(nodes + 1, 4);
+		Arrays.fill(value, Double.POSITIVE_INFINITY);
+
+		// The start is connected with the nodes of its cluster, and with the
+		//destination if it is in the same cluster.
+		ClusterSearch search = new ClusterSearch();
+		int fromCluster = clusterOf(from), toCluster = clusterOf(to);
+		search.run(from, fromCluster, false);
+		for(int n = clusterOffsets[fromCluster];n < clusterOffsets[fromCluster+1];n++) {
+			if(relax(pq, value, prev, n, search.valueOf(nodeVertex[n]), -1)) search.queued++;
+		}
+		if(fromCluster == toCluster) {
+			if(relax(pq, value, prev, target, search.valueOf(to), -1)) search.queued++;
+		}
+
+		// The distances from the nodes of the destination cluster.
+		search.run(to, toCluster, true);
+		double[] toTarget = new double[clusterOffsets[toCluster+1] - clusterOffsets[toCluster]];
+		for(int i = 0;i < toTarget.length;i++) {
+			toTarget[i] = search.valueOf(nodeVertex[clusterOffsets[toCluster] + i]);
+		}
+
+		// Dijkstra's algorithm over the abstract graph.
+		while(!pq.isEmpty()) {
+			int n = pq.poll();
+			search.settled++;
+			if(n == target) break;
+			search.relaxed += edgeOffsets[n+1] - edgeOffsets[n];
+			for(int e = edgeOffsets[n];e < edgeOffsets[n+1];e++) {
+				if(relax(pq, value, prev, edgeHeads[e], value[n] + edgeWeights[e], n)) {
+					search.queued++;
+				}
+			}
+			if((n >= clusterOffsets[toCluster]) && (n < clusterOffsets[toCluster+1])) {
+				if(relax(pq, value, prev, target,
+						value[n] + toTarget[n - clusterOffsets[toCluster]], n)) {
+					search.queued++;
+				}
+			}
+		}
+		if(value[target] == Double.POSITIVE_INFINITY) {
+			report(listener, search, pq, from, to, Double.POSITIVE_INFINITY, begin);
+			return null;
+		}
+
+		// The nodes of the abstract path, then the refinement.
+		int length = 0;
+		for(int n = prev[target];n != -1;n = prev[n]) length++;
+		int[] abstractPath = new int[length];
+		for(int n = prev[target], i = length - 1;n != -1;n = prev[n], i--) {
+			abstractPath[i] = nodeVertex[n];
+		}
+
+		IntArray path = new IntArray(64);
+		path.add(from);
+		int curr = from;
+		for(int i = 0;i < length;i++) {
+			refine(search, curr, abstractPath[i], path);
+			curr = abstractPath[i];
+		}
+		refine(search, curr, to, path);
+
+		Point[] result = new Point[path.size];
+		for(int i = 0;i < path.size;i++) {
+			result[i] = new Point(path.data[i] % width, path.data[i] / width);
+		}
+		report(listener, search, pq, from, to, value[target], begin);
+		return result;
+	}
+
+	// Reports a query to the listener of the graph, if any: the work of the
+	//abstract search, counted into the cluster search, and of all the runs
+	//of the cluster search together.
+	private void report(SearchListener listener, ClusterSearch search,
+			IndexedHeap pq, int from, int to, double cost, long begin) {
+		if(listener == null) return;
+		graph.report(listener, isOptimal? "hpa-optimal" : "hpa", from, to, 
+				cost != Double.POSITIVE_INFINITY, search.settled, search.relaxed,
+				search.queued, pq.size(),
+				Math.max(pq.getPeakSize(), search.pq.getPeakSize()), cost, begin);
+	}
+
+	// Returns true if the node has been inserted or its key decreased.
+	private static boolean relax(IndexedHeap pq, double[] value, int[] prev,
+			int n, double currPath, int prevNode) {
+		if(value[n] > currPath) {
+			pq.insertOrDecrease(n, currPath);
+			value[n] = currPath;
+			prev[n] = prevNode;
+			return true;
+		}
+		return false;
+	}
+
+	// Appends the pixels of the abstract edge a->b without a.
+	private void refine(ClusterSearch search, int a, int b, IntArray path) {
+		if(a == b) return;
+		int cluster = clusterOf(a);
+		if(cluster != clusterOf(b)) {
+			// An edge between two clusters.
+			path.add(b);
+			return;
+		}
+		search.run(a, cluster, false);
+		int begin = path.size;
+		for(int v = b;v != a;v = search.prevOf(v)) {
+			path.add(v);
+		}
+		// The pixels have been added backwards.
+		for(int i = begin, j = path.size - 1;i < j;i++, j--) {
+			int tmp = path.data[i]; path.data[i] = path.data[j]; path.data[j] = tmp;
+		}
+	}
+
+	/**
+	 * Dijkstra's algorithm restricted to one cluster, over the heirs or over
+	 *the predecessors; the arrays have the size of a cluster and are reused
+	 *by the next run.
+	 */
+	private class ClusterSearch {
+		final double[] value;
+		final int[] prev;
+		final IndexedHeap pq;
+		final int[] heirsOut;
+		final float[] weightsOut;
+		int x0, y0, x1, y1;
+
+		// What all the runs have done, see SearchStats; shortestPath(...)
+		//adds the abstract search to them.
+		int settled;
+		long relaxed;
+		int queued;
+
+		ClusterSearch() {
+			value = new double[clusterSize*clusterSize];
+			prev = new int[clusterSize*clusterSize];
+			pq = new IndexedHeap(clusterSize*clusterSize, 4);
+			heirsOut = new int[graph.getMaxHeirs()];
+			weightsOut = new float[graph.getMaxHeirs()];
+		}
+
+		void run(int source, int cluster, boolean isReverse) {
+			x0 = (cluster % clustersX)*clusterSize;
+			y0 = (cluster / clustersX)*clusterSize;
+			x1 = Math.min(x0 + clusterSize, width);
+			y1 = Math.min(y0 + clusterSize, height);
+			Arrays.fill(value, Double.POSITIVE_INFINITY);
+
+			value[local(source)] = 0;
+			prev[local(source)] = -1;
+			pq.insert(local(source), 0);
+			queued++;
+			while(!pq.isEmpty()) {
+				int currL = pq.poll();
+				settled++;
+				int currV = (x0 + currL % clusterSize) + (y0 + currL / clusterSize)*width;
+				int count = isReverse? graph.expandReverse(currV, heirsOut, weightsOut)
+						: graph.expand(currV, heirsOut, weightsOut);
+				relaxed += count;
+				for(int e = 0;e < count;e++) {
+					int heir = heirsOut[e];
+					int x = heir % width, y = heir / width;
+					if((x < x0) || (x >= x1) || (y < y0) || (y >= y1)) continue;
+					int heirL = local(heir);
+					double currPath = value[currL] + weightsOut[e];
+					if(value[heirL] > currPath) {
+						pq.insertOrDecrease(heirL, currPath);
+						queued++;
+						value[heirL] = currPath;
+						prev[heirL] = currV;
+					}
+				}
+			}
+		}
+
+		// The index of the vertex in the arrays of the cluster.
+		int local(int vertIndex) {
+			return (vertIndex % width - x0) + (vertIndex / width - y0)*clusterSize;
+		}
+
+		double valueOf(int vertIndex) {
+			return value[local(vertIndex)];
+		}
+
+		int prevOf(int vertIndex) {
+			return prev[local(vertIndex)];
+		}
+	}
+
+	// A growable array of ints.
+	private static class IntArray {
+		int[] data;
+		int size;
+
+		IntArray(int capacity) {
+			data = new int[Math.max(capacity, 16)];
+		}
+
+		void add(int value) {
+			if(size == data.length) data = Arrays.copyOf(data, size*2);
+			data[size++] = value;
+		}
+	}
+}
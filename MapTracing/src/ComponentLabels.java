@@ -0,0 +1,203 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Labels the connected components of a Graph, so a search between two
+ *vertices of different components can return at once instead of settling
+ *the whole component of the start. The edges are taken as undirected: two
+ *vertices have the same label if there is a path between them in either
+ *direction. A graph set from an image has symmetric edges, so the labels
+ *are its components; for a human written map with one way edges different
+ *labels still mean there is no path, the same label only means there may
+ *be one.
+ * The labels are found by a union-find over all the edges, in bands of
+ *rows on a fork/join pool. The parent array is shared by the bands and
+ *linked with compareAndSet(...): a root is always linked to a less root,
+ *so the root of every set is its least vertex and no cycle can appear.
+ *Then every vertex gets the root of its set, and the roots are numbered
+ *0,1,... in the order of the first vertices of their sets.
+ * Implementation notes: the time complexity cost is about O(E) split among
+ *the threads of the pool; it takes 4 bytes per pixel, and another 4 bytes
+ *per pixel while the labels are found.
+ * @author dqdo
+ * @version 1.0
+ */
+class ComponentLabels {
+
+	// The number of rows a band processes without splitting further.
+	private static final int BAND_ROWS = 16;
+
+	private final int width;
+	private final int height;
+
+	// labels[v] is the component of the vertex v, -1 for a null vertex.
+	private final int[] labels;
+	private final int count;
+
+	/**
+	 * Labels the components of the given graph on the given pool; the
+	 *current thread waits until they are labelled.
+	 * @param graph
+	 * @param pool
+	 */
+	ComponentLabels(Graph graph, ForkJoinPool pool) {
+		this.width = graph.getWidth();
+		this.height = graph.getHeight();
+		int size = graph.getSize();
+		this.labels = new int[size];
+
+		AtomicIntegerArray parent = new AtomicIntegerArray(size);
+		for(int v = 0;v < size;v++) {
+			parent.set(v, v);
+		}
+		pool.invoke(new Band(graph, parent, 0, height, false));
+		pool.invoke(new Band(graph, parent, 0, height, true));
+
+		// The roots are numbered in the order of the first vertices of their
+		//sets; a root itself may be a null vertex(a heir without heirs of a
+		//human written map), so the number of a root is kept in its parent
+		//as -1-number, which the parents, no longer needed, have room for.
+		int number = 0;
+		for(int v = 0;v < size;v++) {
+			int root = labels[v];
+			if(root == -1) continue;
+			int p = parent.get(root);
+			if(p >= 0) {
+				p = -1 - number++;
+				parent.set(root, p);
+			}
+			labels[v] = -1 - p;
+		}
+		this.count = number;
+	}
+
+	/**
+	 * Unites the sets of the vertices of the edges of the rows fromRow,...,
+	 *toRow-1 or, if isLabel, writes the roots of their vertices into the
+	 *labels; splits in halves while there are more than BAND_ROWS rows.
+	 */
+	private class Band extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final Graph graph;
+		private final AtomicIntegerArray parent;
+		private final int fromRow;
+		private final int toRow;
+		private final boolean isLabel;
+
+		Band(Graph graph, AtomicIntegerArray parent, int fromRow, int toRow,
+				boolean isLabel) {
+			this.graph = graph;
+			this.parent = parent;
+			this.fromRow = fromRow;
+			this.toRow = toRow;
+			this.isLabel = isLabel;
+		}
+
+		@Override
+		protected void compute() {
+			if(toRow - fromRow > BAND_ROWS) {
+				int middle = (fromRow + toRow) >>> 1;
+				invokeAll(new Band(graph, parent, fromRow, middle, isLabel),
+						new Band(graph, parent, middle, toRow, isLabel));
+				return;
+			}
+			int[] heirsOut = new int[graph.getMaxHeirs()];
+			float[] weightsOut = new float[graph.getMaxHeirs()];
+			for(int v = fromRow*width;v < toRow*width;v++) {
+				if(!graph.hasVertex(v)) {
+					if(isLabel) labels[v] = -1;
+					continue;
+				}
+				if(isLabel) {
+					labels[v] = find(parent, v);
+					continue;
+				}
+				int heirs = graph.expand(v, heirsOut, weightsOut);
+				for(int e = 0;e < heirs;e++) {
+					union(parent, v, heirsOut[e]);
+				}
+			}
+		}
+	}
+
+	// The root of the set of the vertex; halves the path on the way.
+	private static int find(AtomicIntegerArray parent, int v) {
+		int p = parent.get(v);
+		while(p != v) {
+			int grand = parent.get(p);
+			// Another thread may have changed parent[v]; then it is not set.
+			if(grand != p) parent.compareAndSet(v, p, grand);
+			v = p;
+			p = grand;
+		}
+		return v;
+	}
+
+	private static void union(AtomicIntegerArray parent, int a, int b) {
+		while(true) {
+			a = find(parent, a);
+			b = find(parent, b);
+			if(a == b) return;
+			if(a < b) {
+				int t = a;
+				a = b;
+				b = t;
+			}
+			// a is still a root only if no other thread has linked it.
+			if(parent.compareAndSet(a, a, b)) return;
+		}
+	}
+
+	/**
+	 * @param vertIndex
+	 * @return the component of the vertex, -1 if the vertex is null.
+	 */
+	int labelOf(int vertIndex) {
+		return labels[vertIndex];
+	}
+
+	/**
+	 * @return the number of the components.
+	 */
+	int getCount() {
+		return count;
+	}
+
+	/**
+	 * Finds the vertex of the given component nearest to the pixel (x,y) in
+	 *the Euclidean distance; of more such vertices, the first one in the
+	 *order of the rows. The squares around the pixel are searched from the
+	 *smallest one, until the square is farther than the best vertex found.
+	 * @param x
+	 * @param y
+	 * @param label - a component.
+	 * @return the vertex or -1 if the component has no vertex.
+	 */
+	int nearest(int x, int y, int label) {
+		int best = -1;
+		long bestDistance = Long.MAX_VALUE;
+		int maxRadius = Math.max(Math.max(x, width - 1 - x), Math.max(y, height - 1 - y));
+		for(int r = 0;r <= maxRadius;r++) {
+			// Every pixel of the square with radius r is at least r far.
+			if((long)r*r > bestDistance) break;
+			for(int ty = Math.max(0, y - r);ty <= Math.min(height - 1, y + r);ty++) {
+				boolean isEdgeRow = (ty == y - r) || (ty == y + r);
+				int step = isEdgeRow? 1 : 2*r;
+				for(int tx = x - r;tx <= x + r;tx += Math.max(step, 1)) {
+					if((tx < 0) || (tx >= width)) continue;
+					int v = ty*width + tx;
+					if(labels[v] != label) continue;
+					long distance = (long)(tx - x)*(tx - x) + (long)(ty - y)*(ty - y);
+					if((distance < bestDistance)
+							|| ((distance == bestDistance) && (v < best))) {
+						best = v;
+						bestDistance = distance;
+					}
+				}
+			}
+		}
+		return best;
+	}
+}
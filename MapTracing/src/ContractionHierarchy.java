@@ -0,0 +1,975 @@
+import java.awt.Point;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Implements contraction hierarchy of a Graph: a preprocessing that makes
+ *the shortest path queries on a static map much faster than
+ *Graph.shortestPathDijkstra(...).
+ * The vertices are contracted one by one in the order of their importance
+ *(the least important first). Contracting a vertex v removes it from the
+ *graph, and for every path u->v->x that is the only shortest path between
+ *u and x a shortcut u->x with the same weight is added. The rank of a vertex
+ *is its position in that order.
+ * A query searches from the start only over the edges that go to higher
+ *ranked vertices, and from the destination only over the edges that come
+ *from higher ranked vertices. The two searches meet at the highest ranked
+ *vertex of the shortest path; then the shortcuts are unpacked back to the
+ *original edges.
+ * The contraction stops when the remaining graph becomes too dense (see
+ *CORE_DEGREE); the remaining vertices form the core, get the highest ranks
+ *and keep all their edges, so inside the core the two searches go over all
+ *the edges like Dijkstra does.
+ * The edges are directed, because the weights of the Graph are not
+ *symmetric (see Graph.expandReverse(...)), so the predecessors of a vertex
+ *must be its heirs, as they are in every graph set from an image.
+ * The hierarchy can be saved next to the map file (see fileFor(...)) so the
+ *preprocessing is done once per map.
+ * A query does not relax the edges of a vertex which is stalled, i.e. 
+ *reached by a shorter path down from a higher ranked vertex(stall on 
+ *demand); that halves the vertices a query settles.
+ * Implementation notes: the node order is twice the edge difference (the
+ *number of shortcuts minus the number of removed edges) plus the number of
+ *already contracted neighbours, updated lazily. The witness searches are
+ *limited to a number of settled vertices, so there may be some unnecessary
+ *shortcuts but never a missing one. The limit is low while the remaining
+ *graph is sparse and the witnesses are near, and ten times higher once it
+ *is dense: with the low limit all the way the map11.bmp contraction stops
+ *at a core of 12 thousand vertices, which every query searches like 
+ *Dijkstra does(17 ms), while the higher limit contracts it completely. 
+ *Updating the priorities of the neighbours of a contracted vertex did
+ *not make the core less, and made the preprocessing 3 times slower.
+ * On one core, map7.bmp is preprocessed in 18 s and a query takes 0.7 ms
+ *against 12 ms of Dijkstra; map11.bmp in 4.5 min and 1.7 ms against 52 ms.
+ *The preprocessing pays for itself after about 1700 and 5300 queries; a
+ *saved hierarchy loads in 0.2 s and 0.6 s, i.e. it pays after about 20 
+ *queries in the next runs.
+ * @author dqdo
+ * @version 1.0
+ */
+public class ContractionHierarchy {
+
+	// The signature and the version of the saved hierarchy file.
+	private static final int MAGIC = 0x43480a1a;// C H \n SUB
+	private static final int VERSION = 2;
+
+	// The most vertices a witness search settles before it gives up, when
+	//a vertex is contracted while the remaining graph is sparse and once it
+	//is dense(see DENSE_DEGREE), and when only its priority is computed. In
+	//the dense graph the witnesses are farther, and a search which gives up
+	//too early adds a shortcut that is not needed, which makes the graph 
+	//denser still.
+	private static final int WITNESS_SETTLE_LIMIT = 100;
+	private static final int DENSE_WITNESS_SETTLE_LIMIT = 1000;
+	private static final int PRIORITY_SETTLE_LIMIT = 10;
+
+	// The remaining graph is dense when the average number of the out going
+	//edges of its vertices exceeds this.
+	private static final int DENSE_DEGREE = 12;
+
+	// The contraction stops when the average number of the out going edges
+	//of the remaining vertices exceeds this, see Contraction.
+	private static final int CORE_DEGREE = 32;
+
+	// No middle vertex, i.e. the edge is an original edge of the graph.
+	private static final int NO_MIDDLE = -1;
+
+	private final int width;
+	private final int height;
+	private final int size;
+
+	// The fingerprint of the graph the hierarchy has been built from, so a
+	//saved hierarchy is not used with another graph of the same size.
+	private final GraphFingerprint fingerprint;
+
+	// rank[v] is the position of v in the contraction order, -1 for null
+	//vertices.
+	private final int[] rank;
+
+	// The edges from every vertex to higher ranked vertices, as CSR arrays:
+	//the edges of v are forwardOffsets[v],...,forwardOffsets[v+1]-1. The
+	//middle of a shortcut is the vertex it goes over.
+	private final int[] forwardOffsets;
+	private final int[] forwardHeads;
+	private final double[] forwardWeights;
+	private final int[] forwardMiddles;
+
+	// The edges to every vertex from higher ranked vertices; backwardTails
+	//are the vertices the edges come from.
+	private final int[] backwardOffsets;
+	private final int[] backwardTails;
+	private final double[] backwardWeights;
+	private final int[] backwardMiddles;
+
+	// Reusable query states, so a query does not allocate O(V) arrays.
+	private final ConcurrentLinkedQueue<Query> queries =
+			new ConcurrentLinkedQueue<Query>();
+
+	// Gets the SearchStats of every query; null if they are not reported.
+	private volatile SearchListener searchListener;
+
+	private ContractionHierarchy(int width, int height,
+			GraphFingerprint fingerprint, int[] rank,
+			int[] forwardOffsets, int[] forwardHeads, double[] forwardWeights,
+			int[] forwardMiddles, int[] backwardOffsets, int[] backwardTails,
+			double[] backwardWeights, int[] backwardMiddles) {
+		this.width = width;
+		this.height = height;
+		this.size = width*height;
+		this.fingerprint = fingerprint;
+		this.rank = rank;
+		this.forwardOffsets = forwardOffsets;
+		this.forwardHeads = forwardHeads;
+		this.forwardWeights = forwardWeights;
+		this.forwardMiddles = forwardMiddles;
+		this.backwardOffsets = backwardOffsets;
+		this.backwardTails = backwardTails;
+		this.backwardWeights = backwardWeights;
+		this.backwardMiddles = backwardMiddles;
+	}
+
+	/**
+	 * Gets the file the hierarchy of the given map file is saved into; it is
+	 *next to the map file with .ch added to its name.
+	 * @param mapFile - BM, HM or MAP file the Graph is set from.
+	 * @return the hierarchy file.
+	 */
+	public static File fileFor(File mapFile) {
+		return new File(mapFile.getPath() + ".ch");
+	}
+
+	/**
+	 * Loads the hierarchy saved next to the given map file, or builds it and
+	 *saves it there if there is no such file, the file is older than the map
+	 *file, or it has been built from another graph, i.e. its fingerprint
+	 *(see GraphFingerprint) differs from the one of the graph.
+	 * @param graph - the graph set from mapFile.
+	 * @param mapFile - the file the graph is set from.
+	 * @return the hierarchy of the graph.
+	 */
+	public static ContractionHierarchy loadOrBuild(Graph graph, File mapFile) {
+		File chFile = fileFor(mapFile);
+		if(chFile.isFile() && (chFile.lastModified() >= mapFile.lastModified())) {
+			try {
+				ContractionHierarchy ch = load(chFile);
+				if((ch.width == graph.getWidth()) && (ch.height == graph.getHeight())
+						&& ch.fingerprint.equals(graph.getFingerprint())) {
+					return ch;
+				}
+			} catch (IOException e) {
+				System.err.println(
+						"Problem with reading hierarchy " + chFile.getAbsolutePath());
+			}
+		}
+
+		ContractionHierarchy ch = build(graph);
+		try {
+			ch.save(chFile);
+		} catch (IOException e) {
+			System.err.println(
+					"Problem with writing hierarchy " + chFile.getAbsolutePath());
+		}
+		return ch;
+	}
+
+	/**
+	 * Builds the hierarchy of the given graph.
+	 * @param graph
+	 * @return the hierarchy.
+	 */
+	public static ContractionHierarchy build(Graph graph) {
+		return new Contraction(graph).contract();
+	}
+
+	/**
+	 * Finds the shortest path between the given points.
+	 * @param fromPoint represents the start x,y coordinates on the map.
+	 * @param toPoint represents the destination x,y coordinates on the map.
+	 * @return an array containing the desired path, the same way as
+	 *Graph.shortestPathDijkstra(...) does. Null if there is no path.
+	 * @throws IllegalArgumentException when a point exceed the borders of the map.
+	 */
+	public Point[] shortestPath(Point fromPoint, Point toPoint) {
+		int from = vertexAt(fromPoint);
+		int to = vertexAt(toPoint);
+		if((rank[from] == -1) || (rank[to] == -1)) return null;
+		if(from == to) return new Point[] {new Point(fromPoint)};
+
+		SearchListener listener = searchListener;
+		long begin = (listener == null)? 0 : System.nanoTime();
+		Query q = queries.poll();
+		if(q == null) q = new Query(size);
+		try {
+			int meeting = q.search(from, to);
+			if(listener != null) {
+				// Every vertex inserted into a queue is settled or still in it.
+				int growth = q.forwardPq.size() + q.backwardPq.size();
+				int inserts = q.settled + growth;
+				double cost = (meeting == -1)? Double.POSITIVE_INFINITY 
+						: q.forwardValue[meeting] + q.backwardValue[meeting];
+				listener.searchFinished(new SearchStats("ch", new Point(fromPoint), 
+						new Point(toPoint), meeting != -1, cost, q.settled, q.relaxed,
+						inserts, q.queued - inserts, 
+						q.forwardPq.getPeakSize() + q.backwardPq.getPeakSize(),
+						System.nanoTime() - begin));
+			}
+			if(meeting == -1) return null;
+			return unpack(q, from, to, meeting);
+		}finally {
+			q.reset();
+			queries.offer(q);
+		}
+	}
+
+	/**
+	 * Sets the listener which gets the SearchStats of every query of 
+	 *shortestPath(...), as the algorithm "ch"; the two upward searches are
+	 *reported together, the unpacking of the shortcuts is not counted. 
+	 *Like Graph.setSearchListener(...), but the hierarchy is not tied to a
+	 *Graph once it is loaded, so it has its own listener.
+	 * @param listener - e.g. the SearchStatistics of the graph; null stops
+	 *the reports.
+	 */
+	public void setSearchListener(SearchListener listener) {
+		this.searchListener = listener;
+	}
+
+	public SearchListener getSearchListener() {
+		return searchListener;
+	}
+
+	// The state of one query: the values and the edges the vertices are
+	//reached with, for the two searches.
+	private class Query {
+		final double[] forwardValue;
+		final double[] backwardValue;
+		final int[] forwardEdge;
+		final int[] backwardEdge;
+		final IndexedHeap forwardPq;
+		final IndexedHeap backwardPq;
+
+		// The vertices which values must be reset after the query.
+		int[] touched;
+		int touchedCount;
+
+		// What the query has done, see SearchStats.
+		int settled;
+		long relaxed;
+		int queued;
+
+		Query(int size) {
+			forwardValue = new double[size];
+			backwardValue = new double[size];
+			Arrays.fill(forwardValue, Double.POSITIVE_INFINITY);
+			Arrays.fill(backwardValue, Double.POSITIVE_INFINITY);
+			forwardEdge = new int[size];
+			backwardEdge = new int[size];
+			forwardPq = new IndexedHeap(size, 4);
+			backwardPq = new IndexedHeap(size, 4);
+			touched = new int[64];
+		}
+
+		/**
+		 * Runs the two upward searches.
+		 * @return the vertex where the shortest path is met, or -1.
+		 */
+		int search(int from, int to) {
+			touch(from); touch(to);
+			forwardValue[from] = 0; forwardEdge[from] = -1;
+			backwardValue[to] = 0; backwardEdge[to] = -1;
+			forwardPq.insert(from, 0);
+			backwardPq.insert(to, 0);
+			queued = 2;
+
+			double best = Double.POSITIVE_INFINITY;
+			int meeting = -1;
+			boolean isForward = true;
+			while(true) {
+				boolean forwardGoes = !forwardPq.isEmpty() && (forwardPq.peekKey() < best);
+				boolean backwardGoes = !backwardPq.isEmpty() && (backwardPq.peekKey() < best);
+				if(!forwardGoes && !backwardGoes) break;
+				if(!forwardGoes) isForward = false;
+				if(!backwardGoes) isForward = true;
+
+				if(isForward) {
+					int v = forwardPq.poll();
+					settled++;
+					if(forwardValue[v] + backwardValue[v] < best) {
+						best = forwardValue[v] + backwardValue[v];
+						meeting = v;
+					}
+					if(isStalled(v, forwardValue, backwardOffsets, backwardTails,
+							backwardWeights)) {
+						isForward = !isForward;
+						continue;
+					}
+					relaxed += forwardOffsets[v+1] - forwardOffsets[v];
+					for(int e = forwardOffsets[v];e < forwardOffsets[v+1];e++) {
+						relax(forwardPq, forwardValue, forwardEdge,
+								forwardHeads[e], forwardValue[v] + forwardWeights[e], e);
+					}
+				}else {
+					int v = backwardPq.poll();
+					settled++;
+					if(forwardValue[v] + backwardValue[v] < best) {
+						best = forwardValue[v] + backwardValue[v];
+						meeting = v;
+					}
+					if(isStalled(v, backwardValue, forwardOffsets, forwardHeads,
+							forwardWeights)) {
+						isForward = !isForward;
+						continue;
+					}
+					relaxed += backwardOffsets[v+1] - backwardOffsets[v];
+					for(int e = backwardOffsets[v];e < backwardOffsets[v+1];e++) {
+						relax(backwardPq, backwardValue, backwardEdge,
+								backwardTails[e], backwardValue[v] + backwardWeights[e], e);
+					}
+				}
+				isForward = !isForward;
+			}
+			return meeting;
+		}
+
+		// Stall on demand: the vertex v is reached by a shorter path over a
+		//higher ranked vertex than the search has found, i.e. the shortest
+		//path to v goes down from there, so no shortest path goes up over v
+		//and its edges are not relaxed. The edges are the ones the other
+		//search goes over, i.e. the edges from the higher ranked vertices to
+		//v for the forward search.
+		private boolean isStalled(int v, double[] value, int[] offsets, 
+				int[] vertices, double[] weights) {
+			for(int e = offsets[v];e < offsets[v+1];e++) {
+				if(value[vertices[e]] + weights[e] < value[v]) return true;
+			}
+			return false;
+		}
+
+		private void relax(IndexedHeap pq, double[] value, int[] edge,
+				int vertex, double currPath, int e) {
+			if(value[vertex] <= currPath) return;
+			if((forwardValue[vertex] == Double.POSITIVE_INFINITY)
+					&& (backwardValue[vertex] == Double.POSITIVE_INFINITY)) {
+				touch(vertex);
+			}
+			value[vertex] = currPath;
+			edge[vertex] = e;
+			pq.insertOrDecrease(vertex, currPath);
+			queued++;
+		}
+
+		private void touch(int vertex) {
+			if(touchedCount == touched.length) {
+				touched = Arrays.copyOf(touched, touchedCount*2);
+			}
+			touched[touchedCount++] = vertex;
+		}
+
+		void reset() {
+			for(int i = 0;i < touchedCount;i++) {
+				forwardValue[touched[i]] = Double.POSITIVE_INFINITY;
+				backwardValue[touched[i]] = Double.POSITIVE_INFINITY;
+			}
+			touchedCount = 0;
+			forwardPq.clear();
+			backwardPq.clear();
+			settled = 0;
+			relaxed = 0;
+			queued = 0;
+		}
+	}
+
+	// Builds the path from the edges the two searches reached the meeting
+	//vertex with, and unpacks the shortcuts.
+	private Point[] unpack(Query q, int from, int to, int meeting) {
+		Unpacker unpacker = new Unpacker();
+		unpacker.append(from);
+
+		// The upward edges from the start to the meeting vertex are found in
+		//reverse order.
+		int[] edges = new int[16];
+		int edgeCount = 0;
+		for(int v = meeting;v != from;) {
+			int e = q.forwardEdge[v];
+			if(edgeCount == edges.length) edges = Arrays.copyOf(edges, edgeCount*2);
+			edges[edgeCount++] = e;
+			v = tailOfForward(e);
+		}
+		for(int i = edgeCount-1;i >= 0;i--) {
+			int e = edges[i];
+			unpacker.unpack(tailOfForward(e), forwardHeads[e], forwardMiddles[e]);
+		}
+
+		// The downward edges from the meeting vertex to the destination.
+		for(int v = meeting;v != to;) {
+			int e = q.backwardEdge[v];
+			int head = headOfBackward(e);
+			unpacker.unpack(v, head, backwardMiddles[e]);
+			v = head;
+		}
+
+		Point[] result = new Point[unpacker.length];
+		for(int i = 0;i < unpacker.length;i++) {
+			result[i] = new Point(unpacker.path[i]%width, unpacker.path[i]/width);
+		}
+		return result;
+	}
+
+	// Unpacks shortcuts into original edges and appends their vertices to a
+	//path. The shortcuts are unpacked with an explicit stack, since the
+	//hierarchy may be deeper than the call stack allows.
+	private class Unpacker {
+		int[] path = new int[64];
+		int length = 0;
+
+		// (tail, head, middle) triples of the edges waiting to be unpacked.
+		int[] stack = new int[48];
+		int top = 0;
+
+		void append(int vertex) {
+			if(length == path.length) path = Arrays.copyOf(path, length*2);
+			path[length++] = vertex;
+		}
+
+		// Appends the vertices of the edge tail->head, without the tail.
+		void unpack(int tail, int head, int middle) {
+			push(tail, head, middle);
+			while(top > 0) {
+				top -= 3;
+				int t = stack[top];
+				int h = stack[top+1];
+				int m = stack[top+2];
+				if(m == NO_MIDDLE) {
+					append(h);
+					continue;
+				}
+				// The middle was contracted before the tail and the head, so
+				//the edge t->m is a backward edge of m and the edge m->h is a
+				//forward edge of m. The second half is pushed first, so it is
+				//unpacked second.
+				push(m, h, forwardMiddles[findForward(m, h)]);
+				push(t, m, backwardMiddles[findBackward(m, t)]);
+			}
+		}
+
+		private void push(int tail, int head, int middle) {
+			if(top + 3 > stack.length) stack = Arrays.copyOf(stack, stack.length*2);
+			stack[top++] = tail;
+			stack[top++] = head;
+			stack[top++] = middle;
+		}
+	}
+
+	// The tail of the forward edge e, i.e. the vertex which forward edges
+	//contain e.
+	private int tailOfForward(int e) {
+		return ownerOf(forwardOffsets, e);
+	}
+
+	// The head of the backward edge e, i.e. the vertex which backward edges
+	//contain e.
+	private int headOfBackward(int e) {
+		return ownerOf(backwardOffsets, e);
+	}
+
+	// Binary search for the vertex v with offsets[v] <= e < offsets[v+1].
+	private int ownerOf(int[] offsets, int e) {
+		int low = 0, high = size - 1;
+		while(low < high) {
+			int mid = (low + high + 1) >>> 1;
+			if(offsets[mid] <= e) {
+				low = mid;
+			}else {
+				high = mid - 1;
+			}
+		}
+		return low;
+	}
+
+	private int findForward(int tail, int head) {
+		for(int e = forwardOffsets[tail];e < forwardOffsets[tail+1];e++) {
+			if(forwardHeads[e] == head) return e;
+		}
+		throw new IllegalStateException("Missing edge " + tail + "->" + head);
+	}
+
+	private int findBackward(int head, int tail) {
+		for(int e = backwardOffsets[head];e < backwardOffsets[head+1];e++) {
+			if(backwardTails[e] == tail) return e;
+		}
+		throw new IllegalStateException("Missing edge " + tail + "->" + head);
+	}
+
+	private int vertexAt(Point point) {
+		if((point.x < 0) || (point.x >= width)
+				|| (point.y < 0) || (point.y >= height)) {
+			throw new IllegalArgumentException(
+					"Coordinates must be in the intervals: X(" +
+					"0, " + width + ") " +
+					"; Y(0," + height + ")." );
+		}
+		return point.x + width*point.y;
+	}
+
+	/**
+	 * Gets the number of edges and shortcuts of the hierarchy.
+	 * @return the number of the forward plus the backward edges.
+	 */
+	public int getEdgesNumber() {
+		return forwardHeads.length + backwardTails.length;
+	}
+
+	/**
+	 * Saves the hierarchy into the given file. The file begins with
+	 *|int magic|int version|int width|int height|fingerprint|(see
+	 *GraphFingerprint.write(...)) followed by the rank array
+	 *and the forward and the backward edges, each as
+	 *|offsets|int number of edges|vertices|weights|middles|.
+	 * @param file
+	 * @throws IOException
+	 */
+	public void save(File file) throws IOException {
+		DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(width);
+			out.writeInt(height);
+			fingerprint.write(out);
+			writeInts(out, rank);
+			writeEdges(out, forwardOffsets, forwardHeads, forwardWeights, forwardMiddles);
+			writeEdges(out, backwardOffsets, backwardTails, backwardWeights, backwardMiddles);
+		}finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Loads a hierarchy saved with save(...).
+	 * @param file
+	 * @return the hierarchy.
+	 * @throws IOException if the file is not a hierarchy file or can not be
+	 *read.
+	 */
+	public static ContractionHierarchy load(File file) throws IOException {
+		DataInputStream in = new DataInputStream(
+				new BufferedInputStream(new FileInputStream(file), 1 << 16));
+		try {
+			if((in.readInt() != MAGIC) || (in.readInt() != VERSION)) {
+				throw new IOException(
+						"The file " + file.getAbsolutePath() + " is not a hierarchy file!");
+			}
+			int width = in.readInt();
+			int height = in.readInt();
+			GraphFingerprint fingerprint = GraphFingerprint.read(in);
+			int size = width*height;
+			int[] rank = readInts(in, size);
+
+			int[] fOffsets = readInts(in, size + 1);
+			int fCount = in.readInt();
+			int[] fHeads = readInts(in, fCount);
+			double[] fWeights = readDoubles(in, fCount);
+			int[] fMiddles = readInts(in, fCount);
+
+			int[] bOffsets = readInts(in, size + 1);
+			int bCount = in.readInt();
+			int[] bTails = readInts(in, bCount);
+			double[] bWeights = readDoubles(in, bCount);
+			int[] bMiddles = readInts(in, bCount);
+
+			return new ContractionHierarchy(width, height, fingerprint, rank,
+					fOffsets, fHeads, fWeights, fMiddles,
+					bOffsets, bTails, bWeights, bMiddles);
+		}finally {
+			in.close();
+		}
+	}
+
+	private static void writeEdges(DataOutputStream out, int[] offsets,
+			int[] vertices, double[] weights, int[] middles) throws IOException {
+		writeInts(out, offsets);
+		out.writeInt(vertices.length);
+		writeInts(out, vertices);
+		for(int i = 0;i < weights.length;i++) {
+			out.writeDouble(weights[i]);
+		}
+		writeInts(out, middles);
+	}
+
+	private static void writeInts(DataOutputStream out, int[] array) throws IOException {
+		for(int i = 0;i < array.length;i++) {
+			out.writeInt(array[i]);
+		}
+	}
+
+	private static int[] readInts(DataInputStream in, int length) throws IOException {
+		int[] array = new int[length];
+		for(int i = 0;i < length;i++) {
+			array[i] = in.readInt();
+		}
+		return array;
+	}
+
+	private static double[] readDoubles(DataInputStream in, int length) throws IOException {
+		double[] array = new double[length];
+		for(int i = 0;i < length;i++) {
+			array[i] = in.readDouble();
+		}
+		return array;
+	}
+
+	/**
+	 * The contraction itself. It keeps the remaining graph as lists of the
+	 *out going and the in coming edges of every vertex; a contracted vertex
+	 *is removed from the lists of its neighbours, but its own lists remain as
+	 *they were at its contraction, i.e. they contain exactly its edges to and
+	 *from the higher ranked vertices. The core vertices keep the lists they
+	 *have when the contraction stops.
+	 */
+	private static class Contraction {
+		final Graph graph;
+		final int width;
+		final int height;
+		final int size;
+
+		int[][] outHeads;
+		double[][] outWeights;
+		int[][] outMiddles;
+		int[] outCount;
+
+		int[][] inTails;
+		double[][] inWeights;
+		int[][] inMiddles;
+		int[] inCount;
+
+		// The number of the edges and vertices which are not contracted yet.
+		long remainingEdges;
+		int remainingVertices;
+		final int[] contractedNeighbours;
+		final int[] rank;
+
+		// The witness search state; the values of the touched vertices are
+		//reset after every search. The targets of the search are marked with
+		//the number of the search, so they need no reset.
+		final double[] witnessValue;
+		int[] witnessTouched;
+		int touchedCount;
+		final int[] witnessTarget;
+		int witnessNumber;
+		final IndexedHeap witnessPq;
+
+		Contraction(Graph graph) {
+			this.graph = graph;
+			this.width = graph.getWidth();
+			this.height = graph.getHeight();
+			this.size = width*height;
+
+			outHeads = new int[size][]; outWeights = new double[size][];
+			outMiddles = new int[size][]; outCount = new int[size];
+			inTails = new int[size][]; inWeights = new double[size][];
+			inMiddles = new int[size][]; inCount = new int[size];
+
+			int[] heirsOut = new int[graph.getMaxHeirs()];
+			float[] weightsOut = new float[graph.getMaxHeirs()];
+			for(int v = 0;v < size;v++) {
+				int count = graph.expand(v, heirsOut, weightsOut);
+				outHeads[v] = new int[Math.max(count, 1)];
+				outWeights[v] = new double[outHeads[v].length];
+				outMiddles[v] = new int[outHeads[v].length];
+				for(int i = 0;i < count;i++) {
+					outHeads[v][i] = heirsOut[i];
+					outWeights[v][i] = weightsOut[i];
+					outMiddles[v][i] = NO_MIDDLE;
+				}
+				outCount[v] = count;
+
+				count = graph.expandReverse(v, heirsOut, weightsOut);
+				inTails[v] = new int[Math.max(count, 1)];
+				inWeights[v] = new double[inTails[v].length];
+				inMiddles[v] = new int[inTails[v].length];
+				for(int i = 0;i < count;i++) {
+					inTails[v][i] = heirsOut[i];
+					inWeights[v][i] = weightsOut[i];
+					inMiddles[v][i] = NO_MIDDLE;
+				}
+				inCount[v] = count;
+			}
+
+			contractedNeighbours = new int[size];
+			rank = new int[size];
+			Arrays.fill(rank, -1);
+
+			witnessValue = new double[size];
+			Arrays.fill(witnessValue, Double.POSITIVE_INFINITY);
+			witnessTouched = new int[1024];
+			witnessTarget = new int[size];
+			witnessPq = new IndexedHeap(size, 4);
+		}
+
+		ContractionHierarchy contract() {
+			IndexedHeap order = new IndexedHeap(size, 4);
+			for(int v = 0;v < size;v++) {
+				if(graph.hasVertex(v)) {
+					order.insert(v, priorityOf(v));
+					remainingEdges += outCount[v];
+					remainingVertices++;
+				}
+			}
+
+			int nextRank = 0;
+			while(!order.isEmpty()) {
+				// The rest is the core; its vertices get the highest ranks
+				//as they are and keep all their edges.
+				if(remainingEdges > (long)CORE_DEGREE*remainingVertices) {
+					while(!order.isEmpty()) {
+						rank[order.poll()] = nextRank++;
+					}
+					break;
+				}
+
+				int v = order.poll();
+
+				// Lazy update: if the priority has grown since it was
+				//computed, the vertex goes back to the queue.
+				double priority = priorityOf(v);
+				if(!order.isEmpty() && (priority > order.peekKey())) {
+					order.insert(v, priority);
+					continue;
+				}
+
+				contractVertex(v, true);
+				rank[v] = nextRank++;
+			}
+			return freeze();
+		}
+
+		// Twice the edge difference plus the number of contracted neighbours.
+		private double priorityOf(int v) {
+			int shortcuts = contractVertex(v, false);
+			return 2*(shortcuts - inCount[v] - outCount[v]) + contractedNeighbours[v];
+		}
+
+		/**
+		 * Finds the shortcuts needed to contract the vertex v.
+		 * @param v
+		 * @param isReal - if false, only counts the shortcuts, otherwise adds
+		 *them and removes v from the lists of its neighbours.
+		 * @return the number of shortcuts.
+		 */
+		private int contractVertex(int v, boolean isReal) {
+			int shortcuts = 0;
+			int settleLimit = PRIORITY_SETTLE_LIMIT;
+			if(isReal) {
+				settleLimit = (remainingEdges > (long)DENSE_DEGREE*remainingVertices)?
+						DENSE_WITNESS_SETTLE_LIMIT : WITNESS_SETTLE_LIMIT;
+			}
+			for(int i = 0;i < inCount[v];i++) {
+				int u = inTails[v][i];
+				double w1 = inWeights[v][i];
+
+				// The search goes until all the heirs of v but u are settled,
+				//or their paths through v are exceeded.
+				witnessNumber++;
+				int targets = 0;
+				double maxOut = 0;
+				for(int j = 0;j < outCount[v];j++) {
+					int x = outHeads[v][j];
+					if(x == u) continue;
+					witnessTarget[x] = witnessNumber;
+					targets++;
+					maxOut = Math.max(maxOut, outWeights[v][j]);
+				}
+				if(targets == 0) continue;
+				witnessSearch(u, v, w1, w1 + maxOut, targets, settleLimit);
+				for(int j = 0;j < outCount[v];j++) {
+					int x = outHeads[v][j];
+					if(x == u) continue;
+					double viaV = w1 + outWeights[v][j];
+					if(witnessValue[x] <= viaV) continue;
+
+					shortcuts++;
+					if(isReal) {
+						addEdge(u, x, viaV, v);
+					}
+				}
+				resetWitness();
+			}
+
+			if(isReal) {
+				remainingEdges -= outCount[v] + inCount[v];
+				remainingVertices--;
+				for(int j = 0;j < outCount[v];j++) {
+					int x = outHeads[v][j];
+					removeIn(x, v);
+					contractedNeighbours[x]++;
+				}
+				for(int i = 0;i < inCount[v];i++) {
+					int u = inTails[v][i];
+					removeOut(u, v);
+					contractedNeighbours[u]++;
+				}
+			}
+			return shortcuts;
+		}
+
+		// Dijkstra from u over the remaining graph without v, until all the
+		//targets are settled, the values exceed the limit or settleLimit
+		//vertices are settled. The limit is the longest path u->v->x to the
+		//targets x which are not settled yet, so it drops as they are 
+		//settled, and a vertex farther than it is not queued at all.
+		private void witnessSearch(int u, int v, double w1, double limit, 
+				int targets, int settleLimit) {
+			touchedCount = 0;
+			witnessValue[u] = 0;
+			witnessTouched[touchedCount++] = u;
+			witnessPq.insert(u, 0);
+			int settled = 0;
+			while(!witnessPq.isEmpty() && (settled < settleLimit)) {
+				if(witnessPq.peekKey() > limit) break;
+				int curr = witnessPq.poll();
+				settled++;
+				if(witnessTarget[curr] == witnessNumber) {
+					if(--targets == 0) break;
+					witnessTarget[curr] = 0;
+					limit = 0;
+					for(int j = 0;j < outCount[v];j++) {
+						if(witnessTarget[outHeads[v][j]] == witnessNumber) {
+							limit = Math.max(limit, w1 + outWeights[v][j]);
+						}
+					}
+				}
+				for(int j = 0;j < outCount[curr];j++) {
+					int x = outHeads[curr][j];
+					if(x == v) continue;
+					double currPath = witnessValue[curr] + outWeights[curr][j];
+					if(currPath > limit) continue;
+					if(currPath < witnessValue[x]) {
+						if(witnessValue[x] == Double.POSITIVE_INFINITY) {
+							if(touchedCount == witnessTouched.length) {
+								witnessTouched = Arrays.copyOf(witnessTouched, touchedCount*2);
+							}
+							witnessTouched[touchedCount++] = x;
+						}
+						witnessValue[x] = currPath;
+						witnessPq.insertOrDecrease(x, currPath);
+					}
+				}
+			}
+		}
+
+		private void resetWitness() {
+			for(int i = 0;i < touchedCount;i++) {
+				witnessValue[witnessTouched[i]] = Double.POSITIVE_INFINITY;
+			}
+			witnessPq.clear();
+		}
+
+		// Adds the edge u->x or decreases its weight if it already exists.
+		private void addEdge(int u, int x, double weight, int middle) {
+			for(int j = 0;j < outCount[u];j++) {
+				if(outHeads[u][j] == x) {
+					if(weight < outWeights[u][j]) {
+						outWeights[u][j] = weight;
+						outMiddles[u][j] = middle;
+						for(int i = 0;i < inCount[x];i++) {
+							if(inTails[x][i] == u) {
+								inWeights[x][i] = weight;
+								inMiddles[x][i] = middle;
+							}
+						}
+					}
+					return;
+				}
+			}
+
+			if(outCount[u] == outHeads[u].length) {
+				int capacity = outCount[u]*2;
+				outHeads[u] = Arrays.copyOf(outHeads[u], capacity);
+				outWeights[u] = Arrays.copyOf(outWeights[u], capacity);
+				outMiddles[u] = Arrays.copyOf(outMiddles[u], capacity);
+			}
+			outHeads[u][outCount[u]] = x;
+			outWeights[u][outCount[u]] = weight;
+			outMiddles[u][outCount[u]] = middle;
+			outCount[u]++;
+			remainingEdges++;
+
+			if(inCount[x] == inTails[x].length) {
+				int capacity = inCount[x]*2;
+				inTails[x] = Arrays.copyOf(inTails[x], capacity);
+				inWeights[x] = Arrays.copyOf(inWeights[x], capacity);
+				inMiddles[x] = Arrays.copyOf(inMiddles[x], capacity);
+			}
+			inTails[x][inCount[x]] = u;
+			inWeights[x][inCount[x]] = weight;
+			inMiddles[x][inCount[x]] = middle;
+			inCount[x]++;
+		}
+
+		private void removeOut(int u, int head) {
+			for(int j = 0;j < outCount[u];j++) {
+				if(outHeads[u][j] == head) {
+					int last = --outCount[u];
+					outHeads[u][j] = outHeads[u][last];
+					outWeights[u][j] = outWeights[u][last];
+					outMiddles[u][j] = outMiddles[u][last];
+					return;
+				}
+			}
+		}
+
+		private void removeIn(int x, int tail) {
+			for(int i = 0;i < inCount[x];i++) {
+				if(inTails[x][i] == tail) {
+					int last = --inCount[x];
+					inTails[x][i] = inTails[x][last];
+					inWeights[x][i] = inWeights[x][last];
+					inMiddles[x][i] = inMiddles[x][last];
+					return;
+				}
+			}
+		}
+
+		// Packs the lists of every vertex, as they were at its contraction,
+		//into CSR arrays.
+		private ContractionHierarchy freeze() {
+			int[] fOffsets = new int[size + 1];
+			int[] bOffsets = new int[size + 1];
+			for(int v = 0;v < size;v++) {
+				fOffsets[v+1] = fOffsets[v] + ((rank[v] != -1)? outCount[v] : 0);
+				bOffsets[v+1] = bOffsets[v] + ((rank[v] != -1)? inCount[v] : 0);
+			}
+			int[] fHeads = new int[fOffsets[size]];
+			double[] fWeights = new double[fOffsets[size]];
+			int[] fMiddles = new int[fOffsets[size]];
+			int[] bTails = new int[bOffsets[size]];
+			double[] bWeights = new double[bOffsets[size]];
+			int[] bMiddles = new int[bOffsets[size]];
+			for(int v = 0;v < size;v++) {
+				if(rank[v] == -1) continue;
+				System.arraycopy(outHeads[v], 0, fHeads, fOffsets[v], outCount[v]);
+				System.arraycopy(outWeights[v], 0, fWeights, fOffsets[v], outCount[v]);
+				System.arraycopy(outMiddles[v], 0, fMiddles, fOffsets[v], outCount[v]);
+				System.arraycopy(inTails[v], 0, bTails, bOffsets[v], inCount[v]);
+				System.arraycopy(inWeights[v], 0, bWeights, bOffsets[v], inCount[v]);
+				System.arraycopy(inMiddles[v], 0, bMiddles, bOffsets[v], inCount[v]);
+				// Releasing the lists as soon as possible.
+				outHeads[v] = null; outWeights[v] = null; outMiddles[v] = null;
+				inTails[v] = null; inWeights[v] = null; inMiddles[v] = null;
+			}
+			return new ContractionHierarchy(width, height,
+					graph.getFingerprint(), rank,
+					fOffsets, fHeads, fWeights, fMiddles,
+					bOffsets, bTails, bWeights, bMiddles);
+		}
+	}
+}
@@ -0,0 +1,176 @@
+import java.util.Arrays;
+
+/**
+ * Collects the heirs(neighbours) and the weights of the vertices of a Graph
+ *and compacts them into compressed sparse row(CSR) arrays:
+ *	offsets - offsets[v] is the first edge of the vertex v and offsets[v+1]
+ *is the first edge of the next vertex, so the heirs of v are
+ *heirs[offsets[v]],...,heirs[offsets[v+1]-1];
+ *	heirs - the heirs(neighbours) of all the vertices one after another;
+ *	weights - the corresponding weights to the heirs.
+ * The vertices may be passed in any order. A vertex that is passed for the
+ *second time replaces the first one, the same way Graph.setVertex(...) does.
+ *A vertex without heirs is considered null(forbidden).
+ * Implementation notes: the edges are appended into primitive arrays that
+ *grow twice when they are full, so there is no boxing and no per vertex
+ *allocation. If the vertices are passed in ascending order without
+ *replacements, build() only trims the arrays; otherwise it copies every
+ *vertex on its place.
+ * @author dqdo
+ * @version 1.0
+ */
+class CsrBuilder {
+
+	// The number of vertices no matter null or not.
+	private int size;
+
+	// start[v] is the position of the first heir of v in the heirs array.
+	private int[] start;
+
+	// count[v] is the number of heirs of v.
+	private int[] count;
+
+	private int[] heirs;
+	private float[] weights;
+
+	// The number of heirs appended so far, including the replaced ones.
+	private int edges;
+
+	// The vertex that is currently being set.
+	private int current;
+
+	// The heir that waits for its weight, or -1.
+	private int pendingHeir;
+
+	// False if the vertices has not been passed in ascending order or some
+	//vertex has been replaced.
+	private boolean isOrdered;
+
+	private int[] builtOffsets;
+	private int[] builtHeirs;
+	private float[] builtWeights;
+	private int builtVerticesNumber;
+
+	/**
+	 * @param size - the number of vertices no matter null or not.
+	 * @param expectedEdges - initial capacity of the heirs and weights arrays.
+	 */
+	CsrBuilder(int size, int expectedEdges) {
+		this.size = size;
+		this.start = new int[size];
+		this.count = new int[size];
+		this.heirs = new int[Math.max(expectedEdges, 16)];
+		this.weights = new float[heirs.length];
+		this.edges = 0;
+		this.current = -1;
+		this.pendingHeir = -1;
+		this.isOrdered = true;
+	}
+
+	/**
+	 * Starts setting the vertex vertIndex. All the subsequent heirs belong to
+	 *that vertex until the next invocation of this method.
+	 * @param vertIndex
+	 * @throws IndexOutOfBoundsException if vertIndex exceed the size.
+	 */
+	void beginVertex(int vertIndex) {
+		if((vertIndex < 0) || (vertIndex >= size)) {
+			throw new IndexOutOfBoundsException(
+					"Vertex " + vertIndex + " is out of the graph of size " + size);
+		}
+		if((vertIndex <= current) || (count[vertIndex] != 0)) {
+			isOrdered = false;
+		}
+		current = vertIndex;
+		start[vertIndex] = edges;
+		count[vertIndex] = 0;
+		pendingHeir = -1;
+	}
+
+	/**
+	 * Appends a heir to the current vertex. Its weight must be passed with
+	 *addWeight(...) before the next heir.
+	 * @param heir
+	 */
+	void addHeir(int heir) {
+		pendingHeir = heir;
+	}
+
+	/**
+	 * Sets the weight of the heir passed with the last addHeir(...).
+	 * @param weight
+	 * @throws IllegalStateException if there is no heir waiting for weight.
+	 */
+	void addWeight(float weight) {
+		if(pendingHeir == -1) {
+			throw new IllegalStateException("There is no heir for that weight!");
+		}
+		add(pendingHeir, weight);
+		pendingHeir = -1;
+	}
+
+	/**
+	 * Appends a heir with its weight to the current vertex.
+	 * @param heir
+	 * @param weight
+	 */
+	void add(int heir, float weight) {
+		if(edges == heirs.length) {
+			int capacity = heirs.length + (heirs.length >> 1) + 1;
+			if(capacity < 0) capacity = Integer.MAX_VALUE - 8;
+			heirs = Arrays.copyOf(heirs, capacity);
+			weights = Arrays.copyOf(weights, capacity);
+		}
+		heirs[edges] = heir;
+		weights[edges] = weight;
+		edges++;
+		count[current]++;
+	}
+
+	/**
+	 * Compacts everything passed so far into CSR arrays. After that the
+	 *builder must not be used anymore, only the getters.
+	 */
+	void build() {
+		int[] offsets = new int[size + 1];
+		int verticesNumber = 0;
+		for(int v = 0;v < size;v++) {
+			offsets[v+1] = offsets[v] + count[v];
+			if(count[v] != 0) verticesNumber++;
+		}
+
+		int total = offsets[size];
+		if(isOrdered && (total == edges)) {
+			builtHeirs = (heirs.length == total)? heirs : Arrays.copyOf(heirs, total);
+			builtWeights = (weights.length == total)? weights : Arrays.copyOf(weights, total);
+		}else {
+			builtHeirs = new int[total];
+			builtWeights = new float[total];
+			for(int v = 0;v < size;v++) {
+				System.arraycopy(heirs, start[v], builtHeirs, offsets[v], count[v]);
+				System.arraycopy(weights, start[v], builtWeights, offsets[v], count[v]);
+			}
+		}
+		builtOffsets = offsets;
+		builtVerticesNumber = verticesNumber;
+
+		// Releasing the working arrays.
+		start = null; count = null; heirs = null; weights = null;
+	}
+
+	int[] getOffsets() {
+		return builtOffsets;
+	}
+
+	int[] getHeirs() {
+		return builtHeirs;
+	}
+
+	float[] getWeights() {
+		return builtWeights;
+	}
+
+	int getVerticesNumber() {
+		return builtVerticesNumber;
+	}
+}
@@ -0,0 +1,596 @@
+import java.awt.Point;
+import java.util.Arrays;
+
+/**
+ * Keeps the shortest path between two points of a Graph whose pixels change
+ *(see Graph.setPixelColor(...)) and repairs it with D* Lite (S. Koenig,
+ *M. Likhachev, D* Lite, 2002) instead of searching again.
+ * The search runs backwards, from the goal to the start: g(v) is the cost of
+ *the shortest path from v to the goal found so far and rhs(v) the least
+ *weight(v, s) + g(s) over the heirs s of v. A vertex with g(v) != rhs(v) is
+ *inconsistent and waits in the queue keyed by
+ *[min(g, rhs) + h(start, v) + km; min(g, rhs)] in lexicographic order, where
+ *h is the octile distance measured with the least weights of the graph(see
+ *Graph.shortestPathAStar(...)). When the pixels change, only the changed
+ *pixels and the pixels around them have new heirs, so only their rhs is
+ *calculated again, and the repair settles only the vertices whose costs
+ *change on the way to the start. When the start moves, km grows by the
+ *heuristic between the old and the new start, so the keys in the queue stay
+ *lower bounds and the queue need not be sorted again. When the goal moves,
+ *the costs of all the vertices change, so the search begins again.
+ * Implementation notes: the values are not reset between the searches, every
+ *search has its epoch(as in SearchContext), so beginning again costs O(1).
+ *The work of a repair is proportional to the vertices whose costs change and
+ *to the vertices around them, not to the size of the map; if a changed
+ *pixel lowers the least weights of the graph, the keys in the queue are
+ *calculated again, which costs O(size of the queue). It takes about 32
+ *bytes per vertex of the graph. It is not thread safe.
+ * @author dqdo
+ * @version 1.0
+ */
+public class DStarLite {
+
+	private final Graph graph;
+	private final int width;
+	private final int height;
+
+	private int start;
+	private int goal;
+
+	// g[v] and rhs[v] are valid only if stamps[v] == epoch, otherwise they are
+	//infinity.
+	private final double[] g;
+	private final double[] rhs;
+	private final int[] stamps;
+	private int epoch;
+
+	// marks[v] == markEpoch if buildPath() has been through v.
+	private final int[] marks;
+	private int markEpoch;
+
+	// The inconsistent vertices keyed as the class comment tells.
+	private final KeyHeap open;
+
+	// The sum of the heuristics between the starts of the repairs, and the
+	//start of the last repair.
+	private double km;
+	private int lastStart;
+
+	// Whether the search of the current goal has begun; false when the goal
+	//moves.
+	private boolean hasBegun;
+
+	// The number of the changed pixels of the graph(Graph.getEditCount())
+	//the costs have been repaired for.
+	private int seenEdits;
+
+	// The least weights of a straight and a diagonal step the heuristic is
+	//measured with.
+	private double leastStraight;
+	private double leastDiagonal;
+
+	// The number of vertices the last shortestPath() has settled or made
+	//inconsistent, i.e. its work.
+	private int expanded;
+
+	// The rest of the work of the last shortestPath() the listener of the
+	//graph gets, see SearchStats: the scanned predecessors, the inserts into
+	//the queue and the changes of keys in it.
+	private long relaxed;
+	private int inserts;
+	private int keyChanges;
+
+	// The buffers for Graph.expand(...) and Graph.expandReverse(...).
+	private final int[] heirsOut;
+	private final float[] weightsOut;
+	private final int[] predsOut;
+	private final float[] predWeightsOut;
+
+	/**
+	 * Nothing is searched until shortestPath() is invoked.
+	 * @param graph
+	 * @param start - the start vertex.
+	 * @param goal - the destination vertex.
+	 */
+	DStarLite(Graph graph, int start, int goal) {
+		this.graph = graph;
+		this.width = graph.getWidth();
+		this.height = graph.getHeight();
+		this.start = start;
+		this.goal = goal;
+		int size = graph.getSize();
+		this.g = new double[size];
+		this.rhs = new double[size];
+		this.stamps = new int[size];
+		this.epoch = 0;
+		this.marks = new int[size];
+		this.markEpoch = 0;
+		this.open = new KeyHeap(size);
+		this.heirsOut = new int[graph.getMaxHeirs()];
+		this.weightsOut = new float[graph.getMaxHeirs()];
+		this.predsOut = new int[graph.getMaxHeirs()];
+		this.predWeightsOut = new float[graph.getMaxHeirs()];
+		this.hasBegun = false;
+	}
+
+	public Point getStart() {
+		return new Point(start%width, start/width);
+	}
+
+	public Point getGoal() {
+		return new Point(goal%width, goal/width);
+	}
+
+	/**
+	 * Moves the start; the costs found so far are kept.
+	 * @param startPoint
+	 * @throws IllegalArgumentException when the point exceed the borders of
+	 *the map.
+	 */
+	public void setStart(Point startPoint) {
+		start = graph.vertexAt(startPoint);
+	}
+
+	/**
+	 * Moves the goal; the next shortestPath() searches again.
+	 * @param goalPoint
+	 * @throws IllegalArgumentException when the point exceed the borders of
+	 *the map.
+	 */
+	public void setGoal(Point goalPoint) {
+		int to = graph.vertexAt(goalPoint);
+		if(to != goal) hasBegun = false;
+		goal = to;
+	}
+
+	/**
+	 * Repairs the costs for the pixels changed since the last time and for
+	 *the start if it has moved, and gives the shortest path from the start
+	 *to the goal. The first time, or after the goal has moved, it searches
+	 *from the goal until the start is reached, as A* does.
+	 * @return an array containing the path. Zero element is the start point.
+	 *Null if there is no path.
+	 */
+	public Point[] shortestPath() {
+		SearchListener listener = graph.getSearchListener();
+		long begin = (listener == null)? 0 : System.nanoTime();
+		expanded = 0;
+		relaxed = 0;
+		inserts = 0;
+		keyChanges = 0;
+		open.resetPeakSize();
+		if(!hasBegun) {
+			begin();
+		}else {
+			repair();
+		}
+		if(!graph.hasVertex(start) || !graph.hasVertex(goal)) return null;
+		computeShortestPath();
+		Point[] path = buildPath();
+		if(listener != null) {
+			double cost = getCost();
+			listener.searchFinished(new SearchStats("dstar-lite", getStart(), getGoal(),
+					path != null, (path != null)? cost : Double.POSITIVE_INFINITY, 
+					expanded, relaxed, inserts, keyChanges, open.getPeakSize(),
+					System.nanoTime() - begin));
+		}
+		return path;
+	}
+
+	/**
+	 * @return the cost of the path the last shortestPath() has returned,
+	 *infinity if there has been no path.
+	 */
+	public double getCost() {
+		if(!hasBegun || !graph.hasVertex(start) || !graph.hasVertex(goal)) {
+			return Double.POSITIVE_INFINITY;
+		}
+		return rhsOf(start);
+	}
+
+	/**
+	 * @return the number of vertices the last shortestPath() has taken from
+	 *its queue, i.e. how much it has worked.
+	 */
+	public int getExpanded() {
+		return expanded;
+	}
+
+	// Begins the search of the current goal.
+	private void begin() {
+		if(epoch == Integer.MAX_VALUE) {
+			Arrays.fill(stamps, 0);
+			epoch = 0;
+		}
+		epoch++;
+		open.clear();
+		km = 0;
+		lastStart = start;
+		seenEdits = graph.getEditCount();
+		leastStraight = graph.getLeastStraightWeight();
+		leastDiagonal = graph.getLeastDiagonalWeight();
+		setRhs(goal, 0);
+		open.insert(goal, heuristic(goal), 0);
+		inserts++;
+		hasBegun = true;
+	}
+
+	// Takes the moves of the start and the changed pixels into account.
+	private void repair() {
+		if(start != lastStart) {
+			km += heuristicBetween(lastStart, start);
+			lastStart = start;
+		}
+
+		int edits = graph.getEditCount();
+		if(edits == seenEdits) return;
+
+		// A changed pixel may lower the least weights; then the keys are
+		//calculated with the new heuristic again.
+		double straight = graph.getLeastStraightWeight();
+		double diagonal = graph.getLeastDiagonalWeight();
+		if((straight < leastStraight) || (diagonal < leastDiagonal)) {
+			leastStraight = straight;
+			leastDiagonal = diagonal;
+			for(int i = 0;i < open.size();i++) {
+				int v = open.vertexAt(i);
+				double least = Math.min(gOf(v), rhsOf(v));
+				open.setKeysAt(i, least + heuristic(v) + km, least);
+			}
+			open.heapify();
+		}
+
+		// The changed pixel and the pixels around have new heirs.
+		for(int i = seenEdits;i < edits;i++) {
+			int edit = graph.getEdit(i);
+			int x = edit%width, y = edit/width;
+			for(int by = Math.max(0, y-1);by <= Math.min(height-1, y+1);by++) {
+				for(int bx = Math.max(0, x-1);bx <= Math.min(width-1, x+1);bx++) {
+					int v = bx + by*width;
+					if(v != goal) setRhs(v, leastThroughHeirs(v));
+					updateVertex(v);
+				}
+			}
+		}
+		seenEdits = edits;
+	}
+
+	// Settles the vertices until the start is consistent and every key in
+	//the queue is greater than its key.
+	private void computeShortestPath() {
+		while(!open.isEmpty()) {
+			double startLeast = Math.min(gOf(start), rhsOf(start));
+			double startKey1 = startLeast + heuristic(start) + km;
+			// The keys equal to the key of the start are taken too: with the 
+			//zero weights a vertex with the same key may still change it.
+			if(isLess(startKey1, startLeast, open.topKey1(), open.topKey2())
+					&& (rhsOf(start) <= gOf(start))) {
+				return;
+			}
+
+			int u = open.top();
+			expanded++;
+			double oldKey1 = open.topKey1(), oldKey2 = open.topKey2();
+			double least = Math.min(gOf(u), rhsOf(u));
+			double newKey1 = least + heuristic(u) + km;
+			if(isLess(oldKey1, oldKey2, newKey1, least)) {
+				open.update(u, newKey1, least);
+				keyChanges++;
+				continue;
+			}
+
+			int count = graph.expandReverse(u, predsOut, predWeightsOut);
+			relaxed += count;
+			if(gOf(u) > rhsOf(u)) {
+				// The cost of u is lower: its predecessors may get cheaper.
+				setG(u, rhsOf(u));
+				open.remove(u);
+				double gu = gOf(u);
+				for(int e = 0;e < count;e++) {
+					int s = predsOut[e];
+					if(s == goal) continue;
+					double through = predWeightsOut[e] + gu;
+					if(through < rhsOf(s)) setRhs(s, through);
+					updateVertex(s);
+				}
+			}else {
+				// The cost of u is higher: the predecessors whose rhs went
+				//through u, and u itself, are calculated again.
+				double oldG = gOf(u);
+				setG(u, Double.POSITIVE_INFINITY);
+				for(int e = 0;e < count;e++) {
+					int s = predsOut[e];
+					if((s != goal) && (rhsOf(s) == predWeightsOut[e] + oldG)) {
+						setRhs(s, leastThroughHeirs(s));
+					}
+					updateVertex(s);
+				}
+				if(u != goal) setRhs(u, leastThroughHeirs(u));
+				updateVertex(u);
+			}
+		}
+	}
+
+	// Puts the vertex into the queue if it is inconsistent, otherwise takes
+	//it out.
+	private void updateVertex(int v) {
+		double gv = gOf(v), rhsv = rhsOf(v);
+		if(gv != rhsv) {
+			double least = Math.min(gv, rhsv);
+			double key1 = least + heuristic(v) + km;
+			if(open.contains(v)) {
+				open.update(v, key1, least);
+				keyChanges++;
+			}else {
+				open.insert(v, key1, least);
+				inserts++;
+			}
+		}else if(open.contains(v)) {
+			open.remove(v);
+		}
+	}
+
+	// The least weight(v, s) + g(s) over the heirs s of v.
+	private double leastThroughHeirs(int v) {
+		double least = Double.POSITIVE_INFINITY;
+		int count = graph.expand(v, heirsOut, weightsOut);
+		for(int e = 0;e < count;e++) {
+			least = Math.min(least, weightsOut[e] + gOf(heirsOut[e]));
+		}
+		return least;
+	}
+
+	// Follows the heirs s of v with weight(v, s) + g(s) = rhs(v) from the
+	//start to the goal, depth first. A weight may be zero(two pixels which
+	//sums differ by one), so such heirs may lead around in a circle; the 
+	//vertices on the way are marked and a marked one is not taken again.
+	private Point[] buildPath() {
+		if(rhsOf(start) == Double.POSITIVE_INFINITY) return null;
+		if(markEpoch == Integer.MAX_VALUE) {
+			Arrays.fill(marks, 0);
+			markEpoch = 0;
+		}
+		markEpoch++;
+		
+		// path[i] is a vertex on the way and tried[i] the number of its heirs
+		//which have been tried.
+		int[] path = new int[16];
+		int[] tried = new int[16];
+		int length = 1;
+		path[0] = start;
+		marks[start] = markEpoch;
+		while((length > 0) && (path[length-1] != goal)) {
+			int v = path[length-1];
+			int count = graph.expand(v, heirsOut, weightsOut);
+			int next = -1;
+			for(int e = tried[length-1];(e < count) && (next == -1);e++) {
+				tried[length-1] = e + 1;
+				int s = heirsOut[e];
+				if((marks[s] != markEpoch) && (weightsOut[e] + gOf(s) == rhsOf(v))) {
+					next = s;
+				}
+			}
+			if(next == -1) {
+				length--;
+				continue;
+			}
+			marks[next] = markEpoch;
+			if(length == path.length) {
+				path = Arrays.copyOf(path, 2*length);
+				tried = Arrays.copyOf(tried, 2*length);
+			}
+			path[length] = next;
+			tried[length] = 0;
+			length++;
+		}
+		if(length == 0) return null;
+		
+		Point[] points = new Point[length];
+		for(int i = 0;i < length;i++) {
+			points[i] = new Point(path[i]%width, path[i]/width);
+		}
+		return points;
+	}
+
+	// The octile distance between the start and the vertex.
+	private double heuristic(int v) {
+		return heuristicBetween(start, v);
+	}
+
+	// The octile distance measured with the least weights, see
+	//Graph.octileEstimate(...).
+	private double heuristicBetween(int from, int to) {
+		int dx = Math.abs(from%width - to%width);
+		int dy = Math.abs(from/width - to/width);
+		int max = Math.max(dx, dy);
+		int min = Math.min(dx, dy);
+		return leastStraight*(max - min) + leastDiagonal*min;
+	}
+
+	// Whether the key [a1; a2] is less than the key [b1; b2].
+	private static boolean isLess(double a1, double a2, double b1, double b2) {
+		return (a1 < b1) || ((a1 == b1) && (a2 < b2));
+	}
+
+	private double gOf(int v) {
+		return (stamps[v] == epoch)? g[v] : Double.POSITIVE_INFINITY;
+	}
+
+	private double rhsOf(int v) {
+		return (stamps[v] == epoch)? rhs[v] : Double.POSITIVE_INFINITY;
+	}
+
+	private void setG(int v, double value) {
+		touch(v);
+		g[v] = value;
+	}
+
+	private void setRhs(int v, double value) {
+		touch(v);
+		rhs[v] = value;
+	}
+
+	// Makes the values of the vertex valid in this epoch.
+	private void touch(int v) {
+		if(stamps[v] != epoch) {
+			stamps[v] = epoch;
+			g[v] = Double.POSITIVE_INFINITY;
+			rhs[v] = Double.POSITIVE_INFINITY;
+		}
+	}
+
+	/**
+	 * Indexed binary min-heap of vertices keyed by two doubles in
+	 *lexicographic order; the same as IndexedHeap otherwise.
+	 */
+	private static class KeyHeap {
+
+		private int[] heap;
+		private double[] keys1;
+		private double[] keys2;
+		private int size;
+
+		// The greatest size since resetPeakSize().
+		private int peakSize;
+
+		// position[v] is the index of the vertex v in the heap array or -1.
+		private final int[] position;
+
+		KeyHeap(int capacity) {
+			this.heap = new int[16];
+			this.keys1 = new double[16];
+			this.keys2 = new double[16];
+			this.size = 0;
+			this.position = new int[capacity];
+			Arrays.fill(position, -1);
+		}
+
+		int size() {
+			return size;
+		}
+
+		int getPeakSize() {
+			return peakSize;
+		}
+
+		void resetPeakSize() {
+			peakSize = size;
+		}
+
+		boolean isEmpty() {
+			return size == 0;
+		}
+
+		boolean contains(int v) {
+			return position[v] != -1;
+		}
+
+		int top() {
+			return heap[0];
+		}
+
+		double topKey1() {
+			return keys1[0];
+		}
+
+		double topKey2() {
+			return keys2[0];
+		}
+
+		// The vertex at the index i of the heap array, 0 <= i < size().
+		int vertexAt(int i) {
+			return heap[i];
+		}
+
+		// Sets the keys at the index i of the heap array; heapify() must be
+		//invoked after.
+		void setKeysAt(int i, double key1, double key2) {
+			keys1[i] = key1;
+			keys2[i] = key2;
+		}
+
+		// Restores the heap order of the whole array in O(size()).
+		void heapify() {
+			for(int i = size/2 - 1;i >= 0;i--) {
+				siftDown(i);
+			}
+		}
+
+		void insert(int v, double key1, double key2) {
+			if(size == heap.length) {
+				heap = Arrays.copyOf(heap, 2*size);
+				keys1 = Arrays.copyOf(keys1, 2*size);
+				keys2 = Arrays.copyOf(keys2, 2*size);
+			}
+			set(size, v, key1, key2);
+			size++;
+			if(size > peakSize) peakSize = size;
+			siftUp(size - 1);
+		}
+
+		// Sets the key of the vertex in the heap, greater or less.
+		void update(int v, double key1, double key2) {
+			int i = position[v];
+			set(i, v, key1, key2);
+			siftUp(i);
+			siftDown(position[v]);
+		}
+
+		void remove(int v) {
+			int i = position[v];
+			position[v] = -1;
+			size--;
+			if(i == size) return;
+			int moved = heap[size];
+			set(i, moved, keys1[size], keys2[size]);
+			siftUp(i);
+			siftDown(position[moved]);
+		}
+
+		void clear() {
+			for(int i = 0;i < size;i++) {
+				position[heap[i]] = -1;
+			}
+			size = 0;
+		}
+
+		private void set(int i, int v, double key1, double key2) {
+			heap[i] = v;
+			keys1[i] = key1;
+			keys2[i] = key2;
+			position[v] = i;
+		}
+
+		private boolean isLessAt(int i, int j) {
+			return isLess(keys1[i], keys2[i], keys1[j], keys2[j]);
+		}
+
+		private void swap(int i, int j) {
+			int v = heap[i];
+			double key1 = keys1[i], key2 = keys2[i];
+			set(i, heap[j], keys1[j], keys2[j]);
+			set(j, v, key1, key2);
+		}
+
+		private void siftUp(int i) {
+			while(i > 0) {
+				int parent = (i - 1)/2;
+				if(!isLessAt(i, parent)) break;
+				swap(i, parent);
+				i = parent;
+			}
+		}
+
+		private void siftDown(int i) {
+			while(true) {
+				int left = 2*i + 1;
+				if(left >= size) break;
+				int min = left;
+				if((left + 1 < size) && isLessAt(left + 1, left)) min = left + 1;
+				if(!isLessAt(min, i)) break;
+				swap(i, min);
+				i = min;
+			}
+		}
+	}
+}
@@ -0,0 +1,540 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Finds the shortest paths from one source to all the vertices of a Graph
+ *with the delta-stepping algorithm (U. Meyer, P. Sanders, Delta-stepping:
+ *a parallelizable shortest path algorithm, 2003), on a fork/join pool.
+ * The vertices are kept in buckets by their values: the bucket i keeps the
+ *vertices with i*delta <= value < (i+1)*delta. The buckets are processed in
+ *their order; the edges with weights up to delta(light) are relaxed from all
+ *the vertices of the current bucket at once, in parallel, again and again
+ *while the bucket gets new vertices, and then the heavy edges are relaxed
+ *once from all the vertices the bucket has had. With a small delta it is
+ *Dijkstra's algorithm, with a big one Bellman-Ford's; in between, a bucket
+ *has many vertices to relax in parallel and a vertex is relaxed only a few
+ *times.
+ * The values are the same as Dijkstra's algorithm gives: the value of a
+ *vertex is the least sum of the weights of a path to it, summed from the
+ *source in double, whatever the order of the relaxations is. The prevs are
+ *set when the values are known: the prev of a vertex is the least vertex
+ *from which the edge gives exactly its value, so they do not depend on the
+ *threads either.
+ * Implementation notes: the values are kept in AtomicLongArray as
+ *Double.doubleToRawLongBits(value) + 1, where zero means infinity, and are
+ *decreased with compareAndSet(...); for the non-negative doubles the order
+ *of the bits is the order of the values. The buckets are cyclic, there are
+ *only maxWeight/delta + 2 of them, since no edge reaches further. A vertex
+ *may be in a bucket more times; the copies which are not in the bucket of
+ *their value any more are skipped. It takes about 24 bytes per vertex.
+ * @author dqdo
+ * @version 1.0
+ */
+class DeltaStepping {
+
+	// The number of vertices a task relaxes without splitting further.
+	private static final int GRAIN = 256;
+
+	// The most buckets; a smaller delta is refused.
+	private static final int MAX_BUCKETS = 1 << 22;
+
+	// The vertices a trial run of tuneDelta(...) reaches from one source, and
+	//the number of the sources.
+	private static final int TRIAL_VERTICES = 1 << 15;
+	private static final int TRIAL_SOURCES = 3;
+
+	// How many more relaxations per vertex than with the least delta the
+	//tuned delta may take.
+	private static final double TUNING_SLACK = 1.02;
+
+	private final Graph graph;
+	private final int size;
+	private final int maxHeirs;
+
+	// The greatest and the least positive weight of the graph, and the delta
+	//tuned for them; zero until getTunedDelta(...) tunes it.
+	private final double maxWeight;
+	private final double leastWeight;
+	private double tunedDelta;
+
+	/**
+	 * Scans the weights of the graph.
+	 * @param graph
+	 * @param pool
+	 * @throws IllegalArgumentException if a weight is negative or NaN.
+	 */
+	DeltaStepping(Graph graph, ForkJoinPool pool) {
+		this.graph = graph;
+		this.size = graph.getSize();
+		this.maxHeirs = graph.getMaxHeirs();
+
+		WeightScan scan = new WeightScan(0, size);
+		pool.invoke(scan);
+		if(scan.isNegative) {
+			throw new IllegalArgumentException(
+					"The delta-stepping needs weights which are not negative!");
+		}
+		this.maxWeight = scan.max;
+		this.leastWeight = scan.least;
+	}
+
+	/**
+	 * Tunes delta for the weights of the graph. The weights of 
+	 *an image(see ImageCsrBuilder) are abs(difference + 1) of the colour sums, straight,
+	 *or DIAGONAL times it: inside a region of one colour they are 1 and
+	 *sqrt(2), and big across the edges of the regions. A bigger delta gives
+	 *bigger buckets, so more vertices to relax in parallel, and it costs 
+	 *nothing while the light edges reach the vertices in the order of their 
+	 *values, as they do inside a region of one colour; where the colours 
+	 *vary, a vertex reached by a light edge is often reached again by a
+	 *cheaper path of more light edges, and the relaxations multiply. So 
+	 *the best delta depends on how the regions lie, not only on the weights:
+	 *on the maps at hand it is between 6 and 300.
+	 * The candidates are sqrt(2) times the least positive weight(so both
+	 *steps of the cheapest region are light), doubled up to the greatest
+	 *weight. Each of them runs from TRIAL_SOURCES sources until it reaches
+	 *TRIAL_VERTICES vertices, and the greatest one which relaxes a vertex at
+	 *most TUNING_SLACK times as often as the least one is taken. The trial
+	 *runs cost a few full runs, so they are run once per graph.
+	 * @param pool
+	 * @return the delta.
+	 */
+	private double tuneDelta(ForkJoinPool pool) {
+		double least = Math.max(Math.sqrt(2)*leastWeight, maxWeight/(MAX_BUCKETS - 2));
+		if(!(least > 0) || (least == Double.POSITIVE_INFINITY)) return 1;
+
+		int[] sources = new int[TRIAL_SOURCES];
+		int count = 0;
+		for(int i = 0;i < TRIAL_SOURCES;i++) {
+			int v = (int)((long)size*(2*i + 1)/(2*TRIAL_SOURCES));
+			while((v < size) && !graph.hasVertex(v)) v++;
+			if(v < size) sources[count++] = v;
+		}
+		if(count == 0) return least;
+
+		double best = least, leastRatio = 0;
+		for(double delta = least;delta < 2*maxWeight;delta *= 2) {
+			long work = 0, reached = 0;
+			for(int i = 0;i < count;i++) {
+				Run r = new Run(delta, pool, TRIAL_VERTICES);
+				r.value.set(sources[i], bitsOf(0));
+				r.buckets[0].add(sources[i]);
+				r.settle();
+				work += r.work;
+				reached += r.reached;
+			}
+			double ratio = (double)work/reached;
+			if(delta == least) {
+				leastRatio = ratio;
+			}else if(ratio > TUNING_SLACK*leastRatio) {
+				break;
+			}
+			best = delta;
+		}
+		return best;
+	}
+
+	/**
+	 * @param pool - the pool the trial runs run on, the first time.
+	 * @return the delta tuned for the graph, see tuneDelta(...).
+	 */
+	synchronized double getTunedDelta(ForkJoinPool pool) {
+		if(tunedDelta == 0) tunedDelta = tuneDelta(pool);
+		return tunedDelta;
+	}
+
+	/**
+	 * Finds the shortest paths from the source to all the vertices.
+	 * @param source - a vertex which is not null.
+	 * @param delta - the width of a bucket.
+	 * @param pool - the pool the relaxations run on.
+	 * @return the values and the prevs of all the vertices.
+	 * @throws IllegalArgumentException if delta is not positive or so small
+	 *that there would be more than MAX_BUCKETS buckets.
+	 */
+	SingleSourcePaths run(int source, double delta, ForkJoinPool pool) {
+		if(!(delta > 0) || (maxWeight/delta > MAX_BUCKETS - 2)) {
+			throw new IllegalArgumentException("The delta " + delta
+					+ " is not valid for the greatest weight " + maxWeight + "!");
+		}
+		SearchListener listener = graph.getSearchListener();
+		long begin = (listener == null)? 0 : System.nanoTime();
+		Run r = new Run(delta, pool, Integer.MAX_VALUE);
+		r.value.set(source, bitsOf(0));
+		r.buckets[0].add(source);
+		r.queued++;
+		r.settle();
+
+		double[] values = new double[size];
+		AtomicIntegerArray prev = new AtomicIntegerArray(size);
+		pool.invoke(new PrevScan(r.value, values, prev, 0, size));
+		prev.set(source, source);
+		int[] prevs = new int[size];
+		for(int v = 0;v < size;v++) prevs[v] = prev.get(v);
+		resolveTies(values, prevs, source);
+
+		// There is no destination; the farthest reached vertex is reported
+		//as one, so the cost tells how far the run has gone. The inserts 
+		//are the settled vertices, the other additions to the buckets are
+		//counted as the decreases of keys.
+		if(listener != null) {
+			int farthest = source;
+			for(int v = 0;v < size;v++) {
+				if((values[v] != Double.POSITIVE_INFINITY) && (values[v] > values[farthest])) {
+					farthest = v;
+				}
+			}
+			graph.report(listener, "delta-stepping", source, farthest, true, 
+					(int)r.reached, r.relaxed.get(), (int)r.queued, 0, r.peakBucket,
+					values[farthest], begin);
+		}
+		return new SingleSourcePaths(graph, source, values, prevs, delta, r.phases, r.rounds);
+	}
+
+	private static long bitsOf(double value) {
+		return Double.doubleToRawLongBits(value) + 1;
+	}
+
+	private static double valueOf(long bits) {
+		return (bits == 0)? Double.POSITIVE_INFINITY : Double.longBitsToDouble(bits - 1);
+	}
+
+	/**
+	 * The state of one run: the values, the buckets and the phases.
+	 */
+	private class Run {
+		final double delta;
+		final ForkJoinPool pool;
+		final AtomicLongArray value;
+		final IntArray[] buckets;
+
+		// taken[v] is the last round the vertex v has been relaxed in, and
+		//inSettled[v] the last phase(bucket) it has been added to settled.
+		final int[] taken;
+		final int[] inSettled;
+		int rounds;
+		int phases;
+
+		// The run stops when it has reached limit vertices; work is the 
+		//number of the relaxed vertices(with all their light or heavy edges).
+		final int limit;
+		long reached;
+		long work;
+
+		// The additions to the buckets, the most vertices a bucket has had
+		//at the start of a round, and the relaxed edges, see SearchStats.
+		long queued;
+		int peakBucket;
+		final AtomicLong relaxed = new AtomicLong();
+
+		Run(double delta, ForkJoinPool pool, int limit) {
+			this.delta = delta;
+			this.pool = pool;
+			this.limit = limit;
+			this.value = new AtomicLongArray(size);
+			this.buckets = new IntArray[(int)(maxWeight/delta) + 2];
+			for(int i = 0;i < buckets.length;i++) buckets[i] = new IntArray(16);
+			this.taken = new int[size];
+			this.inSettled = new int[size];
+		}
+
+		long bucketOf(int vertIndex) {
+			return (long)(valueOf(value.get(vertIndex))/delta);
+		}
+
+		IntArray bucket(long index) {
+			return buckets[(int)(index % buckets.length)];
+		}
+
+		void settle() {
+			IntArray frontier = new IntArray(16);
+			IntArray settled = new IntArray(16);
+			long current = 0;
+			while(true) {
+				// The next bucket which is not empty.
+				int k = 0;
+				while((k < buckets.length) && (bucket(current + k).size == 0)) k++;
+				if(k == buckets.length) return;
+				current += k;
+				phases++;
+				settled.size = 0;
+
+				IntArray bucket = bucket(current);
+				while(bucket.size > 0) {
+					rounds++;
+					peakBucket = Math.max(peakBucket, bucket.size);
+					frontier.size = 0;
+					for(int i = 0;i < bucket.size;i++) {
+						int v = bucket.data[i];
+						if((taken[v] == rounds) || (bucketOf(v) != current)) continue;
+						taken[v] = rounds;
+						frontier.add(v);
+						if(inSettled[v] != phases) {
+							inSettled[v] = phases;
+							settled.add(v);
+							reached++;
+						}
+					}
+					bucket.size = 0;
+					relax(frontier, true);
+					if(reached >= limit) return;
+				}
+				relax(settled, false);
+			}
+		}
+
+		// Relaxes the light or the heavy edges of the given vertices in
+		//parallel and puts the heirs with less values into their buckets.
+		void relax(IntArray vertices, boolean isLight) {
+			if(vertices.size == 0) return;
+			work += vertices.size;
+			IntArray[] reached = new IntArray[(vertices.size + GRAIN - 1)/GRAIN];
+			pool.invoke(new Relax(this, vertices.data, reached, isLight,
+					0, reached.length, vertices.size));
+			for(IntArray heirs : reached) {
+				queued += heirs.size;
+				for(int i = 0;i < heirs.size;i++) {
+					int h = heirs.data[i];
+					bucket(bucketOf(h)).add(h);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Relaxes the edges of the vertices of the leaves from,...,to-1, i.e.
+	 *vertices[from*GRAIN],...; the heirs which values are decreased by the
+	 *leaf l are put into reached[l].
+	 */
+	private class Relax extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final Run run;
+		private final int[] vertices;
+		private final IntArray[] reached;
+		private final boolean isLight;
+		private final int from;
+		private final int to;
+		private final int count;
+
+		Relax(Run run, int[] vertices, IntArray[] reached, boolean isLight,
+				int from, int to, int count) {
+			this.run = run;
+			this.vertices = vertices;
+			this.reached = reached;
+			this.isLight = isLight;
+			this.from = from;
+			this.to = to;
+			this.count = count;
+		}
+
+		@Override
+		protected void compute() {
+			if(to - from > 1) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new Relax(run, vertices, reached, isLight, from, middle, count),
+						new Relax(run, vertices, reached, isLight, middle, to, count));
+				return;
+			}
+			AtomicLongArray value = run.value;
+			IntArray out = new IntArray(GRAIN);
+			int[] heirsOut = new int[maxHeirs]; float[] weightsOut = new float[maxHeirs];
+			long edges = 0;
+			for(int i = from*GRAIN;i < Math.min(count, (from + 1)*GRAIN);i++) {
+				int v = vertices[i];
+				double currValue = valueOf(value.get(v));
+				int n = graph.expand(v, heirsOut, weightsOut);
+				for(int e = 0;e < n;e++) {
+					if((weightsOut[e] <= run.delta) != isLight) continue;
+					edges++;
+					int heir = heirsOut[e];
+					long bits = bitsOf(currValue + weightsOut[e]);
+					while(true) {
+						long old = value.get(heir);
+						if((old != 0) && (old <= bits)) break;
+						if(value.compareAndSet(heir, old, bits)) {
+							out.add(heir);
+							break;
+						}
+					}
+				}
+			}
+			reached[from] = out;
+			run.relaxed.addAndGet(edges);
+		}
+	}
+
+	/**
+	 * Finds the greatest and the least positive weight of the vertices 
+	 *from,...,to-1 and whether some weight is negative or NaN.
+	 */
+	private class WeightScan extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final int from;
+		private final int to;
+		double max;
+		double least = Double.POSITIVE_INFINITY;
+		boolean isNegative;
+
+		WeightScan(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if(to - from > 16*GRAIN) {
+				int middle = (from + to) >>> 1;
+				WeightScan left = new WeightScan(from, middle);
+				WeightScan right = new WeightScan(middle, to);
+				invokeAll(left, right);
+				max = Math.max(left.max, right.max);
+				least = Math.min(left.least, right.least);
+				isNegative = left.isNegative || right.isNegative;
+				return;
+			}
+			int[] heirsOut = new int[maxHeirs]; float[] weightsOut = new float[maxHeirs];
+			for(int v = from;v < to;v++) {
+				int n = graph.expand(v, heirsOut, weightsOut);
+				for(int e = 0;e < n;e++) {
+					if(!(weightsOut[e] >= 0)) isNegative = true;
+					max = Math.max(max, weightsOut[e]);
+					if(weightsOut[e] > 0) least = Math.min(least, weightsOut[e]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Copies the values of the vertices from,...,to-1 and sets the prev of
+	 *every heir of them which value is exactly the value of the vertex plus
+	 *the weight and greater than the value of the vertex, to the least such
+	 *vertex.
+	 */
+	private class PrevScan extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final AtomicLongArray value;
+		private final double[] values;
+		private final AtomicIntegerArray prev;
+		private final int from;
+		private final int to;
+
+		PrevScan(AtomicLongArray value, double[] values, AtomicIntegerArray prev,
+				int from, int to) {
+			this.value = value;
+			this.values = values;
+			this.prev = prev;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if(to - from > 16*GRAIN) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new PrevScan(value, values, prev, from, middle),
+						new PrevScan(value, values, prev, middle, to));
+				return;
+			}
+			int[] heirsOut = new int[maxHeirs]; float[] weightsOut = new float[maxHeirs];
+			for(int v = from;v < to;v++) {
+				double currValue = valueOf(value.get(v));
+				values[v] = currValue;
+				if(currValue == Double.POSITIVE_INFINITY) continue;
+				int n = graph.expand(v, heirsOut, weightsOut);
+				for(int e = 0;e < n;e++) {
+					double heirValue = valueOf(value.get(heirsOut[e]));
+					if((currValue + weightsOut[e] != heirValue) || (currValue == heirValue)) {
+						continue;
+					}
+					// The prevs are 1 + the vertex, so zero means none.
+					int heir = heirsOut[e];
+					while(true) {
+						int old = prev.get(heir);
+						if((old != 0) && (old <= v + 1)) break;
+						if(prev.compareAndSet(heir, old, v + 1)) break;
+					}
+				}
+			}
+		}
+	}
+
+	// Turns the prevs of PrevScan into vertices, -1 for none, and sets the
+	//prevs of the vertices which are reached only by the edges of zero weight
+	//from the vertices of the same value: from the vertices which have prevs
+	//along such edges, in the order of the vertices, so there is no cycle.
+	private void resolveTies(double[] values, int[] prevs, int source) {
+		List<Integer> unresolved = new ArrayList<Integer>();
+		for(int v = 0;v < size;v++) {
+			if(v != source) prevs[v]--;
+			if((prevs[v] == -1) && (values[v] != Double.POSITIVE_INFINITY)) {
+				unresolved.add(v);
+			}
+		}
+		if(unresolved.isEmpty()) return;
+
+		// The edges of zero weight between the vertices of the same value
+		//into the unresolved vertices, as from << 32 | to, sorted.
+		long[] edges = new long[16];
+		int count = 0;
+		int[] heirsOut = new int[maxHeirs]; float[] weightsOut = new float[maxHeirs];
+		boolean[] isUnresolved = new boolean[size];
+		for(int v : unresolved) isUnresolved[v] = true;
+		for(int v = 0;v < size;v++) {
+			if(values[v] == Double.POSITIVE_INFINITY) continue;
+			int n = graph.expand(v, heirsOut, weightsOut);
+			for(int e = 0;e < n;e++) {
+				int heir = heirsOut[e];
+				if(isUnresolved[heir] && (heir != v) && (values[v] + weightsOut[e] == values[heir])) {
+					if(count == edges.length) edges = Arrays.copyOf(edges, 2*count);
+					edges[count++] = ((long)v << 32) | heir;
+				}
+			}
+		}
+		Arrays.sort(edges, 0, count);
+
+		// Breadth first from the resolved ends of the edges.
+		int[] queue = new int[size];
+		int head = 0, tail = 0;
+		for(int i = 0;i < count;i++) {
+			int v = (int)(edges[i] >>> 32);
+			if(!isUnresolved[v] && ((i == 0) || ((int)(edges[i-1] >>> 32) != v))) {
+				queue[tail++] = v;
+			}
+		}
+		while(head < tail) {
+			int v = queue[head++];
+			int i = Arrays.binarySearch(edges, 0, count, (long)v << 32);
+			if(i < 0) i = -i - 1;
+			for(;(i < count) && ((int)(edges[i] >>> 32) == v);i++) {
+				int heir = (int)edges[i];
+				if(!isUnresolved[heir]) continue;
+				isUnresolved[heir] = false;
+				prevs[heir] = v;
+				queue[tail++] = heir;
+			}
+		}
+	}
+
+	private static class IntArray {
+		int[] data;
+		int size;
+
+		IntArray(int capacity) {
+			data = new int[Math.max(capacity, 16)];
+		}
+
+		void add(int value) {
+			if(size == data.length) data = Arrays.copyOf(data, size*2);
+			data[size++] = value;
+		}
+	}
+}
@@ -1,15 +1,27 @@
 import java.awt.Point;
 import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.WritableRaster;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.Arrays;
 import java.util.InputMismatchException;
-import java.util.PriorityQueue;
-import java.util.Scanner;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 
 import javax.imageio.ImageIO;
@@ -24,9 +36,9 @@ public class Graph {
 	
 	/**
 	 * Implements a single vertex with list of heirs(neighbours), list of
-	 *weights, the value of vertex, the index of vertex which is useful when 
-	 *search vertexIndex of given vertex, prev and isVisited fields useful 
-	 *in search operations.
+	 *weights and the index of vertex which is useful when search vertexIndex
+	 *of given vertex. The state of the searches is not kept in the vertices,
+	 *but in SearchContext.
 	 *
 	 * @author dqdo
 	 * @version 1.0
@@ -36,9 +48,6 @@ public class Graph {
 		int index;
 		ArrayList<Integer> heirs;
 		ArrayList<Float> weights ;
-		int prev;
-		double value;
-		boolean isVisited;
 		
 		/**
 		 * Constructs vertex at the given index of the list with vertices that
@@ -60,9 +69,6 @@ public class Graph {
 			this.heirs = new ArrayList<Integer>(heirs.size());
 			this.weights = new ArrayList<Float>(edges.size());
 			this.index = vertIndex;
-			this.prev = 0;
-			this.isVisited = false;
-			this.value = Double.POSITIVE_INFINITY;
 			
 			vertices.set(vertIndex, this);
 			
@@ -85,9 +91,6 @@ public class Graph {
 			this.weights = new ArrayList<Float>(8);
 			
 			this.index = vertIndex;
-			this.prev = 0;
-			this.isVisited = false;
-			this.value = Double.POSITIVE_INFINITY;
 			vertices.set(vertIndex, this);
 			verticesNumber++;
 		}
@@ -98,28 +101,110 @@ public class Graph {
 	
 	
 	
-	// Implements comparator class to compare Vertex objects.
-	private class VertexValueComparator implements Comparator<Vertex> {
-		
-		public int compare(Vertex v1, Vertex v2) {
-			if(v1.value > v2.value) {
-				return 1;
-			}
-			if(v1.value < v2.value) {
-				return -1;
-			}
-			return 0;
-		}
-		
-		
+	// The number of children of every node of the IndexedHeap used in the
+	//searches.
+	private static final int HEAP_ARITY = 4;
+	
+	
+	/**
+	 * The queues shortestPathDijkstra(...) can keep the reached vertices in.
+	 *	HEAP - an indexed 4-ary heap(see IndexedHeap); O(log(V)) per 
+	 *operation.
+	 *	RADIX - a monotone radix heap(see RadixHeap); O(1) amortised per
+	 *operation, since the weights are not negative and the values of the 
+	 *polled vertices never decrease.
+	 * Both give paths of the same cost; of more such paths they may give
+	 *different ones.
+	 */
+	public enum QueueType {HEAP, RADIX}
+	
+	/**
+	 * The ways the Graph can keep its vertices.
+	 *	LISTS - a Vertex object per vertex with lists of heirs and weights. It 
+	 *is the most flexible way, but costs the most memory.
+	 *	CSR - compressed sparse row arrays; the heirs and the weights of all
+	 *the vertices are kept one after another in two primitive arrays and a 
+	 *third array keeps where the heirs of every vertex begin. It costs about 
+	 *8 bytes per edge plus 4 bytes per vertex and there is no object per
+	 *vertex at all.
+	 *	IMPLICIT - nothing is set in advance; the Graph keeps only the pixels
+	 *of the image(without copying them) and the forbidden color, and the 
+	 *heirs and the weights of a vertex are calculated by the same rules as
+	 *ImageCsrBuilder.heirsOf(...) every time they are needed. The construction costs O(1)
+	 *and the memory is the memory of the image itself. It is available only 
+	 *for images which pixels are interleaved bytes, e.g. the BM(.bmp) files.
+	 *	MAPPED - the same arrays as CSR, but they are not loaded: they are 
+	 *read in place from a MAP2 file(see Map.createMap2(...)) mapped into 
+	 *memory, so the construction costs O(1) and the memory is shared with 
+	 *the file cache. It is available only for MAP2 files.
+	 */
+	public enum Storage {
+		LISTS,
+		CSR,
+		IMPLICIT,
+		MAPPED
 	}
 	
 	
 	// Contains all the vertices. The index of the vertex always coincide with
 	//the indexes of this list.
 	// Faster but more inflexible way is Vertex[] implementation.
+	// It is null if the storage is not Storage.LISTS.
 	private ArrayList<Vertex> vertices;
 	
+	// The way the vertices are kept.
+	private Storage storage;
+	
+	// The compressed sparse row arrays when the storage is Storage.CSR. The
+	//heirs of the vertex v are heirs[offsets[v]],...,heirs[offsets[v+1]-1] and
+	//their weights are on the same positions in the weights array.
+	private int[] offsets;
+	private int[] heirs;
+	private float[] weights;
+	
+	// The compressed sparse row arrays when the storage is Storage.MAPPED; 
+	//the same as offsets, heirs and weights, but views of a mapped MAP2 file.
+	private IntBuffer mappedOffsets;
+	private IntBuffer mappedHeirs;
+	private FloatBuffer mappedWeights;
+	
+	// reverseWeights[e] is the weight from heirs[e] back to its vertex, i.e.
+	//the weights of the predecessors in the same order as the heirs. It is 
+	//set the first time expandReverse(...) needs it.
+	private volatile float[] reverseWeights;
+	
+	// The pixels of the image when the storage is Storage.IMPLICIT. That is
+	//the data buffer of the image itself, not a copy. With Storage.LISTS set
+	//from an image it is a copy of the pixels, taken when the graph is set
+	//or, for an image file, at the first setPixelColor(...), see 
+	//initEditableRaster(). The bytes of the pixel 
+	//(x,y) begins at rasterOrigin + y*scanlineStride + x*pixelStride and its
+	//red, green and blue bytes(the ones compared with the forbidden color)
+	//are at the channelOffsets from there.
+	private byte[] raster;
+	private int rasterOrigin;
+	private int pixelStride;
+	private int scanlineStride;
+	private int[] channelOffsets;
+	
+	// The forbidden color when the raster is kept.
+	private int forbiddenRed;
+	private int forbiddenGreen;
+	private int forbiddenBlue;
+	
+	// The image file a LISTS graph has been set from; it is read again at 
+	//the first setPixelColor(...), so a graph which is never changed does
+	//not keep the pixels. It is null once the raster is taken.
+	private File pixelsFile;
+	
+	// The weight multiplier of the diagonal heirs, the same as in ImageCsrBuilder.
+	private static final float DIAGONAL = (float)Math.sqrt(2);
+	
+	// The relative x and y of the eight heirs in the order of ImageCsrBuilder:
+	//Left, Right, Up, Down, Up-Left, Up-Right, Down-Left, Down-Right.
+	private static final int[] HEIR_DX = {-1, 1, 0, 0, -1, 1, -1, 1};
+	private static final int[] HEIR_DY = {0, 0, -1, 1, -1, -1, 1, 1};
+	
 	// Includes all vertices no matter null or not.
 	private int size;
 	
@@ -136,197 +221,437 @@ public class Graph {
 	// The number of vertices excluding the null vertices in the vertices list.
 	private int verticesNumber;
 	
+	// The least weight of a straight and of a diagonal step in the graph, 
+	//used by the heuristic of the A* algorithm; set by initLeastWeights().
+	private double leastStraightWeight;
+	private double leastDiagonalWeight;
+	private volatile boolean hasLeastWeights;
+	
+	// The bit v of uniformCells is set if the vertex v is inside a uniform
+	//region, i.e. it has all the pixels around it that are not forbidden as
+	//heirs and predecessors with the weights 1 and DIAGONAL. Used by the 
+	//Jump Point Search; set by initUniformCells(), null if the graph is not a
+	//pixel grid. The bit v of passableCells is set if the vertex v is not 
+	//null, so the jumps do not ask the storage.
+	private long[] uniformCells;
+	private long[] passableCells;
+	private volatile boolean hasUniformCells;
+	
+	// The delta-stepping engine of shortestPathsFrom(...) with the delta 
+	//tuned for this graph; set by initDeltaStepping(...).
+	private DeltaStepping deltaStepping;
+	
+	// The connected components, so the searches between two of them return
+	//at once. They take 4 bytes per pixel, so they are labelled when the
+	//graph is set only for LISTS and CSR; IMPLICIT and MAPPED graphs, which
+	//do not keep per pixel arrays, label them only when getComponent(...),
+	//getComponentCount() or snapToComponent(...) is called. hasComponents
+	//tells whether the graph keeps them; setPixelColor(...) drops them when
+	//a pixel becomes forbidden or passable and initComponents() labels 
+	//them again.
+	private volatile ComponentLabels components;
+	private volatile boolean hasComponents;
+	
+	// The forbidden color the graph has been set with as 0x00RRGGBB of its
+	//bytes, -1 if there was none(e.g. a HM file), and the fingerprint of the
+	//edges the saved ContractionHierarchy and the Landmarks are checked 
+	//with; set by getFingerprint(), dropped by setPixelColor(...).
+	private int forbiddenColor = -1;
+	private volatile GraphFingerprint fingerprint;
+	
+	// The vertices which pixels setPixelColor(...) has changed, in the order
+	//of the changes: edits[0],...,edits[editCount-1]. The replanners(see 
+	//DStarLite) repair their paths by them. Guarded by this.
+	private int[] edits = new int[16];
+	private int editCount;
+	
+	// The search state of the last source of shortestPathCached(...), or 
+	//null; guarded by this.
+	private ShortestPathTree lastTree;
+	
+	// The greatest number of heirs a vertex has, i.e. how long the arrays
+	//passed to expand(...) must be. It is 8 for graphs set from images.
+	private int maxHeirs;
+	
+	// The free search states; a search takes one with acquireContext() and
+	//gives it back with releaseContext(...), so the searches do not allocate
+	//O(V) arrays and the concurrent searches do not share any state.
+	private final ConcurrentLinkedQueue<SearchContext> contexts = 
+			new ConcurrentLinkedQueue<SearchContext>();
+	
+	// The free searches of shortestPathBidirectional(...), two per query, 
+	//pooled the same way as the contexts.
+	private final ConcurrentLinkedQueue<Frontier> frontiers = 
+			new ConcurrentLinkedQueue<Frontier>();
+	
+	// Gets the SearchStats of every search; null if they are not reported,
+	//then the searches do not even read the clock.
+	private volatile SearchListener searchListener;
+	
 	// These are internal getters and setters. There are no boundary or any other control,
 	//so they are faster. The meaning of all this internals is precapsulation, i.e. they
 	//must remain unchanged during any graph implementation changes.
-	private int getHeight() {
+	// The ones without private modifier are used by the searches that live
+	//outside this class (e.g. ContractionHierarchy).
+	int getHeight() {
 		return this.height;
 	}
 	
-	private int getWidth() {
+	int getWidth() {
 		return this.width;
 	}
 	
-	/**
-	 * Gets the vertex at the given vertexIndex in the vertices list.
-	 * @param vertIndex
-	 * @return the vertex of the given index that vertices list contains.
-	 *It may return null pointer if there's no vertex at that position it the
-	 *vertices list.
-	 * @exception Unchecked NullPointerException if the index is exceed vertices
-	 *  list size.
-	 */
-	private Vertex getVertexOf(int vertIndex) {
-		return vertices.get(vertIndex);
+	int getMaxHeirs() {
+		return this.maxHeirs;
 	}
 	
 	/**
-	 * Gets the heir(neighbour) of the given vertex represented with its index.
-	 *The desired heir is given(passed) by its index in the heir's list in the 
-	 *vertex, so it is relative index. The absolute heir index is returned and
-	 *it represents the index of the desired heir vertex.
-	 * @param ofRelativHeirIndex - the relative(inner) heir index.
-	 * @param ofVertIndex - the index of the vertex which heir we want to obtain.
-	 * @return the vertexIndex of the heir with relative index ofRelativHeirIndex.
-	 * @exception Unchecked NullPointerException if ofRelativHeirIndex exceed 
-	 * the ofVertIndex heir's list size, or ofVertIndex exceed vertices list size.
+	 * Gets the fingerprint of the edges of the graph(see GraphFingerprint);
+	 *it is computed at the first call in O(E) and kept until a pixel is
+	 *changed by setPixelColor(...).
+	 * @return the fingerprint.
 	 */
-	private int getHeir(int ofRelativHeirIndex, int ofVertIndex) {
-		return vertices.get(ofVertIndex).heirs.get(ofRelativHeirIndex);
+	GraphFingerprint getFingerprint() {
+		GraphFingerprint result = fingerprint;
+		if(result == null) {
+			synchronized(this) {
+				result = fingerprint;
+				if(result == null) {
+					result = GraphFingerprint.of(this, forbiddenColor);
+					fingerprint = result;
+				}
+			}
+		}
+		return result;
 	}
 	
-	private int getIndexOf(Vertex vertex) {
-		return vertex.index;
+	// The forbidden color as 0x00RRGGBB of its bytes, -1 if a saturation is
+	//null.
+	private static int packColor(Integer fr, Integer fg, Integer fb) {
+		if((fr == null) || (fg == null) || (fb == null)) return -1;
+		return ((fr & 0xff) << 16) | ((fg & 0xff) << 8) | (fb & 0xff);
 	}
 	
-	private int countHeirsOf(int vertIndex) {
-		return vertices.get(vertIndex).heirs.size();
+	/**
+	 * Checks whether there is a vertex at the given vertexIndex, i.e. it is 
+	 *not null(forbidden).
+	 * @param vertIndex
+	 * @return true if the vertex is not null.
+	 * @exception Unchecked IndexOutOfBoundsException if the index exceed 
+	 *getSize().
+	 */
+	boolean hasVertex(int vertIndex) {
+		if(storage == Storage.CSR) {
+			return offsets[vertIndex+1] != offsets[vertIndex];
+		}
+		if(storage == Storage.IMPLICIT) {
+			return expandImplicit(vertIndex, null, null, false) != 0;
+		}
+		if(storage == Storage.MAPPED) {
+			return mappedOffsets.get(vertIndex+1) != mappedOffsets.get(vertIndex);
+		}
+		return vertices.get(vertIndex) != null;
 	}
 	
-	private double getWeight(int fromVertIndex, int toRelativHeirIndex) {
-		return vertices.get(fromVertIndex).weights.get(toRelativHeirIndex);
+	/**
+	 * Puts the heirs(neighbours) of the given vertex and their weights into
+	 *the given arrays, no matter what the storage is.
+	 * @param vertIndex - the vertex which heirs we want to obtain.
+	 * @param heirsOut - receives the heirs; it must be long enough to take 
+	 *all of them (8 is enough for the graphs set from images).
+	 * @param weightsOut - receives the corresponding weights.
+	 * @return the number of heirs, zero if the vertex is null(forbidden).
+	 */
+	int expand(int vertIndex, int[] heirsOut, float[] weightsOut) {
+		if(storage == Storage.CSR) {
+			int begin = offsets[vertIndex];
+			int count = offsets[vertIndex+1] - begin;
+			System.arraycopy(heirs, begin, heirsOut, 0, count);
+			System.arraycopy(weights, begin, weightsOut, 0, count);
+			return count;
+		}
+		if(storage == Storage.IMPLICIT) {
+			return expandImplicit(vertIndex, heirsOut, weightsOut, false);
+		}
+		if(storage == Storage.MAPPED) {
+			int begin = mappedOffsets.get(vertIndex);
+			int count = mappedOffsets.get(vertIndex+1) - begin;
+			for(int i = 0;i < count;i++) {
+				heirsOut[i] = mappedHeirs.get(begin + i);
+				weightsOut[i] = mappedWeights.get(begin + i);
+			}
+			return count;
+		}
+		Vertex vertex = vertices.get(vertIndex);
+		if(vertex == null) return 0;
+		int count = vertex.heirs.size();
+		for(int i = 0;i < count;i++) {
+			heirsOut[i] = vertex.heirs.get(i);
+			weightsOut[i] = vertex.weights.get(i);
+		}
+		return count;
 	}
 	
 	/**
-	 * Gets the value of vertex represented wigh its index(vertIndex)
-	 * @param vertIndex - the index of the vertex which value we want
-	 *to obtain.
-	 * @return the value of the vertex represented by vertIndex.
+	 * Puts the predecessors of the given vertex, i.e. the vertices which have
+	 *it as a heir, and the weights from them to the vertex into the given 
+	 *arrays. It is assumed that the predecessors of a vertex are its heirs, 
+	 *as they are in every graph set from an image. Note that the weights are
+	 *not symmetric: an image graph(see ImageCsrBuilder) has the weight from
+	 *rootX to rootY abs(rootY - rootX + 1), but from rootY to rootX 
+	 *abs(rootX - rootY + 1).
+	 * @param vertIndex - the vertex which predecessors we want to obtain.
+	 * @param heirsOut - receives the predecessors.
+	 * @param weightsOut - receives the weights from the predecessors.
+	 * @return the number of predecessors.
 	 */
-	private double getValueOf(int vertIndex) {
-		return vertices.get(vertIndex).value;
+	int expandReverse(int vertIndex, int[] heirsOut, float[] weightsOut) {
+		if(storage == Storage.IMPLICIT) {
+			return expandImplicit(vertIndex, heirsOut, weightsOut, true);
+		}
+		if(storage == Storage.CSR) {
+			float[] reverse = reverseWeights;
+			if(reverse == null) reverse = initReverseWeights();
+			int begin = offsets[vertIndex];
+			int count = offsets[vertIndex+1] - begin;
+			System.arraycopy(heirs, begin, heirsOut, 0, count);
+			System.arraycopy(reverse, begin, weightsOut, 0, count);
+			return count;
+		}
+		if(storage == Storage.MAPPED) {
+			float[] reverse = reverseWeights;
+			if(reverse == null) reverse = initReverseWeights();
+			int begin = mappedOffsets.get(vertIndex);
+			int count = mappedOffsets.get(vertIndex+1) - begin;
+			for(int i = 0;i < count;i++) {
+				heirsOut[i] = mappedHeirs.get(begin + i);
+				weightsOut[i] = reverse[begin + i];
+			}
+			return count;
+		}
+		int count = expand(vertIndex, heirsOut, weightsOut);
+		for(int i = 0;i < count;i++) {
+			weightsOut[i] = weightOf(heirsOut[i], vertIndex);
+		}
+		return count;
 	}
 	
-	private Boolean getIsVertexVisited(int vertIndex) {
-		return vertices.get(vertIndex).isVisited;
+	// Sets the reverseWeights array of the CSR(or MAPPED) storage, once.
+	private synchronized float[] initReverseWeights() {
+		if(reverseWeights == null) {
+			if(storage == Storage.MAPPED) {
+				float[] reverse = new float[mappedHeirs.limit()];
+				for(int v = 0;v < getSize();v++) {
+					for(int e = mappedOffsets.get(v);e < mappedOffsets.get(v+1);e++) {
+						reverse[e] = weightOf(mappedHeirs.get(e), v);
+					}
+				}
+				reverseWeights = reverse;
+				return reverseWeights;
+			}
+			float[] reverse = new float[heirs.length];
+			for(int v = 0;v < getSize();v++) {
+				for(int e = offsets[v];e < offsets[v+1];e++) {
+					reverse[e] = weightOf(heirs[e], v);
+				}
+			}
+			reverseWeights = reverse;
+		}
+		return reverseWeights;
 	}
 	
 	/**
-	 * Sets the value onto the vertex with the given vertIndex.
-	 * @param vertIndex
-	 * @param value
-	 * @exception Unchecked NullPointerException if the index is exceed vertices
-	 *  list size.
+	 * Gets the weight from the given vertex to its heir.
+	 * @param fromVertIndex
+	 * @param toVertIndex - a heir of fromVertIndex.
+	 * @return the weight or Float.POSITIVE_INFINITY if toVertIndex is not a 
+	 *heir of fromVertIndex.
 	 */
-	private void setValueOf(int vertIndex,double value) {
-		vertices.get(vertIndex).value = value;
+	private float weightOf(int fromVertIndex, int toVertIndex) {
+		if(storage == Storage.CSR) {
+			for(int e = offsets[fromVertIndex];e < offsets[fromVertIndex+1];e++) {
+				if(heirs[e] == toVertIndex) return weights[e];
+			}
+			return Float.POSITIVE_INFINITY;
+		}
+		if(storage == Storage.MAPPED) {
+			for(int e = mappedOffsets.get(fromVertIndex);
+					e < mappedOffsets.get(fromVertIndex+1);e++) {
+				if(mappedHeirs.get(e) == toVertIndex) return mappedWeights.get(e);
+			}
+			return Float.POSITIVE_INFINITY;
+		}
+		if(storage == Storage.LISTS) {
+			Vertex vertex = vertices.get(fromVertIndex);
+			if(vertex == null) return Float.POSITIVE_INFINITY;
+			int i = vertex.heirs.indexOf(toVertIndex);
+			return (i == -1)? Float.POSITIVE_INFINITY : vertex.weights.get(i);
+		}
+		int[] heirsOut = new int[8]; float[] weightsOut = new float[8];
+		int count = expandImplicit(fromVertIndex, heirsOut, weightsOut, false);
+		for(int i = 0;i < count;i++) {
+			if(heirsOut[i] == toVertIndex) return weightsOut[i];
+		}
+		return Float.POSITIVE_INFINITY;
 	}
 	
 	/**
+	 * Calculates the heirs(neighbours) of the given vertex directly from the
+	 *raster. The rules are the same as in ImageCsrBuilder: no heirs if the 
+	 *pixel has the forbidden color, otherwise all the pixels around that are
+	 *inside the map and haven't the forbidden color, in the same order and 
+	 *with the same weights.
 	 * @param vertIndex
-	 * @param isVisited
-	 * @exception Unchecked NullPointerException if the index is exceed vertices
-	 *  list size.
+	 * @param heirsOut - receives the heirs or null if only the number of
+	 *heirs is needed.
+	 * @param weightsOut - receives the weights or null if only the number of
+	 *heirs is needed.
+	 * @param isReverse - if true, the weights are the weights from the heirs
+	 *to the vertex, see expandReverse(...).
+	 * @return the number of heirs.
 	 */
-	private void setIsVertexVisited(int vertIndex, boolean isVisited) {
-		vertices.get(vertIndex).isVisited = isVisited;
+	private int expandImplicit(int vertIndex, int[] heirsOut, float[] weightsOut,
+			boolean isReverse) {
+		int x = vertIndex % width;
+		int y = vertIndex / width;
+		int p = rasterOrigin + y*scanlineStride + x*pixelStride;
+		if(isForbiddenAt(p)) return 0;
+		
+		int sum = sumAt(p);
+		int count = 0;
+		for(int i = 0;i < 8;i++) {
+			int hx = x + HEIR_DX[i];
+			int hy = y + HEIR_DY[i];
+			if((hx < 0) || (hx >= width) || (hy < 0) || (hy >= height)) continue;
+			
+			int hp = p + HEIR_DY[i]*scanlineStride + HEIR_DX[i]*pixelStride;
+			if(isForbiddenAt(hp)) continue;
+			
+			if(heirsOut != null) {
+				heirsOut[count] = vertIndex + HEIR_DY[i]*width + HEIR_DX[i];
+				int difference = isReverse? sum - sumAt(hp) : sumAt(hp) - sum;
+				if(i < 4) {// Left, Right, Up, Down sides
+					weightsOut[count] = Math.abs(difference + 1);
+				}else {// Diagonal sides
+					weightsOut[count] = DIAGONAL * Math.abs(difference + 1);
+				}
+			}
+			count++;
+		}
+		return count;
 	}
 	
-	/**
-	 * Sets vertex with vertexIndex or replace the old one if exist.
-	 * @param vertIndex
-	 * @param heirs list of the the vertex heirs(neighbours).
-	 * @param weights the corresponding weights to the given heirs(neighbours)
-	 * @return false if no heirs in the list or if vertIndex > getSize() 
-	 * (not >=, only >); otherwise true.
-	 */
-	private boolean setVertex
-	(int vertIndex, ArrayList<Integer> heirs, ArrayList<Float> weights){
-		if(heirs.size() == 0) return false;
-		if(vertIndex == vertices.size()){
-			vertices.add(null);
-		}else if(vertIndex > vertices.size()){return false;}
-		
-		new Vertex(vertIndex, heirs, weights);
-		return true;
+	// Whether the pixel which bytes begin at p in the raster has the 
+	//forbidden color.
+	private boolean isForbiddenAt(int p) {
+		return (raster[p+channelOffsets[0]] == forbiddenRed) 
+				&& (raster[p+channelOffsets[1]] == forbiddenGreen)
+				&& (raster[p+channelOffsets[2]] == forbiddenBlue);
+	}
+	
+	// The sum of the color bytes of the pixel which bytes begin at p in the
+	//raster.
+	private int sumAt(int p) {
+		return raster[p+channelOffsets[0]] + raster[p+channelOffsets[1]] 
+				+ raster[p+channelOffsets[2]];
+	}
+	
+	private int countHeirsOf(int vertIndex) {
+		if(storage == Storage.CSR) {
+			return offsets[vertIndex+1] - offsets[vertIndex];
+		}
+		if(storage == Storage.MAPPED) {
+			return mappedOffsets.get(vertIndex+1) - mappedOffsets.get(vertIndex);
+		}
+		if(storage == Storage.IMPLICIT) {
+			return expandImplicit(vertIndex, null, null, false);
+		}
+		return vertices.get(vertIndex).heirs.size();
 	}
 	
 	/**
-	 * It's a special method that sets various vertices from a special Map file.
-	 *It is implemented to improve setting the vertices in compare with setting
-	 *vertices from picture, but it doesn't work much faster.
-	 * @param bb it's a ByteBuffer that must contain repeatedly the following 
-	 *group of Bytes:
-	 *|int (the vertIndex)|int (the first heir1)|float (the heir1 weight)|...|int 0|...;
-	 *so it's like that: 
-	 *|root1|h11|w11|h12|w12|h13|w13|...|h1n|w1n|0|root1|h21|w21|h22|w22|...
-	 * When the method returns, that means the buffer is empty so it can be
-	 *filled and passed again (BUT WITHOUT CHANGING vIndex and hIndex ANYMORE).
-	 * @param vIndex - vIndex[0] must be set to zero at first invocation and 
-	 *not changed in subsequent invocation of the method. it's kind of flag.
-	 * @param hIndex - hIndex[0] must be set to zero at first invocation and 
-	 *not changed in subsequent invocation of the method. it's kind of flag.
+	 * Prepares the storage for setting getSize() vertices; with Storage.CSR
+	 *the graph is set as empty, since the CSR arrays are set at once by 
+	 *setFromCsr(...). Width, height and size must be already set.
 	 */
-	private void setVertices(ByteBuffer bb, int[] vIndex,int[] hIndex) {
-		Vertex tmpV = null;	
-	
-		while(bb.hasRemaining()) {
-		
-			// Constructs if the buffer hasn't been stopped at "has next 1/3" 
-			//at the previous invocation of this method.
-			if(vIndex[0] == 0) {
-
-				//decrease buff. by 4 (eventually)
-				//"-1" is kind of decoding
-				tmpV = new Vertex(bb.getInt()-1);
-				vIndex[0] = tmpV.index;
-				
-			}
-			
-			//has next 1
-			if(!bb.hasRemaining()) {
-				return;
+	private void initStorage() {
+		if(storage == Storage.IMPLICIT) {
+			return;
+		}
+		if(storage == Storage.CSR) {
+			offsets = new int[size + 1];
+			heirs = new int[0];
+			weights = new float[0];
+		}else {
+			vertices = new ArrayList<Vertex>(size);
+			for(int i = 0;i < size;i++) {
+				vertices.add(null);
 			}
-			
-			// Add weight if the buffer has been stopped at "has next 2"
-			//at the previous invocation of this method.
-			if(hIndex[0] != 0) {
-				vertices.get(vIndex[0]).weights.add(bb.getFloat());
-				hIndex[0] = 0;
+		}
+	}
+	
+	/**
+	 * Completes the storage after all the vertices has been set.
+	 */
+	private void finishStorage() {
+		if(storage == Storage.MAPPED) {
+			// Set from the MAP2 header, see setFromMap2(...).
+			return;
+		}
+		maxHeirs = 8;
+		if(storage == Storage.CSR) {
+			for(int i = 0;i < getSize();i++) {
+				maxHeirs = Math.max(maxHeirs, offsets[i+1] - offsets[i]);
 			}
-		
-			int heir;
-			while (bb.hasRemaining() &&   // Increase the buffer with 4.
-					((heir = bb.getInt()) != 0) ) {	
-
-				heir--;// kind of decoding
-				
-				vertices.get(vIndex[0]).heirs.add(heir);
-				hIndex[0] = heir;
-				
-				// has next 2
-				if(!bb.hasRemaining()) {
-					return;
+		}else if(storage == Storage.LISTS) {
+			for(int i = 0;i < getSize();i++) {
+				if(vertices.get(i) != null) {
+					maxHeirs = Math.max(maxHeirs, vertices.get(i).heirs.size());
 				}
-				
-				// Increase the buffer with 4.
-				vertices.get(vIndex[0]).weights.add(bb.getFloat());
-				hIndex[0] = 0;
-				
-				// has next 3
-				if(!bb.hasRemaining()) {
-					return;
-				}	
 			}
-			
-			// This indicates there has been completely set vertex.
-			vIndex[0] = 0;
-			
 		}
-	}
-	
-	private int getPrevOf(int vertIndex) {
-		return vertices.get(vertIndex).prev;
+		if(storage != Storage.IMPLICIT) initComponents();
 	}
 	
 	/**
-	 * @param vertIndex
-	 * @param asVertIndex
-	 * @exception Unchecked NullPointerException if vertIndex or asVertIndex
-	 *exceed getSize();
+	 * Keeps the pixels of the given image for the Storage.IMPLICIT. Nothing is
+	 *copied, the Graph refers to the data buffer of the image.
+	 * @param image - the mapImage; its pixels must be interleaved bytes.
+	 * @param r forbidden color - red saturation
+	 * @param g forbidden color - green saturation
+	 * @param b forbidden color - blue saturation
+	 * @throws IllegalArgumentException if the pixels of the image are not 
+	 *interleaved bytes.
 	 */
-	private void setPrevOf(int vertIndex, int asVertIndex) {
-		vertices.get(vertIndex).prev = asVertIndex;
+	private void setFromRaster(BufferedImage image, int r, int g, int b) {
+		WritableRaster wr = image.getRaster();
+		boolean hasAlpha = image.getAlphaRaster() != null;
+		if(!(wr.getDataBuffer() instanceof DataBufferByte) 
+				|| !(wr.getSampleModel() instanceof ComponentSampleModel)
+				|| (wr.getNumBands() != (hasAlpha?4:3))) {
+			throw new IllegalArgumentException(
+					"The storage IMPLICIT needs an image with interleaved byte pixels!");
+		}
+		DataBufferByte db = (DataBufferByte) wr.getDataBuffer();
+		ComponentSampleModel sm = (ComponentSampleModel) wr.getSampleModel();
+		
+		raster = db.getData();
+		pixelStride = sm.getPixelStride();
+		scanlineStride = sm.getScanlineStride();
+		rasterOrigin = db.getOffset() 
+				- wr.getSampleModelTranslateY()*scanlineStride
+				- wr.getSampleModelTranslateX()*pixelStride;
+		
+		// The same bytes ImageCsrBuilder takes from getDataElements(...), 
+		//where the alpha byte (if any) is the first one.
+		int[] bandOffsets = sm.getBandOffsets();
+		int a = hasAlpha?1:0;
+		channelOffsets = new int[] 
+				{bandOffsets[a], bandOffsets[a+1], bandOffsets[a+2]};
+		
+		forbiddenRed = r;
+		forbiddenGreen = g;
+		forbiddenBlue = b;
 	}
 	
 	/**
@@ -344,6 +669,14 @@ public class Graph {
 	 * @return the size.
 	 */
 	public int getVerticesNumber() {
+		// The implicit graph counts its vertices on demand, only once.
+		if((storage == Storage.IMPLICIT) && (verticesNumber == 0)) {
+			int number = 0;
+			for(int i = 0;i < getSize();i++) {
+				if(hasVertex(i)) number++;
+			}
+			verticesNumber = number;
+		}
 		return this.verticesNumber;
 	}
 	
@@ -355,7 +688,10 @@ public class Graph {
 	 *(the slowest way to set the graph);
 	 *	BinayMap file which can be produced from picture(look native class Map 
 	 *TODO: MORE INFO)
-	 *(theoretically the fastest way to set the graph).
+	 *(the fastest way to set the graph; the file is mapped into memory);
+	 *	MAP2 file which keeps the arrays of the graph as they are(look 
+	 *Map.createMap2(...)); with Storage.MAPPED it is used in place, without
+	 *reading it.
 	 *
 	 * The fx parameters is the forbidden color, the color that would be ignored during 
 	 *setting the graph(parsing the picture). That means pixel with that color would 
@@ -368,17 +704,32 @@ public class Graph {
 	 *weight(rootX,rootY) = weight(rootX,rootY)*sqrt(2) if they are diagonal neighbours.
 	 *rootXr means the red byte of the given pixel(rootX) color. It must be bring to 
 	 *mind that this is byte so for example ff would mean -1 and so on.
-	 * @param file BM, HM or MAP file.
+	 * @param file BM, HM, MAP or MAP2 file.
 	 * @param fr forbidden color - red saturation (0,1,...,127,-128,...,-1)
 	 * @param fg forbidden color - green saturation (0,1,...,127,-128,...,-1)
 	 * @param fb forbidden color - blue saturation (0,1,...,127,-128,...,-1)
 	 *For example fr=0,fg=0,fb=0 represent black color to be forbidden.
 	 */
 	public Graph(File file, Integer fr, Integer fg, Integer fb) {
+		this(file, fr, fg, fb, Storage.LISTS);
+	}
+	
+	/**
+	 * Constructs the graph the same way as Graph(File, Integer, Integer, Integer)
+	 *but keeps the vertices in the given storage.
+	 * @param file BM, HM, MAP or MAP2 file.
+	 * @param fr forbidden color - red saturation (0,1,...,127,-128,...,-1)
+	 * @param fg forbidden color - green saturation (0,1,...,127,-128,...,-1)
+	 * @param fb forbidden color - blue saturation (0,1,...,127,-128,...,-1)
+	 * @param storage - the way the vertices are kept, see Graph.Storage.
+	 */
+	public Graph(File file, Integer fr, Integer fg, Integer fb, Storage storage) {
 		
 		this.verticesNumber = 0;
+		this.storage = storage;
+		this.forbiddenColor = packColor(fr, fg, fb);
 		
-		FileInputStream fis = null; ByteBuffer bb = null; Scanner sc = null;
+		FileInputStream fis = null; ByteBuffer bb = null;
 		try {
 			fis = new FileInputStream(file);
 			byte[] data = new byte[12];
@@ -403,13 +754,24 @@ public class Graph {
 					width = image.getWidth();
 					height = image.getHeight();
 					size = width*height;
-					vertices = new ArrayList<Vertex>(size);
-					for(int i = 0;i < size;i++) {
-						vertices.add(null);
-					}
 
-					// The actual vertices setting.
-					setFromImageFile(file,fr,fg,fb);
+					// The actual vertices setting; the image is not read
+					//again.
+					if(storage == Storage.MAPPED) {
+						throw new IllegalArgumentException(
+								"The storage MAPPED is available only for MAP2 files!");
+					}else if(storage == Storage.IMPLICIT) {
+						setFromRaster(image,fr,fg,fb);
+					}else {
+						setFromImage(image,fr,fg,fb);
+						// The file is read again if it is needed, rather
+						//than the image is kept.
+						if(storage == Storage.LISTS) {
+							raster = null;
+							pixelsFile = file;
+						}
+					}
+					finishStorage();
 					
 				}else {
 					throw new IllegalArgumentException();
@@ -418,36 +780,53 @@ public class Graph {
 			// Constructs using HUMAN WRITTEN mapFile (eventually)	
 			}else if(sign1  == 0x48) {// H
 				if((sign2 == 0x4d) && sign3 == 0x20) {// M SPACE
-					sc = new Scanner(file);sc.next();
-					width = sc.nextInt();
-					height = sc.nextInt();
-					size = width*height;
-					vertices = new ArrayList<Vertex>(size);
-					for(int i = 0;i < size;i++) {
-						vertices.add(null);
+					if(storage == Storage.IMPLICIT) {
+						throw new IllegalArgumentException(
+								"The storage IMPLICIT is available only for images!");
+					}
+					if(storage == Storage.MAPPED) {
+						throw new IllegalArgumentException(
+								"The storage MAPPED is available only for MAP2 files!");
 					}
 					
-					// The actual vertices setting.
+					// The actual vertices setting; width and height are in
+					//the first line.
 					setFromHFile(file);
+					finishStorage();
 				}else {
 					throw new IllegalArgumentException();
 				}
 				
 			// Constructs using BINARY mapFile (eventually)	
 			}else if(sign1  == 0x4d) {// M
-				if((sign2 == 0x41) && sign3 == 0x50) {// AP
+				if((sign2 == 0x41) && (sign3 == 0x50) && (data[3] == 0x32)) {// AP2
+					if(storage == Storage.IMPLICIT) {
+						throw new IllegalArgumentException(
+								"The storage IMPLICIT is available only for images!");
+					}
+					
+					// The actual vertices setting; width and height are in
+					//the MAP2 header.
+					setFromMap2(file);
+					finishStorage();
+				}else if((sign2 == 0x41) && sign3 == 0x50) {// AP
+					if(storage == Storage.IMPLICIT) {
+						throw new IllegalArgumentException(
+								"The storage IMPLICIT is available only for images!");
+					}
+					if(storage == Storage.MAPPED) {
+						throw new IllegalArgumentException(
+								"The storage MAPPED is available only for MAP2 files!");
+					}
 					
 					width = bb.getInt();
 					bb.get();// Passing the space.
 					height = bb.getInt();
 					size = width*height;
-					vertices = new ArrayList<Vertex>(size);
-					for(int i = 0;i < size;i++) {
-						vertices.add(null);
-					}
 					
 					// The actual vertices setting.
 					setFromBinaryMap(file);
+					finishStorage();
 				}else {
 					throw new IllegalArgumentException();
 				}
@@ -467,6 +846,9 @@ public class Graph {
 					" is not correct map file!\n" +
 					"Otherwise, there are invalid fr, fg or fb arguments while " +
 					"file argument is image!" );
+			if(iae.getMessage() != null) {
+				System.err.println(iae.getMessage());
+			}
 			iae.printStackTrace();
 			
 		}catch (FileNotFoundException e) {
@@ -501,20 +883,43 @@ public class Graph {
 	 * @param fb forbidden color - blue saturation (0,1,...,127,-128,...,-1)
 	 */
 	public Graph(BufferedImage image, Integer fr, Integer fg, Integer fb) {
+		this(image, fr, fg, fb, Storage.LISTS);
+	}
+	
+	/**
+	 * Constructs the graph the same way as Graph(BufferedImage, Integer, 
+	 *Integer, Integer) but keeps the vertices in the given storage.
+	 * @param image it is the mapImage that would be parsed.
+	 * @param fr forbidden color - red saturation (0,1,...,127,-128,...,-1)
+	 * @param fg forbidden color - green saturation (0,1,...,127,-128,...,-1)
+	 * @param fb forbidden color - blue saturation (0,1,...,127,-128,...,-1)
+	 * @param storage - the way the vertices are kept, see Graph.Storage. With
+	 *Storage.LISTS the graph keeps a copy of the pixels for setPixelColor(...),
+	 *with Storage.IMPLICIT it uses the pixels of the image itself.
+	 * @throws IllegalArgumentException if the storage is Storage.MAPPED.
+	 */
+	public Graph(BufferedImage image, Integer fr, Integer fg, Integer fb,
+			Storage storage) {
 		
+		if(storage == Storage.MAPPED) {
+			throw new IllegalArgumentException(
+					"The storage MAPPED is available only for MAP2 files!");
+		}
 		this.verticesNumber = 0;
-
+		this.storage = storage;
+		this.forbiddenColor = packColor(fr, fg, fb);
 
 		width = image.getWidth();
 		height = image.getHeight();
 		size = width*height;
-		vertices = new ArrayList<Vertex>(size);
-		for(int i = 0;i < size;i++) {
-			vertices.add(null);
-		}
 
 		// The actual vertices setting.
-		setFromImage(image,fr,fg,fb);
+		if(storage == Storage.IMPLICIT) {
+			setFromRaster(image,fr,fg,fb);
+		}else {
+			setFromImage(image,fr,fg,fb);
+		}
+		finishStorage();
 		
 				
 		
@@ -525,141 +930,1736 @@ public class Graph {
 	// INDEPENDENT OF GRAPH IMPLEMENTATION METHODS
 	
 	/**
-	 * The method implements Dijkstra's algorithm with a priority queue - 
-	 *that implemented in Java, for now. TODO// REPLASE THE PRIORITY QUEUE WITH
-	 *Fibonacci/Brodal PRIORITY QUEUE.
-	 * The method works with 8*V*log(V)(for eight edges per vertex) --> O(E*V*log(V))
-	 *complexity worst case.
+	 * The method implements Dijkstra's algorithm with an indexed 4-ary heap
+	 *(see IndexedHeap). Only the discovered vertices are inserted into the heap
+	 *and the value of a vertex in the heap is decreased in place.
+	 * The method works with O(E*log(V)) complexity worst case, and it settles
+	 *only the vertices which are closer to the start than the destination.
 	 * @param fromPoint represents the start x,y coordinates on the map.
 	 * @param toPoint represents the destination x,y coordinates on the map.
 	 * @return an array containing the desired path. Zero element is the start point.
 	 * @throws IllegalArgumentException when a point exceed the borders of the map.
 	 */
 	public Point[] shortestPathDijkstra(Point fromPoint, Point toPoint) {
+		return shortestPathDijkstra(fromPoint, toPoint, QueueType.HEAP);
+	}
+	
+	/**
+	 * The same as shortestPathDijkstra(Point, Point), but the reached 
+	 *vertices are kept in the given type of queue.
+	 * @param fromPoint represents the start x,y coordinates on the map.
+	 * @param toPoint represents the destination x,y coordinates on the map.
+	 * @param queueType
+	 * @return an array containing the desired path. Zero element is the start
+	 *point. Null if there is no path.
+	 * @throws IllegalArgumentException when a point exceed the borders of the
+	 *map or, with QueueType.RADIX, some weight is negative.
+	 */
+	public Point[] shortestPathDijkstra(Point fromPoint, Point toPoint, 
+			QueueType queueType) {
 		
-		int from = fromPoint.x + getWidth()*fromPoint.y;
-		int to = toPoint.x + getWidth()*toPoint.y;
+		int from = vertexAt(fromPoint);
+		int to = vertexAt(toPoint);
 		
-		if((from >= getSize()) || (to >= getSize())) {
-			throw new IllegalArgumentException(
-					"Coordinates must be in the intervals: X(" +
-					"0, " + getWidth() + ") " +
-					"; Y(0," + getHeight() + ")." );
-		}
+		if(!hasVertex(from) || !hasVertex(to)) return null;
+		if(isSeparated(from, to)) return null;
 		
-		if((getVertexOf(from) == null) || (getVertexOf(to) == null)) return null;
+		SearchContext c = acquireContext();
+		try {
+			VertexQueue pq = (queueType == QueueType.RADIX)? c.radixHeap() : c.pq;
+			return shortestPathDijkstra(from, to, c, pq)? buildPath(from, to, c.prev) : null;
+		}finally {
+			releaseContext(c);
+		}
+	}
+	
+	/**
+	 * The same as shortestPathDijkstra(Point, Point), but the path is 
+	 *returned as a PathResult: the vertices in one int array instead of a
+	 *Point per step, the cost of the path and the number of the settled 
+	 *vertices.
+	 * @param fromPoint represents the start x,y coordinates on the map.
+	 * @param toPoint represents the destination x,y coordinates on the map.
+	 * @return the path. Null if there is no path.
+	 * @throws IllegalArgumentException when a point exceed the borders of the map.
+	 */
+	public PathResult findPath(Point fromPoint, Point toPoint) {
 		
-		// This priority queue must be changed with Fibonacci/Brodal priority queue
-		Comparator<Vertex> comparator = new VertexValueComparator();
-		PriorityQueue<Vertex> pq = new PriorityQueue<Vertex>(getSize(),comparator);
+		int from = vertexAt(fromPoint);
+		int to = vertexAt(toPoint);
 		
-		Point[] result = null;
+		if(!hasVertex(from) || !hasVertex(to)) return null;
+		if(isSeparated(from, to)) return null;
 		
-		// Initialization
-		for(int i = 0;i < getSize();i++) {
-			if(getVertexOf(i) != null) {
-				setValueOf(i, Double.POSITIVE_INFINITY);
-				setIsVertexVisited(i,false);
-				pq.offer(getVertexOf(i));
-			}
+		SearchContext c = acquireContext();
+		try {
+			if(!shortestPathDijkstra(from, to, c, c.pq)) return null;
+			return buildResult(from, to, c.prev, c.value[to], c.settled);
+		}finally {
+			releaseContext(c);
 		}
-		pq.remove(getVertexOf(from));
-		setValueOf(from, 0);
-		pq.offer(getVertexOf(from));
+	}
+	
+	/**
+	 * The actual Dijkstra's algorithm of shortestPathDijkstra(...); the values,
+	 *the prevs and the visited flags of the vertices are kept in the given 
+	 *context and the heirs are taken with expand(...), so it works the same
+	 *way with every storage.
+	 * @param from - the start vertex, it must not be null.
+	 * @param to - the destination vertex, it must not be null.
+	 * @param c - a context taken with acquireContext().
+	 * @param pq - the queue of the context, c.pq or c.radixHeap().
+	 * @return true if the destination has been settled; then its value and
+	 *the prevs of the path are in the context.
+	 */
+	private boolean shortestPathDijkstra(int from, int to, SearchContext c, 
+			VertexQueue pq) {
+		
+		SearchListener listener = searchListener;
+		long begin = (listener == null)? 0 : System.nanoTime();
+		int[] heirsOut = c.heirsOut; float[] weightsOut = c.weightsOut;
+		
+		// Initialization; only the start vertex is reached.
+		c.begin();
+		c.reach(from, 0, from);
+		pq.insertOrDecrease(from, 0);
+		c.queued++;
 		
 		// The actual Dijkstra algorithm
-		while(pq.size() != 0) {
+		boolean isFound = false;
+		while(!pq.isEmpty()) {
 
-			int currV = getIndexOf(pq.poll());
-			setIsVertexVisited(currV,true);
+			int currV = pq.poll();
+			c.visit(currV);
 
 			// If the destination vertex is obtained
 			if(currV == to) {
-				int i = to, k = 0;
-				while(i != from) {
-					k++;
-					i = getPrevOf(i);
-				}
-				i = to; result = new Point[k+1];
-				for(int j = k;j > 0;j--) {
-					result[j] = new Point(i%getWidth(), i/getWidth());
-					i = getPrevOf(i);
-				}
-				result[0] = new Point(from%getWidth(),from/getWidth());
-				
-				return result;
+				isFound = true;
+				break;
 			}
 			
 			// The loop consider all the heirs of the current vertex currV.
-			for(int i = 0;i < countHeirsOf(currV);i++) {
+			double currValue = c.value[currV];
+			int count = expand(currV, heirsOut, weightsOut);
+			c.relaxed += count;
+			for(int e = 0;e < count;e++) {
 
-				int heir = getHeir(i, currV);				
-				if(getIsVertexVisited(heir)) continue;
+				int heir = heirsOut[e];
+				if(c.isVisited(heir)) continue;
 				
-				double currPath =  getValueOf(currV) + getWeight(currV,i);
-				if(getValueOf(heir) > currPath) {
+				double currPath =  currValue + weightsOut[e];
+				if(c.valueOf(heir) > currPath) {
 
-					//This updates the pq; it is of O(log(n)) complexity;
-					//it may be done with O(1) complexity with Brodal queue.
-					pq.remove(getVertexOf(heir));
-					
-					setValueOf(heir,currPath);
-					setPrevOf(heir,currV);
+					//This inserts or updates the heir in the pq; it is of 
+					//O(log(n)) complexity with the heap, O(1) with the radix one.
+					pq.insertOrDecrease(heir, currPath);
+					c.queued++;
 					
-					pq.offer(getVertexOf(heir));
+					c.reach(heir, currPath, currV);
 				}	
 			}
 		}
-		return result;
+		if(listener != null) {
+			report(listener, (pq == c.pq)? "dijkstra" : "dijkstra-radix", from, to, 
+					isFound, c.settled, c.relaxed, c.queued, pq.size(), pq.getPeakSize(), 
+					c.value[to], begin);
+		}
+		return isFound;
 	}
 	
 	/**
-	 * Prints the given array of points onto the given imageFile
-	 *in the given color (rgb representation);
-	 * @param path - an Point array representing the path.
-	 * @param imageFile onto we want to draw the path.
-	 * @param color with which we want to draw the path.
+	 * Takes a free search state from the pool or makes a new one if there is
+	 *none; every concurrent search gets its own one.
+	 * @return the context; give it back with releaseContext(...).
 	 */
-	public void printPath(Point[] path, File imageFile, int color) {
-		if(path == null) return;
+	SearchContext acquireContext() {
+		SearchContext c = contexts.poll();
+		if(c == null) c = new SearchContext(getSize(), maxHeirs, HEAP_ARITY);
+		return c;
+	}
+	
+	/**
+	 * Gives back the context taken with acquireContext(); it must not be used
+	 *after that.
+	 * @param c
+	 */
+	void releaseContext(SearchContext c) {
+		contexts.offer(c);
+	}
+	
+	/**
+	 * Sets the listener which gets the SearchStats of every search of 
+	 *shortestPathDijkstra(...), findPath(...), shortestPaths(...),
+	 *shortestPathAStar(...), findPathAStar(...), shortestPathJPS(...),
+	 *shortestPathCached(...), findPathCached(...) and 
+	 *shortestPathBidirectional(...), of the ClusterGraph and the DStarLite
+	 *replanners of this graph and of shortestPathsFrom(...), which has no
+	 *destination and reports its farthest reached vertex as one. A 
+	 *ContractionHierarchy has its own listener, see its 
+	 *setSearchListener(...). A query between two components(see 
+	 *getComponent(...)) is reported as the algorithm "components" with
+	 *nothing settled. Without a listener the searches only count, they do
+	 *not read the clock nor make the SearchStats.
+	 * @param listener - e.g. a SearchStatistics exported through JMX; null
+	 *stops the reports.
+	 */
+	public void setSearchListener(SearchListener listener) {
+		this.searchListener = listener;
+	}
+	
+	public SearchListener getSearchListener() {
+		return searchListener;
+	}
+	
+	/**
+	 * Reports a search to the listener. Every vertex inserted into the queue
+	 *is either settled or still in the queue, so the inserts are the settled
+	 *vertices plus the growth of the queue, and the rest of the queued 
+	 *vertices are the decreases of keys.
+	 * @param listener
+	 * @param algorithm - the name of the search.
+	 * @param from - the start vertex.
+	 * @param to - the destination vertex.
+	 * @param isReached - true if the destination has been settled.
+	 * @param settled - the number of the settled vertices.
+	 * @param relaxed - the number of the edges scanned from them.
+	 * @param queued - the number of the inserts and the decreases of keys.
+	 * @param queueGrowth - how much more vertices the queue has than before
+	 *the search.
+	 * @param peakQueueSize - the greatest number of the vertices in the queue.
+	 * @param cost - the value of the destination if it has been reached.
+	 * @param begin - System.nanoTime() when the search has begun.
+	 */
+	void report(SearchListener listener, String algorithm, int from, int to, 
+			boolean isReached, int settled, long relaxed, int queued, int queueGrowth, 
+			int peakQueueSize, double cost, long begin) {
+		long elapsed = System.nanoTime() - begin;
+		int inserts = settled + queueGrowth;
+		listener.searchFinished(new SearchStats(algorithm, 
+				new Point(from%getWidth(), from/getWidth()), new Point(to%getWidth(), to/getWidth()), 
+				isReached, isReached? cost : Double.POSITIVE_INFINITY, settled, relaxed, 
+				inserts, queued - inserts, peakQueueSize, elapsed));
+	}
+	
+	/**
+	 * The same as shortestPathDijkstra(...), but the search state of the last
+	 *start point is kept: if the start point is the same as the last time,
+	 *the path to a destination that has already been settled is returned 
+	 *at once, and for any other destination the search resumes instead of 
+	 *starting again. A different start point discards the kept state. It is
+	 *meant for the case when the same start point is used with many 
+	 *destinations, e.g. the clicks in MapTracer.
+	 * The kept state takes O(V) memory; clearSearchCache() releases it.
+	 * @param fromPoint represents the start x,y coordinates on the map.
+	 * @param toPoint represents the destination x,y coordinates on the map.
+	 * @return an array containing the desired path. Zero element is the start
+	 *point. Null if there is no path.
+	 * @throws IllegalArgumentException when a point exceed the borders of the map.
+	 */
+	public synchronized Point[] shortestPathCached(Point fromPoint, Point toPoint) {
 		
-		try {
-			BufferedImage image = ImageIO.read(imageFile);
-			for(int i = 0;i < path.length;i++) {
-				image.setRGB(path[i].x, path[i].y, color);
-			}
-			
-			File outputFile = new File("path_" + imageFile.getName());
-			ImageIO.write(image, "bmp", outputFile);
-			
-			
-		} catch (IOException e) {
-			System.err.println("An I//O problem occures with file " +
-					imageFile.getAbsolutePath());
-		}
+		int from = vertexAt(fromPoint);
+		int to = vertexAt(toPoint);
 		
+		if(!hasVertex(from) || !hasVertex(to)) return null;
+		if(isSeparated(from, to)) return null;
+		
+		if((lastTree == null) || (lastTree.getSource() != from)) {
+			clearSearchCache();
+			lastTree = new ShortestPathTree(this, from);
+		}
+		return lastTree.pathTo(to);
 	}
 	
 	/**
-	 * Same as printPath(...) but with BufferedImage as an agrument instead 
-	 *File argument.
-	 * @param path - an Point array representing the path.
-	 * @param image onto we want to draw the path.
-	 * @param color with which we want to draw the path.
+	 * The same as shortestPathCached(...), but the path is returned as a
+	 *PathResult(see findPath(...)); the settled vertices are the ones this
+	 *query has settled, zero if the destination has been settled before.
+	 * @param fromPoint represents the start x,y coordinates on the map.
+	 * @param toPoint represents the destination x,y coordinates on the map.
+	 * @return the path. Null if there is no path.
+	 * @throws IllegalArgumentException when a point exceed the borders of the map.
 	 */
-	public void printPath(Point[] path, BufferedImage image, int color) {
-		if(path == null) return;
+	public synchronized PathResult findPathCached(Point fromPoint, Point toPoint) {
 		
-		for(int i = 0;i < path.length;i++) {
-			image.setRGB(path[i].x, path[i].y, color);
-		}
+		int from = vertexAt(fromPoint);
+		int to = vertexAt(toPoint);
+		
+		if(!hasVertex(from) || !hasVertex(to)) return null;
+		if(isSeparated(from, to)) return null;
 		
+		if((lastTree == null) || (lastTree.getSource() != from)) {
+			clearSearchCache();
+			lastTree = new ShortestPathTree(this, from);
+		}
+		return lastTree.resultTo(to);
 	}
 	
 	/**
-	 * Represents this Graph as a picture in which each pixel is a vertex. 
-	 *Each pixel can have eight neighbors, so each pixel is colored differently 
-	 *according to how many neighbors it has.
+	 * Discards the search state kept by shortestPathCached(...).
+	 */
+	public synchronized void clearSearchCache() {
+		if(lastTree != null) lastTree.release();
+		lastTree = null;
+	}
+	
+	/**
+	 * The same as shortestPaths(pairs, executor, false).
+	 * @param pairs - the queries; zero element of a pair is the start point,
+	 *the first one is the destination.
+	 * @param executor - runs the queries, e.g. a thread pool.
+	 * @return the paths in the order of the pairs; a path is null if there is
+	 *no path. Null if the current thread is interrupted while waiting.
+	 * @throws IllegalArgumentException when a point exceed the borders of the map.
+	 */
+	public List<Point[]> shortestPaths(List<Point[]> pairs, Executor executor) {
+		return shortestPaths(pairs, executor, false);
+	}
+	
+	/**
+	 * Finds the shortest paths between many pairs of points at once: the 
+	 *queries are independent, so they run as separate tasks on the given
+	 *executor against this same graph(see SearchContext) and the method 
+	 *waits for all of them. The paths are the same as the ones of 
+	 *shortestPathDijkstra(...).
+	 * If isGroupedBySource is true, the pairs with the same start point make
+	 *one task: a single search from the start point is resumed for each of
+	 *their destinations(see ShortestPathTree), instead of a new search per
+	 *pair. It pays when many pairs share the start points; otherwise every
+	 *pair is a task of its own, which balances the load better.
+	 * @param pairs - the queries; zero element of a pair is the start point,
+	 *the first one is the destination.
+	 * @param executor - runs the queries, e.g. a thread pool.
+	 * @param isGroupedBySource - if true, a start point is searched only once.
+	 * @return the paths in the order of the pairs; a path is null if there is
+	 *no path. Null if the current thread is interrupted while waiting.
+	 * @throws IllegalArgumentException when a point exceed the borders of the map.
+	 * @throws IllegalStateException if a query fails.
+	 */
+	public List<Point[]> shortestPaths(List<Point[]> pairs, Executor executor, 
+			boolean isGroupedBySource) {
+		
+		// The points are checked before any task runs.
+		final int[] from = new int[pairs.size()];
+		final int[] to = new int[pairs.size()];
+		for(int i = 0;i < pairs.size();i++) {
+			from[i] = vertexAt(pairs.get(i)[0]);
+			to[i] = vertexAt(pairs.get(i)[1]);
+		}
+		final Point[][] result = new Point[pairs.size()][];
+		
+		ArrayList<FutureTask<Void>> tasks = new ArrayList<FutureTask<Void>>();
+		if(isGroupedBySource) {
+			// The indexes of the pairs by their start vertex, in order of 
+			//appearance.
+			LinkedHashMap<Integer, ArrayList<Integer>> groups = 
+					new LinkedHashMap<Integer, ArrayList<Integer>>();
+			for(int i = 0;i < pairs.size();i++) {
+				ArrayList<Integer> group = groups.get(from[i]);
+				if(group == null) {
+					group = new ArrayList<Integer>();
+					groups.put(from[i], group);
+				}
+				group.add(i);
+			}
+			for(final ArrayList<Integer> group : groups.values()) {
+				tasks.add(new FutureTask<Void>(new Runnable() {
+					public void run() {
+						int source = from[group.get(0)];
+						if(!hasVertex(source)) return;
+						ShortestPathTree tree = new ShortestPathTree(Graph.this, source);
+						try {
+							for(int i : group) {
+								if(hasVertex(to[i]) && !isSeparated(source, to[i])) {
+									result[i] = tree.pathTo(to[i]);
+								}
+							}
+						}finally {
+							tree.release();
+						}
+					}
+				}, null));
+			}
+		}else {
+			for(int i = 0;i < pairs.size();i++) {
+				final int pair = i;
+				tasks.add(new FutureTask<Void>(new Runnable() {
+					public void run() {
+						if(!hasVertex(from[pair]) || !hasVertex(to[pair])) return;
+						if(isSeparated(from[pair], to[pair])) return;
+						SearchContext c = acquireContext();
+						try {
+							if(shortestPathDijkstra(from[pair], to[pair], c, c.pq)) {
+								result[pair] = buildPath(from[pair], to[pair], c.prev);
+							}
+						}finally {
+							releaseContext(c);
+						}
+					}
+				}, null));
+			}
+		}
+		
+		for(FutureTask<Void> task : tasks) {
+			executor.execute(task);
+		}
+		try {
+			for(FutureTask<Void> task : tasks) {
+				task.get();
+			}
+		} catch (InterruptedException e) {
+			for(FutureTask<Void> task : tasks) {
+				task.cancel(false);
+			}
+			Thread.currentThread().interrupt();
+			return null;
+		} catch (ExecutionException e) {
+			for(FutureTask<Void> task : tasks) {
+				task.cancel(false);
+			}
+			throw new IllegalStateException("A query failed!", e.getCause());
+		}
+		return Arrays.asList(result);
+	}
+	
+	/**
+	 * The method implements A* algorithm with an octile distance heuristic.
+	 *The heuristic of a vertex is the cheapest possible way to the destination
+	 *if the map were free of obstacles and every step costed the least weight
+	 *the graph has:
+	 *h = s*(max(dx,dy) - min(dx,dy)) + d*min(dx,dy),
+	 *where s is the least weight of a straight step and d is the least weight
+	 *of a diagonal step, but not more than 2*s. The least weights are taken 
+	 *from the graph itself the first time they are needed, because 
+	 *ImageCsrBuilder calculates a weight as abs(difference + 1), so a 
+	 *weight may be even zero. If some heir is not a pixel around its vertex
+	 *(possible with a human written map), the heuristic is zero and the 
+	 *method works as Dijkstra's algorithm. 
+	 * The heuristic is consistent, so the returned path costs the same as the
+	 *path returned by shortestPathDijkstra(...), but fewer vertices are 
+	 *settled on the way.
+	 * @param fromPoint represents the start x,y coordinates on the map.
+	 * @param toPoint represents the destination x,y coordinates on the map.
+	 * @return an array containing the desired path. Zero element is the start
+	 *point. Null if there is no path.
+	 * @throws IllegalArgumentException when a point exceed the borders of the map.
+	 */
+	public Point[] shortestPathAStar(Point fromPoint, Point toPoint) {
+		return shortestPathAStar(fromPoint, toPoint, null);
+	}
+	
+	/**
+	 * The same as shortestPathAStar(Point, Point), but the heuristic of a 
+	 *vertex is the greater of the octile distance and the lower bound the
+	 *given landmarks give (ALT algorithm, see Landmarks). On a map with
+	 *uneven colours the landmark bound is much tighter, so much fewer 
+	 *vertices are settled.
+	 * The returned path costs the same as the path of shortestPathDijkstra(...).
+	 * @param fromPoint represents the start x,y coordinates on the map.
+	 * @param toPoint represents the destination x,y coordinates on the map.
+	 * @param landmarks - built for this graph with selectLandmarks(...); if
+	 *null, only the octile distance is used.
+	 * @return an array containing the desired path. Zero element is the start
+	 *point. Null if there is no path.
+	 * @throws IllegalArgumentException when a point exceed the borders of the
+	 *map or the landmarks have been built for another graph.
+	 */
+	public Point[] shortestPathAStar(Point fromPoint, Point toPoint, 
+			Landmarks landmarks) {
+		
+		int from = vertexAt(fromPoint);
+		int to = vertexAt(toPoint);
+		if((landmarks != null) && !landmarks.fits(this)) {
+			throw new IllegalArgumentException(
+					"The landmarks have been built for another graph!");
+		}
+		
+		if(!hasVertex(from) || !hasVertex(to)) return null;
+		if(isSeparated(from, to)) return null;
+		
+		initLeastWeights();
+		Landmarks.Estimate estimate = 
+				(landmarks == null)? null : landmarks.estimateTo(from, to);
+		
+		SearchContext c = acquireContext();
+		try {
+			return shortestPathAStar(from, to, estimate, c)? buildPath(from, to, c.prev) : null;
+		}finally {
+			releaseContext(c);
+		}
+	}
+	
+	/**
+	 * The same as shortestPathAStar(Point, Point, Landmarks), but the path is
+	 *returned as a PathResult(see findPath(...)).
+	 * @param fromPoint represents the start x,y coordinates on the map.
+	 * @param toPoint represents the destination x,y coordinates on the map.
+	 * @param landmarks - built for this graph with selectLandmarks(...); if
+	 *null, only the octile distance is used.
+	 * @return the path. Null if there is no path.
+	 * @throws IllegalArgumentException when a point exceed the borders of the
+	 *map or the landmarks have been built for another graph.
+	 */
+	public PathResult findPathAStar(Point fromPoint, Point toPoint, 
+			Landmarks landmarks) {
+		
+		int from = vertexAt(fromPoint);
+		int to = vertexAt(toPoint);
+		if((landmarks != null) && !landmarks.fits(this)) {
+			throw new IllegalArgumentException(
+					"The landmarks have been built for another graph!");
+		}
+		
+		if(!hasVertex(from) || !hasVertex(to)) return null;
+		if(isSeparated(from, to)) return null;
+		
+		initLeastWeights();
+		Landmarks.Estimate estimate = 
+				(landmarks == null)? null : landmarks.estimateTo(from, to);
+		
+		SearchContext c = acquireContext();
+		try {
+			if(!shortestPathAStar(from, to, estimate, c)) return null;
+			return buildResult(from, to, c.prev, c.value[to], c.settled);
+		}finally {
+			releaseContext(c);
+		}
+	}
+	
+	/**
+	 * The actual A* algorithm of shortestPathAStar(...).
+	 * @param from - the start vertex, it must not be null.
+	 * @param to - the destination vertex, it must not be null.
+	 * @param estimate - the landmark bounds or null.
+	 * @param c - a context taken with acquireContext().
+	 * @return true if the destination has been settled; then its value and
+	 *the prevs of the path are in the context.
+	 */
+	private boolean shortestPathAStar(int from, int to, Landmarks.Estimate estimate,
+			SearchContext c) {
+		
+		SearchListener listener = searchListener;
+		long begin = (listener == null)? 0 : System.nanoTime();
+		IndexedHeap pq = c.pq;
+		int[] heirsOut = c.heirsOut; float[] weightsOut = c.weightsOut;
+		
+		// Initialization
+		c.begin();
+		c.reach(from, 0, from);
+		pq.insert(from, heuristic(from, to, estimate));
+		c.queued++;
+
+		
+		// The actual A* algorithm; the key of a vertex in the pq is its 
+		//value plus its heuristic. A settled vertex is not skipped: the
+		//landmark bounds are reduced by the float rounding error, so they
+		//may be a bit inconsistent, and then a vertex may be reached with
+		//less value after it has been settled. With the octile heuristic 
+		//it never happens.
+		boolean isFound = false;
+		while(!pq.isEmpty()) {
+			
+			int currV = pq.poll();
+			c.settled++;
+			
+			// If the destination vertex is obtained
+			if(currV == to) {
+				isFound = true;
+				break;
+			}
+			
+			double currValue = c.value[currV];
+			int count = expand(currV, heirsOut, weightsOut);
+			c.relaxed += count;
+			for(int e = 0;e < count;e++) {
+				
+				int heir = heirsOut[e];
+				
+				double currPath = currValue + weightsOut[e];
+				if(c.valueOf(heir) > currPath) {
+					
+					double h = heuristic(heir, to, estimate);
+					// The destination can not be reached from the heir.
+					if(h == Double.POSITIVE_INFINITY) continue;
+					
+					pq.insertOrDecrease(heir, currPath + h);
+					c.queued++;
+					
+					c.reach(heir, currPath, currV);
+				}
+			}
+		}
+		if(listener != null) {
+			report(listener, (estimate == null)? "astar" : "alt", from, to, isFound, 
+					c.settled, c.relaxed, c.queued, pq.size(), pq.getPeakSize(), 
+					c.value[to], begin);
+		}
+		return isFound;
+	}
+	
+	/**
+	 * The method implements A* algorithm with Jump Point Search (D. Harabor,
+	 *A. Grastien, Online graph pruning for pathfinding on grid maps, 2011).
+	 *Inside a uniform region of the map, i.e. where the neighbour pixels 
+	 *have the same colour and so every step weights 1 or sqrt(2), there are
+	 *many paths of the same cost, and A* would settle all their vertices. 
+	 *JPS prunes the neighbours that can be reached as cheap without the
+	 *current vertex, and instead of adding every vertex to the queue it 
+	 *jumps in a straight or diagonal line until a vertex where the path may
+	 *turn: next to a forbidden pixel (a forced neighbour), at the border of 
+	 *the uniform region, or at the destination. At the border of a uniform
+	 *region, and everywhere else, the vertices are expanded the same way as
+	 *in shortestPathAStar(...), so the 8 neighbour rules, the forbidden
+	 *color and the weights of ImageCsrBuilder hold everywhere.
+	 * The returned path costs the same as the path of shortestPathDijkstra(...).
+	 *If the graph is not a pixel grid (possible with a human written map),
+	 *the method works as shortestPathAStar(...).
+	 * @param fromPoint represents the start x,y coordinates on the map.
+	 * @param toPoint represents the destination x,y coordinates on the map.
+	 * @return an array containing the desired path. Zero element is the start
+	 *point. Null if there is no path.
+	 * @throws IllegalArgumentException when a point exceed the borders of the map.
+	 */
+	public Point[] shortestPathJPS(Point fromPoint, Point toPoint) {
+		
+		int from = vertexAt(fromPoint);
+		int to = vertexAt(toPoint);
+		
+		if(!hasVertex(from) || !hasVertex(to)) return null;
+		if(isSeparated(from, to)) return null;
+		
+		initLeastWeights();
+		initUniformCells();
+		if(uniformCells == null) return shortestPathAStar(fromPoint, toPoint);
+		
+		// c.prev[v] is the previous jump point, not necessarily a neighbour.
+		SearchListener listener = searchListener;
+		long begin = (listener == null)? 0 : System.nanoTime();
+		SearchContext c = acquireContext();
+		try {
+			IndexedHeap pq = c.pq;
+			int[] heirsOut = c.heirsOut; float[] weightsOut = c.weightsOut;
+			int[] directions = new int[8];
+			
+			// Initialization
+			c.begin();
+			c.reach(from, 0, from);
+			pq.insert(from, octileEstimate(from, to));
+			c.queued++;
+			
+			boolean isFound = false;
+			while(!pq.isEmpty()) {
+				
+				int currV = pq.poll();
+				c.settled++;
+				
+				// If the destination vertex is obtained
+				if(currV == to) {
+					isFound = true;
+					break;
+				}
+				
+				if(!isUniform(currV)) {
+					// The ordinary expansion, but a uniform heir is not added;
+					//the search jumps over it instead. The weight of the step
+					//to a uniform heir is 1 or DIAGONAL, since the heir has 
+					//the same color as all the pixels around.
+					double currValue = c.value[currV];
+					int count = expand(currV, heirsOut, weightsOut);
+					c.relaxed += count;
+					for(int e = 0;e < count;e++) {
+						int heir = heirsOut[e];
+						if(isUniform(heir)) {
+							jumpTo(currV, Integer.signum(heir%width - currV%width),
+									Integer.signum(heir/width - currV/width), to, c);
+							continue;
+						}
+						double currPath = currValue + weightsOut[e];
+						if(c.valueOf(heir) > currPath) {
+							pq.insertOrDecrease(heir, currPath + octileEstimate(heir, to));
+							c.queued++;
+							c.reach(heir, currPath, currV);
+						}
+					}
+					continue;
+				}
+				
+				// The jumps in the directions that are not pruned.
+				int count = (currV == from)? allDirections(currV, directions)
+						: prunedDirections(c.prev[currV], currV, directions);
+				c.relaxed += count;
+				for(int d = 0;d < count;d++) {
+					jumpTo(currV, directions[d] % 3 - 1, directions[d] / 3 - 1, to, c);
+				}
+			}
+			if(listener != null) {
+				report(listener, "jps", from, to, isFound, c.settled, c.relaxed, c.queued,
+						pq.size(), pq.getPeakSize(), c.value[to], begin);
+			}
+			return isFound? buildJumpPath(from, to, c.prev) : null;
+		}finally {
+			releaseContext(c);
+		}
+	}
+	
+	// Jumps from the vertex in the given direction and adds the jump point
+	//into the queue of shortestPathJPS(...).
+	private void jumpTo(int vertIndex, int dx, int dy, int toVertIndex, 
+			SearchContext c) {
+		int jumpPoint = jump(vertIndex % width, vertIndex / width, dx, dy, toVertIndex);
+		if(jumpPoint == -1) return;
+		
+		// Every step of the jump weights the same.
+		int steps = Math.max(Math.abs(jumpPoint % width - vertIndex % width), 
+				Math.abs(jumpPoint / width - vertIndex / width));
+		double currPath = c.value[vertIndex] 
+				+ steps*(double)(((dx != 0) && (dy != 0))? DIAGONAL : 1);
+		if(c.valueOf(jumpPoint) > currPath) {
+			c.pq.insertOrDecrease(jumpPoint, currPath + octileEstimate(jumpPoint, toVertIndex));
+			c.queued++;
+			c.reach(jumpPoint, currPath, vertIndex);
+		}
+	}
+	
+	/**
+	 * Chooses landmarks for shortestPathAStar(Point, Point, Landmarks).
+	 * @param count - the number of landmarks; more landmarks give better 
+	 *bounds, but take more memory and preprocessing time.
+	 * @param strategy - how the landmarks are chosen, see Landmarks.
+	 * @param memoryBudget - the most bytes the landmarks may take, e.g.
+	 *Landmarks.DEFAULT_MEMORY_BUDGET; a landmark takes 8 bytes per pixel.
+	 * @return the landmarks.
+	 * @throws IllegalArgumentException if count is not positive or the budget
+	 *is not enough for a single landmark.
+	 */
+	public Landmarks selectLandmarks(int count, Landmarks.Strategy strategy, 
+			long memoryBudget) {
+		return Landmarks.build(this, count, strategy, memoryBudget);
+	}
+	
+	/**
+	 * The method implements bidirectional Dijkstra's algorithm: one search 
+	 *goes forward from the start and another one goes backward from the 
+	 *destination (over the predecessors, see expandReverse(...)). Whenever a
+	 *search scans an edge which the other search has already reached, the 
+	 *path through that edge is a candidate for the shortest path; the searches
+	 *stop when the sum of the least values in their queues is not less than 
+	 *the best candidate. So each search settles only the vertices which are
+	 *about half the way far, instead of all the way far.
+	 * The returned path costs the same as the path of shortestPathDijkstra(...).
+	 * @param fromPoint represents the start x,y coordinates on the map.
+	 * @param toPoint represents the destination x,y coordinates on the map.
+	 * @param isParallel - if true, the backward search runs on another thread
+	 *at the same time with the forward search; otherwise they take turns on
+	 *the current thread, the one with the less value first.
+	 * @return an array containing the desired path. Zero element is the start
+	 *point. Null if there is no path.
+	 * @throws IllegalArgumentException when a point exceed the borders of the map.
+	 */
+	public Point[] shortestPathBidirectional(Point fromPoint, Point toPoint, 
+			boolean isParallel) {
+		
+		int from = vertexAt(fromPoint);
+		int to = vertexAt(toPoint);
+		
+		if(!hasVertex(from) || !hasVertex(to)) return null;
+		if(isSeparated(from, to)) return null;
+		if(from == to) return buildPath(from, to, null);
+		
+		SearchListener listener = searchListener;
+		long begin = (listener == null)? 0 : System.nanoTime();
+		Meeting meeting = new Meeting();
+		Frontier forward = acquireFrontier();
+		Frontier backward = acquireFrontier();
+		try {
+			forward.begin(from, false, meeting, backward);
+			backward.begin(to, true, meeting, forward);
+			Point[] result = searchBidirectional(from, to, forward, backward, 
+					meeting, isParallel);
+			if(listener != null) {
+				report(listener, isParallel? "bidirectional-parallel" : "bidirectional",
+						from, to, meeting.cost != Double.POSITIVE_INFINITY, 
+						forward.settled + backward.settled, 
+						forward.relaxed + backward.relaxed, 
+						forward.queued + backward.queued, 
+						forward.pq.size() + backward.pq.size(),
+						forward.pq.getPeakSize() + backward.pq.getPeakSize(), 
+						meeting.cost, begin);
+			}
+			return result;
+		}finally {
+			frontiers.offer(forward);
+			frontiers.offer(backward);
+		}
+	}
+	
+	// Takes a free search of shortestPathBidirectional(...) from the pool or
+	//makes a new one if there is none.
+	private Frontier acquireFrontier() {
+		Frontier f = frontiers.poll();
+		if(f == null) f = new Frontier();
+		return f;
+	}
+	
+	// Runs the two searches of shortestPathBidirectional(...), which have 
+	//begun from the start and from the destination, and builds the path.
+	private Point[] searchBidirectional(int from, int to, Frontier forward,
+			Frontier backward, Meeting meeting, boolean isParallel) {
+		if(isParallel) {
+			Thread thread = new Thread(backward, "Graph-backward-search");
+			thread.start();
+			forward.run();
+			// The backward search stops at its next step, as the top of the
+			//forward one is infinity now; it must stop before the frontiers
+			//go back to the pool, so the interrupt is kept for later.
+			boolean isInterrupted = false;
+			while(thread.isAlive()) {
+				try {
+					thread.join();
+				} catch (InterruptedException e) {
+					isInterrupted = true;
+				}
+			}
+			if(isInterrupted) {
+				Thread.currentThread().interrupt();
+				return null;
+			}
+			if(forward.failure != null) {
+				throw new IllegalStateException(
+						"The forward search failed!", forward.failure);
+			}
+			if(backward.failure != null) {
+				throw new IllegalStateException(
+						"The backward search failed!", backward.failure);
+			}
+		}else {
+			while(true) {
+				Frontier next = (forward.top <= backward.top)? forward : backward;
+				if(!next.step()) break;
+			}
+		}
+		
+		if(meeting.cost == Double.POSITIVE_INFINITY) return null;
+		
+		// The forward part of the path ends with meeting.forwardVertex, the
+		//backward part begins with meeting.backwardVertex.
+		Point[] head = buildPath(from, meeting.forwardVertex, forward.prev);
+		int k = 0;
+		int i = meeting.backwardVertex;
+		if(i != meeting.forwardVertex) k++;
+		while(i != to) {
+			k++;
+			i = backward.prev[i];
+		}
+		Point[] result = Arrays.copyOf(head, head.length + k);
+		i = meeting.backwardVertex;
+		int j = head.length;
+		if(i != meeting.forwardVertex) {
+			result[j++] = new Point(i%getWidth(), i/getWidth());
+		}
+		while(i != to) {
+			i = backward.prev[i];
+			result[j++] = new Point(i%getWidth(), i/getWidth());
+		}
+		return result;
+	}
+	
+	/**
+	 * Keeps the best candidate for the shortest path found by the two searches
+	 *of shortestPathBidirectional(...): the path goes from the start to 
+	 *forwardVertex, then to backwardVertex(that may be the same vertex) and
+	 *then to the destination.
+	 */
+	private static class Meeting {
+		volatile double cost = Double.POSITIVE_INFINITY;
+		int forwardVertex = -1;
+		int backwardVertex = -1;
+		
+		synchronized void offer(double cost, int forwardVertex, int backwardVertex) {
+			if(cost < this.cost) {
+				this.forwardVertex = forwardVertex;
+				this.backwardVertex = backwardVertex;
+				this.cost = cost;
+			}
+		}
+	}
+	
+	/**
+	 * One of the two searches of shortestPathBidirectional(...). The Graph 
+	 *keeps them in a pool, so a query does not allocate O(V) arrays; like in
+	 *SearchContext, every query has a new epoch and a value counts only if
+	 *the stamp of its vertex is the current epoch, so begin(...) costs O(1).
+	 *The values are read by the other search, possibly from another thread,
+	 *so they are kept in AtomicLongArray as Double.doubleToRawLongBits(value)
+	 *and stamped in AtomicIntegerArray: a value is written with lazySet(...)
+	 *before its stamp, so the other search which sees the stamp sees the
+	 *value too. The least value in the queue is published through the 
+	 *volatile top field after all the heirs of the settled vertex are 
+	 *scanned; the volatile write of top at the end of every step orders the
+	 *values before the reads of the next steps, and a vertex is never 
+	 *scanned at the same step its value is written.
+	 */
+	private class Frontier implements Runnable {
+		boolean isBackward;
+		Meeting meeting;
+		Frontier other;
+		
+		// value[v] and prev[v] are valid only if reached[v] == epoch; 
+		//visited[v] == epoch if v is settled in this query.
+		final AtomicLongArray value;
+		final AtomicIntegerArray reached;
+		final int[] prev;
+		final int[] visited;
+		int epoch;
+		final IndexedHeap pq;
+		final int[] heirsOut;
+		final float[] weightsOut;
+		
+		// What the search has done in this query, see SearchStats; read by
+		//shortestPathBidirectional(...) after both searches have stopped.
+		int settled;
+		long relaxed;
+		int queued;
+		
+		// The least value in the queue; every vertex with less value is 
+		//settled and scanned. It only grows.
+		volatile double top;
+		
+		volatile Throwable failure;
+		
+		Frontier() {
+			this.value = new AtomicLongArray(getSize());
+			this.reached = new AtomicIntegerArray(getSize());
+			this.prev = new int[getSize()];
+			this.visited = new int[getSize()];
+			this.epoch = 0;
+			this.pq = new IndexedHeap(getSize(), HEAP_ARITY);
+			this.heirsOut = new int[maxHeirs];
+			this.weightsOut = new float[maxHeirs];
+		}
+		
+		/**
+		 * Begins a new query from the given source; every vertex is unreached
+		 *and not visited again. It is called before the search is handed to
+		 *another thread, so the thread sees the new epoch.
+		 */
+		void begin(int source, boolean isBackward, Meeting meeting, Frontier other) {
+			this.isBackward = isBackward;
+			this.meeting = meeting;
+			this.other = other;
+			this.top = 0;
+			this.failure = null;
+			this.settled = 0;
+			this.relaxed = 0;
+			this.queued = 1;
+			pq.clear();
+			if(epoch == Integer.MAX_VALUE) {
+				for(int v = 0;v < visited.length;v++) {
+					reached.set(v, 0);
+				}
+				Arrays.fill(visited, 0);
+				epoch = 0;
+			}
+			epoch++;
+			
+			reach(source, 0, -1);
+			pq.insert(source, 0);
+		}
+		
+		double valueOf(int vertIndex) {
+			if(reached.get(vertIndex) != epoch) return Double.POSITIVE_INFINITY;
+			return Double.longBitsToDouble(value.get(vertIndex));
+		}
+		
+		private void reach(int vertIndex, double currPath, int prevVertIndex) {
+			value.lazySet(vertIndex, Double.doubleToRawLongBits(currPath));
+			prev[vertIndex] = prevVertIndex;
+			if(reached.get(vertIndex) != epoch) reached.lazySet(vertIndex, epoch);
+		}
+		
+		/**
+		 * Settles the next vertex and scans its heirs(or predecessors).
+		 * @return false if the search must stop.
+		 */
+		boolean step() {
+			if(pq.isEmpty()) {
+				top = Double.POSITIVE_INFINITY;
+				return false;
+			}
+			int currV = pq.poll();
+			visited[currV] = epoch;
+			settled++;
+			double currValue = valueOf(currV);
+			
+			offer(currValue + other.valueOf(currV), currV, currV);
+			
+			int count = isBackward? expandReverse(currV, heirsOut, weightsOut) 
+					: expand(currV, heirsOut, weightsOut);
+			relaxed += count;
+			for(int e = 0;e < count;e++) {
+				int heir = heirsOut[e];
+				double currPath = currValue + weightsOut[e];
+				
+				if((visited[heir] != epoch) && (valueOf(heir) > currPath)) {
+					pq.insertOrDecrease(heir, currPath);
+					queued++;
+					reach(heir, currPath, currV);
+				}
+				
+				double otherValue = other.valueOf(heir);
+				if(otherValue != Double.POSITIVE_INFINITY) {
+					offer(currPath + otherValue, currV, heir);
+				}
+			}
+			
+			top = pq.isEmpty()? Double.POSITIVE_INFINITY : pq.peekKey();
+			return top + other.top < meeting.cost;
+		}
+		
+		// Offers a candidate path through the vertex currV of this search 
+		//and the vertex otherV of the other search.
+		private void offer(double cost, int currV, int otherV) {
+			if(cost >= meeting.cost) return;
+			if(isBackward) {
+				meeting.offer(cost, otherV, currV);
+			}else {
+				meeting.offer(cost, currV, otherV);
+			}
+		}
+		
+		public void run() {
+			try {
+				while(step()) {
+					// Nothing else to do.
+				}
+			}catch(RuntimeException e) {
+				failure = e;
+			}finally {
+				top = Double.POSITIVE_INFINITY;
+			}
+		}
+	}
+	
+	/**
+	 * Finds the shortest paths from the given point to all the vertices with
+	 *the delta-stepping algorithm on the shared fork/join pool, with delta 
+	 *tuned by the weights of the graph; see DeltaStepping.
+	 * @param fromPoint represents the start x,y coordinates on the map.
+	 * @return the distances and the parents of all the vertices. Null if the
+	 *start point is forbidden.
+	 * @throws IllegalArgumentException when the point exceed the borders of
+	 *the map or some weight is negative.
+	 */
+	public SingleSourcePaths shortestPathsFrom(Point fromPoint) {
+		ForkJoinPool pool = ImageCsrBuilder.commonPool();
+		return shortestPathsFrom(fromPoint, pool, initDeltaStepping(pool).getTunedDelta(pool));
+	}
+	
+	/**
+	 * The same as shortestPathsFrom(fromPoint), but on the given pool and 
+	 *with the given delta. The distances are the same with any delta, only
+	 *the time differs: with a small delta there are many buckets with few
+	 *vertices to relax in parallel, with a big one the vertices are relaxed
+	 *many times.
+	 * @param fromPoint represents the start x,y coordinates on the map.
+	 * @param pool - the pool the relaxations run on.
+	 * @param delta - the width of a bucket, e.g. the one of
+	 *shortestPathsFrom(fromPoint).getDelta().
+	 * @return the distances and the parents of all the vertices. Null if the
+	 *start point is forbidden.
+	 * @throws IllegalArgumentException when the point exceed the borders of
+	 *the map, some weight is negative or delta is not positive or too 
+	 *small for the greatest weight.
+	 */
+	public SingleSourcePaths shortestPathsFrom(Point fromPoint, ForkJoinPool pool,
+			double delta) {
+		int from = vertexAt(fromPoint);
+		if(!hasVertex(from)) return null;
+		return initDeltaStepping(pool).run(from, delta, pool);
+	}
+	
+	/**
+	 * The components of a LISTS or CSR graph are labelled when it is set; an
+	 *IMPLICIT or MAPPED graph labels them at the first call of this method,
+	 *getComponentCount() or snapToComponent(...), and from then on it keeps
+	 *them(4 bytes per pixel) and its searches use them too.
+	 * @param point
+	 * @return the connected component of the pixel: two pixels of different
+	 *components have no path between them. -1 if the pixel has no vertex.
+	 * @throws IllegalArgumentException when the point exceed the borders of
+	 *the map.
+	 */
+	public int getComponent(Point point) {
+		return initComponents().labelOf(vertexAt(point));
+	}
+	
+	/**
+	 * @return the number of the connected components; they are numbered 
+	 *0,...,getComponentCount()-1 in the order of their first pixels.
+	 */
+	public int getComponentCount() {
+		return initComponents().getCount();
+	}
+	
+	/**
+	 * Snaps the point to the nearest pixel which can be reached from the 
+	 *reference point, e.g. a click to the pixel a path from the start can
+	 *end at. The point itself is returned if it can be reached.
+	 * @param point - the point to snap.
+	 * @param reference - e.g. the start of the path.
+	 * @return the nearest pixel(in the Euclidean distance) of the component
+	 *of the reference point. Null if the reference point has no vertex.
+	 * @throws IllegalArgumentException when a point exceed the borders of 
+	 *the map.
+	 */
+	public Point snapToComponent(Point point, Point reference) {
+		vertexAt(point);
+		ComponentLabels labels = initComponents();
+		int label = labels.labelOf(vertexAt(reference));
+		if(label == -1) return null;
+		int v = labels.nearest(point.x, point.y, label);
+		return new Point(v%getWidth(), v/getWidth());
+	}
+	
+	// True if the vertices are in different components, so there is no path
+	//between them; it is reported as a search which has settled nothing.
+	//Always false if the graph does not keep the components.
+	private boolean isSeparated(int from, int to) {
+		if(!hasComponents) return false;
+		ComponentLabels labels = initComponents();
+		if(labels.labelOf(from) == labels.labelOf(to)) return false;
+		SearchListener listener = searchListener;
+		if(listener != null) {
+			report(listener, "components", from, to, false, 0, 0, 0, 0, 0, 0, 
+					System.nanoTime());
+		}
+		return true;
+	}
+	
+	// Labels the connected components if they are not labelled, and from
+	//then on the graph keeps them; the searches read the labels without the
+	//lock.
+	private ComponentLabels initComponents() {
+		ComponentLabels labels = components;
+		if(labels != null) return labels;
+		synchronized(this) {
+			if(components == null) {
+				components = new ComponentLabels(this, ImageCsrBuilder.commonPool());
+				hasComponents = true;
+			}
+			return components;
+		}
+	}
+	
+	// Scans the weights for the delta-stepping engine, once.
+	private synchronized DeltaStepping initDeltaStepping(ForkJoinPool pool) {
+		if(deltaStepping == null) deltaStepping = new DeltaStepping(this, pool);
+		return deltaStepping;
+	}
+	
+	/**
+	 * Preprocesses the graph into a contraction hierarchy, so the repeated
+	 *queries on the same map are much faster; see ContractionHierarchy. The
+	 *graph itself is not changed.
+	 * @return the hierarchy; use its shortestPath(...) for the queries.
+	 */
+	public ContractionHierarchy contract() {
+		return ContractionHierarchy.build(this);
+	}
+	
+	/**
+	 * The same as contract(), but the hierarchy is loaded from the file next 
+	 *to the given map file if it has already been saved there, otherwise it 
+	 *is built and saved there. So the preprocessing is done once per map.
+	 * @param mapFile - the file this graph has been set from.
+	 * @return the hierarchy.
+	 */
+	public ContractionHierarchy contract(File mapFile) {
+		return ContractionHierarchy.loadOrBuild(this, mapFile);
+	}
+	
+	/**
+	 * Builds the abstract graph of clusters for hierarchical path finding
+	 *(HPA*), see ClusterGraph. It is meant for the big maps where even A* is
+	 *too slow for interactive use.
+	 * @param clusterSize - the width and the height of a cluster in pixels, 
+	 *e.g. ClusterGraph.DEFAULT_CLUSTER_SIZE.
+	 * @param isOptimal - if true, the paths are refined to the shortest ones,
+	 *otherwise to near-optimal ones, but the abstract graph is much smaller.
+	 * @return the abstract graph; use its shortestPath(...) for the queries.
+	 * @throws IllegalArgumentException if clusterSize is less than 2.
+	 */
+	public ClusterGraph buildClusterGraph(int clusterSize, boolean isOptimal) {
+		return new ClusterGraph(this, clusterSize, isOptimal);
+	}
+	
+	/**
+	 * Makes a replanner which keeps the shortest path between the given 
+	 *points and repairs it with D* Lite when the map changes(see 
+	 *setPixelColor(...) and DStarLite). The points may be moved between the
+	 *repairs.
+	 * @param fromPoint represents the start x,y coordinates on the map.
+	 * @param toPoint represents the destination x,y coordinates on the map.
+	 * @return the replanner; use its shortestPath() for the path.
+	 * @throws IllegalArgumentException when a point exceed the borders of the
+	 *map.
+	 */
+	public DStarLite buildReplanner(Point fromPoint, Point toPoint) {
+		return new DStarLite(this, vertexAt(fromPoint), vertexAt(toPoint));
+	}
+	
+	/**
+	 * Changes the color of the pixel at the given point and sets the heirs 
+	 *of its vertex and of the 8 vertices around it again, in place, by the 
+	 *rules of ImageCsrBuilder: the pixel is null if the color is the 
+	 *forbidden one, and the weights between it and the pixels around are
+	 *calculated from the new color. It costs O(1), whatever the size of the
+	 *map.
+	 * The state the graph keeps for the searches stays valid: the least 
+	 *weights of A* are lowered if a new weight is less, the uniform cells of
+	 *JPS are found again around the pixel, and the state of 
+	 *shortestPathCached(...) and the delta of shortestPathsFrom(...) are
+	 *discarded. The replanners(see buildReplanner(...)) repair their paths
+	 *when they are asked the next time. The landmarks, the contraction 
+	 *hierarchies and the cluster graphs built before must be built again.
+	 *No search may run on the graph while its pixels are changed.
+	 * Only the graphs set from an image with Storage.IMPLICIT or 
+	 *Storage.LISTS can be changed: IMPLICIT changes the pixel of the image
+	 *itself, LISTS a copy of the pixels taken from the image it has been set
+	 *with, or read again from its file at the first call; the file must not
+	 *be changed before that.
+	 * @param point
+	 * @param red - the same bytes as the forbidden color of the constructor
+	 *(0,1,...,127,-128,...,-1).
+	 * @param green
+	 * @param blue
+	 * @throws IllegalArgumentException when the point exceed the borders of 
+	 *the map, or the graph has not been set from an image or its storage is
+	 *CSR or MAPPED.
+	 * @throws IllegalStateException if the file of a LISTS graph can not be
+	 *read again.
+	 */
+	public synchronized void setPixelColor(Point point, int red, int green, int blue) {
+		int vertIndex = vertexAt(point);
+		if(!initEditableRaster()) {
+			throw new IllegalArgumentException("Only IMPLICIT and LISTS graphs "
+					+ "set from an image can be changed, this one is " + storage + "!");
+		}
+		
+		// The vertices whose heirs may change: the pixel and the pixels around.
+		int x = point.x, y = point.y;
+		int fromX = Math.max(0, x-1), toX = Math.min(width-1, x+1);
+		int fromY = Math.max(0, y-1), toY = Math.min(height-1, y+1);
+		int before = 0;
+		for(int by = fromY;by <= toY;by++) {
+			for(int bx = fromX;bx <= toX;bx++) {
+				if(hasVertex(bx + by*width)) before++;
+			}
+		}
+		
+		int p = rasterOrigin + y*scanlineStride + x*pixelStride;
+		boolean wasForbidden = isForbiddenAt(p);
+		raster[p+channelOffsets[0]] = (byte)red;
+		raster[p+channelOffsets[1]] = (byte)green;
+		raster[p+channelOffsets[2]] = (byte)blue;
+		
+		int[] heirsOut = new int[8]; float[] weightsOut = new float[8];
+		int after = 0;
+		for(int by = fromY;by <= toY;by++) {
+			for(int bx = fromX;bx <= toX;bx++) {
+				int v = bx + by*width;
+				int count = expandImplicit(v, heirsOut, weightsOut, false);
+				if(count > 0) after++;
+				if(storage == Storage.LISTS) {
+					// The Vertex constructor counts the vertex again.
+					if(vertices.get(v) != null) {
+						vertices.set(v, null);
+						verticesNumber--;
+					}
+					if(count == 0) continue;
+					Vertex vertex = new Vertex(v);
+					for(int e = 0;e < count;e++) {
+						vertex.heirs.add(heirsOut[e]);
+						vertex.weights.add(weightsOut[e]);
+					}
+				}
+				if(hasLeastWeights) lowerLeastWeights(v, heirsOut, weightsOut, count);
+			}
+		}
+		// The implicit graph counts its vertices on demand, see 
+		//getVerticesNumber().
+		if((storage == Storage.IMPLICIT) && (verticesNumber != 0)) {
+			verticesNumber += after - before;
+		}
+		
+		if(hasUniformCells && (uniformCells != null)) {
+			for(int by = fromY;by <= toY;by++) {
+				for(int bx = fromX;bx <= toX;bx++) {
+					int v = bx + by*width;
+					if(hasVertex(v)) {
+						passableCells[v >>> 6] |= 1L << v;
+					}else {
+						passableCells[v >>> 6] &= ~(1L << v);
+					}
+				}
+			}
+			for(int by = fromY;by <= toY;by++) {
+				for(int bx = fromX;bx <= toX;bx++) {
+					int v = bx + by*width;
+					if(uniformityOf(v, heirsOut, weightsOut) > 0) {
+						uniformCells[v >>> 6] |= 1L << v;
+					}else {
+						uniformCells[v >>> 6] &= ~(1L << v);
+					}
+				}
+			}
+		}
+		
+		clearSearchCache();
+		deltaStepping = null;
+		// Only a forbidden pixel separates the components.
+		if(isForbiddenAt(p) != wasForbidden) components = null;
+		fingerprint = null;
+		
+		if(editCount == edits.length) edits = Arrays.copyOf(edits, 2*editCount);
+		edits[editCount++] = vertIndex;
+	}
+	
+	/**
+	 * @return the number of the pixels setPixelColor(...) has changed so far.
+	 */
+	synchronized int getEditCount() {
+		return editCount;
+	}
+	
+	/**
+	 * @param i - 0,...,getEditCount()-1.
+	 * @return the vertex of the i-th pixel setPixelColor(...) has changed.
+	 */
+	synchronized int getEdit(int i) {
+		return edits[i];
+	}
+	
+	// Lowers the least weights of A* by the given heirs of the vertex v; the
+	//same rules as initLeastWeights().
+	private void lowerLeastWeights(int v, int[] heirsOut, float[] weightsOut, 
+			int count) {
+		double straight = leastStraightWeight;
+		double diagonal = leastDiagonalWeight;
+		for(int e = 0;e < count;e++) {
+			int dx = Math.abs(heirsOut[e]%width - v%width);
+			int dy = Math.abs(heirsOut[e]/width - v/width);
+			if(dx + dy == 1) {
+				straight = Math.min(straight, weightsOut[e]);
+			}else {
+				diagonal = Math.min(diagonal, weightsOut[e]);
+			}
+		}
+		straight = Math.min(straight, diagonal);
+		diagonal = Math.min(diagonal, 2*straight);
+		leastStraightWeight = straight;
+		leastDiagonalWeight = diagonal;
+	}
+	
+	// The heuristic of A*: the octile distance or the landmark bound,
+	//whichever is greater.
+	private double heuristic(int vertIndex, int toVertIndex, 
+			Landmarks.Estimate estimate) {
+		double octile = octileEstimate(vertIndex, toVertIndex);
+		if(estimate == null) return octile;
+		return Math.max(octile, estimate.lowerBound(vertIndex));
+	}
+	
+	/**
+	 * Finds the vertices inside the uniform regions of the map, once. See
+	 *uniformCells. If some heir is not a pixel around its vertex, uniformCells
+	 *remains null.
+	 */
+	private synchronized void initUniformCells() {
+		if(hasUniformCells) return;
+		
+		long[] cells = new long[(getSize() + 63) / 64];
+		long[] passable = new long[cells.length];
+		for(int v = 0;v < getSize();v++) {
+			if(hasVertex(v)) passable[v >>> 6] |= 1L << v;
+		}
+		passableCells = passable;
+		int[] heirsOut = new int[maxHeirs]; float[] weightsOut = new float[maxHeirs];
+		boolean isGrid = true;
+		for(int v = 0;(v < getSize()) && isGrid;v++) {
+			int uniformity = uniformityOf(v, heirsOut, weightsOut);
+			if(uniformity < 0) {
+				isGrid = false;
+			}else if(uniformity > 0) {
+				cells[v >>> 6] |= 1L << v;
+			}
+		}
+		
+		uniformCells = isGrid? cells : null;
+		hasUniformCells = true;
+	}
+	
+	/**
+	 * Tells whether the vertex is inside a uniform region, see uniformCells;
+	 *passableCells must be set.
+	 * @return 1 if it is, 0 if it is not, -1 if some heir is not a pixel 
+	 *around the vertex.
+	 */
+	private int uniformityOf(int v, int[] heirsOut, float[] weightsOut) {
+		int count = expand(v, heirsOut, weightsOut);
+		boolean isUniform = (count > 0);
+		for(int e = 0;e < count;e++) {
+			int dx = Math.abs(heirsOut[e]%width - v%width);
+			int dy = Math.abs(heirsOut[e]/width - v/width);
+			if((dx > 1) || (dy > 1) || (dx + dy == 0)) return -1;
+			float uniformWeight = (dx + dy == 1)? 1 : DIAGONAL;
+			if(weightsOut[e] != uniformWeight) isUniform = false;
+		}
+		if(!isUniform) return 0;
+		
+		// All the pixels around that are not forbidden must be heirs, 
+		//and must have the same weights back.
+		int x = v%width, y = v/width, around = 0;
+		for(int i = 0;i < 8;i++) {
+			if(isPassable(x + HEIR_DX[i], y + HEIR_DY[i])) around++;
+		}
+		if(around != count) return 0;
+		count = expandReverse(v, heirsOut, weightsOut);
+		for(int e = 0;e < count;e++) {
+			int dx = Math.abs(heirsOut[e]%width - v%width);
+			int dy = Math.abs(heirsOut[e]/width - v/width);
+			float uniformWeight = (dx + dy == 1)? 1 : DIAGONAL;
+			if(weightsOut[e] != uniformWeight) isUniform = false;
+		}
+		return (isUniform && (around == count))? 1 : 0;
+	}
+	
+	private boolean isUniform(int vertIndex) {
+		return (uniformCells[vertIndex >>> 6] & (1L << vertIndex)) != 0;
+	}
+	
+	// Whether the pixel x,y is on the map and is not null.
+	private boolean isPassable(int x, int y) {
+		if((x < 0) || (x >= width) || (y < 0) || (y >= height)) return false;
+		int v = x + y*width;
+		return (passableCells[v >>> 6] & (1L << v)) != 0;
+	}
+	
+	/**
+	 * Gets the directions to the pixels around the vertex that are not 
+	 *forbidden. A direction is encoded as (dx+1) + 3*(dy+1).
+	 * @return the number of the directions.
+	 */
+	private int allDirections(int vertIndex, int[] directionsOut) {
+		int x = vertIndex%width, y = vertIndex/width, count = 0;
+		for(int i = 0;i < 8;i++) {
+			if(isPassable(x + HEIR_DX[i], y + HEIR_DY[i])) {
+				directionsOut[count++] = (HEIR_DX[i] + 1) + 3*(HEIR_DY[i] + 1);
+			}
+		}
+		return count;
+	}
+	
+	/**
+	 * Gets the directions of the Jump Point Search from the vertex reached
+	 *from the given previous jump point: the natural neighbours (straight on,
+	 *and for a diagonal move also its two straight parts) and the forced 
+	 *neighbours (the ones next to a forbidden pixel, which can not be reached
+	 *as cheap without the vertex). The vertex must be uniform.
+	 * @return the number of the directions, encoded as in allDirections(...).
+	 */
+	private int prunedDirections(int prevVertIndex, int vertIndex, int[] directionsOut) {
+		int x = vertIndex%width, y = vertIndex/width;
+		int dx = Integer.signum(x - prevVertIndex%width);
+		int dy = Integer.signum(y - prevVertIndex/width);
+		int count = 0;
+		if((dx != 0) && (dy != 0)) {
+			if(isPassable(x + dx, y)) directionsOut[count++] = (dx + 1) + 3;
+			if(isPassable(x, y + dy)) directionsOut[count++] = 1 + 3*(dy + 1);
+			if(isPassable(x + dx, y + dy)) directionsOut[count++] = (dx + 1) + 3*(dy + 1);
+			if(!isPassable(x - dx, y) && isPassable(x - dx, y + dy)) {
+				directionsOut[count++] = (-dx + 1) + 3*(dy + 1);
+			}
+			if(!isPassable(x, y - dy) && isPassable(x + dx, y - dy)) {
+				directionsOut[count++] = (dx + 1) + 3*(-dy + 1);
+			}
+		}else if(dx != 0) {
+			if(isPassable(x + dx, y)) directionsOut[count++] = (dx + 1) + 3;
+			for(int side = -1;side <= 1;side += 2) {
+				if(!isPassable(x, y + side) && isPassable(x + dx, y + side)) {
+					directionsOut[count++] = (dx + 1) + 3*(side + 1);
+				}
+			}
+		}else {
+			if(isPassable(x, y + dy)) directionsOut[count++] = 1 + 3*(dy + 1);
+			for(int side = -1;side <= 1;side += 2) {
+				if(!isPassable(x + side, y) && isPassable(x + side, y + dy)) {
+					directionsOut[count++] = (side + 1) + 3*(dy + 1);
+				}
+			}
+		}
+		return count;
+	}
+	
+	/**
+	 * Jumps from the pixel x,y in the direction dx,dy while the pixels are
+	 *uniform and nothing forces the path to turn.
+	 * @return the jump point, or -1 if the jump ends at a forbidden pixel or
+	 *the border of the map.
+	 */
+	private int jump(int x, int y, int dx, int dy, int toVertIndex) {
+		while(true) {
+			x += dx; y += dy;
+			if(!isPassable(x, y)) return -1;
+			int v = x + y*width;
+			if((v == toVertIndex) || !isUniform(v)) return v;
+			
+			if((dx != 0) && (dy != 0)) {
+				if((!isPassable(x - dx, y) && isPassable(x - dx, y + dy))
+						|| (!isPassable(x, y - dy) && isPassable(x + dx, y - dy))) {
+					return v;
+				}
+				// A diagonal jump stops where a straight jump finds something.
+				if((jump(x, y, dx, 0, toVertIndex) != -1) 
+						|| (jump(x, y, 0, dy, toVertIndex) != -1)) {
+					return v;
+				}
+			}else if(dx != 0) {
+				if((!isPassable(x, y - 1) && isPassable(x + dx, y - 1))
+						|| (!isPassable(x, y + 1) && isPassable(x + dx, y + 1))) {
+					return v;
+				}
+			}else {
+				if((!isPassable(x - 1, y) && isPassable(x - 1, y + dy))
+						|| (!isPassable(x + 1, y) && isPassable(x + 1, y + dy))) {
+					return v;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Builds the path from the jump points: the pixels between two jump 
+	 *points are on a straight or diagonal line.
+	 * @param prev - prev[v] is the jump point before v on the path.
+	 * @return the path as points. Zero element is the start point.
+	 */
+	private Point[] buildJumpPath(int from, int to, int[] prev) {
+		int length = 1;
+		for(int v = to;v != from;v = prev[v]) {
+			length += Math.max(Math.abs(v%width - prev[v]%width), 
+					Math.abs(v/width - prev[v]/width));
+		}
+		Point[] result = new Point[length];
+		int i = length - 1;
+		for(int v = to;v != from;v = prev[v]) {
+			int x = v%width, y = v/width;
+			int dx = Integer.signum(prev[v]%width - x);
+			int dy = Integer.signum(prev[v]/width - y);
+			while((x + y*width) != prev[v]) {
+				result[i--] = new Point(x, y);
+				x += dx; y += dy;
+			}
+		}
+		result[0] = new Point(from%width, from/width);
+		return result;
+	}
+	
+	/**
+	 * The octile distance between the two vertices(pixels) measured with the
+	 *least weights of the graph, see shortestPathAStar(...).
+	 * initLeastWeights() must be invoked before.
+	 * @param vertIndex
+	 * @param toVertIndex
+	 * @return a lower bound of the path cost between the two vertices.
+	 */
+	private double octileEstimate(int vertIndex, int toVertIndex) {
+		int dx = Math.abs(vertIndex%width - toVertIndex%width);
+		int dy = Math.abs(vertIndex/width - toVertIndex/width);
+		int max = Math.max(dx, dy);
+		int min = Math.min(dx, dy);
+		return leastStraightWeight*(max - min) + leastDiagonalWeight*min;
+	}
+	
+	/**
+	 * @return the least weight of a straight step of the graph, see 
+	 *initLeastWeights(); setPixelColor(...) only lowers it.
+	 */
+	double getLeastStraightWeight() {
+		initLeastWeights();
+		return leastStraightWeight;
+	}
+	
+	/**
+	 * @return the least weight of a diagonal step of the graph, see 
+	 *initLeastWeights(); setPixelColor(...) only lowers it.
+	 */
+	double getLeastDiagonalWeight() {
+		initLeastWeights();
+		return leastDiagonalWeight;
+	}
+	
+	/**
+	 * Finds the least weight of a straight step and of a diagonal step in the
+	 *graph, once. The least diagonal weight is taken not greater than twice 
+	 *the least straight weight, and the least straight weight is taken not
+	 *greater than the least diagonal weight, so the octile estimate of a step
+	 *never exceeds its weight.
+	 */
+	private synchronized void initLeastWeights() {
+		if(hasLeastWeights) return;
+		
+		double straight = Double.POSITIVE_INFINITY;
+		double diagonal = Double.POSITIVE_INFINITY;
+		boolean isGrid = true;
+		int[] heirsOut = new int[maxHeirs]; float[] weightsOut = new float[maxHeirs];
+		for(int v = 0;(v < getSize()) && isGrid;v++) {
+			int count = expand(v, heirsOut, weightsOut);
+			for(int e = 0;e < count;e++) {
+				int dx = Math.abs(heirsOut[e]%width - v%width);
+				int dy = Math.abs(heirsOut[e]/width - v/width);
+				if(dx + dy == 1) {
+					straight = Math.min(straight, weightsOut[e]);
+				}else if((dx == 1) && (dy == 1)) {
+					diagonal = Math.min(diagonal, weightsOut[e]);
+				}else {
+					isGrid = false;
+					break;
+				}
+			}
+		}
+		
+		if(!isGrid) {
+			straight = diagonal = 0;
+		}
+		if(straight == Double.POSITIVE_INFINITY) straight = diagonal/2;
+		if(diagonal == Double.POSITIVE_INFINITY) diagonal = 2*straight;
+		if(straight == Double.POSITIVE_INFINITY) straight = diagonal = 0;
+		straight = Math.min(straight, diagonal);
+		diagonal = Math.min(diagonal, 2*straight);
+		
+		leastStraightWeight = straight;
+		leastDiagonalWeight = diagonal;
+		hasLeastWeights = true;
+	}
+	
+	/**
+	 * Converts the given point of the map to the index of its vertex.
+	 * @param point
+	 * @return the vertIndex of the point.
+	 * @throws IllegalArgumentException when the point exceed the borders of 
+	 *the map.
+	 */
+	int vertexAt(Point point) {
+		if((point.x < 0) || (point.x >= getWidth()) 
+				|| (point.y < 0) || (point.y >= getHeight())) {
+			throw new IllegalArgumentException(
+					"Coordinates must be in the intervals: X(" +
+					"0, " + getWidth() + ") " +
+					"; Y(0," + getHeight() + ")." );
+		}
+		return point.x + getWidth()*point.y;
+	}
+	
+	/**
+	 * Follows the given prevs from the destination back to the start.
+	 * @param from - the start vertex.
+	 * @param to - the destination vertex.
+	 * @param prev - prev[v] is the vertex before v on the path.
+	 * @return the path as points. Zero element is the start point.
+	 */
+	Point[] buildPath(int from, int to, int[] prev) {
+		if(from == to) {
+			return new Point[] {new Point(from%getWidth(), from/getWidth())};
+		}
+		int i = to, k = 0;
+		while(i != from) {
+			k++;
+			i = prev[i];
+		}
+		i = to; Point[] result = new Point[k+1];
+		for(int j = k;j > 0;j--) {
+			result[j] = new Point(i%getWidth(), i/getWidth());
+			i = prev[i];
+		}
+		result[0] = new Point(from%getWidth(),from/getWidth());
+		
+		return result;
+	}
+	
+	/**
+	 * The same as buildPath(...), but the path is kept as the vertices
+	 *themselves.
+	 * @param from - the start vertex.
+	 * @param to - the destination vertex.
+	 * @param prev - prev[v] is the vertex before v on the path.
+	 * @param cost - the cost of the path.
+	 * @param settled - the number of the vertices the search has settled.
+	 * @return the path.
+	 */
+	PathResult buildResult(int from, int to, int[] prev, double cost, int settled) {
+		int i = to, k = 0;
+		while(i != from) {
+			k++;
+			i = prev[i];
+		}
+		int[] path = new int[k+1];
+		i = to;
+		for(int j = k;j > 0;j--) {
+			path[j] = i;
+			i = prev[i];
+		}
+		path[0] = from;
+		return new PathResult(getWidth(), path, cost, settled);
+	}
+	
+	/**
+	 * Prints the given array of points onto the given imageFile
+	 *in the given color (rgb representation);
+	 * @param path - an Point array representing the path.
+	 * @param imageFile onto we want to draw the path.
+	 * @param color with which we want to draw the path.
+	 */
+	public void printPath(Point[] path, File imageFile, int color) {
+		if(path == null) return;
+		
+		try {
+			BufferedImage image = ImageIO.read(imageFile);
+			for(int i = 0;i < path.length;i++) {
+				image.setRGB(path[i].x, path[i].y, color);
+			}
+			
+			File outputFile = new File("path_" + imageFile.getName());
+			ImageIO.write(image, "bmp", outputFile);
+			
+			
+		} catch (IOException e) {
+			System.err.println("An I//O problem occures with file " +
+					imageFile.getAbsolutePath());
+		}
+		
+	}
+	
+	/**
+	 * Same as printPath(...) but with BufferedImage as an agrument instead 
+	 *File argument.
+	 * @param path - an Point array representing the path.
+	 * @param image onto we want to draw the path.
+	 * @param color with which we want to draw the path.
+	 */
+	public void printPath(Point[] path, BufferedImage image, int color) {
+		if(path == null) return;
+		
+		for(int i = 0;i < path.length;i++) {
+			image.setRGB(path[i].x, path[i].y, color);
+		}
+		
+	}
+	
+	/**
+	 * Represents this Graph as a picture in which each pixel is a vertex. 
+	 *Each pixel can have eight neighbors, so each pixel is colored differently 
+	 *according to how many neighbors it has.
 	 * @return creates an bitmap picture in current directory, it is named 
 	 *"print_graph.bmp".
 	 */
@@ -672,7 +2672,7 @@ public class Graph {
 	
 			for(int i = 0;i < this.getSize();i++) {
 
-				if(getVertexOf(i) == null){
+				if(!hasVertex(i)){
 					image.setRGB(i%width, i/width, 0x000000);//black
 					
 				}else if(this.countHeirsOf(i) == 8) {
@@ -714,171 +2714,62 @@ public class Graph {
 	}
 	
 	/**
-	 * Filters the heirs(neighbors) of the pixel(vertex) position passed as an argument. Concerns if 
-	 *the position is border, corner, or forbidden, and decides whether has it neighbor or not
-	 *according to that information. Returns an array that contains all the neighbors of 
-	 *the concerning position as an integer numbers, or -1 if the neighbor is forbidden. It
-	 *can return all neighbors as -1, that means the position itself is forbidden. Also returns
-	 *as an argument array weightsFilter the weights to the corresponding neighbors; for example
-	 *the heirsFilter(...)[2] corresponds to weightsFilter[2].
-	 *TODO: HOW CREATES THE WEIGHTS DISAMBIGUATION
-	 *	
-	 * @param pixels - an array containing information of all the pixels, see 
-	 *java.awt.image.Raster.getDataElements(int x,...).
-	 * @param position - the position of the pixel in the passed pixels array.
-	 * @param width - the width of the picture(map).
-	 * @param height - the height of the picture(map).
-	 * @param colorFilter - the color in the picture that is considered as forbidden possiton.
-	 * @param hasAlpha - if the pixel is represented with alpha raster.
-	 * @return the desired neighbors of the passed position. Also updates weightsFilter array
-	 *every time the method is called.
-	 * @throws IllegalArgumentException if the array weightsFilter length is different than 8.
-	 */
-	private int[] heirsFilter(
-			float[] weightsFilter,
-			byte[] pixels, int position, int width,int height, 
-			int redFilter,int greenFilter, int blueFilter, boolean hasAlpha){
-		if(weightsFilter.length != 8) {
-			throw new IllegalArgumentException(
-					"The array weightsFilter length must be exactly 8!");
-		}
-		
-		int[] na = new int[8];// The absolute neighbors of the current position
-		int[] nr = new int[8];// The relative neighbors of the current position
-		
-		int pw = hasAlpha?4:3;// Pixel width
-		int h = height;// The height remains unchanged;
-		int w = width * pw;// The absolute width according to the pixels array
-		int p = position * pw;// The absolute position in the pixels array
-		int a = pw/4;// Auxiliary offset index related to Alpha byte
-		
-		// colorFilter condition for the current pixel
-		if((pixels[p+a] == redFilter) && (pixels[p+a+1] == greenFilter) 
-				&& (pixels[p+a+2] == blueFilter)) {
-			for(int i = 0;i < nr.length;i++) {
-				nr[i] = -1;
-			}
-			return nr;
-		}
-		
-		// Absolute position of the p neighbors in the array pixels;
-		// and the corresponding relative position of the position var.
-		na[0] = p-pw;		nr[0] = position-1;// Left
-		na[1] = p+pw;		nr[1] = position+1;// Right
-		na[2] = p-w;		nr[2] = position-width;// Up
-		na[3] = p+w;		nr[3] = position+width;// Down
-		na[4] = p-w-pw;		nr[4] = position-width-1;// Up-Left
-		na[5] = p-w+pw;		nr[5] = position-width+1;// Up-Right
-		na[6] = p+w-pw;		nr[6] = position+width-1;// Down-Left
-		na[7] = p+w+pw;		nr[7] = position+width+1;// Down-Right
-		
-		
-		// Left border condition filtering
-		if(p%w == 0) {
-			nr[4] = nr[0] = nr[6] = -1;
-			
-			// Left corners condition filtering
-			if(p == 0) {
-				nr[2] = nr[5] = -1;
-			}else if(p == w*(h-1)) {
-				nr[3] = nr[7] = -1;
-			}
-		}
-		
-		// Right border condition filtering
-		if((p+pw)%w == 0) {
-			nr[5] = nr[1] = nr[7] = -1;
-			
-			// Right corners condition filtering
-			if((p+pw) == w) {
-				nr[2] = nr[4] = -1;
-			}else if(p == w*h) {
-				nr[3] = nr[6] = -1;
-			}
-		}
-		
-		// Up border condition filtering
-		if(p/w == 0) {
-			nr[4] = nr[2] = nr[5] = -1;
-		}
-		
-		// Down border condition filtering
-		if(p/(w*(h-1)) != 0) {
-			nr[6] = nr[3] = nr[7] = -1;
-		}
-		
-		
-		// Neighbors color filtering
-		for(int i = 0;i < na.length;i++) {
-			// Out of bounds checking
-			if(nr[i] == -1) {
-				continue;
-			}
-//System.out.println(pixels[na[i]+a]+ " " +pixels[na[i]+a+1] +" " +pixels[na[i]+a+2] );
-			if(		(pixels[na[i]+a] ==  redFilter) &&
-					(pixels[na[i]+a+1] == greenFilter) &&
-					(pixels[na[i]+a+2] == blueFilter))
-			{
-				nr[i] = -1;
-			}
-			
-			// Calculating the weights
-			if(nr[i] == -1) {
-				weightsFilter[i] = Float.POSITIVE_INFINITY;
-				continue;
-			}
-			
-			if(i < 4) {// Left, Right, Up, Down sides
-				weightsFilter[i] =Math.abs(
-						(pixels[na[i]+a] + pixels[na[i]+a+1] + pixels[na[i]+a+2]) -
-						(pixels[p+a] + pixels[p+a+1] + pixels[p+a+2]) + 1);
-			}else {// Diagonal sides
-				weightsFilter[i] = (float)Math.sqrt(2) * Math.abs(
-						(pixels[na[i]+a] + pixels[na[i]+a+1] + pixels[na[i]+a+2]) -
-						(pixels[p+a] + pixels[p+a+1] + pixels[p+a+2]) + 1);
-			}
-			
-			
-		}
-		
-		return nr;
-	}
-	
-	
+	 * Sets the width, the height and all the vertices from the given human
+	 *written map file; it is parsed byte by byte(see HMapParser) into CSR
+	 *arrays. If a token is malformed, the line and the column where it is 
+	 *are printed and the graph keeps the vertices before it.
+	 * @param hMapFile - see Map.createHMap(...).
+	 */
 	private void setFromHFile(File hMapFile) {
 		
-		Scanner sc = null; int row = 0; 
+		CsrBuilder builder = null;
+		FileInputStream fis = null;
 		try {
-			sc = new Scanner(hMapFile);
-			sc.nextLine();// Skipping the first initial line.(HM width height)
+			fis = new FileInputStream(hMapFile);
+			HMapParser parser = new HMapParser(fis, 1 << 20);
 			
+			// The first line: HM width height.
+			if(!parser.next() || !parser.isToken("HM")) {
+				throw parser.error("must be HM!");
+			}
+			parser.next();
+			int w = parser.intToken();
+			parser.next();
+			int h = parser.intToken();
+			if((w <= 0) || (h <= 0) || ((long)w*h >= Integer.MAX_VALUE)) {
+				throw parser.error("the size of the map is not valid!");
+			}
+			parser.skipLine();
+			width = w;
+			height = h;
+			size = width*height;
 			
-			ArrayList<Integer> heirsList = new ArrayList<Integer>(8);
-			ArrayList<Float> weightsList = new ArrayList<Float>(8);
-			int vertIndex = 0;
+			// About 12 bytes per heir and weight.
+			builder = new CsrBuilder(size, (int)Math.min(hMapFile.length()/12, size*8L));
 			
-			while(sc.hasNextLine()) {
-				
-				vertIndex = sc.nextInt();
-				while(!sc.hasNext("n")) {
-				
-					heirsList.add(sc.nextInt());
-					
-					weightsList.add(sc.nextFloat());
-				
-				}sc.nextLine();
-				
-				this.setVertex(vertIndex, heirsList, weightsList);
-				heirsList.clear(); weightsList.clear();
+			// Every line: vertIndex heir1 weight1 ... n
+			while(parser.next()) {
+				int vertIndex = parser.intToken();
+				if((vertIndex < 0) || (vertIndex >= size)) {
+					throw parser.error("the vertex is out of the map!");
+				}
+				builder.beginVertex(vertIndex);
+				while(true) {
+					if(!parser.next()) throw parser.error("the line must end with n!");
+					if(parser.isToken("n")) break;
+					int heir = parser.intToken();
+					if((heir < 0) || (heir >= size)) {
+						throw parser.error("the heir is out of the map!");
+					}
+					if(!parser.next()) throw parser.error("the heir has no weight!");
+					builder.add(heir, parser.floatToken());
+				}
+				parser.skipLine();
 			}
-		
-			
 			
 		}catch (InputMismatchException ime) {
 			System.err.println(
-					"In the file " + hMapFile.getAbsolutePath() + ", at the row:col " +
-					(row) + ":unknown  - there is no proper value."+
-					" Must be integer or float!");
+					"In the file " + hMapFile.getAbsolutePath() + ", " + ime.getMessage());
 			ime.printStackTrace();
 			
 		}catch (FileNotFoundException e) {
@@ -886,81 +2777,91 @@ public class Graph {
 					"The file" + hMapFile.getAbsolutePath() + "is missing!" );
 			e.printStackTrace();
 			
+		}catch (IOException e) {
+			System.err.println(
+					"Error while reading file " + hMapFile.getAbsolutePath());
+			e.printStackTrace();
+			
 		}finally {
-			if(sc != null) {
-				sc.close();
+			if(fis != null) {
+				try {
+					fis.close();
+				} catch (IOException e) {
+					// THERE'S NOTHING WE CAN DO!!!
+				}
 			}
 		}
+		
+		// The vertices that have been set before an error, if any.
+		if(builder == null) builder = new CsrBuilder(size, 0);
+		builder.build();
+		setFromCsr(builder.getOffsets(), builder.getHeirs(), builder.getWeights(), 
+				builder.getVerticesNumber());
 	}
 	
-	private void setFromImageFile(File imageFile, int r, int g, int b) {
-		 
+	/**
+	 * Sets all the vertices from the given binary map file; the file is
+	 *mapped into memory and decoded straight into CSR arrays (see 
+	 *BinaryMapDecoder). Width, height and size must be already set.
+	 * @param binaryMapFile - see Map.createMap(...).
+	 * @throws IllegalArgumentException if the file is not a correct map.
+	 */
+	private void setFromBinaryMap(File binaryMapFile) {
+		
+		BinaryMapDecoder decoder = new BinaryMapDecoder(getSize());
 		try {
-			BufferedImage image = ImageIO.read(imageFile);
-			
-			byte[] pixels = 
-			(byte[]) image.getRaster().getDataElements(0, 0, getWidth(), getHeight(), null);
-			boolean hasAlpha = image.getAlphaRaster() != null;
-			
-			ArrayList<Integer> heirsList = new ArrayList<Integer>(8);
-			ArrayList<Float> weightsList = new ArrayList<Float>(8);
-			
-			int[] heirs = new int[8]; float[] weights = new float[8];
-			for(int pixel = 0;pixel < getSize();pixel++) {
-	
-				heirs = this.heirsFilter(weights, pixels, pixel, getWidth(), getHeight(),r,g,b, hasAlpha);
-				for(int i = 0;i < heirs.length;i++) {
-					if(heirs[i] != -1) {
-						heirsList.add(heirs[i]);
-						weightsList.add(weights[i]);
-	
-					}
-				}
-				if(heirsList.size() == 0) continue;
-				
-				setVertex(pixel, heirsList, weightsList);
-	
-				heirsList.clear();  weightsList.clear();
-			}
-			
-			
+			decoder.decode(binaryMapFile);
 		}catch(IOException e) {
-			System.out.println(
-					"Error reading image" + imageFile.getAbsolutePath());
+			System.err.println(
+					"Error while reading file " + binaryMapFile.getAbsolutePath());
+			// The graph stays empty.
+			initStorage();
+			return;
 		}
+		setFromCsr(decoder.getOffsets(), decoder.getHeirs(), decoder.getWeights(), 
+				decoder.getVerticesNumber());
 	}
-
-	private void setFromBinaryMap(File binaryMapFile) {
+	
+	/**
+	 * Sets the graph from the given MAP2 file(see Map2File). With
+	 *Storage.MAPPED the arrays of the file are used in place, so only the
+	 *header is read; with the other storages they are copied at once. The
+	 *checksum is not checked, see Map.verifyMap2(...).
+	 * @param map2File - see Map.createMap2(...).
+	 * @throws IllegalArgumentException if the file is not a correct MAP2 file.
+	 */
+	private void setFromMap2(File map2File) {
 		
-		FileInputStream fis = null;
+		Map2File map;
 		try {
-			fis = new FileInputStream(binaryMapFile);
-			fis.skip(12);
-			
-			
-			byte[] data = new byte[1000000]; //data.lenght % 4 = 0 must be true.
-			ByteBuffer bb = ByteBuffer.allocateDirect(1000000).wrap(data);
-			int limit; // the limit of the buffer
-			
-			int[] vIndex = {0}, hIndex = {0};
-			while((limit = fis.read(data)) != -1) {
-
-				bb.limit(limit);
-				setVertices(bb, vIndex, hIndex);
-
-				bb.clear();
-
-			}
-
-			
-		}catch(FileNotFoundException fnf) {
-			System.err.println(
-					"The binaryMapFile is " + binaryMapFile.getAbsolutePath() + " mising! ");
+			map = Map2File.open(map2File);
 		}catch(IOException e) {
 			System.err.println(
-					"Error while reading file " + binaryMapFile.getAbsolutePath());
+					"Error while reading file " + map2File.getAbsolutePath());
+			// The graph stays empty.
+			width = height = size = 0;
+			if(storage != Storage.MAPPED) initStorage();
+			return;
 		}
+		width = map.width;
+		height = map.height;
+		size = width*height;
 		
+		if(storage == Storage.MAPPED) {
+			mappedOffsets = map.offsets;
+			mappedHeirs = map.heirs;
+			mappedWeights = map.weights;
+			verticesNumber = map.verticesNumber;
+			maxHeirs = Math.max(8, map.maxHeirs);
+			return;
+		}
+		int[] csrOffsets = new int[size + 1];
+		int[] csrHeirs = new int[map.edges];
+		float[] csrWeights = new float[map.edges];
+		map.offsets.duplicate().get(csrOffsets);
+		map.heirs.duplicate().get(csrHeirs);
+		map.weights.duplicate().get(csrWeights);
+		setFromCsr(csrOffsets, csrHeirs, csrWeights, map.verticesNumber);
 	}
 	
 	private void setFromImage(BufferedImage image, int r, int g, int b) {
@@ -969,33 +2870,118 @@ public class Graph {
 		(byte[]) image.getRaster().getDataElements(0, 0, getWidth(), getHeight(), null);
 		boolean hasAlpha = image.getAlphaRaster() != null;
 		
-		ArrayList<Integer> heirsList = new ArrayList<Integer>(8);
-		ArrayList<Float> weightsList = new ArrayList<Float>(8);
+		setFromPixels(pixels, hasAlpha, r, g, b);
+		// The pixels are a copy, so the image can be changed or dropped by 
+		//the caller without the graph.
+		if(storage == Storage.LISTS) setEditableRaster(pixels, hasAlpha);
+		
+	}
+	
+	/**
+	 * Sets all the vertices from the given pixels. The heirs and the weights
+	 *are set in parallel bands of rows straight into CSR arrays by the rules
+	 *of ImageCsrBuilder; with Storage.LISTS the Vertex
+	 *objects are then made from those arrays.
+	 * @param pixels - see java.awt.image.Raster.getDataElements(int x,...).
+	 * @param hasAlpha - if the pixel is represented with alpha raster.
+	 * @param r forbidden color - red saturation
+	 * @param g forbidden color - green saturation
+	 * @param b forbidden color - blue saturation
+	 */
+	private void setFromPixels(byte[] pixels, boolean hasAlpha, int r, int g, int b) {
+		
+		ImageCsrBuilder builder = new ImageCsrBuilder(
+				pixels, hasAlpha, getWidth(), getHeight(), r, g, b);
+		builder.build(ImageCsrBuilder.commonPool());
+		
+		setFromCsr(builder.getOffsets(), builder.getHeirs(), builder.getWeights(), 
+				builder.getVerticesNumber());
+		
+		// The LISTS graph keeps the forbidden color for the pixels it takes
+		//at the first setPixelColor(...), see initEditableRaster().
+		if(storage == Storage.LISTS) {
+			forbiddenRed = r;
+			forbiddenGreen = g;
+			forbiddenBlue = b;
+		}
+	}
+	
+	/**
+	 * Takes a copy of the pixels of a LISTS graph set from an image file into
+	 *the raster, so setPixelColor(...) can set the heirs of the changed 
+	 *vertices again by expandImplicit(...); the file is read again. It is
+	 *done once, the next calls find the raster.
+	 * @return false if the graph has not been set from an image.
+	 * @throws IllegalStateException if the file can not be read again or
+	 *the image has another size now.
+	 */
+	private boolean initEditableRaster() {
+		if(raster != null) return true;
+		if((storage != Storage.LISTS) || (pixelsFile == null)) return false;
+		BufferedImage image;
+		try {
+			image = ImageIO.read(pixelsFile);
+		} catch (IOException e) {
+			throw new IllegalStateException("The image " 
+					+ pixelsFile.getAbsolutePath() + " can not be read again!", e);
+		}
+		if(image == null) {
+			throw new IllegalStateException("The image " 
+					+ pixelsFile.getAbsolutePath() + " can not be read again!");
+		}
+		if((image.getWidth() != width) || (image.getHeight() != height)) {
+			throw new IllegalStateException(
+					"The image of the graph has another size now!");
+		}
+		
+		setEditableRaster(
+				(byte[]) image.getRaster().getDataElements(0, 0, width, height, null),
+				image.getAlphaRaster() != null);
+		pixelsFile = null;
+		return true;
+	}
+	
+	// Keeps the given pixels(see Raster.getDataElements(int x,...)) as the 
+	//raster setPixelColor(...) changes.
+	private void setEditableRaster(byte[] pixels, boolean hasAlpha) {
+		int pw = hasAlpha?4:3;
+		int a = pw/4;
+		raster = pixels;
+		rasterOrigin = 0;
+		pixelStride = pw;
+		scanlineStride = width*pw;
+		channelOffsets = new int[] {a, a+1, a+2};
+	}
+	
+	/**
+	 * Sets all the vertices from the given CSR arrays(see CsrBuilder); with
+	 *Storage.CSR the arrays are kept as they are, with Storage.LISTS the 
+	 *Vertex objects are made from them. 
+	 * @param csrOffsets
+	 * @param csrHeirs
+	 * @param csrWeights
+	 * @param csrVerticesNumber - the number of vertices with heirs.
+	 */
+	private void setFromCsr(int[] csrOffsets, int[] csrHeirs, float[] csrWeights,
+			int csrVerticesNumber) {
+		if(storage == Storage.CSR) {
+			offsets = csrOffsets;
+			heirs = csrHeirs;
+			weights = csrWeights;
+			verticesNumber = csrVerticesNumber;
+			return;
+		}
 		
-		int[] heirs = new int[8]; float[] weights = new float[8];
+		initStorage();
 		for(int pixel = 0;pixel < getSize();pixel++) {
-
-			heirs = this.heirsFilter(weights, pixels, pixel, getWidth(), getHeight(),r,g,b, hasAlpha);
-			for(int i = 0;i < heirs.length;i++) {
-				if(heirs[i] != -1) {
-					heirsList.add(heirs[i]);
-					weightsList.add(weights[i]);
-
-				}
-			}
-			if(heirsList.size() == 0) continue;
+			if(csrOffsets[pixel] == csrOffsets[pixel+1]) continue;
 			
-			setVertex(pixel, heirsList, weightsList);
-
-			heirsList.clear();  weightsList.clear();
+			Vertex vertex = new Vertex(pixel);
+			for(int e = csrOffsets[pixel];e < csrOffsets[pixel+1];e++) {
+				vertex.heirs.add(csrHeirs[e]);
+				vertex.weights.add(csrWeights[e]);
+			}
 		}
-			
-			
-		
 	}
 
 }
-
-
-
-
@@ -0,0 +1,115 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+/**
+ * Identifies the edges of a Graph, so the data built from one graph(a saved
+ *ContractionHierarchy, Landmarks) is not used with another one of the same
+ *size: the forbidden color the graph has been set with, the number of its
+ *vertices and its edges and the CRC32 of all its edges, every vertex with
+ *its heirs and the bits of their weights in the order expand(...) gives
+ *them. Two graphs with the same fingerprint have the same edges, except for
+ *a CRC32 collision.
+ * Implementation notes: the fingerprint is computed in O(E) through a
+ *buffer of 64 KB; Graph computes it once and keeps it until its pixels are
+ *changed, see Graph.getFingerprint().
+ * @author dqdo
+ * @version 1.0
+ */
+final class GraphFingerprint {
+
+	// The number of bytes write(...) writes.
+	static final int LENGTH = 24;
+
+	// The forbidden color as 0x00RRGGBB of its bytes.
+	private final int forbiddenColor;
+	private final int verticesNumber;
+	private final long edges;
+	private final long checksum;
+
+	private GraphFingerprint(int forbiddenColor, int verticesNumber, long edges,
+			long checksum) {
+		this.forbiddenColor = forbiddenColor;
+		this.verticesNumber = verticesNumber;
+		this.edges = edges;
+		this.checksum = checksum;
+	}
+
+	/**
+	 * Computes the fingerprint of the given graph.
+	 * @param graph
+	 * @param forbiddenColor - the forbidden color the graph has been set
+	 *with, as 0x00RRGGBB of its bytes.
+	 */
+	static GraphFingerprint of(Graph graph, int forbiddenColor) {
+		CRC32 crc = new CRC32();
+		ByteBuffer bb = ByteBuffer.allocate(1 << 16);
+		int[] heirsOut = new int[graph.getMaxHeirs()];
+		float[] weightsOut = new float[graph.getMaxHeirs()];
+		long edges = 0;
+		for(int v = 0;v < graph.getSize();v++) {
+			if(!graph.hasVertex(v)) continue;
+			int count = graph.expand(v, heirsOut, weightsOut);
+			if(bb.remaining() < 8*(count + 1)) {
+				crc.update(bb.array(), 0, bb.position());
+				bb.clear();
+			}
+			bb.putInt(v).putInt(count);
+			for(int e = 0;e < count;e++) {
+				bb.putInt(heirsOut[e]).putInt(Float.floatToRawIntBits(weightsOut[e]));
+			}
+			edges += count;
+		}
+		crc.update(bb.array(), 0, bb.position());
+		return new GraphFingerprint(forbiddenColor, graph.getVerticesNumber(), edges,
+				crc.getValue());
+	}
+
+	/**
+	 * Writes the fingerprint in LENGTH bytes.
+	 * @param out
+	 * @throws IOException
+	 */
+	void write(DataOutput out) throws IOException {
+		out.writeInt(forbiddenColor);
+		out.writeInt(verticesNumber);
+		out.writeLong(edges);
+		out.writeLong(checksum);
+	}
+
+	/**
+	 * Reads a fingerprint written by write(...).
+	 * @param in
+	 * @return the fingerprint.
+	 * @throws IOException
+	 */
+	static GraphFingerprint read(DataInput in) throws IOException {
+		int forbiddenColor = in.readInt();
+		int verticesNumber = in.readInt();
+		long edges = in.readLong();
+		long checksum = in.readLong();
+		return new GraphFingerprint(forbiddenColor, verticesNumber, edges, checksum);
+	}
+
+	@Override
+	public boolean equals(Object object) {
+		if(!(object instanceof GraphFingerprint)) return false;
+		GraphFingerprint other = (GraphFingerprint)object;
+		return (forbiddenColor == other.forbiddenColor)
+				&& (verticesNumber == other.verticesNumber)
+				&& (edges == other.edges) && (checksum == other.checksum);
+	}
+
+	@Override
+	public int hashCode() {
+		return (int)(checksum ^ (checksum >>> 32));
+	}
+
+	@Override
+	public String toString() {
+		return String.format("color %06x, %d vertices, %d edges, crc %08x",
+				forbiddenColor, verticesNumber, edges, checksum);
+	}
+}
@@ -0,0 +1,248 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.InputMismatchException;
+
+/**
+ * Splits a human written map file(see Map.createHMap(...)) into tokens and
+ *parses them, byte by byte from a large read buffer, without regular
+ *expressions and without a String per token:
+ *	HM width height
+ *	vertIndex heir1 weight1 heir2 weight2 ... n
+ *	...
+ *The tokens are separated by spaces, tabs and line ends. The position of the
+ *current token is kept, so a malformed token is reported with its line and
+ *column(both from 1).
+ * The integers are parsed by hand. The floats are parsed by hand when they
+ *are plain decimals with at most 15 significant digits, which is what
+ *Float.toString(...) gives for the weights, and the result is the same
+ *float Float.parseFloat(...) gives: the quotient of the digits and a power
+ *of ten is exact in double before it is rounded once, and when it falls
+ *exactly halfway between two floats(where rounding twice may differ) or
+ *the token has an exponent, NaN, etc., Float.parseFloat(...) parses it.
+ * @author dqdo
+ * @version 1.0
+ */
+class HMapParser {
+
+	// The longest token; longer ones are malformed.
+	private static final int MAX_TOKEN_LENGTH = 64;
+
+	// The greatest number of significant digits parsed by hand: 10^15 < 2^53,
+	//so the digits are exact in double.
+	private static final int MAX_FAST_DIGITS = 15;
+
+	// The powers of ten which are exact in double.
+	private static final double[] POWERS_OF_TEN = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+	};
+
+	private final InputStream in;
+	private final byte[] buffer;
+	private int position;
+	private int limit;
+
+	// The line and the column of the next byte of the buffer.
+	private int line;
+	private int column;
+
+	// The current token and where it begins.
+	private final byte[] token;
+	private int tokenLength;
+	private int tokenLine;
+	private int tokenColumn;
+
+	/**
+	 * @param in - the file; it is read through a buffer of the given size,
+	 *so it need not be buffered.
+	 * @param bufferSize
+	 */
+	HMapParser(InputStream in, int bufferSize) {
+		this.in = in;
+		this.buffer = new byte[bufferSize];
+		this.position = 0;
+		this.limit = 0;
+		this.line = 1;
+		this.column = 1;
+		this.token = new byte[MAX_TOKEN_LENGTH];
+		this.tokenLength = 0;
+	}
+
+	/**
+	 * Reads the next token.
+	 * @return false if there is no more token.
+	 * @throws IOException
+	 * @throws InputMismatchException if the token is too long.
+	 */
+	boolean next() throws IOException {
+		int b;
+		// Skipping the separators.
+		while(true) {
+			b = read();
+			if(b == -1) {
+				tokenLength = 0;
+				tokenLine = line; tokenColumn = column;
+				return false;
+			}
+			if(!isSeparator(b)) break;
+			advance(b);
+		}
+		tokenLine = line; tokenColumn = column;
+		tokenLength = 0;
+		while((b != -1) && !isSeparator(b)) {
+			if(tokenLength == MAX_TOKEN_LENGTH) {
+				throw error("the token is longer than " + MAX_TOKEN_LENGTH + " bytes!");
+			}
+			token[tokenLength++] = (byte)b;
+			advance(b);
+			b = read();
+		}
+		return true;
+	}
+
+	/**
+	 * Skips the rest of the current line.
+	 * @throws IOException
+	 */
+	void skipLine() throws IOException {
+		int b;
+		while((b = read()) != -1) {
+			advance(b);
+			if(b == '\n') return;
+		}
+	}
+
+	/**
+	 * @param word
+	 * @return true if the current token is the given word.
+	 */
+	boolean isToken(String word) {
+		if(word.length() != tokenLength) return false;
+		for(int i = 0;i < tokenLength;i++) {
+			if(token[i] != word.charAt(i)) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return the current token as an integer.
+	 * @throws InputMismatchException if it is not an integer.
+	 */
+	int intToken() {
+		int i = 0;
+		boolean isNegative = false;
+		if((tokenLength > 0) && ((token[0] == '-') || (token[0] == '+'))) {
+			isNegative = token[0] == '-';
+			i++;
+		}
+		if(i == tokenLength) throw error("must be integer!");
+		long value = 0;
+		for(;i < tokenLength;i++) {
+			int digit = token[i] - '0';
+			if((digit < 0) || (digit > 9)) throw error("must be integer!");
+			value = value*10 + digit;
+			if(value > Integer.MAX_VALUE + 1L) throw error("the integer is too big!");
+		}
+		if(isNegative) value = -value;
+		if(value > Integer.MAX_VALUE) throw error("the integer is too big!");
+		return (int)value;
+	}
+
+	/**
+	 * @return the current token as a float, the same one
+	 *Float.parseFloat(...) gives.
+	 * @throws InputMismatchException if it is not a float.
+	 */
+	float floatToken() {
+		int i = 0;
+		boolean isNegative = false;
+		if((tokenLength > 0) && ((token[0] == '-') || (token[0] == '+'))) {
+			isNegative = token[0] == '-';
+			i++;
+		}
+		long digits = 0;
+		int significant = 0, exponent = 0, count = 0;
+		boolean isFraction = false;
+		for(;i < tokenLength;i++) {
+			int b = token[i];
+			if((b == '.') && !isFraction) {
+				isFraction = true;
+				continue;
+			}
+			int digit = b - '0';
+			if((digit < 0) || (digit > 9)) return slowFloatToken();
+			count++;
+			if((digits == 0) && (digit == 0)) {
+				// A leading zero is not significant.
+				if(isFraction) exponent--;
+				continue;
+			}
+			if(++significant > MAX_FAST_DIGITS) return slowFloatToken();
+			digits = digits*10 + digit;
+			if(isFraction) exponent--;
+		}
+		if(count == 0) return slowFloatToken();
+		if(digits == 0) return isNegative? -0.0f : 0.0f;
+		if(-exponent >= POWERS_OF_TEN.length) return slowFloatToken();
+
+		double value = digits / POWERS_OF_TEN[-exponent];
+		long bits = Double.doubleToRawLongBits(value);
+		// A double between two floats has 29 more bits; if they are 100...0, it
+		//is exactly halfway and rounding it again may be wrong.
+		if(((bits & 0x1fffffffL) == 0x10000000L)
+				|| (value < Float.MIN_NORMAL) || (value > Float.MAX_VALUE)) {
+			return slowFloatToken();
+		}
+		return isNegative? -(float)value : (float)value;
+	}
+
+	/**
+	 * @param what - what is wrong with the current token.
+	 * @return the exception to throw, with the line and the column of the
+	 *current token.
+	 */
+	InputMismatchException error(String what) {
+		String text = (tokenLength == 0)? "the end of the file"
+				: "\"" + new String(token, 0, tokenLength) + "\"";
+		return new InputMismatchException("at the line:col " + tokenLine + ":"
+				+ tokenColumn + " - " + text + ", " + what);
+	}
+
+	// Parses the current token with Float.parseFloat(...).
+	private float slowFloatToken() {
+		String text = new String(token, 0, tokenLength);
+		try {
+			return Float.parseFloat(text);
+		}catch(NumberFormatException e) {
+			throw error("must be integer or float!");
+		}
+	}
+
+	// The next byte without moving past it, or -1 at the end of the file.
+	private int read() throws IOException {
+		if(position == limit) {
+			limit = in.read(buffer, 0, buffer.length);
+			position = 0;
+			if(limit <= 0) {
+				limit = 0;
+				return -1;
+			}
+		}
+		return buffer[position] & 0xff;
+	}
+
+	// Moves past the given byte, which read() has returned.
+	private void advance(int b) {
+		position++;
+		if(b == '\n') {
+			line++;
+			column = 1;
+		}else {
+			column++;
+		}
+	}
+
+	private static boolean isSeparator(int b) {
+		return (b == ' ') || (b == '\n') || (b == '\r') || (b == '\t');
+	}
+}
@@ -0,0 +1,216 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Sets the compressed sparse row(CSR) arrays of a Graph (see CsrBuilder)
+ *directly from the pixels of an image. A pixel of the forbidden color has
+ *no heirs; any other pixel has as heirs the pixels around it which are
+ *inside the image and haven't the forbidden color, in the order Left,
+ *Right, Up, Down, Up-Left, Up-Right, Down-Left, Down-Right. The weight to
+ *a heir is abs(sum(heir) - sum(pixel) + 1), where sum is the sum of the
+ *red, green and blue bytes, and DIAGONAL times it for a diagonal heir.
+ *These are the rules every image graph follows(see Graph.expandImplicit(...),
+ *MapEncoder, TiledGraph).
+ * The image is split into bands of rows which are processed on a fork/join
+ *pool in two passes: the first one counts the heirs of every pixel, then
+ *the offsets are summed up, and the second one writes the heirs and the
+ *weights of every pixel on their places. The arrays are allocated once with
+ *their final sizes, there is no allocation per pixel.
+ * Implementation notes: the time complexity cost is O(V) split among the
+ *threads of the pool; the two passes read the pixels twice, but it costs
+ *less than growing and compacting the arrays.
+ * @author dqdo
+ * @version 1.0
+ */
+class ImageCsrBuilder {
+
+	// The number of rows a band processes without splitting further.
+	private static final int BAND_ROWS = 16;
+
+	// The pool shared by all the builders; created the first time it is
+	//needed, with as many threads as there are processors.
+	private static ForkJoinPool commonPool;
+
+	// The relative x and y of the eight heirs in their order:
+	//Left, Right, Up, Down, Up-Left, Up-Right, Down-Left, Down-Right.
+	private static final int[] HEIR_DX = {-1, 1, 0, 0, -1, 1, -1, 1};
+	private static final int[] HEIR_DY = {0, 0, -1, 1, -1, -1, 1, 1};
+
+	// The weight multiplier of the diagonal heirs.
+	private static final float DIAGONAL = (float)Math.sqrt(2);
+
+	private final byte[] pixels;
+	private final int width;
+	private final int height;
+
+	// The bytes of a pixel and the offset of its red byte.
+	private final int pixelWidth;
+	private final int alphaOffset;
+
+	// The forbidden color.
+	private final int red;
+	private final int green;
+	private final int blue;
+
+	private int[] offsets;
+	private int[] heirs;
+	private float[] weights;
+	private int verticesNumber;
+
+	/**
+	 * @param pixels - the pixels as Raster.getDataElements(...) gives them
+	 *for an image of interleaved bytes, the alpha byte(if any) first.
+	 * @param hasAlpha
+	 * @param width - the width of the image.
+	 * @param height - the height of the image.
+	 * @param r - forbidden color - red saturation (0,1,...,127,-128,...,-1)
+	 * @param g - forbidden color - green saturation
+	 * @param b - forbidden color - blue saturation
+	 */
+	ImageCsrBuilder(byte[] pixels, boolean hasAlpha, int width, int height,
+			int r, int g, int b) {
+		this.pixels = pixels;
+		this.width = width;
+		this.height = height;
+		this.pixelWidth = hasAlpha? 4 : 3;
+		this.alphaOffset = pixelWidth/4;
+		this.red = r;
+		this.green = g;
+		this.blue = b;
+	}
+
+	/**
+	 * @return the pool the builders run on by default.
+	 */
+	static synchronized ForkJoinPool commonPool() {
+		if(commonPool == null) commonPool = new ForkJoinPool();
+		return commonPool;
+	}
+
+	/**
+	 * Sets the arrays on the given pool; the current thread waits until
+	 *they are set.
+	 * @param pool
+	 */
+	void build(ForkJoinPool pool) {
+		int size = width*height;
+		offsets = new int[size + 1];
+
+		// offsets[v+1] is the number of heirs of v after the first pass.
+		pool.invoke(new Band(0, height, false));
+
+		int number = 0;
+		for(int v = 0;v < size;v++) {
+			if(offsets[v+1] != 0) number++;
+			offsets[v+1] += offsets[v];
+		}
+		verticesNumber = number;
+
+		heirs = new int[offsets[size]];
+		weights = new float[offsets[size]];
+		pool.invoke(new Band(0, height, true));
+	}
+
+	int[] getOffsets() {
+		return offsets;
+	}
+
+	int[] getHeirs() {
+		return heirs;
+	}
+
+	float[] getWeights() {
+		return weights;
+	}
+
+	int getVerticesNumber() {
+		return verticesNumber;
+	}
+
+	/**
+	 * Processes the rows fromRow,...,toRow-1: counts the heirs of their
+	 *pixels or, if isFill, writes them; splits in halves while there are
+	 *more than BAND_ROWS rows.
+	 */
+	private class Band extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final int fromRow;
+		private final int toRow;
+		private final boolean isFill;
+
+		Band(int fromRow, int toRow, boolean isFill) {
+			this.fromRow = fromRow;
+			this.toRow = toRow;
+			this.isFill = isFill;
+		}
+
+		@Override
+		protected void compute() {
+			if(toRow - fromRow > BAND_ROWS) {
+				int middle = (fromRow + toRow) >>> 1;
+				invokeAll(new Band(fromRow, middle, isFill),
+						new Band(middle, toRow, isFill));
+				return;
+			}
+			for(int y = fromRow;y < toRow;y++) {
+				for(int x = 0;x < width;x++) {
+					if(isFill) {
+						scan(x, y, heirs, weights, offsets[x + y*width]);
+					}else {
+						offsets[x + y*width + 1] = scan(x, y, null, null, 0);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Finds the heirs of the pixel (x,y) and their weights, in their order;
+	 *it does not need build(...).
+	 * @param x
+	 * @param y
+	 * @param heirsOut - at least 8 long.
+	 * @param weightsOut - at least 8 long.
+	 * @return the number of heirs written from index 0.
+	 */
+	int heirsOf(int x, int y, int[] heirsOut, float[] weightsOut) {
+		return scan(x, y, heirsOut, weightsOut, 0);
+	}
+
+	// Finds the heirs of the pixel (x,y) and, if heirsOut is not null, writes them with their weights from the
+	//index at. Returns the number of heirs.
+	private int scan(int x, int y, int[] heirsOut, float[] weightsOut, int at) {
+		int p = (x + y*width)*pixelWidth + alphaOffset;
+		if(isForbiddenAt(p)) return 0;
+
+		int sum = pixels[p] + pixels[p+1] + pixels[p+2];
+		int e = at;
+		int count = 0;
+		for(int i = 0;i < 8;i++) {
+			int hx = x + HEIR_DX[i];
+			int hy = y + HEIR_DY[i];
+			if((hx < 0) || (hx >= width) || (hy < 0) || (hy >= height)) continue;
+
+			int hp = (hx + hy*width)*pixelWidth + alphaOffset;
+			if(isForbiddenAt(hp)) continue;
+
+			if(heirsOut != null) {
+				heirsOut[e] = hx + hy*width;
+				int difference = pixels[hp] + pixels[hp+1] + pixels[hp+2] - sum;
+				if(i < 4) {// Left, Right, Up, Down sides
+					weightsOut[e] = Math.abs(difference + 1);
+				}else {// Diagonal sides
+					weightsOut[e] = DIAGONAL * Math.abs(difference + 1);
+				}
+				e++;
+			}
+			count++;
+		}
+		return count;
+	}
+
+	private boolean isForbiddenAt(int p) {
+		return (pixels[p] == red) && (pixels[p+1] == green) && (pixels[p+2] == blue);
+	}
+}
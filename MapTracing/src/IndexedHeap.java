@@ -0,0 +1,242 @@
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Implements indexed d-ary min-heap of vertices keyed by their values.
+ *The vertices are the integers 0,...,capacity-1 (the vertIndex in Graph), and
+ *every vertex can be at most once in the heap. The heap knows the position of
+ *every vertex it contains, so the key of a vertex can be decreased without
+ *searching it.
+ * Implementation notes: the time complexity cost of insert(...), poll() and
+ *decreaseKey(...) is O(d*log(n)/log(d)), of contains(...), peek() and
+ *peekKey() is O(1) (n - the number of vertices in the heap, d - the arity).
+ *The heap takes only the vertices which are inserted, so its arrays grow with
+ *the number of discovered vertices, not with the capacity; only the positions
+ *array has the full capacity. clear() costs O(n), not O(capacity).
+ * @author dqdo
+ * @version 1.0
+ */
+public class IndexedHeap implements VertexQueue {
+
+	// The number of children of every heap node.
+	private final int arity;
+
+	// The vertices in heap order and their keys on the same positions.
+	private int[] heap;
+	private double[] keys;
+
+	// The number of vertices in the heap and the greatest one since the
+	//last clear().
+	private int size;
+	private int peakSize;
+
+	// position[v] is the index of the vertex v in the heap array or -1 if
+	//the vertex is not in the heap.
+	private int[] position;
+
+	/**
+	 * Constructs empty heap for the vertices 0,...,capacity-1.
+	 * @param capacity - the number of vertices, e.g. Graph.getSize().
+	 * @param arity - the number of children of every heap node, 2 for a
+	 *binary heap; 4 is usually the fastest one.
+	 * @throws IllegalArgumentException if arity is less than 2.
+	 */
+	public IndexedHeap(int capacity, int arity) {
+		if(arity < 2) {
+			throw new IllegalArgumentException("The arity must be at least 2!");
+		}
+		this.arity = arity;
+		this.position = new int[capacity];
+		Arrays.fill(position, -1);
+		this.heap = new int[16];
+		this.keys = new double[16];
+		this.size = 0;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public int getPeakSize() {
+		return peakSize;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * @param vertex
+	 * @return true if the vertex is in the heap.
+	 */
+	public boolean contains(int vertex) {
+		return position[vertex] != -1;
+	}
+
+	/**
+	 * @param vertex - a vertex in the heap.
+	 * @return the key of the vertex.
+	 * @throws NoSuchElementException if the vertex is not in the heap.
+	 */
+	public double keyOf(int vertex) {
+		if(position[vertex] == -1) {
+			throw new NoSuchElementException("The vertex " + vertex + " is not in the heap!");
+		}
+		return keys[position[vertex]];
+	}
+
+	/**
+	 * Inserts the vertex with the given key.
+	 * @param vertex
+	 * @param key
+	 * @throws IllegalArgumentException if the vertex is already in the heap.
+	 */
+	public void insert(int vertex, double key) {
+		if(position[vertex] != -1) {
+			throw new IllegalArgumentException("The vertex " + vertex + " is already in the heap!");
+		}
+		if(size == heap.length) {
+			heap = Arrays.copyOf(heap, size*2);
+			keys = Arrays.copyOf(keys, size*2);
+		}
+		heap[size] = vertex;
+		keys[size] = key;
+		position[vertex] = size;
+		size++;
+		if(size > peakSize) peakSize = size;
+		siftUp(size-1);
+	}
+
+	/**
+	 * Decreases the key of the vertex in the heap.
+	 * @param vertex
+	 * @param key - the new key; it must not be greater than the old one.
+	 * @throws IllegalArgumentException if the vertex is not in the heap or
+	 *the new key is greater than the old one.
+	 */
+	public void decreaseKey(int vertex, double key) {
+		int i = position[vertex];
+		if(i == -1) {
+			throw new IllegalArgumentException("The vertex " + vertex + " is not in the heap!");
+		}
+		if(key > keys[i]) {
+			throw new IllegalArgumentException("The key of " + vertex + " can not be increased!");
+		}
+		keys[i] = key;
+		siftUp(i);
+	}
+
+	/**
+	 * Inserts the vertex with the given key if it is not in the heap,
+	 *otherwise decreases its key if the given key is less.
+	 * @param vertex
+	 * @param key
+	 * @return true if the vertex has been inserted or its key decreased.
+	 */
+	public boolean insertOrDecrease(int vertex, double key) {
+		int i = position[vertex];
+		if(i == -1) {
+			insert(vertex, key);
+			return true;
+		}
+		if(key < keys[i]) {
+			keys[i] = key;
+			siftUp(i);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return the vertex with the least key, without removing it.
+	 * @throws NoSuchElementException if the heap is empty.
+	 */
+	public int peek() {
+		if(size == 0) throw new NoSuchElementException("The heap is empty!");
+		return heap[0];
+	}
+
+	/**
+	 * @return the least key in the heap.
+	 * @throws NoSuchElementException if the heap is empty.
+	 */
+	public double peekKey() {
+		if(size == 0) throw new NoSuchElementException("The heap is empty!");
+		return keys[0];
+	}
+
+	/**
+	 * Removes the vertex with the least key.
+	 * @return the removed vertex.
+	 * @throws NoSuchElementException if the heap is empty.
+	 */
+	public int poll() {
+		if(size == 0) throw new NoSuchElementException("The heap is empty!");
+		int min = heap[0];
+		position[min] = -1;
+		size--;
+		if(size > 0) {
+			heap[0] = heap[size];
+			keys[0] = keys[size];
+			position[heap[0]] = 0;
+			siftDown(0);
+		}
+		return min;
+	}
+
+	/**
+	 * Removes all the vertices from the heap. It costs O(size()).
+	 */
+	public void clear() {
+		for(int i = 0;i < size;i++) {
+			position[heap[i]] = -1;
+		}
+		size = 0;
+		peakSize = 0;
+	}
+
+	// Moves the vertex at the heap index i up while its key is less than the
+	//key of its parent.
+	private void siftUp(int i) {
+		int vertex = heap[i];
+		double key = keys[i];
+		while(i > 0) {
+			int parent = (i-1) / arity;
+			if(keys[parent] <= key) break;
+			heap[i] = heap[parent];
+			keys[i] = keys[parent];
+			position[heap[i]] = i;
+			i = parent;
+		}
+		heap[i] = vertex;
+		keys[i] = key;
+		position[vertex] = i;
+	}
+
+	// Moves the vertex at the heap index i down while some of its children
+	//has less key.
+	private void siftDown(int i) {
+		int vertex = heap[i];
+		double key = keys[i];
+		while(true) {
+			int first = i*arity + 1;
+			if(first >= size) break;
+			int last = Math.min(first + arity, size);
+			int min = first;
+			for(int c = first+1;c < last;c++) {
+				if(keys[c] < keys[min]) min = c;
+			}
+			if(keys[min] >= key) break;
+			heap[i] = heap[min];
+			keys[i] = keys[min];
+			position[heap[i]] = i;
+			i = min;
+		}
+		heap[i] = vertex;
+		keys[i] = key;
+		position[vertex] = i;
+	}
+}
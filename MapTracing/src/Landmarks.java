@@ -0,0 +1,419 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Implements the landmarks of a Graph for the ALT (A*, Landmarks, Triangle
+ *inequality) search, see Graph.shortestPathAStar(Point, Point, Landmarks).
+ * A few vertices are chosen as landmarks and the distances from every
+ *landmark to every vertex and from every vertex to every landmark are
+ *stored. By the triangle inequality, for every landmark L and every vertices
+ *v and t:
+ *d(v,t) >= d(L,t) - d(L,v)   and   d(v,t) >= d(v,L) - d(t,L),
+ *so the greatest of these differences is a lower bound of the distance to
+ *the destination, and can serve as the heuristic of A*. Unlike the octile
+ *heuristic it takes the colours of the map into account, so on a very
+ *uneven terrain it is much tighter.
+ * The landmarks are chosen with one of the strategies:
+ *	FARTHEST - every next landmark is the vertex farthest from the already
+ *chosen ones;
+ *	AVOID - every next landmark is a leaf of a shortest path tree from a
+ *random vertex, in the subtree where the current landmarks give the worst
+ *lower bounds (A. V. Goldberg, R. F. Werneck, Computing point-to-point
+ *shortest paths from external memory, 2005).
+ * Implementation notes: the distances are kept as float arrays, two per
+ *landmark, so a landmark costs 8 bytes per pixel; the number of landmarks
+ *is reduced to fit the given memory budget. A float distance may be rounded
+ *up, so the lower bounds are reduced by the greatest possible rounding
+ *error. A query uses only ACTIVE_LANDMARKS landmarks, the ones which give
+ *the best bound between the start and the destination.
+ * @author dqdo
+ * @version 1.0
+ */
+public class Landmarks {
+
+	/**
+	 * The strategy of choosing the landmarks.
+	 */
+	public enum Strategy {
+		FARTHEST,
+		AVOID
+	}
+
+	/**
+	 * The memory budget used when none is given: 64 MB.
+	 */
+	public static final long DEFAULT_MEMORY_BUDGET = 64L << 20;
+
+	// The most landmarks a query uses.
+	private static final int ACTIVE_LANDMARKS = 4;
+
+	// The relative rounding error of the sum of two float distances.
+	private static final double FLOAT_ERROR = 1.0 / (1 << 23);
+
+	// The seed of the random vertices of the AVOID strategy, so the same
+	//graph gets always the same landmarks.
+	private static final long SEED = 0x5eedL;
+
+	private final int width;
+	private final int height;
+	private final int size;
+
+	// The fingerprint of the graph the landmarks have been built for, so
+	//they are not used with another graph of the same size.
+	private final GraphFingerprint fingerprint;
+
+	// The landmark vertices.
+	private final int[] landmarks;
+
+	// fromLandmark[i][v] = d(landmarks[i], v), toLandmark[i][v] =
+	//d(v, landmarks[i]); infinity if there is no path.
+	private final float[][] fromLandmark;
+	private final float[][] toLandmark;
+
+	private Landmarks(int width, int height, GraphFingerprint fingerprint,
+			int[] landmarks, float[][] fromLandmark, float[][] toLandmark) {
+		this.width = width;
+		this.height = height;
+		this.size = width*height;
+		this.fingerprint = fingerprint;
+		this.landmarks = landmarks;
+		this.fromLandmark = fromLandmark;
+		this.toLandmark = toLandmark;
+	}
+
+	/**
+	 * Chooses the landmarks of the graph and calculates their distances.
+	 * @param graph
+	 * @param count - the number of landmarks wanted.
+	 * @param strategy - how the landmarks are chosen.
+	 * @param memoryBudget - the most bytes the distances may take; count is
+	 *reduced to fit it.
+	 * @return the landmarks.
+	 * @throws IllegalArgumentException if count is not positive or the budget
+	 *is not enough for a single landmark.
+	 */
+	public static Landmarks build(Graph graph, int count, Strategy strategy,
+			long memoryBudget) {
+		if(count < 1) {
+			throw new IllegalArgumentException("The number of landmarks must be positive!");
+		}
+		int size = graph.getSize();
+		long bytesPerLandmark = 8L*size;
+		if(memoryBudget < bytesPerLandmark) {
+			throw new IllegalArgumentException("The memory budget " + memoryBudget
+					+ " is less than a landmark takes: " + bytesPerLandmark);
+		}
+		count = (int)Math.min(count, memoryBudget / bytesPerLandmark);
+		count = Math.min(count, graph.getVerticesNumber());
+
+		Search search = new Search(graph);
+		int[] chosen = new int[count];
+		float[][] from = new float[count][];
+		float[][] to = new float[count][];
+		Random random = new Random(SEED);
+
+		// For FARTHEST: the least round trip from a chosen landmark.
+		double[] nearest = new double[size];
+		Arrays.fill(nearest, Double.POSITIVE_INFINITY);
+
+		int k = 0;
+		while(k < count) {
+			int landmark = -1;
+			if(k == 0) {
+				// The first one is the farthest from some vertex.
+				search.run(anyVertex(graph, random), false);
+				landmark = search.farthest();
+			}else if(strategy == Strategy.AVOID) {
+				landmark = avoid(graph, search, random,
+						Arrays.copyOf(chosen, k), from, to, k);
+			}
+			if((landmark == -1) || isChosen(chosen, k, landmark)) {
+				landmark = farthest(graph, nearest, chosen, k);
+			}
+			if(landmark == -1) break;
+
+			chosen[k] = landmark;
+			search.run(landmark, false);
+			from[k] = search.toFloats();
+			search.run(landmark, true);
+			to[k] = search.toFloats();
+			for(int v = 0;v < size;v++) {
+				double roundTrip = (double)from[k][v] + to[k][v];
+				if(roundTrip < nearest[v]) nearest[v] = roundTrip;
+			}
+			k++;
+		}
+
+		return new Landmarks(graph.getWidth(), graph.getHeight(),
+				graph.getFingerprint(), Arrays.copyOf(chosen, k), Arrays.copyOf(from, k), Arrays.copyOf(to, k));
+	}
+
+	/**
+	 * @return the number of landmarks.
+	 */
+	public int getCount() {
+		return landmarks.length;
+	}
+
+	/**
+	 * @param i - the index of a landmark, 0,...,getCount()-1.
+	 * @return the vertex index of the landmark, i.e. x + width*y.
+	 */
+	public int getLandmark(int i) {
+		return landmarks[i];
+	}
+
+	/**
+	 * @param graph
+	 * @return true if the landmarks have been built for a graph with the same
+	 *dimensions and fingerprint(see GraphFingerprint); false also after a
+	 *pixel of the graph has been changed, as the distances may no longer be
+	 *lower bounds.
+	 */
+	boolean fits(Graph graph) {
+		return (graph.getWidth() == width) && (graph.getHeight() == height)
+				&& fingerprint.equals(graph.getFingerprint());
+	}
+
+	/**
+	 * Prepares the lower bounds of the distances to the given destination,
+	 *using the landmarks which give the best bound for the given start.
+	 * @param from - the start vertex.
+	 * @param to - the destination vertex.
+	 * @return the estimate for a single query.
+	 */
+	Estimate estimateTo(int from, int to) {
+		int count = Math.min(ACTIVE_LANDMARKS, landmarks.length);
+		int[] active = new int[count];
+		double[] bounds = new double[count];
+		Arrays.fill(bounds, -1);
+		for(int i = 0;i < landmarks.length;i++) {
+			double bound = bound(i, from, to);
+			// Insertion into the array of the best bounds, sorted descending.
+			int j = count - 1;
+			if(bound <= bounds[j]) continue;
+			while((j > 0) && (bound > bounds[j-1])) {
+				bounds[j] = bounds[j-1];
+				active[j] = active[j-1];
+				j--;
+			}
+			bounds[j] = bound;
+			active[j] = i;
+		}
+		return new Estimate(active, to);
+	}
+
+	// The lower bound of d(v, t) given by the i-th landmark.
+	private double bound(int i, int v, int t) {
+		double best = 0;
+		double lt = fromLandmark[i][t], lv = fromLandmark[i][v];
+		if(lt != Double.POSITIVE_INFINITY) {
+			if(lv != Double.POSITIVE_INFINITY) {
+				best = Math.max(best, lt - lv - (lt + lv)*FLOAT_ERROR);
+			}
+		}else if(lv != Double.POSITIVE_INFINITY) {
+			// The landmark reaches v but not t, so v can not reach t.
+			return Double.POSITIVE_INFINITY;
+		}
+		double vl = toLandmark[i][v], tl = toLandmark[i][t];
+		if(tl != Double.POSITIVE_INFINITY) {
+			if(vl != Double.POSITIVE_INFINITY) {
+				best = Math.max(best, vl - tl - (vl + tl)*FLOAT_ERROR);
+			}else {
+				// t reaches the landmark but v does not, so v can not reach t.
+				return Double.POSITIVE_INFINITY;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * The lower bounds of the distances to a single destination, using the
+	 *active landmarks only.
+	 */
+	class Estimate {
+		private final int[] active;
+		private final int to;
+
+		private Estimate(int[] active, int to) {
+			this.active = active;
+			this.to = to;
+		}
+
+		/**
+		 * @param vertIndex
+		 * @return a lower bound of the distance from the vertex to the
+		 *destination; infinity if the destination can not be reached.
+		 */
+		double lowerBound(int vertIndex) {
+			double best = 0;
+			for(int i = 0;i < active.length;i++) {
+				double bound = bound(active[i], vertIndex, to);
+				if(bound > best) best = bound;
+			}
+			return best;
+		}
+	}
+
+	// A random vertex of the graph which is not null.
+	private static int anyVertex(Graph graph, Random random) {
+		int size = graph.getSize();
+		while(true) {
+			int v = random.nextInt(size);
+			if(graph.hasVertex(v)) return v;
+		}
+	}
+
+	private static boolean isChosen(int[] chosen, int count, int vertex) {
+		for(int i = 0;i < count;i++) {
+			if(chosen[i] == vertex) return true;
+		}
+		return false;
+	}
+
+	// The vertex with the greatest least round trip to the chosen landmarks;
+	//the vertices that are not connected with any of them go first.
+	private static int farthest(Graph graph, double[] nearest, int[] chosen, int count) {
+		int best = -1;
+		for(int v = 0;v < nearest.length;v++) {
+			if(!graph.hasVertex(v) || isChosen(chosen, count, v)) continue;
+			if((best == -1) || (nearest[v] > nearest[best])) best = v;
+		}
+		return best;
+	}
+
+	/**
+	 * The AVOID strategy: a shortest path tree is grown from a random root,
+	 *every vertex is weighted with the difference between its distance from
+	 *the root and the lower bound of that distance the landmarks give, and
+	 *the size of a vertex is the sum of the weights in its subtree, or zero if
+	 *the subtree contains a landmark. The new landmark is found by going
+	 *down from the vertex with the greatest size, to the child with the
+	 *greatest size, until a leaf.
+	 * @return the new landmark, or -1 if every subtree contains a landmark.
+	 */
+	private static int avoid(Graph graph, Search search, Random random,
+			int[] chosen, float[][] from, float[][] to, int count) {
+		int root = anyVertex(graph, random);
+		search.run(root, false);
+		int[] order = search.order;
+		int settled = search.settledCount;
+		double[] dist = search.value;
+		int[] prev = search.prev;
+
+		Landmarks partial = new Landmarks(graph.getWidth(), graph.getHeight(),
+				graph.getFingerprint(), chosen, Arrays.copyOf(from, count), Arrays.copyOf(to, count));
+		double[] subtree = new double[graph.getSize()];
+		boolean[] hasLandmark = new boolean[graph.getSize()];
+		int[] bestChild = new int[graph.getSize()];
+		for(int i = 0;i < settled;i++) {
+			bestChild[order[i]] = -1;
+		}
+		for(int i = 0;i < count;i++) {
+			hasLandmark[chosen[i]] = true;
+		}
+
+		// The children are settled after their parents, so going back over
+		//the settle order accumulates the subtrees.
+		for(int i = settled - 1;i >= 0;i--) {
+			int v = order[i];
+			double lowerBound = 0;
+			for(int l = 0;l < count;l++) {
+				lowerBound = Math.max(lowerBound, partial.bound(l, root, v));
+			}
+			subtree[v] += Math.max(0, dist[v] - lowerBound);
+			if(hasLandmark[v]) subtree[v] = 0;
+			if(i == 0) break;
+
+			int parent = prev[v];
+			if(hasLandmark[v]) {
+				hasLandmark[parent] = true;
+			}else {
+				subtree[parent] += subtree[v];
+				if((bestChild[parent] == -1) || (subtree[v] > subtree[bestChild[parent]])) {
+					bestChild[parent] = v;
+				}
+			}
+		}
+
+		int best = -1;
+		for(int i = 0;i < settled;i++) {
+			int v = order[i];
+			if(!hasLandmark[v] && ((best == -1) || (subtree[v] > subtree[best]))) {
+				best = v;
+			}
+		}
+		if((best == -1) || (subtree[best] <= 0)) return -1;
+		while(bestChild[best] != -1) {
+			best = bestChild[best];
+		}
+		return best;
+	}
+
+	/**
+	 * One-to-all Dijkstra's algorithm over the heirs or over the predecessors
+	 *of the vertices; the arrays are reused by the next run.
+	 */
+	private static class Search {
+		final Graph graph;
+		final double[] value;
+		final int[] prev;
+		// The vertices in the order they are settled.
+		final int[] order;
+		int settledCount;
+		final IndexedHeap pq;
+		final int[] heirsOut;
+		final float[] weightsOut;
+
+		Search(Graph graph) {
+			this.graph = graph;
+			this.value = new double[graph.getSize()];
+			this.prev = new int[graph.getSize()];
+			this.order = new int[graph.getSize()];
+			this.pq = new IndexedHeap(graph.getSize(), 4);
+			this.heirsOut = new int[graph.getMaxHeirs()];
+			this.weightsOut = new float[graph.getMaxHeirs()];
+		}
+
+		/**
+		 * @param source
+		 * @param isReverse - if true, the values are the distances to the
+		 *source instead of from it.
+		 */
+		void run(int source, boolean isReverse) {
+			Arrays.fill(value, Double.POSITIVE_INFINITY);
+			settledCount = 0;
+			value[source] = 0;
+			prev[source] = -1;
+			pq.insert(source, 0);
+			while(!pq.isEmpty()) {
+				int currV = pq.poll();
+				order[settledCount++] = currV;
+				int count = isReverse? graph.expandReverse(currV, heirsOut, weightsOut)
+						: graph.expand(currV, heirsOut, weightsOut);
+				for(int e = 0;e < count;e++) {
+					int heir = heirsOut[e];
+					double currPath = value[currV] + weightsOut[e];
+					if(value[heir] > currPath) {
+						pq.insertOrDecrease(heir, currPath);
+						value[heir] = currPath;
+						prev[heir] = currV;
+					}
+				}
+			}
+		}
+
+		// The settled vertex with the greatest value.
+		int farthest() {
+			return order[settledCount - 1];
+		}
+
+		float[] toFloats() {
+			float[] result = new float[value.length];
+			for(int v = 0;v < value.length;v++) {
+				result[v] = (float)value[v];
+			}
+			return result;
+		}
+	}
+}
@@ -1,10 +1,14 @@
 import java.awt.image.*;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.PrintStream;
+import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
 import javax.imageio.ImageIO;
 
 /**
@@ -18,290 +22,410 @@ public class Map {
 	private Map() {};
 	
 	
-	public static File createHMap(File imageFile, int r, int g, int b) {
-		File mapFile = new File(imageFile.getName()+".hmap");
+	/**
+	 * Converts the given image to a human written map file(HM), see
+	 *Graph.setFromHFile(...). The rows are encoded in parallel and written
+	 *through one FileChannel, see MapEncoder.
+	 * @param imageFile
+	 * @param r forbidden color - red saturation (0,1,...,127,-128,...,-1)
+	 * @param g forbidden color - green saturation (0,1,...,127,-128,...,-1)
+	 * @param b forbidden color - blue saturation (0,1,...,127,-128,...,-1)
+	 * @return the map file; its name is the name of the image with ".hmap".
+	 * @throws IOException if the image can not be read or the map can not be
+	 *written; its message tells which one.
+	 */
+	public static File createHMap(File imageFile, int r, int g, int b) throws IOException {
+		return createHMap(imageFile, new File(imageFile.getName()+".hmap"), r, g, b);
+	}
+	
+	/**
+	 * The same as createHMap(imageFile, r, g, b), but the map is written
+	 *to the given file.
+	 * @param imageFile
+	 * @param mapFile
+	 * @param r forbidden color - red saturation (0,1,...,127,-128,...,-1)
+	 * @param g forbidden color - green saturation (0,1,...,127,-128,...,-1)
+	 * @param b forbidden color - blue saturation (0,1,...,127,-128,...,-1)
+	 * @return mapFile.
+	 * @throws IOException if the image can not be read or the map can not be
+	 *written; its message tells which one, the cause tells why. The part of
+	 *the map written so far is deleted.
+	 */
+	public static File createHMap(File imageFile, File mapFile, int r, int g, int b) 
+			throws IOException {
+		return encode(imageFile, mapFile, MapEncoder.Format.HMAP, r, g, b);
+	}
+	
+	/**
+	 * Converts the given image to a binary map file(MAP), see
+	 *Graph.setFromBinaryMap(...). The rows are encoded in parallel and 
+	 *written through one FileChannel, see MapEncoder.
+	 * @param imageFile
+	 * @param r forbidden color - red saturation (0,1,...,127,-128,...,-1)
+	 * @param g forbidden color - green saturation (0,1,...,127,-128,...,-1)
+	 * @param b forbidden color - blue saturation (0,1,...,127,-128,...,-1)
+	 * @return the map file; its name is the name of the image with ".map".
+	 * @throws IOException if the image can not be read or the map can not be
+	 *written; its message tells which one.
+	 */
+	public static File createMap(File imageFile, int r, int g, int b) throws IOException {
+		return createMap(imageFile, new File(imageFile.getName()+".map"), r, g, b);
+	}
+	
+	/**
+	 * The same as createMap(imageFile, r, g, b), but the map is written
+	 *to the given file.
+	 * @param imageFile
+	 * @param mapFile
+	 * @param r forbidden color - red saturation (0,1,...,127,-128,...,-1)
+	 * @param g forbidden color - green saturation (0,1,...,127,-128,...,-1)
+	 * @param b forbidden color - blue saturation (0,1,...,127,-128,...,-1)
+	 * @return mapFile.
+	 * @throws IOException if the image can not be read or the map can not be
+	 *written; its message tells which one, the cause tells why. The part of
+	 *the map written so far is deleted.
+	 */
+	public static File createMap(File imageFile, File mapFile, int r, int g, int b) 
+			throws IOException {
+		return encode(imageFile, mapFile, MapEncoder.Format.MAP, r, g, b);
+	}
+	
+	// Sets the graph of the image and writes it in the given format. If the
+	//map can not be written, the part written so far is deleted.
+	private static File encode(File imageFile, File mapFile, MapEncoder.Format format,
+			int r, int g, int b) throws IOException {
+		BufferedImage image = readImage(imageFile);
+		int width = image.getWidth();
+		int height = image.getHeight();
 		
-		PrintStream ps = null;
-		try {
-			BufferedImage image = ImageIO.read(imageFile);
-			int width = image.getWidth();
-			int height = image.getHeight();
-			
-			ps = new PrintStream(mapFile);
-			
-			byte[] pixels = (byte[]) image.getRaster().getDataElements(0, 0, width, height, null);
-			boolean hasAlpha = image.getAlphaRaster() != null;
+		byte[] pixels = (byte[]) image.getRaster().getDataElements(0, 0, width, height, null);
+		boolean hasAlpha = image.getAlphaRaster() != null;
+		ImageCsrBuilder pixelsGraph = 
+				new ImageCsrBuilder(pixels, hasAlpha, width, height, r, g, b);
 		
-			// First row express the type, the width and the height.
-			ps.println("HM" + " " + image.getWidth() + " " + image.getHeight());
-			
-			int[] heirs = new int[8]; float[] weights = new float[8];
-			for(int pixel = 0;pixel < width*height;pixel++) {
-	
-				filter(heirs, weights, pixels, pixel, width, height, r, g, b, hasAlpha);
-				
-				StringBuilder sb = new StringBuilder(30);
-				
-				
-				// The zero column of every row indicates the vertex
-				sb.append(pixel);
-				
-				boolean hasHeirs = false;
-				for(int i = 0;i < heirs.length;i++) {
-					if(heirs[i] != -1) {
-						hasHeirs = true;
-						
-						// The first(odd) column of every row indicates the i-th heir.
-						// The second(even) column of every row indicates the i-th weight.
-						sb.append(" "); sb.append(heirs[i]); 
-						sb.append(" "); sb.append(weights[i]);
-						
-					}
-				}
-				if(hasHeirs) {
-					sb.append(" n\n");
-					ps.print(sb);
-				}
-				
-				
-			}
-			
-			
+		RandomAccessFile file = null;
+		boolean isOpened = false, isWritten = false;
+		try {
+			file = new RandomAccessFile(mapFile, "rw");
+			isOpened = true;
+			file.setLength(0);
+			new MapEncoder(format, pixelsGraph, width, height)
+					.write(file.getChannel(), ImageCsrBuilder.commonPool());
 			
-		}catch(FileNotFoundException fnf) {
-			System.err.println(
-					"Problem with writing map " + mapFile.getAbsolutePath());
+			// A failed close may lose the written bytes, so it fails the map.
+			file.close();
+			file = null;
+			isWritten = true;
 		}catch(IOException e) {
-			System.err.println(
-					"Problem with reading picture " + imageFile.getAbsolutePath());
+			throw new IOException(
+					"Problem with writing map " + mapFile.getAbsolutePath(), e);
 		}finally {
-			if(ps != null) {
-				ps.close();
+			if(file != null) {
+				try {
+					file.close();
+				} catch (IOException e) {
+					// The map has already failed, that is reported;
+				}
 			}
+			// Only a file this method has begun to write is deleted.
+			if(isOpened && !isWritten) mapFile.delete();
 		}
 		
 		return mapFile;
 	}
 	
+	// Reads the image; ImageIO returns null for a format it does not know.
+	private static BufferedImage readImage(File imageFile) throws IOException {
+		BufferedImage image;
+		try {
+			image = ImageIO.read(imageFile);
+		}catch(IOException e) {
+			throw new IOException(
+					"Problem with reading picture " + imageFile.getAbsolutePath(), e);
+		}
+		if(image == null) {
+			throw new IOException("Problem with reading picture " 
+					+ imageFile.getAbsolutePath() + ": its format is not known");
+		}
+		return image;
+	}
+
+	/**
+	 * Converts the given image to a MAP2 file(see Map2File): the compressed
+	 *sparse row arrays of its graph, which Graph uses in place from a memory
+	 *mapping with Graph.Storage.MAPPED, or copies at once with the other
+	 *storages. The graph is the same as the one Graph sets from the image.
+	 * @param imageFile
+	 * @param r forbidden color - red saturation (0,1,...,127,-128,...,-1)
+	 * @param g forbidden color - green saturation (0,1,...,127,-128,...,-1)
+	 * @param b forbidden color - blue saturation (0,1,...,127,-128,...,-1)
+	 * @return the MAP2 file; its name is the name of the image with ".map2".
+	 * @throws IOException if the image can not be read or the map can not be
+	 *written; its message tells which one.
+	 */
+	public static File createMap2(File imageFile, int r, int g, int b) throws IOException {
+		return createMap2(imageFile, new File(imageFile.getName()+".map2"), r, g, b);
+	}
 	
-	public static File createMap(File imageFile, int r, int g, int b) {
-		File mapFile = new File(imageFile.getName()+".map");
+	/**
+	 * The same as createMap2(imageFile, r, g, b), but the map is written
+	 *to the given file. If it can not be written, the part written so far 
+	 *is deleted.
+	 * @param imageFile
+	 * @param mapFile
+	 * @param r forbidden color - red saturation (0,1,...,127,-128,...,-1)
+	 * @param g forbidden color - green saturation (0,1,...,127,-128,...,-1)
+	 * @param b forbidden color - blue saturation (0,1,...,127,-128,...,-1)
+	 * @return mapFile.
+	 * @throws IOException if the image can not be read or the map can not be
+	 *written; its message tells which one, the cause tells why.
+	 */
+	public static File createMap2(File imageFile, File mapFile, int r, int g, int b) 
+			throws IOException {
+		BufferedImage image = readImage(imageFile);
+		int width = image.getWidth();
+		int height = image.getHeight();
+		
+		byte[] pixels = (byte[]) image.getRaster().getDataElements(0, 0, width, height, null);
+		boolean hasAlpha = image.getAlphaRaster() != null;
+		ImageCsrBuilder builder = 
+				new ImageCsrBuilder(pixels, hasAlpha, width, height, r, g, b);
+		builder.build(ImageCsrBuilder.commonPool());
+		int[] offsets = builder.getOffsets();
+		int[] heirs = builder.getHeirs();
+		float[] weights = builder.getWeights();
+		
+		int maxHeirs = 0;
+		for(int v = 0;v < width*height;v++) {
+			maxHeirs = Math.max(maxHeirs, offsets[v+1] - offsets[v]);
+		}
 		
-		FileOutputStream fos = null;
+		RandomAccessFile file = null;
+		boolean isOpened = false, isWritten = false;
 		try {
-			BufferedImage image = ImageIO.read(imageFile);
-			int width = image.getWidth();
-			int height = image.getHeight();
-			
-			// The stream we are going to write onto.
-			fos = new FileOutputStream(mapFile);
+			file = new RandomAccessFile(mapFile, "rw");
+			isOpened = true;
+			file.setLength(0);
+			FileChannel channel = file.getChannel();
 			
-			// Picture extraction initialization.
-			byte[] pixels = (byte[]) image.getRaster().getDataElements(0, 0, width, height, null);
-			boolean hasAlpha = image.getAlphaRaster() != null;
-			int[] heirs = new int[8]; float[] weights = new float[8];
+			// The arrays after the header, then the header with their 
+			//checksum.
+			CRC32 crc = new CRC32();
+			ByteBuffer bb = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+			channel.position(Map2File.HEADER_LENGTH);
+			writeInts(channel, bb, crc, offsets, null);
+			writeInts(channel, bb, crc, heirs, null);
+			writeInts(channel, bb, crc, null, weights);
 			
-			// Creating buffer to convert from integer and float to byte
-			byte[] data = new byte[width*4];
-			ByteBuffer bb = ByteBuffer.allocateDirect(width*4).wrap(data);		
-	
-			// mapFile initialization; the first 12 bytes must be |MAP|width| |height|.
-			bb.put((byte)0x4d);bb.put((byte)0x41); bb.put((byte)0x50);
-			bb.putInt(width); bb.put((byte)0x20); bb.putInt(height); bb.flip();
-			while(bb.hasRemaining()) { fos.write(bb.get()); }
 			bb.clear();
-			
-			// Concerning every pixel in the image, extracting data from it,
-			//converting it to byte data and put it in the mapFile.
-			for(int pixel = 0;pixel < width*height;pixel++) {
-				
-				// Filtering every pixel for neighbors, forbidden colors and
-				//corresponding weights.
-				filter(heirs, weights, pixels, pixel, width, height, r, g, b, hasAlpha);
-				
-				boolean isBegin = true;
-				for(int i = 0;i < heirs.length;i++) {
-					if(heirs[i] != -1) {
-						
-						// has next 1
-						if(!bb.hasRemaining()) {
-							bb.clear();
-							fos.write(data);
-						}
-						
-						// increase buffer with 4 (eventually)
-						// That +1 is intentionally set; we mustn't
-						//have the zero heir(encoding/decoding reasons).
-						if(isBegin){ bb.putInt(pixel + 1); isBegin = false;}
-						
-						// has next 2
-						if(!bb.hasRemaining()) {
-							bb.clear();
-							fos.write(data);
-						}
-						
-						// increase buffer with 3
-						// That +1 is intentionally set; we mustn't
-						//have the zero heir(encoding/decoding reasons).
-						bb.putInt(heirs[i] +1);
-												
-						// has next 4
-						if(!bb.hasRemaining()) {
-							bb.clear();
-							fos.write(data);
-						}
-						
-						// increase buffer with 4
-						bb.putFloat(weights[i]);
-						
-						//has next 5
-						if(!bb.hasRemaining()) {
-							bb.clear();
-							fos.write(data);
-						}
-					}
-				}
-				// increase buffer with 4 (eventually)
-				if(!isBegin) bb.putInt(0);
-			}
-			
-			// Writing the rest of the buffer onto the fos stream.
+			bb.putInt(Map2File.MAGIC).putInt(Map2File.VERSION);
+			bb.putInt(width).putInt(height);
+			bb.putInt(builder.getVerticesNumber()).putInt(heirs.length);
+			bb.putInt(maxHeirs).putInt(0);
+			bb.putLong(crc.getValue());
 			bb.flip();
-			while(bb.hasRemaining()) {
-				fos.write(bb.get());
-			}
+			channel.position(0);
+			while(bb.hasRemaining()) channel.write(bb);
 			
-		}catch(FileNotFoundException fnf) {
-			System.err.println(
-					"Problem with writing map " + mapFile.getAbsolutePath());
+			// A failed close may lose the written bytes, so it fails the map.
+			file.close();
+			file = null;
+			isWritten = true;
 		}catch(IOException e) {
-			System.err.println(
-					"Problem with reading picture " + imageFile.getAbsolutePath());
+			throw new IOException(
+					"Problem with writing map " + mapFile.getAbsolutePath(), e);
 		}finally {
-			if(fos != null) {
+			if(file != null) {
 				try {
-					fos.close();
+					file.close();
 				} catch (IOException e) {
-					// There's nothing we can do;
+					// The map has already failed, that is reported;
 				}
 			}
+			// Only a file this method has begun to write is deleted.
+			if(isOpened && !isWritten) mapFile.delete();
 		}
 		
 		return mapFile;
-		
 	}
-
 	
-	private static void filter(
-			int[] heirsFilter, float[] weightsFilter,
-			byte[] pixels, int position, int width,int height, 
-			int redFilter,int greenFilter, int blueFilter, boolean hasAlpha){
-		if(weightsFilter.length != 8) {
-			throw new IllegalArgumentException(
-					"The array weightsFilter length must be exactly 8!");
-		}
-		
-		int[] na = new int[8];// The absolute neighbors of the current position
-		int[] nr = heirsFilter;// The relative neighbors of the current position
-		
-		int pw = hasAlpha?4:3;// Pixel width
-		int h = height;// The height remains unchanged;
-		int w = width * pw;// The absolute width according to the pixels array
-		int p = position * pw;// The absolute position in the pixels array
-		int a = pw/4;// Auxiliary offset index related to Alpha byte
-		
-		// colorFilter condition for the current pixel
-		if((pixels[p+a] == redFilter) && (pixels[p+a+1] == greenFilter)
-				&& (pixels[p+a+2] == blueFilter)) {
-			for(int i = 0;i < nr.length;i++) {
-				nr[i] = -1;
-			}
-			return ;
-		}
-		
-		// Absolute position of the p neighbors in the array pixels;
-		// and the corresponding relative position of the position var.
-		na[0] = p-pw;		nr[0] = position-1;// Left
-		na[1] = p+pw;		nr[1] = position+1;// Right
-		na[2] = p-w;		nr[2] = position-width;// Up
-		na[3] = p+w;		nr[3] = position+width;// Down
-		na[4] = p-w-pw;		nr[4] = position-width-1;// Up-Left
-		na[5] = p-w+pw;		nr[5] = position-width+1;// Up-Right
-		na[6] = p+w-pw;		nr[6] = position+width-1;// Down-Left
-		na[7] = p+w+pw;		nr[7] = position+width+1;// Down-Right
-		
-		
-		// Left border condition filtering
-		if(p%w == 0) {
-			nr[4] = nr[0] = nr[6] = -1;
-			
-			// Left corners condition filtering
-			if(p == 0) {
-				nr[2] = nr[5] = -1;
-			}else if(p == w*(h-1)) {
-				nr[3] = nr[7] = -1;
-			}
+	/**
+	 * Converts the given image to a tiled map(see TiledGraph) with tiles of
+	 *TiledGraph.DEFAULT_TILE_SIZE pixels. The image is read in bands of tile 
+	 *rows, so a map bigger than the memory can be converted if the reader of
+	 *its format can read a region of it(as the BMP one can).
+	 * @param imageFile
+	 * @param r forbidden color - red saturation (0,1,...,127,-128,...,-1)
+	 * @param g forbidden color - green saturation (0,1,...,127,-128,...,-1)
+	 * @param b forbidden color - blue saturation (0,1,...,127,-128,...,-1)
+	 * @return the tiled map; its name is the name of the image with ".tiles".
+	 * @throws IOException if the image can not be read or the map can not be
+	 *written.
+	 */
+	public static File createTiles(File imageFile, int r, int g, int b) 
+			throws IOException {
+		return createTiles(imageFile, new File(imageFile.getName()+".tiles"), 
+				TiledGraph.DEFAULT_TILE_SIZE, r, g, b);
+	}
+	
+	/**
+	 * The same as createTiles(imageFile, r, g, b), but the map is written
+	 *to the given file with the given tile size.
+	 * @param imageFile
+	 * @param mapFile
+	 * @param tileSize - the width and the height of a tile in pixels.
+	 * @param r forbidden color - red saturation (0,1,...,127,-128,...,-1)
+	 * @param g forbidden color - green saturation (0,1,...,127,-128,...,-1)
+	 * @param b forbidden color - blue saturation (0,1,...,127,-128,...,-1)
+	 * @return mapFile.
+	 * @throws IOException if the image can not be read or the map can not be
+	 *written; the cause tells why. The part of the map written so far is 
+	 *deleted.
+	 * @throws IllegalArgumentException if tileSize is not positive.
+	 */
+	public static File createTiles(File imageFile, File mapFile, int tileSize, 
+			int r, int g, int b) throws IOException {
+		try {
+			TiledGraph.write(imageFile, mapFile, tileSize, r, g, b);
+		}catch(IOException e) {
+			throw new IOException("Problem with converting picture " 
+					+ imageFile.getAbsolutePath() + " to map " + mapFile.getAbsolutePath(), e);
 		}
+		return mapFile;
+	}
+	
+	/**
+	 * Converts images to map files in a batch:
+	 *	java Map [-format map|hmap|map2|tiles] [-color r g b] [-out directory] 
+	 *		directoryOrImage...
+	 *Every .bmp file of a given directory(not of its subdirectories) and every
+	 *given image is converted, one after another; the rows of every image are
+	 *encoded in parallel. The default format is map, the default forbidden
+	 *color is black(0 0 0) and the maps are written to the current directory
+	 *by default, named like the images with the extension of the format.
+	 *An image which fails is reported and skipped, and the program exits with
+	 *the status 1 at the end.
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		String format = "map";
+		int r = 0, g = 0, b = 0;
+		File outDirectory = new File(".");
+		List<File> images = new ArrayList<File>();
 		
-		// Right border condition filtering
-		if((p+pw)%w == 0) {
-			nr[5] = nr[1] = nr[7] = -1;
-			
-			// Right corners condition filtering
-			if((p+pw) == w) {
-				nr[2] = nr[4] = -1;
-			}else if(p == w*h) {
-				nr[3] = nr[6] = -1;
+		try {
+			for(int i = 0;i < args.length;i++) {
+				if(args[i].equals("-format")) {
+					format = args[++i];
+					if(!format.equals("map") && !format.equals("hmap") 
+							&& !format.equals("map2") && !format.equals("tiles")) {
+						throw new IllegalArgumentException("Unknown format " + format);
+					}
+				}else if(args[i].equals("-color")) {
+					r = Integer.parseInt(args[++i]);
+					g = Integer.parseInt(args[++i]);
+					b = Integer.parseInt(args[++i]);
+				}else if(args[i].equals("-out")) {
+					outDirectory = new File(args[++i]);
+				}else if(new File(args[i]).isDirectory()) {
+					File[] files = new File(args[i]).listFiles();
+					if(files == null) continue;
+					Arrays.sort(files);
+					for(File file : files) {
+						if(file.isFile() && file.getName().toLowerCase().endsWith(".bmp")) {
+							images.add(file);
+						}
+					}
+				}else {
+					images.add(new File(args[i]));
+				}
 			}
+		}catch(ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+			images.clear();
 		}
-		
-		// Up border condition filtering
-		if(p/w == 0) {
-			nr[4] = nr[2] = nr[5] = -1;
+		if(images.isEmpty()) {
+			System.err.println("Usage: java Map [-format map|hmap|map2|tiles] [-color r g b] "
+					+ "[-out directory] directoryOrImage...");
+			return;
 		}
-		
-		// Down border condition filtering
-		if(p/(w*(h-1)) != 0) {
-			nr[6] = nr[3] = nr[7] = -1;
+		if(!outDirectory.isDirectory() && !outDirectory.mkdirs()) {
+			System.err.println(
+					"Problem with creating directory " + outDirectory.getAbsolutePath());
+			return;
 		}
 		
-		
-		// Neighbors color filtering
-		for(int i = 0;i < na.length;i++) {
-			// Out of bounds checking
-			if(nr[i] == -1) {
-				continue;
-			}
-			if(		(pixels[na[i]+a] == redFilter) &&
-					(pixels[na[i]+a+1] == greenFilter) &&
-					(pixels[na[i]+a+2] == blueFilter))
-			{
-				nr[i] = -1;
-			}
-			
-			// Calculating the weights
-			if(nr[i] == -1) {
-				weightsFilter[i] = 0;
+		long begin = System.nanoTime();
+		int failed = 0;
+		for(File image : images) {
+			long start = System.nanoTime();
+			File mapFile = new File(outDirectory, image.getName() + "." + format);
+			try {
+				if(format.equals("hmap")) {
+					createHMap(image, mapFile, r, g, b);
+				}else if(format.equals("map2")) {
+					createMap2(image, mapFile, r, g, b);
+				}else if(format.equals("tiles")) {
+					createTiles(image, mapFile, TiledGraph.DEFAULT_TILE_SIZE, r, g, b);
+				}else {
+					createMap(image, mapFile, r, g, b);
+				}
+			}catch(IOException e) {
+				// The batch goes on with the next image.
+				System.err.println((e.getCause() == null)? e.getMessage() 
+						: e.getMessage() + ": " + e.getCause());
+				failed++;
 				continue;
 			}
-			
-			if(i < 4) {// Left, Right, Up, Down sides
-				weightsFilter[i] =Math.abs(
-						(pixels[na[i]+a] + pixels[na[i]+a+1] + pixels[na[i]+a+2]) -
-						(pixels[p+a] + pixels[p+a+1] + pixels[p+a+2]) + 1);
-			}else {// Diagonal sides
-				weightsFilter[i] = (float)Math.sqrt(2) * Math.abs(
-						(pixels[na[i]+a] + pixels[na[i]+a+1] + pixels[na[i]+a+2]) -
-						(pixels[p+a] + pixels[p+a+1] + pixels[p+a+2]) + 1);
+			System.out.println(mapFile.getPath() + " " 
+					+ (System.nanoTime() - start)/1000000 + " ms");
+		}
+		System.out.println(images.size() + " images in " 
+				+ (System.nanoTime() - begin)/1000000 + " ms");
+		if(failed > 0) {
+			System.err.println(failed + " images failed");
+			System.exit(1);
+		}
+	}
+	
+	/**
+	 * Checks the checksum of the given MAP2 file; it reads the whole file, 
+	 *which Graph does not do when it opens the file.
+	 * @param map2File
+	 * @return true if the arrays of the file are the same as when the file
+	 *has been written.
+	 * @throws IOException if the file can not be read.
+	 * @throws IllegalArgumentException if the file is not a MAP2 file.
+	 */
+	public static boolean verifyMap2(File map2File) throws IOException {
+		return Map2File.open(map2File).verify();
+	}
+	
+	// Writes the given ints or floats(one of them is null) through the buffer
+	//and pads them with zeros up to a multiple of 8 bytes.
+	private static void writeInts(FileChannel channel, ByteBuffer bb, CRC32 crc,
+			int[] ints, float[] floats) throws IOException {
+		int length = (ints != null)? ints.length : floats.length;
+		int padding = (int)(Map2File.aligned(4L*length) - 4L*length);
+		bb.clear();
+		for(int i = 0;i < length + padding/4;i++) {
+			if(!bb.hasRemaining()) flush(channel, bb, crc);
+			if(i >= length) {
+				bb.putInt(0);
+			}else if(ints != null) {
+				bb.putInt(ints[i]);
+			}else {
+				bb.putFloat(floats[i]);
 			}
-			
-			
 		}
-		
-		return ;
+		flush(channel, bb, crc);
 	}
 	
+	private static void flush(FileChannel channel, ByteBuffer bb, CRC32 crc)
+			throws IOException {
+		bb.flip();
+		crc.update(bb.array(), 0, bb.limit());
+		while(bb.hasRemaining()) channel.write(bb);
+		bb.clear();
+	}
 	
-
 }
-
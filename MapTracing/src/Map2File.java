@@ -0,0 +1,161 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * The MAP2 binary map format: the compressed sparse row(CSR) arrays of a
+ *graph(see CsrBuilder) as they are, so a graph can use them in place from a
+ *memory mapping (Graph.Storage.MAPPED) without parsing anything. All the
+ *numbers are little endian:
+ *	|MAP2|version|width|height|verticesNumber|edges|maxHeirs|0|checksum|,
+ *that is 40 bytes, where the checksum is a long and the rest are integers;
+ *	offsets - width*height+1 integers;
+ *	heirs - edges integers;
+ *	weights - edges floats.
+ *Every array begins at a multiple of 8 bytes, the gaps are zeros. The
+ *checksum is the CRC32 of all the bytes after the header; it is not checked
+ *when the file is opened, since that would read the whole file, but by
+ *verify() (see Map.verifyMap2(...)).
+ * Map.createMap2(...) writes the files; open(...) maps them.
+ * @author dqdo
+ * @version 1.0
+ */
+class Map2File {
+
+	// The bytes M A P 2, as a little endian integer.
+	static final int MAGIC = 0x3250414d;
+	static final int VERSION = 1;
+	static final int HEADER_LENGTH = 40;
+
+	final int width;
+	final int height;
+	final int verticesNumber;
+	final int edges;
+	final int maxHeirs;
+	final long checksum;
+
+	// The views of the arrays in the mapping.
+	final IntBuffer offsets;
+	final IntBuffer heirs;
+	final FloatBuffer weights;
+
+	// The whole mapped file.
+	private final MappedByteBuffer mapped;
+
+	private Map2File(MappedByteBuffer mapped) {
+		this.mapped = mapped;
+		mapped.order(ByteOrder.LITTLE_ENDIAN);
+		if(mapped.getInt(0) != MAGIC) {
+			throw new IllegalArgumentException("The file is not a MAP2 file!");
+		}
+		if(mapped.getInt(4) != VERSION) {
+			throw new IllegalArgumentException(
+					"The MAP2 version " + mapped.getInt(4) + " is not supported!");
+		}
+		width = mapped.getInt(8);
+		height = mapped.getInt(12);
+		verticesNumber = mapped.getInt(16);
+		edges = mapped.getInt(20);
+		maxHeirs = mapped.getInt(24);
+		checksum = mapped.getLong(32);
+
+		long size = (long)width*height;
+		if((width <= 0) || (height <= 0) || (size >= Integer.MAX_VALUE)
+				|| (edges < 0) || (mapped.capacity() != length(width*height, edges))) {
+			throw new IllegalArgumentException(
+					"The MAP2 header does not match the length of the file!");
+		}
+		long heirsAt = HEADER_LENGTH + aligned(4L*(size + 1));
+		long weightsAt = heirsAt + aligned(4L*edges);
+		offsets = view(HEADER_LENGTH, (int)size + 1).asIntBuffer();
+		heirs = view(heirsAt, edges).asIntBuffer();
+		weights = view(weightsAt, edges).asFloatBuffer();
+		if(offsets.get((int)size) != edges) {
+			throw new IllegalArgumentException(
+					"The MAP2 offsets do not match the number of edges!");
+		}
+	}
+
+	/**
+	 * Maps the given MAP2 file and checks its header.
+	 * @param map2File
+	 * @return the mapped file.
+	 * @throws IOException if the file can not be read.
+	 * @throws IllegalArgumentException if the file is not a MAP2 file of this
+	 *version or its length does not match the header.
+	 */
+	static Map2File open(File map2File) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(map2File, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			if((channel.size() < HEADER_LENGTH) || (channel.size() > Integer.MAX_VALUE)) {
+				throw new IllegalArgumentException(
+						"The length of the MAP2 file " + channel.size() + " is not valid!");
+			}
+			return new Map2File(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}finally {
+			// The mapping stays valid after the channel is closed.
+			file.close();
+		}
+	}
+
+	/**
+	 * Calculates the checksum of the arrays and compares it with the one in
+	 *the header. It reads the whole file.
+	 * @return true if they are the same.
+	 */
+	boolean verify() {
+		ByteBuffer data = mapped.duplicate();
+		data.position(HEADER_LENGTH);
+		return checksumOf(data) == checksum;
+	}
+
+	/**
+	 * @param size - the number of vertices no matter null or not.
+	 * @param edges
+	 * @return the length of the MAP2 file of a graph of that size.
+	 */
+	static long length(int size, int edges) {
+		return HEADER_LENGTH + aligned(4L*(size + 1)) + 2*aligned(4L*edges);
+	}
+
+	/**
+	 * @param length
+	 * @return the least multiple of 8 which is not less than length.
+	 */
+	static long aligned(long length) {
+		return (length + 7) & ~7L;
+	}
+
+	/**
+	 * @param data
+	 * @return the CRC32 of the remaining bytes of the buffer; its position
+	 *is moved to its limit.
+	 */
+	static long checksumOf(ByteBuffer data) {
+		CRC32 crc = new CRC32();
+		byte[] chunk = new byte[1 << 16];
+		while(data.hasRemaining()) {
+			int length = Math.min(chunk.length, data.remaining());
+			data.get(chunk, 0, length);
+			crc.update(chunk, 0, length);
+		}
+		return crc.getValue();
+	}
+
+	// A little endian slice of the mapping with the given number of 4 bytes
+	//long elements.
+	private ByteBuffer view(long position, int count) {
+		ByteBuffer view = mapped.duplicate();
+		view.position((int)position);
+		view.limit((int)position + 4*count);
+		return view.slice().order(ByteOrder.LITTLE_ENDIAN);
+	}
+}
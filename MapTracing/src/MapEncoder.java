@@ -0,0 +1,210 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Encodes the graph of an image into a binary(MAP) or a human written(HM)
+ *map file, the same bytes Map.createMap(...) and Map.createHMap(...) have
+ *always written. The heirs and the weights of the pixels are found by
+ *ImageCsrBuilder.heirsOf(...), so by the same rules as a Graph set from
+ *the image, but the CSR arrays of the whole image are not built.
+ * The rows are split into bands which are encoded on a fork/join pool,
+ *every band into its own buffer; then the buffers are written in their
+ *order through one FileChannel with a gathering write. To bound the memory,
+ *the bands are encoded and written in waves of a few bands per thread of
+ *the pool, and the buffers are reused from wave to wave.
+ * Implementation notes: the time complexity cost is O(V + E) split among
+ *the threads of the pool; the memory is the buffers of one wave, about
+ *BAND_BYTES per band.
+ * @author dqdo
+ * @version 1.0
+ */
+class MapEncoder {
+
+	/**
+	 * The map formats: MAP - see Graph.setFromBinaryMap(...),
+	 *HMAP - see Graph.setFromHFile(...).
+	 */
+	enum Format {MAP, HMAP}
+
+	// The bytes of a band of the binary map, at most; a band has at least
+	//one row.
+	private static final int BAND_BYTES = 1 << 20;
+
+	// The most bytes a pixel takes in the binary map: |vertIndex+1|, 8 times
+	//|heir+1|weight| and |0|.
+	private static final int MAX_PIXEL_BYTES = 4 + 8*8 + 4;
+
+	// The number of bands per thread of the pool in one wave.
+	private static final int BANDS_PER_THREAD = 4;
+
+	private final Format format;
+	private final ImageCsrBuilder image;
+	private final int width;
+	private final int height;
+
+	// The number of rows of a band.
+	private final int bandRows;
+
+	// The buffers of a wave, one per band; for HMAP also the texts.
+	private ByteBuffer[] buffers;
+	private StringBuilder[] texts;
+
+	/**
+	 * @param format
+	 * @param image - the pixels and the forbidden color; it need not be
+	 *built.
+	 * @param width - the width of the image.
+	 * @param height - the height of the image.
+	 */
+	MapEncoder(Format format, ImageCsrBuilder image, int width, int height) {
+		this.format = format;
+		this.image = image;
+		this.width = width;
+		this.height = height;
+		this.bandRows = Math.max(1, BAND_BYTES/(MAX_PIXEL_BYTES*width));
+	}
+
+	/**
+	 * Writes the whole map from the current position of the channel.
+	 * @param channel
+	 * @param pool - the pool the bands are encoded on.
+	 * @throws IOException if the channel can not be written.
+	 */
+	void write(FileChannel channel, ForkJoinPool pool) throws IOException {
+		writeFully(channel, new ByteBuffer[] {header()}, 1);
+
+		int bands = (height + bandRows - 1)/bandRows;
+		int wave = Math.min(bands, Math.max(1, BANDS_PER_THREAD*pool.getParallelism()));
+		buffers = new ByteBuffer[wave];
+		texts = new StringBuilder[wave];
+		for(int i = 0;i < wave;i++) {
+			if(format == Format.HMAP) {
+				texts[i] = new StringBuilder();
+				buffers[i] = ByteBuffer.allocateDirect(0);
+			}else {
+				buffers[i] = ByteBuffer.allocateDirect(MAX_PIXEL_BYTES*width*bandRows);
+			}
+		}
+		for(int first = 0;first < bands;first += wave) {
+			int count = Math.min(wave, bands - first);
+			pool.invoke(new Encode(first, 0, count));
+			writeFully(channel, buffers, count);
+		}
+		buffers = null;
+		texts = null;
+	}
+
+	// |MAP|width| |height| or the line HM width height.
+	private ByteBuffer header() {
+		if(format == Format.HMAP) {
+			String line = "HM" + " " + width + " " + height + System.lineSeparator();
+			return ByteBuffer.wrap(line.getBytes(StandardCharsets.US_ASCII));
+		}
+		ByteBuffer bb = ByteBuffer.allocate(BinaryMapDecoder.HEADER_LENGTH);
+		bb.put((byte)0x4d); bb.put((byte)0x41); bb.put((byte)0x50);
+		bb.putInt(width); bb.put((byte)0x20); bb.putInt(height);
+		bb.flip();
+		return bb;
+	}
+
+	// Writes buffers[0],...,buffers[count-1] in their order.
+	private static void writeFully(FileChannel channel, ByteBuffer[] buffers, int count)
+			throws IOException {
+		long remaining = 0;
+		for(int i = 0;i < count;i++) remaining += buffers[i].remaining();
+		while(remaining > 0) {
+			remaining -= channel.write(buffers, 0, count);
+		}
+	}
+
+	/**
+	 * Encodes the bands first+from,...,first+to-1 into buffers[from],...,
+	 *buffers[to-1]; splits in halves while there is more than one band.
+	 */
+	private class Encode extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final int first;
+		private final int from;
+		private final int to;
+
+		Encode(int first, int from, int to) {
+			this.first = first;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if(to - from > 1) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new Encode(first, from, middle), new Encode(first, middle, to));
+				return;
+			}
+			int fromRow = (first + from)*bandRows;
+			int toRow = Math.min(height, fromRow + bandRows);
+			if(format == Format.HMAP) {
+				encodeHMap(from, fromRow, toRow);
+			}else {
+				encodeMap(buffers[from], fromRow, toRow);
+			}
+		}
+	}
+
+	// |vertIndex+1|heir1+1|weight1|...|heirN+1|weightN|0| for every pixel of
+	//the rows fromRow,...,toRow-1 which has heirs.
+	private void encodeMap(ByteBuffer bb, int fromRow, int toRow) {
+		int[] heirs = new int[8];
+		float[] weights = new float[8];
+		bb.clear();
+		for(int y = fromRow;y < toRow;y++) {
+			for(int x = 0;x < width;x++) {
+				int count = image.heirsOf(x, y, heirs, weights);
+				if(count == 0) continue;
+				// That +1 is intentionally set; we mustn't have the zero
+				//heir(encoding/decoding reasons).
+				bb.putInt(x + y*width + 1);
+				for(int i = 0;i < count;i++) {
+					bb.putInt(heirs[i] + 1);
+					bb.putFloat(weights[i]);
+				}
+				bb.putInt(0);
+			}
+		}
+		bb.flip();
+	}
+
+	// The line vertIndex heir1 weight1 ... heirN weightN n for every pixel
+	//of the rows fromRow,...,toRow-1 which has heirs; the weights as
+	//Float.toString(...) gives them. Sets buffers[band].
+	private void encodeHMap(int band, int fromRow, int toRow) {
+		int[] heirs = new int[8];
+		float[] weights = new float[8];
+		StringBuilder sb = texts[band];
+		sb.setLength(0);
+		for(int y = fromRow;y < toRow;y++) {
+			for(int x = 0;x < width;x++) {
+				int count = image.heirsOf(x, y, heirs, weights);
+				if(count == 0) continue;
+				sb.append(x + y*width);
+				for(int i = 0;i < count;i++) {
+					sb.append(' ').append(heirs[i]);
+					sb.append(' ').append(weights[i]);
+				}
+				sb.append(" n\n");
+			}
+		}
+		ByteBuffer bb = buffers[band];
+		if(bb.capacity() < sb.length()) {
+			bb = ByteBuffer.allocateDirect(sb.length() + sb.length()/4);
+			buffers[band] = bb;
+		}
+		bb.clear();
+		for(int i = 0;i < sb.length();i++) bb.put((byte)sb.charAt(i));
+		bb.flip();
+	}
+}
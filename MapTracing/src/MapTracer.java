@@ -65,16 +65,30 @@ public class MapTracer extends JPanel implements MouseListener{
 			endPoint = mc.getPoint();
 			hadMLC = false;
 			
-			// Actual calculating the path using pure Dijkstra algorithm
-			//with the java build-in priority queue.
-			path = gr.shortestPathDijkstra(startPoint,endPoint);
-			//TODO: PRINT THE PATH LENGTH.
+			// A click which can not be reached from the start point is 
+			//snapped to the nearest pixel which can.
+			Point snapped = gr.snapToComponent(endPoint, startPoint);
+			if(snapped != null) endPoint = snapped;
+			
+			// Actual calculating the path using Dijkstra algorithm; the
+			//search from the same start point is resumed, not repeated.
+			PathResult result = gr.findPathCached(startPoint,endPoint);
+			if(result == null) {
+				path = null;
+				System.out.println("There is no path.");
+			}else {
+				path = result.toPoints();
+				System.out.println("Path length: " + result.getCost() + " ("
+						+ result.getMoves() + " steps, " + result.getSettled()
+						+ " vertices settled)");
+			}
 
 			gr.printPath(path, pathImg, pathColor);
 			
 			repaint();
 		}else{
 			hadMLC = false;
+			gr.clearSearchCache();
 			pathImg = null;
 			try {
 				pathImg = ImageIO.read(canvasFile);
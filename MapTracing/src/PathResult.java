@@ -0,0 +1,165 @@
+import java.awt.Point;
+
+/**
+ * The shortest path a search of Graph has found: the vertices of the path
+ *from the start to the destination, the cost of the path and the number of
+ *the vertices the search has settled to find it.
+ * A vertex is the index of its pixel y*width + x, so a step takes one int
+ *instead of a Point object. The path can be also packed as a chain code:
+ *3 bits per move to one of the 8 pixels around, in the heir order of Graph
+ *(left, right, up, down, up-left, up-right, down-left, down-right).
+ * @author dqdo
+ * @version 1.0
+ */
+public class PathResult {
+
+	// The moves of the chain code in the heir order of Graph.
+	private static final int[] MOVE_DX = {-1, 1, 0, 0, -1, 1, -1, 1};
+	private static final int[] MOVE_DY = {0, 0, -1, 1, -1, -1, 1, 1};
+
+	private final int width;
+	private final int[] vertices;
+	private final double cost;
+	private final int settled;
+
+	/**
+	 * @param width - the width of the map.
+	 * @param vertices - the vertices of the path; zero element is the start.
+	 * @param cost - the sum of the weights of the path.
+	 * @param settled - the number of the vertices the search has settled.
+	 */
+	PathResult(int width, int[] vertices, double cost, int settled) {
+		this.width = width;
+		this.vertices = vertices;
+		this.cost = cost;
+		this.settled = settled;
+	}
+
+	/**
+	 * @return the number of the vertices of the path, including the start
+	 *and the destination.
+	 */
+	public int getLength() {
+		return vertices.length;
+	}
+
+	/**
+	 * @return the number of the moves of the path, getLength()-1.
+	 */
+	public int getMoves() {
+		return vertices.length - 1;
+	}
+
+	/**
+	 * @param i - the index of a vertex of the path; 0 is the start.
+	 * @return the vertex, y*width + x.
+	 */
+	public int getVertex(int i) {
+		return vertices[i];
+	}
+
+	public int getX(int i) {
+		return vertices[i]%width;
+	}
+
+	public int getY(int i) {
+		return vertices[i]/width;
+	}
+
+	/**
+	 * @return the vertices of the path themselves, not a copy; they must not
+	 *be changed.
+	 */
+	public int[] getVertices() {
+		return vertices;
+	}
+
+	/**
+	 * @return the sum of the weights of the path.
+	 */
+	public double getCost() {
+		return cost;
+	}
+
+	/**
+	 * @return the number of the vertices the search has settled(taken from
+	 *its queue) to find the path.
+	 */
+	public int getSettled() {
+		return settled;
+	}
+
+	/**
+	 * @return the path as points, as shortestPathDijkstra(...) returns it.
+	 */
+	public Point[] toPoints() {
+		Point[] points = new Point[vertices.length];
+		for(int i = 0;i < vertices.length;i++) {
+			points[i] = new Point(vertices[i]%width, vertices[i]/width);
+		}
+		return points;
+	}
+
+	/**
+	 * Packs the moves of the path into 3 bits each: the move i is in the bits
+	 *3*i,...,3*i+2 counted from the lowest bit of the byte 0.
+	 * @return the chain code of (3*getMoves()+7)/8 bytes. Null if a move is
+	 *not to a pixel around, which never happens with a path of Graph.
+	 */
+	public byte[] toChainCode() {
+		int moves = vertices.length - 1;
+		byte[] code = new byte[(3*moves + 7)/8];
+		for(int i = 0;i < moves;i++) {
+			int move = moveOf(vertices[i], vertices[i+1]);
+			if(move == -1) return null;
+			int bit = 3*i;
+			code[bit >> 3] |= (byte)(move << (bit & 7));
+			// A move may continue in the next byte.
+			if((bit & 7) > 5) {
+				code[(bit >> 3) + 1] |= (byte)(move >> (8 - (bit & 7)));
+			}
+		}
+		return code;
+	}
+
+	/**
+	 * Unpacks a chain code of toChainCode().
+	 * @param code - the chain code.
+	 * @param moves - the number of the moves in the code.
+	 * @param startVertex - the first vertex of the path.
+	 * @param width - the width of the map.
+	 * @return the vertices of the path; zero element is the start vertex.
+	 * @throws IllegalArgumentException if the code is too short for the
+	 *moves.
+	 */
+	public static int[] decodeChainCode(byte[] code, int moves, int startVertex,
+			int width) {
+		if(code.length < (3*moves + 7)/8) {
+			throw new IllegalArgumentException("The chain code is too short for "
+					+ moves + " moves!");
+		}
+		int[] path = new int[moves + 1];
+		path[0] = startVertex;
+		for(int i = 0;i < moves;i++) {
+			int bit = 3*i;
+			int bits = code[bit >> 3] & 0xFF;
+			if((bit & 7) > 5) {
+				bits |= (code[(bit >> 3) + 1] & 0xFF) << 8;
+			}
+			int move = (bits >> (bit & 7)) & 7;
+			path[i+1] = path[i] + MOVE_DY[move]*width + MOVE_DX[move];
+		}
+		return path;
+	}
+
+	// The index of the move from one vertex to the other or -1 if the other
+	//is not a pixel around.
+	private int moveOf(int from, int to) {
+		int dx = to%width - from%width;
+		int dy = to/width - from/width;
+		for(int move = 0;move < MOVE_DX.length;move++) {
+			if((MOVE_DX[move] == dx) && (MOVE_DY[move] == dy)) return move;
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,267 @@
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Implements indexed monotone radix heap of vertices keyed by their values
+ *(R. K. Ahuja, K. Mehlhorn, J. B. Orlin, R. E. Tarjan, Faster algorithms for
+ *the shortest path problem, 1990). The vertices are the integers
+ *0,...,capacity-1 (the vertIndex in Graph), and every vertex can be at most
+ *once in the heap. The heap is monotone: a key must not be less than the
+ *last key poll() has removed, as it is in Dijkstra's algorithm with weights
+ *which are not negative.
+ * The keys are not negative doubles, which are ordered the same way as
+ *their bits(Double.doubleToRawLongBits(...)) as longs. The bucket 0 keeps
+ *the vertices with the same key as the last removed one, and the bucket i
+ *the vertices which key differs from it first in the bit i-1(counted from
+ *the lowest one). poll() takes a vertex from the bucket 0; if it is empty,
+ *it finds the least key in the first bucket which is not empty, makes it
+ *the last key and spreads the bucket among the lower buckets.
+ * Implementation notes: the time complexity cost of insert(...),
+ *decreaseKey(...), insertOrDecrease(...) and isEmpty() is O(1), of poll()
+ *O(1) amortised: a vertex moves only to lower buckets, so at most 64 times
+ *whatever the number of the vertices. The keys of the image weights(see
+ *ImageCsrBuilder) stay close to the last key, so a vertex moves much fewer times.
+ *Unlike a bucket queue of Dial's algorithm, the keys are not rounded, so
+ *the order is exact. The buckets grow with the number of the discovered
+ *vertices; the positions take 5 bytes per vertex of the capacity.
+ * @author dqdo
+ * @version 1.0
+ */
+public class RadixHeap implements VertexQueue {
+
+	// The number of buckets: one for the last key and one per bit.
+	private static final int BUCKETS = 65;
+
+	// The vertices of every bucket and the bits of their keys on the same
+	//positions, and the number of vertices of every bucket.
+	private final int[][] vertices;
+	private final long[][] keys;
+	private final int[] counts;
+
+	// The number of vertices in the heap and the greatest one since the
+	//last clear().
+	private int size;
+	private int peakSize;
+
+	// The bits of the last removed key; zero at the beginning.
+	private long last;
+
+	// position[v] is the index of the vertex v in its bucket bucketOf[v] or
+	//-1 if the vertex is not in the heap.
+	private final int[] position;
+	private final byte[] bucketOf;
+
+	/**
+	 * Constructs empty heap for the vertices 0,...,capacity-1.
+	 * @param capacity - the number of vertices, e.g. Graph.getSize().
+	 */
+	public RadixHeap(int capacity) {
+		this.vertices = new int[BUCKETS][];
+		this.keys = new long[BUCKETS][];
+		for(int i = 0;i < BUCKETS;i++) {
+			vertices[i] = new int[4];
+			keys[i] = new long[4];
+		}
+		this.counts = new int[BUCKETS];
+		this.position = new int[capacity];
+		Arrays.fill(position, -1);
+		this.bucketOf = new byte[capacity];
+		this.size = 0;
+		this.last = 0;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public int getPeakSize() {
+		return peakSize;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * @param vertex
+	 * @return true if the vertex is in the heap.
+	 */
+	public boolean contains(int vertex) {
+		return position[vertex] != -1;
+	}
+
+	/**
+	 * @param vertex - a vertex in the heap.
+	 * @return the key of the vertex.
+	 * @throws NoSuchElementException if the vertex is not in the heap.
+	 */
+	public double keyOf(int vertex) {
+		if(position[vertex] == -1) {
+			throw new NoSuchElementException("The vertex " + vertex + " is not in the heap!");
+		}
+		return Double.longBitsToDouble(keys[bucketOf[vertex]][position[vertex]]);
+	}
+
+	/**
+	 * Inserts the vertex with the given key.
+	 * @param vertex
+	 * @param key - not less than the last removed key.
+	 * @throws IllegalArgumentException if the vertex is already in the heap or
+	 *the key is less than the last removed one or NaN.
+	 */
+	public void insert(int vertex, double key) {
+		if(position[vertex] != -1) {
+			throw new IllegalArgumentException("The vertex " + vertex + " is already in the heap!");
+		}
+		add(vertex, bitsOf(key));
+		size++;
+		if(size > peakSize) peakSize = size;
+	}
+
+	/**
+	 * Decreases the key of the vertex in the heap.
+	 * @param vertex
+	 * @param key - the new key; it must not be greater than the old one nor
+	 *less than the last removed one.
+	 * @throws IllegalArgumentException if the vertex is not in the heap or
+	 *the new key is greater than the old one or less than the last removed
+	 *one.
+	 */
+	public void decreaseKey(int vertex, double key) {
+		int i = position[vertex];
+		if(i == -1) {
+			throw new IllegalArgumentException("The vertex " + vertex + " is not in the heap!");
+		}
+		long bits = bitsOf(key);
+		if(bits > keys[bucketOf[vertex]][i]) {
+			throw new IllegalArgumentException("The key of " + vertex + " can not be increased!");
+		}
+		remove(vertex);
+		add(vertex, bits);
+	}
+
+	@Override
+	public boolean insertOrDecrease(int vertex, double key) {
+		int i = position[vertex];
+		if(i == -1) {
+			insert(vertex, key);
+			return true;
+		}
+		long bits = bitsOf(key);
+		if(bits < keys[bucketOf[vertex]][i]) {
+			remove(vertex);
+			add(vertex, bits);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return the least key in the heap.
+	 * @throws NoSuchElementException if the heap is empty.
+	 */
+	public double peekKey() {
+		if(size == 0) throw new NoSuchElementException("The heap is empty!");
+		refill();
+		return Double.longBitsToDouble(last);
+	}
+
+	/**
+	 * Removes a vertex with the least key; of more such vertices, any one.
+	 * @return the removed vertex.
+	 * @throws NoSuchElementException if the heap is empty.
+	 */
+	@Override
+	public int poll() {
+		if(size == 0) throw new NoSuchElementException("The heap is empty!");
+		refill();
+		int min = vertices[0][--counts[0]];
+		position[min] = -1;
+		size--;
+		return min;
+	}
+
+	/**
+	 * Removes all the vertices from the heap, and the last removed key is
+	 *zero again. It costs O(size()).
+	 */
+	@Override
+	public void clear() {
+		for(int b = 0;b < BUCKETS;b++) {
+			int[] bucket = vertices[b];
+			for(int i = 0;i < counts[b];i++) {
+				position[bucket[i]] = -1;
+			}
+			counts[b] = 0;
+		}
+		size = 0;
+		peakSize = 0;
+		last = 0;
+	}
+
+	// The bits of a key, checked; -0.0 is the same as 0.0.
+	private long bitsOf(double key) {
+		long bits = Double.doubleToRawLongBits(key + 0.0);
+		if((bits < last) || Double.isNaN(key)) {
+			throw new IllegalArgumentException("The key " + key
+					+ " is less than the last removed key " + Double.longBitsToDouble(last) + "!");
+		}
+		return bits;
+	}
+
+	// Adds the vertex with the given bits of its key to its bucket.
+	private void add(int vertex, long bits) {
+		int b = 64 - Long.numberOfLeadingZeros(bits ^ last);
+		int count = counts[b];
+		if(count == vertices[b].length) {
+			vertices[b] = Arrays.copyOf(vertices[b], count*2);
+			keys[b] = Arrays.copyOf(keys[b], count*2);
+		}
+		vertices[b][count] = vertex;
+		keys[b][count] = bits;
+		position[vertex] = count;
+		bucketOf[vertex] = (byte)b;
+		counts[b] = count + 1;
+	}
+
+	// Removes the vertex from its bucket; the last vertex of the bucket takes
+	//its place.
+	private void remove(int vertex) {
+		int b = bucketOf[vertex];
+		int i = position[vertex];
+		int lastIndex = --counts[b];
+		if(i != lastIndex) {
+			int moved = vertices[b][lastIndex];
+			vertices[b][i] = moved;
+			keys[b][i] = keys[b][lastIndex];
+			position[moved] = i;
+		}
+		position[vertex] = -1;
+	}
+
+	// If the bucket 0 is empty, makes the least key the last one and spreads
+	//its bucket among the lower buckets; the least key gets to the bucket 0.
+	//The heap must not be empty.
+	private void refill() {
+		if(counts[0] > 0) return;
+		int b = 1;
+		while(counts[b] == 0) b++;
+		int[] bucket = vertices[b];
+		long[] bucketKeys = keys[b];
+		int count = counts[b];
+		long min = bucketKeys[0];
+		for(int i = 1;i < count;i++) {
+			if(bucketKeys[i] < min) min = bucketKeys[i];
+		}
+		last = min;
+		// Every key of the bucket differs from the new last key in a lower
+		//bit than b-1, so add(...) never appends to this bucket.
+		counts[b] = 0;
+		for(int i = 0;i < count;i++) {
+			add(bucket[i], bucketKeys[i]);
+		}
+	}
+}
@@ -0,0 +1,123 @@
+import java.util.Arrays;
+
+/**
+ * The state of one search over a Graph: the values, the prevs, the visited
+ *flags and the queue of the vertices. The Graph keeps the contexts in a pool
+ *and every search takes its own one, so the Graph itself is not changed by a
+ *search and many threads can search the same Graph at the same time.
+ * The arrays are not reset between the searches. Instead, every search has
+ *a new epoch (see begin()) and the value of a vertex counts only if its
+ *stamp is the current epoch, otherwise the vertex has not been reached yet
+ *and its value is infinity. The same holds for the visited flags. So a
+ *search costs only for the vertices it reaches, not O(V).
+ * Implementation notes: a context takes about 20 bytes per vertex of the
+ *graph. It is not thread safe; it must be used by one search at a time.
+ * @author dqdo
+ * @version 1.0
+ */
+class SearchContext {
+
+	// value[v] and prev[v] are valid only if reached[v] == epoch.
+	final double[] value;
+	final int[] prev;
+	private final int[] reached;
+
+	// visited[v] == epoch if the vertex v is settled in this search.
+	private final int[] visited;
+
+	// The epoch of the current search; the stamps of the earlier searches
+	//are less than it.
+	private int epoch;
+
+	// The number of the vertices settled(taken from the queue) in this 
+	//search; visit(...) counts them. The number of the edges scanned from 
+	//the settled vertices and of the inserts and the decreases of keys in 
+	//the queue; the searches count them themselves, see SearchStats.
+	int settled;
+	long relaxed;
+	int queued;
+
+	// The queue of the search; it is empty when the search begins.
+	final IndexedHeap pq;
+
+	// The radix heap of Graph.shortestPathDijkstra(..., QueueType.RADIX); 
+	//made the first time it is needed, see radixHeap().
+	private RadixHeap radix;
+
+	// The buffers for Graph.expand(...).
+	final int[] heirsOut;
+	final float[] weightsOut;
+
+	/**
+	 * @param size - the number of vertices of the graph(Graph.getSize()).
+	 * @param maxHeirs - the greatest number of heirs a vertex has.
+	 * @param heapArity - the arity of the queue.
+	 */
+	SearchContext(int size, int maxHeirs, int heapArity) {
+		this.value = new double[size];
+		this.prev = new int[size];
+		this.reached = new int[size];
+		this.visited = new int[size];
+		this.epoch = 0;
+		this.pq = new IndexedHeap(size, heapArity);
+		this.heirsOut = new int[maxHeirs];
+		this.weightsOut = new float[maxHeirs];
+	}
+
+	/**
+	 * Begins a new search: every vertex is unreached and not visited again.
+	 *It costs O(1), only after 2^31-1 searches the stamps are cleared.
+	 */
+	void begin() {
+		pq.clear();
+		if(radix != null) radix.clear();
+		if(epoch == Integer.MAX_VALUE) {
+			Arrays.fill(reached, 0);
+			Arrays.fill(visited, 0);
+			epoch = 0;
+		}
+		epoch++;
+		settled = 0;
+		relaxed = 0;
+		queued = 0;
+	}
+
+	/**
+	 * @param vertIndex
+	 * @return the value of the vertex in this search, infinity if the vertex
+	 *has not been reached.
+	 */
+	double valueOf(int vertIndex) {
+		return (reached[vertIndex] == epoch)? value[vertIndex] : Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * Sets the value and the prev of the vertex in this search.
+	 * @param vertIndex
+	 * @param value
+	 * @param prevVertIndex
+	 */
+	void reach(int vertIndex, double value, int prevVertIndex) {
+		this.value[vertIndex] = value;
+		this.prev[vertIndex] = prevVertIndex;
+		reached[vertIndex] = epoch;
+	}
+
+	/**
+	 * @return the radix heap of this context; it is empty when the search
+	 *begins, like pq.
+	 */
+	RadixHeap radixHeap() {
+		if(radix == null) radix = new RadixHeap(value.length);
+		return radix;
+	}
+
+	boolean isVisited(int vertIndex) {
+		return visited[vertIndex] == epoch;
+	}
+
+	void visit(int vertIndex) {
+		visited[vertIndex] = epoch;
+		settled++;
+	}
+}
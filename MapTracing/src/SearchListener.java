@@ -0,0 +1,17 @@
+/**
+ * Gets the SearchStats of every search of a Graph, see
+ *Graph.setSearchListener(...). It is called on the thread of the search,
+ *possibly from many threads at once(e.g. Graph.shortestPaths(...)), so it
+ *must be thread safe, and it should be quick, since the search does not
+ *return until it returns.
+ * @author dqdo
+ * @version 1.0
+ */
+public interface SearchListener {
+
+	/**
+	 * Called after a search has finished.
+	 * @param stats - what the search has done.
+	 */
+	void searchFinished(SearchStats stats);
+}
@@ -0,0 +1,125 @@
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * A SearchListener which sums the SearchStats of the searches of a Graph
+ *and exports the sums through JMX, e.g. for jconsole:
+ *	SearchStatistics statistics = new SearchStatistics();
+ *	graph.setSearchListener(statistics);
+ *	statistics.register("map7");
+ *The slowest query tells whether the slow searches are long paths or
+ *floods of unreachable destinations.
+ * Implementation notes: the methods are synchronized; a search holds the
+ *lock only to add its numbers.
+ * @author dqdo
+ * @version 1.0
+ */
+public class SearchStatistics implements SearchListener, SearchStatisticsMBean {
+
+	private long queries;
+	private long unreachedQueries;
+	private long settled;
+	private long relaxed;
+	private int maxSettled;
+	private int maxPeakQueueSize;
+	private long elapsedNanos;
+	private SearchStats slowest;
+	private SearchStats last;
+
+	@Override
+	public synchronized void searchFinished(SearchStats stats) {
+		queries++;
+		if(!stats.isReached()) unreachedQueries++;
+		settled += stats.getSettled();
+		relaxed += stats.getRelaxed();
+		maxSettled = Math.max(maxSettled, stats.getSettled());
+		maxPeakQueueSize = Math.max(maxPeakQueueSize, stats.getPeakQueueSize());
+		elapsedNanos += stats.getElapsedNanos();
+		if((slowest == null) || (stats.getElapsedNanos() > slowest.getElapsedNanos())) {
+			slowest = stats;
+		}
+		last = stats;
+	}
+
+	/**
+	 * Registers this object in the platform MBean server under the name
+	 *MapTracing:type=SearchStatistics,name=<the given name>.
+	 * @param name - e.g. the name of the map.
+	 * @return the name it is registered under.
+	 * @throws JMException if it can not be registered, e.g. the name is
+	 *already taken.
+	 */
+	public ObjectName register(String name) throws JMException {
+		ObjectName objectName = new ObjectName(
+				"MapTracing:type=SearchStatistics,name=" + ObjectName.quote(name));
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		server.registerMBean(this, objectName);
+		return objectName;
+	}
+
+	@Override
+	public synchronized long getQueries() {
+		return queries;
+	}
+
+	@Override
+	public synchronized long getUnreachedQueries() {
+		return unreachedQueries;
+	}
+
+	@Override
+	public synchronized long getSettled() {
+		return settled;
+	}
+
+	@Override
+	public synchronized long getRelaxed() {
+		return relaxed;
+	}
+
+	@Override
+	public synchronized int getMaxSettled() {
+		return maxSettled;
+	}
+
+	@Override
+	public synchronized int getMaxPeakQueueSize() {
+		return maxPeakQueueSize;
+	}
+
+	@Override
+	public synchronized double getMeanElapsedMillis() {
+		return (queries == 0)? 0 : elapsedNanos/1e6/queries;
+	}
+
+	@Override
+	public synchronized double getMaxElapsedMillis() {
+		return (slowest == null)? 0 : slowest.getElapsedNanos()/1e6;
+	}
+
+	@Override
+	public synchronized String getSlowestQuery() {
+		return (slowest == null)? "" : slowest.toString();
+	}
+
+	@Override
+	public synchronized String getLastQuery() {
+		return (last == null)? "" : last.toString();
+	}
+
+	@Override
+	public synchronized void reset() {
+		queries = 0;
+		unreachedQueries = 0;
+		settled = 0;
+		relaxed = 0;
+		maxSettled = 0;
+		maxPeakQueueSize = 0;
+		elapsedNanos = 0;
+		slowest = null;
+		last = null;
+	}
+}
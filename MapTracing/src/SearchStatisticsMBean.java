@@ -0,0 +1,39 @@
+/**
+ * The JMX management interface of SearchStatistics; the times are in
+ *milliseconds.
+ * @author dqdo
+ * @version 1.0
+ */
+public interface SearchStatisticsMBean {
+
+	long getQueries();
+
+	long getUnreachedQueries();
+
+	long getSettled();
+
+	long getRelaxed();
+
+	int getMaxSettled();
+
+	int getMaxPeakQueueSize();
+
+	double getMeanElapsedMillis();
+
+	double getMaxElapsedMillis();
+
+	/**
+	 * @return the SearchStats of the slowest search as text.
+	 */
+	String getSlowestQuery();
+
+	/**
+	 * @return the SearchStats of the last search as text.
+	 */
+	String getLastQuery();
+
+	/**
+	 * Sets all the statistics to zero.
+	 */
+	void reset();
+}
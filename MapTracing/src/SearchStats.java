@@ -0,0 +1,133 @@
+import java.awt.Point;
+
+/**
+ * What one search of Graph has done: how many vertices it has settled and
+ *edges it has relaxed, how it has used its queue, how long it has taken and
+ *whether it has reached the destination. A Graph reports it to its
+ *SearchListener after every search, see Graph.setSearchListener(...).
+ * A search which has not reached the destination has settled the whole
+ *component of the start, so such a search with many settled vertices is a
+ *flood, while a reached one with many settled vertices is a long path.
+ * @author dqdo
+ * @version 1.0
+ */
+public class SearchStats {
+
+	private final String algorithm;
+	private final Point from;
+	private final Point to;
+	private final boolean reached;
+	private final double cost;
+	private final int settled;
+	private final long relaxed;
+	private final int inserts;
+	private final int decreaseKeys;
+	private final int peakQueueSize;
+	private final long elapsedNanos;
+
+	/**
+	 * @param algorithm - the name of the search, e.g. "dijkstra".
+	 * @param from - the start.
+	 * @param to - the destination.
+	 * @param reached - true if the destination has been reached.
+	 * @param cost - the cost of the path, infinity if it has not been reached.
+	 * @param settled - the number of the settled vertices, the same as the
+	 *removes from the queue.
+	 * @param relaxed - the number of the edges scanned from the settled vertices.
+	 * @param inserts - the number of the inserts into the queue.
+	 * @param decreaseKeys - the number of the decreases of keys in the queue.
+	 * @param peakQueueSize - the greatest number of the vertices in the queue.
+	 * @param elapsedNanos - the time of the search.
+	 */
+	SearchStats(String algorithm, Point from, Point to, boolean reached, double cost,
+			int settled, long relaxed, int inserts, int decreaseKeys, int peakQueueSize,
+			long elapsedNanos) {
+		this.algorithm = algorithm;
+		this.from = from;
+		this.to = to;
+		this.reached = reached;
+		this.cost = cost;
+		this.settled = settled;
+		this.relaxed = relaxed;
+		this.inserts = inserts;
+		this.decreaseKeys = decreaseKeys;
+		this.peakQueueSize = peakQueueSize;
+		this.elapsedNanos = elapsedNanos;
+	}
+
+	public String getAlgorithm() {
+		return algorithm;
+	}
+
+	public Point getFrom() {
+		return new Point(from);
+	}
+
+	public Point getTo() {
+		return new Point(to);
+	}
+
+	/**
+	 * @return true if the search has reached the destination.
+	 */
+	public boolean isReached() {
+		return reached;
+	}
+
+	/**
+	 * @return the cost of the found path, infinity if there is no path.
+	 */
+	public double getCost() {
+		return cost;
+	}
+
+	/**
+	 * @return the number of the vertices settled(taken from the queue).
+	 */
+	public int getSettled() {
+		return settled;
+	}
+
+	/**
+	 * @return the number of the edges scanned from the settled vertices.
+	 */
+	public long getRelaxed() {
+		return relaxed;
+	}
+
+	public int getInserts() {
+		return inserts;
+	}
+
+	/**
+	 * @return the number of the removes from the queue, the same as the
+	 *number of the settled vertices.
+	 */
+	public int getRemoves() {
+		return settled;
+	}
+
+	public int getDecreaseKeys() {
+		return decreaseKeys;
+	}
+
+	/**
+	 * @return the greatest number of the vertices in the queue at once.
+	 */
+	public int getPeakQueueSize() {
+		return peakQueueSize;
+	}
+
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
+
+	@Override
+	public String toString() {
+		return algorithm + " (" + from.x + "," + from.y + ")->(" + to.x + "," + to.y + ") "
+				+ (reached? "reached, cost " + cost : "not reached")
+				+ ", settled " + settled + ", relaxed " + relaxed
+				+ ", inserts " + inserts + ", decreaseKeys " + decreaseKeys
+				+ ", peak queue " + peakQueueSize + ", " + elapsedNanos/1000 + " us";
+	}
+}
@@ -0,0 +1,116 @@
+import java.awt.Point;
+
+/**
+ * Keeps the state of Dijkstra's algorithm from one source between the
+ *queries, so the shortest paths from the same source to many destinations
+ *are found by one search: a destination which has already been settled is
+ *returned at once, otherwise the search resumes from where it has stopped
+ *until the destination is settled.
+ * The paths are the same as the ones of Graph.shortestPathDijkstra(...),
+ *since the resumed search settles the vertices in the same order as a new
+ *search would.
+ * Implementation notes: the tree keeps its state in a SearchContext of the
+ *graph, O(V) memory, for as long as it is kept; give the context back with
+ *release() when the tree is not needed any more. It is not thread safe.
+ * @author dqdo
+ * @version 1.0
+ */
+class ShortestPathTree {
+
+	private final Graph graph;
+	private final int source;
+
+	// The values, the prevs and the settled vertices of the search and the
+	//open vertices; the search resumes by polling its queue.
+	private final SearchContext c;
+
+	/**
+	 * Starts the tree from the given source; nothing is settled yet.
+	 * @param graph
+	 * @param source - a vertex of the graph which is not null.
+	 */
+	ShortestPathTree(Graph graph, int source) {
+		this.graph = graph;
+		this.source = source;
+		this.c = graph.acquireContext();
+
+		c.begin();
+		c.reach(source, 0, source);
+		c.pq.insert(source, 0);
+	}
+
+	int getSource() {
+		return source;
+	}
+
+	/**
+	 * Finds the shortest path from the source to the given vertex, resuming
+	 *the search if the vertex has not been settled yet.
+	 * @param to - the destination vertex.
+	 * @return the path; zero element is the source. Null if there is no path.
+	 */
+	Point[] pathTo(int to) {
+		if(!settle(to)) return null;
+		return graph.buildPath(source, to, c.prev);
+	}
+
+	/**
+	 * The same as pathTo(...), but the path is returned as a PathResult; its
+	 *settled vertices are the ones this query has settled.
+	 * @param to - the destination vertex.
+	 * @return the path. Null if there is no path.
+	 */
+	PathResult resultTo(int to) {
+		int before = c.settled;
+		if(!settle(to)) return null;
+		return graph.buildResult(source, to, c.prev, c.value[to], c.settled - before);
+	}
+
+	// Resumes the search until the given vertex is settled or there is
+	//nothing more to settle; returns true if the vertex is settled. The
+	//listener of the graph gets only what this query has done, but the peak
+	//size of the queue since the tree has been started.
+	private boolean settle(int to) {
+		SearchListener listener = graph.getSearchListener();
+		long begin = (listener == null)? 0 : System.nanoTime();
+		int settledBefore = c.settled, queuedBefore = c.queued;
+		long relaxedBefore = c.relaxed;
+		IndexedHeap pq = c.pq;
+		int sizeBefore = pq.size();
+		int[] heirsOut = c.heirsOut; float[] weightsOut = c.weightsOut;
+		while(!c.isVisited(to) && !pq.isEmpty()) {
+			int currV = pq.poll();
+			c.visit(currV);
+
+			double currValue = c.value[currV];
+			int count = graph.expand(currV, heirsOut, weightsOut);
+			c.relaxed += count;
+			for(int e = 0;e < count;e++) {
+				int heir = heirsOut[e];
+				if(c.isVisited(heir)) continue;
+
+				double currPath = currValue + weightsOut[e];
+				if(c.valueOf(heir) > currPath) {
+					pq.insertOrDecrease(heir, currPath);
+					c.queued++;
+					c.reach(heir, currPath, currV);
+				}
+			}
+		}
+		if(listener != null) {
+			graph.report(listener, "cached", source, to, c.isVisited(to), 
+					c.settled - settledBefore, c.relaxed - relaxedBefore, 
+					c.queued - queuedBefore, pq.size() - sizeBefore, pq.getPeakSize(), 
+					c.value[to], begin);
+		}
+		return c.isVisited(to);
+	}
+
+	/**
+	 * Gives the context of the tree back to the graph; the tree must not be
+	 *used after that.
+	 */
+	void release() {
+		graph.releaseContext(c);
+	}
+}
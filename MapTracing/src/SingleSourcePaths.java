@@ -0,0 +1,96 @@
+import java.awt.Point;
+
+/**
+ * The shortest paths from one source to all the vertices of a Graph, as
+ *Graph.shortestPathsFrom(...) finds them: the distance and the parent(the
+ *vertex before it on its shortest path) of every vertex, indexed by the
+ *vertIndex x + y*width.
+ * @author dqdo
+ * @version 1.0
+ */
+public class SingleSourcePaths {
+
+	private final Graph graph;
+	private final int source;
+	private final double[] distances;
+	private final int[] parents;
+	private final double delta;
+	private final int phases;
+	private final int rounds;
+
+	SingleSourcePaths(Graph graph, int source, double[] distances, int[] parents,
+			double delta, int phases, int rounds) {
+		this.graph = graph;
+		this.source = source;
+		this.distances = distances;
+		this.parents = parents;
+		this.delta = delta;
+		this.phases = phases;
+		this.rounds = rounds;
+	}
+
+	public Point getSource() {
+		return new Point(source%graph.getWidth(), source/graph.getWidth());
+	}
+
+	/**
+	 * @return the distance of every vertex from the source, infinity if it
+	 *can not be reached; the array itself, not a copy.
+	 */
+	public double[] getDistances() {
+		return distances;
+	}
+
+	/**
+	 * @return the parent of every vertex, -1 if it can not be reached; the
+	 *parent of the source is the source. The array itself, not a copy.
+	 */
+	public int[] getParents() {
+		return parents;
+	}
+
+	/**
+	 * @param toPoint
+	 * @return the distance of the point from the source, infinity if it can
+	 *not be reached.
+	 * @throws IllegalArgumentException when the point exceed the borders of
+	 *the map.
+	 */
+	public double distanceTo(Point toPoint) {
+		return distances[graph.vertexAt(toPoint)];
+	}
+
+	/**
+	 * @param toPoint
+	 * @return the shortest path from the source to the point; zero element is
+	 *the source. Null if there is no path.
+	 * @throws IllegalArgumentException when the point exceed the borders of
+	 *the map.
+	 */
+	public Point[] pathTo(Point toPoint) {
+		int to = graph.vertexAt(toPoint);
+		if(parents[to] == -1) return null;
+		return graph.buildPath(source, to, parents);
+	}
+
+	/**
+	 * @return the width of the buckets the paths have been found with.
+	 */
+	public double getDelta() {
+		return delta;
+	}
+
+	/**
+	 * @return the number of buckets which have been processed.
+	 */
+	public int getPhases() {
+		return phases;
+	}
+
+	/**
+	 * @return the number of parallel relaxations of the light edges.
+	 */
+	public int getRounds() {
+		return rounds;
+	}
+}
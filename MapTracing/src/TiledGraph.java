@@ -0,0 +1,699 @@
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * A graph of a map which does not fit in the memory: the map is split into
+ *square tiles of tileSize x tileSize pixels which are kept in a file(see
+ *Map.createTiles(...)). The file is mapped into memory, and a tile is
+ *loaded from the mapping into arrays on demand, when a search first steps
+ *into it. The loaded tiles are kept in a least recently used cache; when
+ *their bytes exceed the memory budget, the least recently used ones are
+ *dropped and loaded again if they are needed again.
+ * The vertices are the pixels and their ids are long, y*width + x, so the
+ *map is limited only by the int width and height, not by their product.
+ *The heirs and the weights are the ones of ImageCsrBuilder.heirsOf(...), so a
+ *path costs the same as in a Graph of the same image.
+ * The file, little endian:
+ *	|MAPT|version|width|height|tileSize|tilesX|tilesY|0|, the least weight
+ *of a straight and of a diagonal step as doubles, that is 48 bytes;
+ *	tilesX*tilesY+1 longs - where the block of every tile begins, the last
+ *one is the length of the file;
+ *	the blocks in the row order of the tiles, every one at a multiple of 8:
+ *|edges|0|, the offsets of the heirs of the tile pixels(tw*th+1 integers),
+ *the directions of the heirs(edges bytes, see DX and DY) and their weights
+ *(edges floats); every array begins at a multiple of 8 bytes.
+ * Implementation notes: a tile costs 4 bytes per pixel plus 5 bytes per
+ *edge, both in the file and in the cache. A search keeps its state in hash
+ *tables of the vertices it reaches, so it costs O(reached vertices) memory,
+ *not O(V), and it can run while other threads search the same graph. The
+ *mapping costs no heap; the operating system reads the pages of the file
+ *when a tile is loaded and may drop them afterwards. The file is mapped in
+ *chunks of at most CHUNK_BYTES, since a mapping is limited to 2 GB.
+ * @author dqdo
+ * @version 1.0
+ */
+public class TiledGraph {
+
+	/**
+	 * The tile size used when none is given.
+	 */
+	public static final int DEFAULT_TILE_SIZE = 256;
+
+	/**
+	 * The memory budget used when none is given, 256 MB.
+	 */
+	public static final long DEFAULT_MEMORY_BUDGET = 256L << 20;
+
+	// The bytes M A P T, as a little endian integer.
+	static final int MAGIC = 0x5450414d;
+	static final int VERSION = 1;
+	static final int HEADER_LENGTH = 48;
+
+	// The most bytes of one mapping of the file.
+	private static final long CHUNK_BYTES = 1L << 30;
+
+	// The relative x and y of the heir of every direction, in the order of
+	//ImageCsrBuilder: Left, Right, Up, Down, Up-Left, Up-Right, Down-Left,
+	//Down-Right.
+	private static final int[] DX = {-1, 1, 0, 0, -1, 1, -1, 1};
+	private static final int[] DY = {0, 0, -1, 1, -1, -1, 1, 1};
+
+	private final int width;
+	private final int height;
+	private final int tileSize;
+	private final int tilesX;
+	private final int tilesY;
+	private final double leastStraightWeight;
+	private final double leastDiagonalWeight;
+
+	// Where the block of every tile begins; tileAt[tiles] is the file length.
+	private final long[] tileAt;
+
+	// The mappings of the file; the block of the tile t is in
+	//chunks[chunkOf[t]] which begins at the byte chunkAt[chunkOf[t]].
+	private final MappedByteBuffer[] chunks;
+	private final long[] chunkAt;
+	private final int[] chunkOf;
+
+	// The loaded tiles in the order of their use, the least recent first.
+	private final LinkedHashMap<Integer, Tile> cache;
+	private final long memoryBudget;
+	private long cachedBytes;
+	private long tileLoads;
+
+	/**
+	 * One loaded tile: the pixels (x0,y0),...,(x0+tw-1,y0+th-1) and their
+	 *heirs in CSR arrays by the pixels of the tile in the row order.
+	 */
+	private static class Tile {
+		final int x0;
+		final int y0;
+		final int tw;
+		final int th;
+		final int[] offsets;
+		final byte[] directions;
+		final float[] weights;
+		final long bytes;
+
+		// Loads the tile from its block, which begins at the position of the
+		//given buffer, and checks that every heir is next to its vertex and
+		//in the map of the given width and height.
+		Tile(int x0, int y0, int tw, int th, ByteBuffer block, int width, int height) {
+			this.x0 = x0;
+			this.y0 = y0;
+			this.tw = tw;
+			this.th = th;
+			int at = block.position();
+			int edges = block.getInt(at);
+			int n = tw*th;
+			int directionsAt = at + 8 + (int)Map2File.aligned(4L*(n + 1));
+			int weightsAt = directionsAt + (int)Map2File.aligned(edges);
+			if((edges < 0) || (weightsAt + 4L*edges > block.limit())) {
+				throw new IllegalArgumentException("The tile at " + x0 + "," + y0
+						+ " does not match the length of its block!");
+			}
+			offsets = new int[n + 1];
+			directions = new byte[edges];
+			weights = new float[edges];
+			block.position(at + 8);
+			block.asIntBuffer().get(offsets);
+			block.position(directionsAt);
+			block.get(directions);
+			block.position(weightsAt);
+			block.asFloatBuffer().get(weights);
+			if((offsets[0] != 0) || (offsets[n] != edges)) {
+				throw new IllegalArgumentException("The tile at " + x0 + "," + y0
+						+ " has invalid offsets!");
+			}
+			for(int v = 0;v < n;v++) {
+				if(offsets[v] > offsets[v+1]) {
+					throw new IllegalArgumentException("The tile at " + x0 + "," + y0
+							+ " has invalid offsets!");
+				}
+				int x = x0 + v%tw, y = y0 + v/tw;
+				for(int e = offsets[v];e < offsets[v+1];e++) {
+					int d = directions[e];
+					if((d < 0) || (d >= 8) || (x + DX[d] < 0) || (x + DX[d] >= width)
+							|| (y + DY[d] < 0) || (y + DY[d] >= height)) {
+						throw new IllegalArgumentException("The heir of the pixel " + x
+								+ "," + y + " is out of the map!");
+					}
+				}
+			}
+			this.bytes = 4L*(n + 1) + 5L*edges;
+		}
+	}
+
+	/**
+	 * Opens the given tiled map; no tile is mapped until it is needed.
+	 * @param tiledFile - see Map.createTiles(...).
+	 * @param memoryBudget - the bytes of the mapped tiles the cache keeps at
+	 *most, e.g. DEFAULT_MEMORY_BUDGET; at least one tile is kept anyway.
+	 * @throws IOException if the file can not be read.
+	 * @throws IllegalArgumentException if the file is not a tiled map of
+	 *this version or its header does not match its length.
+	 */
+	public TiledGraph(File tiledFile, long memoryBudget) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(tiledFile, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+			readFully(channel, header, 0);
+			if(header.getInt(0) != MAGIC) {
+				throw new IllegalArgumentException("The file is not a tiled map!");
+			}
+			if(header.getInt(4) != VERSION) {
+				throw new IllegalArgumentException(
+						"The tiled map version " + header.getInt(4) + " is not supported!");
+			}
+			width = header.getInt(8);
+			height = header.getInt(12);
+			tileSize = header.getInt(16);
+			tilesX = header.getInt(20);
+			tilesY = header.getInt(24);
+			leastStraightWeight = header.getDouble(32);
+			leastDiagonalWeight = header.getDouble(40);
+			if((width <= 0) || (height <= 0) || (tileSize <= 0)
+					|| (tilesX != (width + tileSize - 1)/tileSize)
+					|| (tilesY != (height + tileSize - 1)/tileSize)
+					|| ((long)tilesX*tilesY >= Integer.MAX_VALUE/8)) {
+				throw new IllegalArgumentException("The tiled map header is not valid!");
+			}
+
+			int tiles = tilesX*tilesY;
+			ByteBuffer table = ByteBuffer.allocate(8*(tiles + 1)).order(ByteOrder.LITTLE_ENDIAN);
+			readFully(channel, table, HEADER_LENGTH);
+			tileAt = new long[tiles + 1];
+			table.asLongBuffer().get(tileAt);
+			if(tileAt[tiles] != channel.size()) {
+				throw new IllegalArgumentException(
+						"The tiled map table does not match the length of the file!");
+			}
+			for(int t = 0;t < tiles;t++) {
+				if((tileAt[t] < HEADER_LENGTH) || (tileAt[t] > tileAt[t+1]) 
+						|| (tileAt[t+1] - tileAt[t] > CHUNK_BYTES)) {
+					throw new IllegalArgumentException(
+							"The block of the tile " + t + " is not valid!");
+				}
+			}
+
+			// The chunks: as many whole blocks as fit in CHUNK_BYTES.
+			chunkOf = new int[tiles];
+			long[] at = new long[tiles + 1];
+			int count = 0;
+			for(int t = 0;t < tiles;t++) {
+				if((count == 0) || (tileAt[t+1] - at[count-1] > CHUNK_BYTES)) {
+					at[count++] = tileAt[t];
+				}
+				chunkOf[t] = count - 1;
+			}
+			chunkAt = Arrays.copyOf(at, count);
+			chunks = new MappedByteBuffer[count];
+			for(int c = 0;c < count;c++) {
+				long end = (c + 1 < count)? chunkAt[c+1] : tileAt[tiles];
+				chunks[c] = channel.map(FileChannel.MapMode.READ_ONLY, chunkAt[c], end - chunkAt[c]);
+				chunks[c].order(ByteOrder.LITTLE_ENDIAN);
+			}
+		}finally {
+			// The mappings stay valid after the file is closed.
+			file.close();
+		}
+		this.memoryBudget = memoryBudget;
+		this.cache = new LinkedHashMap<Integer, Tile>(16, 0.75f, true);
+		this.cachedBytes = 0;
+		this.tileLoads = 0;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public int getTileSize() {
+		return tileSize;
+	}
+
+	/**
+	 * @return the number of tiles in the cache now.
+	 */
+	public synchronized int getCachedTiles() {
+		return cache.size();
+	}
+
+	/**
+	 * @return the number of times a tile has been loaded so far; more than
+	 *the number of tiles if the budget is too small for the searches.
+	 */
+	public synchronized long getTileLoads() {
+		return tileLoads;
+	}
+
+	/**
+	 * The method implements Dijkstra's algorithm across the tiles; it loads
+	 *only the tiles the search reaches.
+	 * @param fromPoint represents the start x,y coordinates on the map.
+	 * @param toPoint represents the destination x,y coordinates on the map.
+	 * @return an array containing the desired path. Zero element is the start
+	 *point. Null if there is no path.
+	 * @throws IllegalArgumentException when a point exceed the borders of the map.
+	 */
+	public Point[] shortestPathDijkstra(Point fromPoint, Point toPoint) {
+		return new Search(false).run(vertexAt(fromPoint), vertexAt(toPoint));
+	}
+
+	/**
+	 * The method implements A* algorithm across the tiles with the octile
+	 *distance heuristic of Graph.shortestPathAStar(...); the least weights of
+	 *a step are kept in the file, so no tile is read to find them. The path
+	 *costs the same as the path of shortestPathDijkstra(...), but fewer
+	 *vertices are settled and fewer tiles are loaded on the way.
+	 * @param fromPoint represents the start x,y coordinates on the map.
+	 * @param toPoint represents the destination x,y coordinates on the map.
+	 * @return an array containing the desired path. Zero element is the start
+	 *point. Null if there is no path.
+	 * @throws IllegalArgumentException when a point exceed the borders of the map.
+	 */
+	public Point[] shortestPathAStar(Point fromPoint, Point toPoint) {
+		return new Search(true).run(vertexAt(fromPoint), vertexAt(toPoint));
+	}
+
+	/**
+	 * Converts the given point of the map to the id of its vertex.
+	 * @param point
+	 * @return y*width + x.
+	 * @throws IllegalArgumentException when the point exceed the borders of
+	 *the map.
+	 */
+	long vertexAt(Point point) {
+		if((point.x < 0) || (point.x >= width) || (point.y < 0) || (point.y >= height)) {
+			throw new IllegalArgumentException(
+					"Coordinates must be in the intervals: X(" +
+					"0, " + width + ") " +
+					"; Y(0," + height + ")." );
+		}
+		return (long)point.y*width + point.x;
+	}
+
+	/**
+	 * The tile with the pixel (x,y), loaded if it is not in the cache.
+	 */
+	private synchronized Tile tileOf(int x, int y) {
+		int t = (y/tileSize)*tilesX + x/tileSize;
+		Tile tile = cache.get(t);
+		if(tile != null) return tile;
+
+		int x0 = (x/tileSize)*tileSize, y0 = (y/tileSize)*tileSize;
+		int c = chunkOf[t];
+		ByteBuffer block = chunks[c].duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		block.limit((int)(tileAt[t+1] - chunkAt[c]));
+		block.position((int)(tileAt[t] - chunkAt[c]));
+		tile = new Tile(x0, y0, Math.min(tileSize, width - x0),
+				Math.min(tileSize, height - y0), block, width, height);
+		tileLoads++;
+		cache.put(t, tile);
+		cachedBytes += tile.bytes;
+		Iterator<Tile> lru = cache.values().iterator();
+		while((cachedBytes > memoryBudget) && (cache.size() > 1)) {
+			cachedBytes -= lru.next().bytes;
+			lru.remove();
+		}
+		return tile;
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer bb, long position)
+			throws IOException {
+		while(bb.hasRemaining()) {
+			if(channel.read(bb, position + bb.position()) < 0) {
+				throw new IllegalArgumentException("The tiled map is truncated!");
+			}
+		}
+		bb.flip();
+	}
+
+	/**
+	 * One search: Dijkstra's algorithm or A*. The values, the prevs and the
+	 *settled flags of the reached vertices are kept in an open addressing
+	 *hash table by their ids; the queue is a binary heap of the table slots
+	 *where a vertex is inserted again instead of decreasing its key, and the
+	 *stale entries are skipped when they are polled.
+	 */
+	private class Search {
+		private final boolean isAStar;
+
+		// The hash table: ids[s] is the vertex of the slot s or -1.
+		private long[] ids;
+		private double[] value;
+		private long[] prev;
+		private boolean[] isSettled;
+		private int slots;
+
+		// The heap of the slots keyed by their value plus heuristic.
+		private int[] heap;
+		private double[] keys;
+		private int heapSize;
+
+		// The tile of the last expanded vertex.
+		private Tile tile;
+
+		Search(boolean isAStar) {
+			this.isAStar = isAStar;
+			initTable(1 << 10);
+			this.heap = new int[1 << 10];
+			this.keys = new double[1 << 10];
+		}
+
+		Point[] run(long from, long to) {
+			if(!hasVertex(from) || !hasVertex(to)) return null;
+
+			int toX = (int)(to%width), toY = (int)(to/width);
+			int s = slotOf(from);
+			value[s] = 0; prev[s] = from;
+			push(s, heuristic(from, toX, toY));
+
+			while(heapSize > 0) {
+				int currS = poll();
+				if(isSettled[currS]) continue;
+				isSettled[currS] = true;
+				long currV = ids[currS];
+				if(currV == to) return buildPath(from, to);
+
+				// slotOf(...) may move the slots, so currS is not used below.
+				double currValue = value[currS];
+				int x = (int)(currV%width), y = (int)(currV/width);
+				Tile t = tileAt(x, y);
+				int local = (x - t.x0) + (y - t.y0)*t.tw;
+				for(int e = t.offsets[local];e < t.offsets[local+1];e++) {
+					int direction = t.directions[e];
+					long heir = currV + DX[direction] + (long)DY[direction]*width;
+
+					double currPath = currValue + t.weights[e];
+					int hs = slotOf(heir);
+					if(value[hs] > currPath) {
+						value[hs] = currPath;
+						prev[hs] = currV;
+						push(hs, currPath + heuristic(heir, toX, toY));
+					}
+				}
+			}
+			return null;
+		}
+
+		private boolean hasVertex(long id) {
+			int x = (int)(id%width), y = (int)(id/width);
+			Tile t = tileAt(x, y);
+			int local = (x - t.x0) + (y - t.y0)*t.tw;
+			return t.offsets[local+1] > t.offsets[local];
+		}
+
+		private Tile tileAt(int x, int y) {
+			if((tile == null) || (x < tile.x0) || (x >= tile.x0 + tile.tw)
+					|| (y < tile.y0) || (y >= tile.y0 + tile.th)) {
+				tile = tileOf(x, y);
+			}
+			return tile;
+		}
+
+		// The octile distance to the destination, see Graph.octileEstimate(...).
+		private double heuristic(long id, int toX, int toY) {
+			if(!isAStar) return 0;
+			int dx = Math.abs((int)(id%width) - toX);
+			int dy = Math.abs((int)(id/width) - toY);
+			int max = Math.max(dx, dy);
+			int min = Math.min(dx, dy);
+			return leastStraightWeight*((double)max - min) + leastDiagonalWeight*min;
+		}
+
+		private Point[] buildPath(long from, long to) {
+			int k = 0;
+			for(long i = to;i != from;i = prev[find(i)]) k++;
+			Point[] result = new Point[k+1];
+			long i = to;
+			for(int j = k;j >= 0;j--) {
+				result[j] = new Point((int)(i%width), (int)(i/width));
+				if(j > 0) i = prev[find(i)];
+			}
+			return result;
+		}
+
+		private void initTable(int capacity) {
+			ids = new long[capacity];
+			Arrays.fill(ids, -1);
+			value = new double[capacity];
+			Arrays.fill(value, Double.POSITIVE_INFINITY);
+			prev = new long[capacity];
+			isSettled = new boolean[capacity];
+			slots = 0;
+		}
+
+		// The slot of the vertex, which must be in the table.
+		private int find(long id) {
+			int mask = ids.length - 1;
+			int s = hash(id) & mask;
+			while(ids[s] != id) s = (s + 1) & mask;
+			return s;
+		}
+
+		// The slot of the vertex; a new one with infinite value if the vertex
+		//has not been reached yet. The table is doubled when it is half full,
+		//then the slots in the heap are moved too.
+		private int slotOf(long id) {
+			int mask = ids.length - 1;
+			int s = hash(id) & mask;
+			while(ids[s] != -1) {
+				if(ids[s] == id) return s;
+				s = (s + 1) & mask;
+			}
+			if(2*(slots + 1) > ids.length) {
+				grow();
+				return slotOf(id);
+			}
+			ids[s] = id;
+			slots++;
+			return s;
+		}
+
+		private void grow() {
+			long[] oldIds = ids; double[] oldValue = value;
+			long[] oldPrev = prev; boolean[] oldSettled = isSettled;
+			initTable(2*oldIds.length);
+			int[] moved = new int[oldIds.length];
+			for(int s = 0;s < oldIds.length;s++) {
+				if(oldIds[s] == -1) continue;
+				int n = slotOf(oldIds[s]);
+				value[n] = oldValue[s];
+				prev[n] = oldPrev[s];
+				isSettled[n] = oldSettled[s];
+				moved[s] = n;
+			}
+			for(int i = 0;i < heapSize;i++) heap[i] = moved[heap[i]];
+		}
+
+		private int hash(long id) {
+			long h = id*0x9e3779b97f4a7c15L;
+			return (int)(h ^ (h >>> 32));
+		}
+
+		private void push(int s, double key) {
+			if(heapSize == heap.length) {
+				heap = Arrays.copyOf(heap, 2*heapSize);
+				keys = Arrays.copyOf(keys, 2*heapSize);
+			}
+			int i = heapSize++;
+			while(i > 0) {
+				int parent = (i - 1) >>> 1;
+				if(keys[parent] <= key) break;
+				heap[i] = heap[parent]; keys[i] = keys[parent];
+				i = parent;
+			}
+			heap[i] = s; keys[i] = key;
+		}
+
+		private int poll() {
+			int top = heap[0];
+			int s = heap[--heapSize]; double key = keys[heapSize];
+			int i = 0;
+			while(true) {
+				int child = 2*i + 1;
+				if(child >= heapSize) break;
+				if((child + 1 < heapSize) && (keys[child+1] < keys[child])) child++;
+				if(keys[child] >= key) break;
+				heap[i] = heap[child]; keys[i] = keys[child];
+				i = child;
+			}
+			heap[i] = s; keys[i] = key;
+			return top;
+		}
+	}
+
+	/**
+	 * Writes the tiled map of the given image; the image is read in bands of
+	 *tile rows(with a row above and below for the heirs across the tiles), so
+	 *the whole image is never in the memory if its reader can read a region.
+	 * @param imageFile
+	 * @param tiledFile
+	 * @param tileSize
+	 * @param r - forbidden color - red saturation (0,1,...,127,-128,...,-1)
+	 * @param g - forbidden color - green saturation
+	 * @param b - forbidden color - blue saturation
+	 * @throws IOException if the image can not be read or the file written;
+	 *the part of the file written so far is deleted.
+	 * @throws IllegalArgumentException if tileSize is not positive or there
+	 *are too many tiles.
+	 */
+	static void write(File imageFile, File tiledFile, int tileSize, int r, int g, int b)
+			throws IOException {
+		if(tileSize <= 0) {
+			throw new IllegalArgumentException("The tile size must be positive!");
+		}
+		ImageInputStream in = ImageIO.createImageInputStream(imageFile);
+		if(in == null) throw new IOException("The image can not be read!");
+		RandomAccessFile out = null;
+		boolean isWritten = false;
+		try {
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+			if(!readers.hasNext()) throw new IOException("The image format is not known!");
+			ImageReader reader = readers.next();
+			reader.setInput(in);
+			int width = reader.getWidth(0), height = reader.getHeight(0);
+			int tilesX = (width + tileSize - 1)/tileSize;
+			int tilesY = (height + tileSize - 1)/tileSize;
+			if((long)tilesX*tilesY >= Integer.MAX_VALUE/8) {
+				throw new IllegalArgumentException("There are too many tiles!");
+			}
+
+			out = new RandomAccessFile(tiledFile, "rw");
+			out.setLength(0);
+			FileChannel channel = out.getChannel();
+			long[] tileAt = new long[tilesX*tilesY + 1];
+			long position = Map2File.aligned(HEADER_LENGTH + 8L*tileAt.length);
+			double[] least = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY};
+
+			int[] offsets = new int[tileSize*tileSize + 1];
+			byte[] directions = new byte[8*tileSize*tileSize];
+			float[] weights = new float[8*tileSize*tileSize];
+			int[] heirsOut = new int[8]; float[] weightsOut = new float[8];
+			for(int ty = 0;ty < tilesY;ty++) {
+				// The rows of the tiles and a row above and below them.
+				int bandY = Math.max(0, ty*tileSize - 1);
+				int bandHeight = Math.min(height, (ty + 1)*tileSize + 1) - bandY;
+				ImageReadParam param = reader.getDefaultReadParam();
+				param.setSourceRegion(new Rectangle(0, bandY, width, bandHeight));
+				BufferedImage band = reader.read(0, param);
+				byte[] pixels = (byte[]) band.getRaster().getDataElements(
+						0, 0, width, bandHeight, null);
+				ImageCsrBuilder rules = new ImageCsrBuilder(pixels,
+						band.getAlphaRaster() != null, width, bandHeight, r, g, b);
+
+				for(int tx = 0;tx < tilesX;tx++) {
+					int x0 = tx*tileSize, y0 = ty*tileSize;
+					int tw = Math.min(tileSize, width - x0);
+					int th = Math.min(tileSize, height - y0);
+					int edges = 0;
+					for(int ly = 0;ly < th;ly++) {
+						for(int lx = 0;lx < tw;lx++) {
+							int x = x0 + lx, y = y0 + ly - bandY;
+							offsets[lx + ly*tw] = edges;
+							int count = rules.heirsOf(x, y, heirsOut, weightsOut);
+							for(int i = 0;i < count;i++) {
+								int direction = directionOf(
+										heirsOut[i]%width - x, heirsOut[i]/width - y);
+								directions[edges] = (byte)direction;
+								weights[edges] = weightsOut[i];
+								int k = (direction < 4)? 0 : 1;
+								least[k] = Math.min(least[k], weightsOut[i]);
+								edges++;
+							}
+						}
+					}
+					offsets[tw*th] = edges;
+
+					tileAt[tx + ty*tilesX] = position;
+					ByteBuffer block = encodeTile(offsets, tw*th, directions, weights, edges);
+					while(block.hasRemaining()) {
+						position += channel.write(block, position);
+					}
+				}
+			}
+			tileAt[tileAt.length - 1] = position;
+
+			// The least weights the same way as Graph.initLeastWeights().
+			double straight = least[0], diagonal = least[1];
+			if(straight == Double.POSITIVE_INFINITY) straight = diagonal/2;
+			if(diagonal == Double.POSITIVE_INFINITY) diagonal = 2*straight;
+			if(straight == Double.POSITIVE_INFINITY) straight = diagonal = 0;
+			straight = Math.min(straight, diagonal);
+			diagonal = Math.min(diagonal, 2*straight);
+
+			ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH + 8*tileAt.length)
+					.order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(MAGIC).putInt(VERSION).putInt(width).putInt(height);
+			header.putInt(tileSize).putInt(tilesX).putInt(tilesY).putInt(0);
+			header.putDouble(straight).putDouble(diagonal);
+			header.asLongBuffer().put(tileAt);
+			header.position(0);
+			long at = 0;
+			while(header.hasRemaining()) {
+				at += channel.write(header, at);
+			}
+			
+			// A failed close may lose the written bytes, so it fails the map.
+			out.close();
+			isWritten = true;
+		}finally {
+			in.close();
+			if(out != null && !isWritten) {
+				try {
+					out.close();
+				} catch (IOException e) {
+					// The map has already failed, that is reported;
+				}
+				// Only a file this method has begun to write is deleted.
+				tiledFile.delete();
+			}
+		}
+	}
+
+	// The block of a tile: |edges|0|, offsets, directions and weights.
+	private static ByteBuffer encodeTile(int[] offsets, int n, byte[] directions,
+			float[] weights, int edges) {
+		int directionsAt = 8 + (int)Map2File.aligned(4L*(n + 1));
+		int weightsAt = directionsAt + (int)Map2File.aligned(edges);
+		ByteBuffer block = ByteBuffer.allocate(weightsAt + (int)Map2File.aligned(4L*edges))
+				.order(ByteOrder.LITTLE_ENDIAN);
+		block.putInt(0, edges);
+		block.position(8);
+		block.asIntBuffer().put(offsets, 0, n + 1);
+		block.position(directionsAt);
+		block.put(directions, 0, edges);
+		block.position(weightsAt);
+		block.asFloatBuffer().put(weights, 0, edges);
+		block.position(0);
+		return block;
+	}
+
+	private static int directionOf(int dx, int dy) {
+		for(int i = 0;i < 8;i++) {
+			if((DX[i] == dx) && (DY[i] == dy)) return i;
+		}
+		throw new IllegalStateException("The heir is not next to its vertex!");
+	}
+}
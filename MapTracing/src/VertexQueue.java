@@ -0,0 +1,39 @@
+/**
+ * A min-queue of the vertices of a Graph keyed by their values, the part of
+ *it Dijkstra's algorithm needs; see IndexedHeap and RadixHeap.
+ * @author dqdo
+ * @version 1.0
+ */
+interface VertexQueue {
+
+	boolean isEmpty();
+
+	int size();
+
+	/**
+	 * @return the greatest number of the vertices the queue has had at once
+	 *since it has been cleared.
+	 */
+	int getPeakSize();
+
+	/**
+	 * Inserts the vertex with the given key if it is not in the queue,
+	 *otherwise decreases its key if the given key is less.
+	 * @param vertex
+	 * @param key
+	 * @return true if the vertex has been inserted or its key decreased.
+	 */
+	boolean insertOrDecrease(int vertex, double key);
+
+	/**
+	 * Removes a vertex with the least key.
+	 * @return the removed vertex.
+	 * @throws java.util.NoSuchElementException if the queue is empty.
+	 */
+	int poll();
+
+	/**
+	 * Removes all the vertices from the queue.
+	 */
+	void clear();
+}
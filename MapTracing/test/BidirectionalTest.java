@@ -0,0 +1,84 @@
+import java.awt.Point;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Checks that shortestPathBidirectional(...), whose two searches share the
+ *pooled frontiers(value arrays written with lazySet and read by the other
+ *search), finds paths of the same cost as the serial shortestPathDijkstra(...)
+ *on map7.bmp: on one thread and on two, with every storage which sets the
+ *graph from an image, and with many callers at the same time. Run from the
+ *directory of the maps:
+ *	javac -d out src/*.java test/*.java
+ *	java -cp out BidirectionalTest
+ * @author dqdo
+ * @version 1.0
+ */
+public class BidirectionalTest {
+
+	private static final int THREADS = 6;
+
+	public static void main(String[] args) throws InterruptedException {
+		Graph graph = new Graph(Map7Queries.MAP, 0, 0, 0, Graph.Storage.CSR);
+		Map7Queries queries = new Map7Queries(graph, 60, 5);
+		for(Graph.Storage storage : new Graph.Storage[] {Graph.Storage.CSR,
+				Graph.Storage.LISTS, Graph.Storage.IMPLICIT}) {
+			Graph other = (storage == Graph.Storage.CSR)? graph
+					: new Graph(Map7Queries.MAP, 0, 0, 0, storage);
+			serialCallers(queries, other, storage.toString());
+		}
+		concurrentCallers(queries);
+		System.out.println("BidirectionalTest passed");
+	}
+
+	// Every query with the searches taking turns and on two threads.
+	private static void serialCallers(Map7Queries queries, Graph graph, String what) {
+		for(int i = 0;i < queries.pairs.length;i++) {
+			for(boolean isParallel : new boolean[] {false, true}) {
+				Point[] path = graph.shortestPathBidirectional(
+						queries.pairs[i][0], queries.pairs[i][1], isParallel);
+				queries.checkCost(i, queries.costOf(path),
+						what + (isParallel? " parallel" : " serial"));
+			}
+		}
+	}
+
+	// The threads run all the queries in their own orders at the same time,
+	//half of them with the parallel searches, so the pool hands the same
+	//frontiers to different threads one after another.
+	private static void concurrentCallers(final Map7Queries queries)
+			throws InterruptedException {
+		final CountDownLatch start = new CountDownLatch(1);
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		Thread[] threads = new Thread[THREADS];
+		for(int t = 0;t < THREADS;t++) {
+			final int shift = t;
+			threads[t] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						int n = queries.pairs.length;
+						for(int k = 0;k < n;k++) {
+							int i = (k*(shift + 1) + shift) % n;
+							Point[] path = queries.graph.shortestPathBidirectional(
+									queries.pairs[i][0], queries.pairs[i][1],
+									(k + shift) % 2 == 0);
+							queries.checkCost(i, queries.costOf(path), "concurrent");
+						}
+					}catch(Throwable e) {
+						failure.compareAndSet(null, e);
+					}
+				}
+			});
+			threads[t].start();
+		}
+		start.countDown();
+		for(Thread thread : threads) {
+			thread.join();
+		}
+		if(failure.get() != null) {
+			throw new AssertionError("concurrent callers: " + failure.get());
+		}
+	}
+}
@@ -0,0 +1,87 @@
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+/**
+ * Checks the component labels of Graph(see ComponentLabels); there is no
+ *test framework in the tree, so it is run as a program and throws an
+ *AssertionError at the first failure:
+ *	javac -d out src/*.java test/*.java
+ *	java -cp out ComponentLabelsTest
+ * @author dqdo
+ * @version 1.0
+ */
+public class ComponentLabelsTest {
+
+	public static void main(String[] args) throws IOException {
+		sinkHeirIsNotALabel();
+		wallSeparatesImage();
+		implicitIsOptIn();
+		System.out.println("ComponentLabelsTest passed");
+	}
+
+	// A human written map where the vertices 1 and 2 lead to the pixel 0,
+	//which has no line and so no vertex; the least index of the set is the
+	//null vertex 0, and its members must still get a label.
+	private static void sinkHeirIsNotALabel() throws IOException {
+		File file = File.createTempFile("sink", ".hmap");
+		file.deleteOnExit();
+		Writer writer = new OutputStreamWriter(new FileOutputStream(file), Charset.forName("UTF-8"));
+		try {
+			writer.write("HM 4 1\n1 0 1.0 n\n2 0 1.0 n\n3 2 1.0 n\n");
+		}finally {
+			writer.close();
+		}
+		Graph graph = new Graph(file, 0, 0, 0, Graph.Storage.CSR);
+		check(graph.getComponent(new Point(0, 0)) == -1, "the sink has no vertex");
+		int label = graph.getComponent(new Point(1, 0));
+		check(label == 0, "the first component is 0, not " + label);
+		check(graph.getComponent(new Point(2, 0)) == label, "1 and 2 share the sink");
+		check(graph.getComponent(new Point(3, 0)) == label, "3 leads to 2");
+		check(graph.getComponentCount() == 1, "one component, not " + graph.getComponentCount());
+	}
+
+	// A black column splits the image into two components, and the queries
+	//across it return null without a search.
+	private static void wallSeparatesImage() {
+		BufferedImage image = new BufferedImage(9, 5, BufferedImage.TYPE_3BYTE_BGR);
+		for(int y = 0;y < 5;y++) {
+			for(int x = 0;x < 9;x++) {
+				image.setRGB(x, y, (x == 4)? 0 : 0x808080);
+			}
+		}
+		for(Graph.Storage storage : new Graph.Storage[] {Graph.Storage.LISTS, Graph.Storage.CSR}) {
+			Graph graph = new Graph(image, 0, 0, 0, storage);
+			check(graph.getComponentCount() == 2, storage + ": two components");
+			check(graph.getComponent(new Point(0, 0)) != graph.getComponent(new Point(8, 4)),
+					storage + ": the wall separates them");
+			check(graph.shortestPathDijkstra(new Point(0, 0), new Point(8, 4)) == null,
+					storage + ": no path across the wall");
+			Point snapped = graph.snapToComponent(new Point(8, 2), new Point(0, 0));
+			check(snapped.equals(new Point(3, 2)), storage + ": snapped to " + snapped);
+		}
+	}
+
+	// An IMPLICIT graph labels the components only when it is asked to.
+	private static void implicitIsOptIn() {
+		BufferedImage image = new BufferedImage(9, 5, BufferedImage.TYPE_3BYTE_BGR);
+		for(int y = 0;y < 5;y++) {
+			for(int x = 0;x < 9;x++) {
+				image.setRGB(x, y, (x == 4)? 0 : 0x808080);
+			}
+		}
+		Graph graph = new Graph(image, 0, 0, 0, Graph.Storage.IMPLICIT);
+		check(graph.shortestPathDijkstra(new Point(0, 0), new Point(8, 4)) == null,
+				"IMPLICIT: no path across the wall");
+		check(graph.getComponentCount() == 2, "IMPLICIT: two components");
+	}
+
+	private static void check(boolean condition, String message) {
+		if(!condition) throw new AssertionError(message);
+	}
+}
@@ -0,0 +1,106 @@
+import java.awt.Point;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Checks that shortestPathsFrom(...), which relaxes the edges of a bucket
+ *in parallel with compare-and-set on the distances(see DeltaStepping),
+ *finds the same distances as the serial shortestPathDijkstra(...) on
+ *map7.bmp: with the tuned delta and with a small and a big one, and with
+ *many callers at the same time. Run from the directory of the maps:
+ *	javac -d out src/*.java test/*.java
+ *	java -cp out DeltaSteppingTest
+ * @author dqdo
+ * @version 1.0
+ */
+public class DeltaSteppingTest {
+
+	private static final int SOURCES = 4;
+	private static final int THREADS = 4;
+
+	public static void main(String[] args) throws InterruptedException {
+		Graph graph = new Graph(Map7Queries.MAP, 0, 0, 0, Graph.Storage.CSR);
+		Map7Queries queries = new Map7Queries(graph, 40, 3);
+		// The distances from the first sources to all the destinations.
+		double[][] costs = new double[SOURCES][queries.pairs.length];
+		for(int s = 0;s < SOURCES;s++) {
+			for(int i = 0;i < queries.pairs.length;i++) {
+				costs[s][i] = queries.costOf(graph.shortestPathDijkstra(
+						queries.pairs[s][0], queries.pairs[i][1]));
+			}
+		}
+		ForkJoinPool pool = new ForkJoinPool(THREADS);
+		try {
+			deltas(queries, costs, pool);
+			concurrentCallers(queries, costs);
+		}finally {
+			pool.shutdown();
+		}
+		System.out.println("DeltaSteppingTest passed");
+	}
+
+	// Any delta gives the same distances.
+	private static void deltas(Map7Queries queries, double[][] costs,
+			ForkJoinPool pool) {
+		Point source = queries.pairs[0][0];
+		double tuned = queries.graph.shortestPathsFrom(source).getDelta();
+		for(double delta : new double[] {tuned, 1, 10000}) {
+			for(int s = 0;s < SOURCES;s++) {
+				SingleSourcePaths paths = queries.graph.shortestPathsFrom(
+						queries.pairs[s][0], pool, delta);
+				checkDistances(queries, costs[s], paths, "delta " + delta);
+			}
+		}
+	}
+
+	// The threads search from all the sources at the same time, each on the
+	//shared pool of the graph.
+	private static void concurrentCallers(final Map7Queries queries,
+			final double[][] costs) throws InterruptedException {
+		final CountDownLatch start = new CountDownLatch(1);
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		Thread[] threads = new Thread[THREADS];
+		for(int t = 0;t < THREADS;t++) {
+			final int shift = t;
+			threads[t] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						for(int k = 0;k < SOURCES;k++) {
+							int s = (k + shift) % SOURCES;
+							SingleSourcePaths paths =
+									queries.graph.shortestPathsFrom(queries.pairs[s][0]);
+							checkDistances(queries, costs[s], paths, "concurrent");
+						}
+					}catch(Throwable e) {
+						failure.compareAndSet(null, e);
+					}
+				}
+			});
+			threads[t].start();
+		}
+		start.countDown();
+		for(Thread thread : threads) {
+			thread.join();
+		}
+		if(failure.get() != null) {
+			throw new AssertionError("concurrent callers: " + failure.get());
+		}
+	}
+
+	// The distances to the destinations of all the pairs, and the costs of
+	//the paths to them.
+	private static void checkDistances(Map7Queries queries, double[] costs,
+			SingleSourcePaths paths, String what) {
+		for(int i = 0;i < queries.pairs.length;i++) {
+			Point to = queries.pairs[i][1];
+			double distance = paths.distanceTo(to);
+			Map7Queries.check(distance == costs[i], what + ": " + paths.getSource()
+					+ "->" + to + " is " + distance + ", Dijkstra " + costs[i]);
+			Map7Queries.check(queries.costOf(paths.pathTo(to)) == distance,
+					what + ": the path to " + to + " costs another distance");
+		}
+	}
+}
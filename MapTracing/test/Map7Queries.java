@@ -0,0 +1,89 @@
+import java.awt.Point;
+import java.io.File;
+import java.util.Random;
+
+/**
+ * Seeded queries on map7.bmp and their costs by the serial
+ *Graph.shortestPathDijkstra(...), which the tests of the other searches
+ *compare with. The tests are run from the directory of the maps:
+ *	java -cp out SearchContextTest
+ * @author dqdo
+ * @version 1.0
+ */
+class Map7Queries {
+
+	static final File MAP = new File("map7.bmp");
+
+	final Graph graph;
+	final Point[][] pairs;
+	// The cost of the shortest path of every pair; infinity if there is no
+	//path.
+	final double[] costs;
+
+	/**
+	 * Picks the pairs among the pixels with a vertex, so some of them are in
+	 *different components, and finds their paths with Dijkstra.
+	 * @param graph - the graph of MAP.
+	 * @param count - the number of the pairs.
+	 * @param seed
+	 */
+	Map7Queries(Graph graph, int count, long seed) {
+		this.graph = graph;
+		pairs = new Point[count][];
+		costs = new double[count];
+		Random random = new Random(seed);
+		for(int i = 0;i < count;) {
+			Point from = new Point(random.nextInt(graph.getWidth()),
+					random.nextInt(graph.getHeight()));
+			Point to = new Point(random.nextInt(graph.getWidth()),
+					random.nextInt(graph.getHeight()));
+			if(!graph.hasVertex(graph.vertexAt(from))
+					|| !graph.hasVertex(graph.vertexAt(to))) {
+				continue;
+			}
+			pairs[i] = new Point[] {from, to};
+			costs[i] = costOf(graph.shortestPathDijkstra(from, to));
+			i++;
+		}
+	}
+
+	/**
+	 * @param path - a path of the graph, zero element is the start point.
+	 * @return the sum of the weights of the path; infinity if it is null.
+	 * @throws AssertionError if two following points of the path are not an
+	 *edge of the graph.
+	 */
+	double costOf(Point[] path) {
+		if(path == null) return Double.POSITIVE_INFINITY;
+		int[] heirsOut = new int[graph.getMaxHeirs()];
+		float[] weightsOut = new float[graph.getMaxHeirs()];
+		double cost = 0;
+		for(int i = 1;i < path.length;i++) {
+			int u = graph.vertexAt(path[i-1]);
+			int v = graph.vertexAt(path[i]);
+			int count = graph.expand(u, heirsOut, weightsOut);
+			int e = 0;
+			while((e < count) && (heirsOut[e] != v)) e++;
+			check(e < count, "no edge " + path[i-1] + "->" + path[i]);
+			cost += weightsOut[e];
+		}
+		return cost;
+	}
+
+	/**
+	 * Checks the cost of a path found for the pair i.
+	 * @param i
+	 * @param cost
+	 * @param what - the search, for the message.
+	 */
+	void checkCost(int i, double cost, String what) {
+		boolean isSame = (cost == costs[i])
+				|| (Math.abs(cost - costs[i]) <= 1e-9*Math.max(1, costs[i]));
+		check(isSame, what + ": " + pairs[i][0] + "->" + pairs[i][1]
+				+ " costs " + cost + ", Dijkstra " + costs[i]);
+	}
+
+	static void check(boolean condition, String message) {
+		if(!condition) throw new AssertionError(message);
+	}
+}
@@ -0,0 +1,135 @@
+import java.awt.Point;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Checks that the searches which keep their state in the pooled, epoch
+ *stamped SearchContext objects find paths of the same cost as the serial
+ *shortestPathDijkstra(...) on map7.bmp: when a context is reused by many
+ *queries one after another, and when many threads search the same graph
+ *at the same time. Run from the directory of the maps:
+ *	javac -d out src/*.java test/*.java
+ *	java -cp out SearchContextTest
+ * @author dqdo
+ * @version 1.0
+ */
+public class SearchContextTest {
+
+	private static final int THREADS = 8;
+
+	public static void main(String[] args) throws InterruptedException {
+		Graph graph = new Graph(Map7Queries.MAP, 0, 0, 0, Graph.Storage.CSR);
+		Map7Queries queries = new Map7Queries(graph, 60, 11);
+		reusedContexts(queries);
+		concurrentCallers(queries);
+		batchQueries(queries);
+		System.out.println("SearchContextTest passed");
+	}
+
+	// The queries of every kind one after another on one thread, twice, so
+	//the contexts are reused with stale stamps of the queries before.
+	private static void reusedContexts(Map7Queries queries) {
+		for(int round = 0;round < 2;round++) {
+			for(int i = 0;i < queries.pairs.length;i++) {
+				search(queries, i, i + round);
+			}
+		}
+	}
+
+	// Every thread runs all the queries in its own order and with its own
+	//kinds of search, all of them at the same time on the same graph.
+	private static void concurrentCallers(final Map7Queries queries)
+			throws InterruptedException {
+		final CountDownLatch start = new CountDownLatch(1);
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		Thread[] threads = new Thread[THREADS];
+		for(int t = 0;t < THREADS;t++) {
+			final int shift = t;
+			threads[t] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						int n = queries.pairs.length;
+						for(int k = 0;k < n;k++) {
+							int i = (k*(shift + 1) + shift) % n;
+							search(queries, i, k + shift);
+						}
+					}catch(Throwable e) {
+						failure.compareAndSet(null, e);
+					}
+				}
+			});
+			threads[t].start();
+		}
+		start.countDown();
+		for(Thread thread : threads) {
+			thread.join();
+		}
+		if(failure.get() != null) {
+			throw new AssertionError("concurrent callers: " + failure.get());
+		}
+	}
+
+	// shortestPaths(...) runs the queries as tasks of a pool, with and
+	//without grouping them by the start point.
+	private static void batchQueries(Map7Queries queries) {
+		List<Point[]> pairs = new ArrayList<Point[]>(Arrays.asList(queries.pairs));
+		// Pairs which share the start points, for the grouping.
+		for(int i = 0;i < queries.pairs.length;i++) {
+			pairs.add(new Point[] {queries.pairs[i % 5][0], queries.pairs[i][1]});
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		try {
+			for(boolean isGrouped : new boolean[] {false, true}) {
+				List<Point[]> paths = queries.graph.shortestPaths(pairs, executor, isGrouped);
+				for(int i = 0;i < queries.pairs.length;i++) {
+					queries.checkCost(i, queries.costOf(paths.get(i)),
+							"shortestPaths grouped " + isGrouped);
+				}
+				for(int i = 0;i < queries.pairs.length;i++) {
+					Point[] pair = pairs.get(queries.pairs.length + i);
+					double cost = queries.costOf(
+							queries.graph.shortestPathDijkstra(pair[0], pair[1]));
+					Map7Queries.check(
+							queries.costOf(paths.get(queries.pairs.length + i)) == cost,
+							"shortestPaths grouped " + isGrouped + ": "
+							+ pair[0] + "->" + pair[1]);
+				}
+			}
+		}finally {
+			executor.shutdown();
+		}
+	}
+
+	// Runs the query i with one of the searches which take a SearchContext.
+	private static void search(Map7Queries queries, int i, int kind) {
+		Graph graph = queries.graph;
+		Point from = queries.pairs[i][0], to = queries.pairs[i][1];
+		switch(kind % 4) {
+		case 0:
+			queries.checkCost(i, queries.costOf(graph.shortestPathDijkstra(from, to)),
+					"Dijkstra");
+			break;
+		case 1:
+			queries.checkCost(i, queries.costOf(graph.shortestPathDijkstra(from, to,
+					Graph.QueueType.RADIX)), "Dijkstra with the radix heap");
+			break;
+		case 2:
+			queries.checkCost(i, queries.costOf(graph.shortestPathAStar(from, to)), "A*");
+			break;
+		default:
+			PathResult result = graph.findPath(from, to);
+			double cost = (result == null)? Double.POSITIVE_INFINITY : result.getCost();
+			queries.checkCost(i, cost, "findPath");
+			if(result != null) {
+				queries.checkCost(i, queries.costOf(result.toPoints()), "findPath points");
+			}
+		}
+	}
+}